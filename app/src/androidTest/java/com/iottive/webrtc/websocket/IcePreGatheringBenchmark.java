@@ -0,0 +1,248 @@
+package com.iottive.webrtc.websocket;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.webrtc.DataChannel;
+import org.webrtc.IceCandidate;
+import org.webrtc.MediaConstraints;
+import org.webrtc.MediaStream;
+import org.webrtc.MediaStreamTrack;
+import org.webrtc.PeerConnection;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.SdpObserver;
+import org.webrtc.SessionDescription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// Compares time-to-first-candidate and time-to-connected of a caller whose peer connection is
+// created when the offer is made with one that was created, with a candidate pool, while a room join
+// of JOIN_MS was in progress. Uses the ICE servers of the last join if there is one, a public STUN
+// server otherwise. The callee is a second peer connection in the same process.
+@RunWith(AndroidJUnit4.class)
+public class IcePreGatheringBenchmark {
+    private static final String TAG = "IcePreGatheringBench";
+    private static final int RUNS = 5;
+    private static final long JOIN_MS = 1500;
+    private static final long TIMEOUT_MS = 20000;
+
+    private static class SdpResult implements SdpObserver {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile SessionDescription description;
+        volatile String error;
+
+        @Override
+        public void onCreateSuccess(SessionDescription desc) {
+            description = desc;
+            done.countDown();
+        }
+
+        @Override
+        public void onSetSuccess() {
+            done.countDown();
+        }
+
+        @Override
+        public void onCreateFailure(String error) {
+            this.error = error;
+            done.countDown();
+        }
+
+        @Override
+        public void onSetFailure(String error) {
+            this.error = error;
+            done.countDown();
+        }
+
+        SessionDescription await() throws InterruptedException {
+            assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            assertNull(error, error);
+            return description;
+        }
+    }
+
+    // Forwards local candidates to the other endpoint once it has a remote description.
+    private static class Endpoint implements PeerConnection.Observer {
+        final CountDownLatch connected = new CountDownLatch(1);
+        final List<IceCandidate> pendingRemoteCandidates = new ArrayList<>();
+        volatile long firstCandidateNs;
+        PeerConnection peerConnection;
+        Endpoint remote;
+        boolean remoteDescriptionSet;
+
+        void setRemoteDescription(SessionDescription desc) throws InterruptedException {
+            SdpResult result = new SdpResult();
+            peerConnection.setRemoteDescription(result, desc);
+            result.await();
+            synchronized (this) {
+                remoteDescriptionSet = true;
+                for (IceCandidate candidate : pendingRemoteCandidates) {
+                    peerConnection.addIceCandidate(candidate);
+                }
+                pendingRemoteCandidates.clear();
+            }
+        }
+
+        synchronized void addRemoteCandidate(IceCandidate candidate) {
+            if (remoteDescriptionSet) {
+                peerConnection.addIceCandidate(candidate);
+            } else {
+                pendingRemoteCandidates.add(candidate);
+            }
+        }
+
+        @Override
+        public void onIceCandidate(IceCandidate candidate) {
+            if (firstCandidateNs == 0) {
+                firstCandidateNs = System.nanoTime();
+            }
+            remote.addRemoteCandidate(candidate);
+        }
+
+        @Override
+        public void onIceConnectionChange(PeerConnection.IceConnectionState newState) {
+            if (newState == PeerConnection.IceConnectionState.CONNECTED
+                    || newState == PeerConnection.IceConnectionState.COMPLETED) {
+                connected.countDown();
+            }
+        }
+
+        @Override
+        public void onSignalingChange(PeerConnection.SignalingState newState) {
+        }
+
+        @Override
+        public void onIceConnectionReceivingChange(boolean receiving) {
+        }
+
+        @Override
+        public void onIceGatheringChange(PeerConnection.IceGatheringState newState) {
+        }
+
+        @Override
+        public void onIceCandidatesRemoved(IceCandidate[] candidates) {
+        }
+
+        @Override
+        public void onAddStream(MediaStream stream) {
+        }
+
+        @Override
+        public void onRemoveStream(MediaStream stream) {
+        }
+
+        @Override
+        public void onDataChannel(DataChannel dataChannel) {
+        }
+
+        @Override
+        public void onRenegotiationNeeded() {
+        }
+    }
+
+    @Test
+    public void firstCandidateAndConnectedLatency() throws InterruptedException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        PeerConnectionFactoryPool.Lease lease = PeerConnectionFactoryPool.getInstance(context)
+                .acquireFactory(PeerConnectionFactoryPool.Config.createDefault(),
+                        description -> Log.w(TAG, description));
+        List<PeerConnection.IceServer> iceServers =
+                IceServerCache.getInstance(context).getLastUsed();
+        if (iceServers == null) {
+            iceServers = Collections.singletonList(
+                    PeerConnection.IceServer.builder("stun:stun.l.google.com:19302").createIceServer());
+        }
+        try {
+            long[][] withoutMs = new long[2][RUNS];
+            long[][] withMs = new long[2][RUNS];
+            for (int i = 0; i < RUNS; i++) {
+                call(lease.getFactory(), iceServers, false, withoutMs, i);
+                call(lease.getFactory(), iceServers, true, withMs, i);
+            }
+            Log.i(TAG, "Without pre-gathering: first candidate median " + median(withoutMs[0])
+                    + " ms " + Arrays.toString(withoutMs[0]) + ", connected median "
+                    + median(withoutMs[1]) + " ms " + Arrays.toString(withoutMs[1]));
+            Log.i(TAG, "With pre-gathering: first candidate median " + median(withMs[0])
+                    + " ms " + Arrays.toString(withMs[0]) + ", connected median "
+                    + median(withMs[1]) + " ms " + Arrays.toString(withMs[1]));
+        } finally {
+            lease.release();
+        }
+    }
+
+    // Stores the time from the offer to the first local candidate and to ICE connected in
+    // results[0][run] and results[1][run].
+    private static void call(PeerConnectionFactory factory, List<PeerConnection.IceServer> iceServers,
+                             boolean preGather, long[][] results, int run) throws InterruptedException {
+        Endpoint caller = new Endpoint();
+        Endpoint callee = new Endpoint();
+        caller.remote = callee;
+        callee.remote = caller;
+        if (preGather) {
+            caller.peerConnection =
+                    factory.createPeerConnection(createRtcConfig(iceServers, 1), caller);
+            SystemClock.sleep(JOIN_MS);
+        }
+        long startNs = System.nanoTime();
+        if (!preGather) {
+            caller.peerConnection =
+                    factory.createPeerConnection(createRtcConfig(iceServers, 0), caller);
+        }
+        callee.peerConnection = factory.createPeerConnection(createRtcConfig(iceServers, 0), callee);
+        try {
+            caller.peerConnection.addTransceiver(MediaStreamTrack.MediaType.MEDIA_TYPE_AUDIO);
+            SdpResult offer = new SdpResult();
+            caller.peerConnection.createOffer(offer, new MediaConstraints());
+            SdpResult setOffer = new SdpResult();
+            caller.peerConnection.setLocalDescription(setOffer, offer.await());
+            setOffer.await();
+            callee.setRemoteDescription(offer.description);
+
+            SdpResult answer = new SdpResult();
+            callee.peerConnection.createAnswer(answer, new MediaConstraints());
+            SdpResult setAnswer = new SdpResult();
+            callee.peerConnection.setLocalDescription(setAnswer, answer.await());
+            setAnswer.await();
+            caller.setRemoteDescription(answer.description);
+
+            assertTrue(caller.connected.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            results[1][run] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+            results[0][run] = TimeUnit.NANOSECONDS.toMillis(caller.firstCandidateNs - startNs);
+        } finally {
+            caller.peerConnection.dispose();
+            callee.peerConnection.dispose();
+        }
+    }
+
+    private static PeerConnection.RTCConfiguration createRtcConfig(
+            List<PeerConnection.IceServer> iceServers, int candidatePoolSize) {
+        PeerConnection.RTCConfiguration rtcConfig = new PeerConnection.RTCConfiguration(iceServers);
+        rtcConfig.tcpCandidatePolicy = PeerConnection.TcpCandidatePolicy.DISABLED;
+        rtcConfig.bundlePolicy = PeerConnection.BundlePolicy.MAXBUNDLE;
+        rtcConfig.rtcpMuxPolicy = PeerConnection.RtcpMuxPolicy.REQUIRE;
+        rtcConfig.continualGatheringPolicy = PeerConnection.ContinualGatheringPolicy.GATHER_CONTINUALLY;
+        rtcConfig.keyType = PeerConnection.KeyType.ECDSA;
+        rtcConfig.sdpSemantics = PeerConnection.SdpSemantics.UNIFIED_PLAN;
+        rtcConfig.iceCandidatePoolSize = candidatePoolSize;
+        return rtcConfig;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,261 @@
+package com.iottive.webrtc.websocket;
+
+import android.content.Context;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.webrtc.CapturerObserver;
+import org.webrtc.IceCandidate;
+import org.webrtc.JavaI420Buffer;
+import org.webrtc.PeerConnection;
+import org.webrtc.SessionDescription;
+import org.webrtc.SurfaceTextureHelper;
+import org.webrtc.VideoCapturer;
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoSink;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+// Adds peers to a mesh session one at a time and logs process CPU and memory after each. The far
+// ends are peers of a second, receive-only session in the same process, connected through a
+// loopback signaling stand-in, so the numbers include decoding on the far side.
+@RunWith(AndroidJUnit4.class)
+public class MeshSessionBenchmark {
+    private static final String TAG = "MeshSessionBenchmark";
+    private static final int MAX_PEERS = 4;
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 360;
+    private static final int FPS = 30;
+    private static final long CONNECT_TIMEOUT_MS = 20000;
+    private static final long SETTLE_MS = 3000;
+    private static final long MEASURE_MS = 10000;
+
+    // Hands each session's descriptions and candidates to the other session under the same peer id.
+    private static class LoopbackSignaling implements MeshSession.MeshEvents {
+        private final String name;
+        private final Map<String, CountDownLatch> connected = new HashMap<>();
+        private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private volatile MeshSession remote;
+
+        LoopbackSignaling(String name) {
+            this.name = name;
+        }
+
+        synchronized CountDownLatch getConnectedLatch(String remoteClientId) {
+            CountDownLatch latch = connected.get(remoteClientId);
+            if (latch == null) {
+                latch = new CountDownLatch(1);
+                connected.put(remoteClientId, latch);
+            }
+            return latch;
+        }
+
+        @Override
+        public void onLocalDescription(String remoteClientId, SessionDescription desc) {
+            remote.setRemoteDescription(remoteClientId, desc);
+        }
+
+        @Override
+        public void onIceCandidate(String remoteClientId, IceCandidate candidate) {
+            remote.addRemoteIceCandidate(remoteClientId, candidate);
+        }
+
+        @Override
+        public void onIceCandidatesRemoved(String remoteClientId, IceCandidate[] candidates) {
+            remote.removeRemoteIceCandidates(remoteClientId, candidates);
+        }
+
+        @Override
+        public void onPeerConnected(String remoteClientId) {
+            getConnectedLatch(remoteClientId).countDown();
+        }
+
+        @Override
+        public void onPeerDisconnected(String remoteClientId) {
+            Log.w(TAG, name + ": " + remoteClientId + " disconnected.");
+        }
+
+        @Override
+        public void onPeerError(String remoteClientId, String description) {
+            errors.add(remoteClientId + ": " + description);
+        }
+
+        @Override
+        public void onSessionError(String description) {
+            // Audio capture may be unavailable on the test device, video still flows.
+            Log.w(TAG, name + ": " + description);
+        }
+
+        @Override
+        public void onSessionClosed() {
+            closed.countDown();
+        }
+    }
+
+    // Produces frames with a moving bar so that the encoders do real work.
+    private static class SyntheticVideoCapturer implements VideoCapturer {
+        private Handler handler;
+        private CapturerObserver observer;
+        private volatile boolean capturing;
+        private int width;
+        private int height;
+        private long frameIntervalMs;
+        private int frameCount;
+
+        private final Runnable captureTask = new Runnable() {
+            @Override
+            public void run() {
+                if (!capturing) {
+                    return;
+                }
+                JavaI420Buffer buffer = JavaI420Buffer.allocate(width, height);
+                ByteBuffer y = buffer.getDataY();
+                int barX = (frameCount * 8) % width;
+                for (int row = 0; row < height; row++) {
+                    for (int col = 0; col < width; col++) {
+                        y.put(row * buffer.getStrideY() + col,
+                                (byte) (Math.abs(col - barX) < 16 ? 235 : (row + frameCount) & 0x7f));
+                    }
+                }
+                VideoFrame frame = new VideoFrame(buffer, 0, SystemClock.elapsedRealtimeNanos());
+                observer.onFrameCaptured(frame);
+                frame.release();
+                frameCount++;
+                handler.postDelayed(this, frameIntervalMs);
+            }
+        };
+
+        @Override
+        public void initialize(SurfaceTextureHelper surfaceTextureHelper, Context context,
+                               CapturerObserver capturerObserver) {
+            handler = surfaceTextureHelper.getHandler();
+            observer = capturerObserver;
+        }
+
+        @Override
+        public void startCapture(int width, int height, int framerate) {
+            this.width = width;
+            this.height = height;
+            frameIntervalMs = 1000 / framerate;
+            capturing = true;
+            observer.onCapturerStarted(true);
+            handler.post(captureTask);
+        }
+
+        @Override
+        public void stopCapture() {
+            capturing = false;
+            handler.removeCallbacks(captureTask);
+            observer.onCapturerStopped();
+        }
+
+        @Override
+        public void changeCaptureFormat(int width, int height, int framerate) {
+        }
+
+        @Override
+        public void dispose() {
+        }
+
+        @Override
+        public boolean isScreencast() {
+            return false;
+        }
+    }
+
+    private static class CountingSink implements VideoSink {
+        final AtomicInteger frames = new AtomicInteger();
+
+        @Override
+        public void onFrame(VideoFrame frame) {
+            frames.incrementAndGet();
+        }
+    }
+
+    private static PeerConnectionClient.PeerConnectionParameters createParameters() {
+        return new PeerConnectionClient.PeerConnectionParameters(true, false, false, WIDTH, HEIGHT,
+                FPS, 0, "VP8", false, false, 0, "OPUS", false, false, false, false, false, false,
+                false, false, false, 0, 0, null);
+    }
+
+    @Test
+    public void costPerAddedPeer() throws InterruptedException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        PeerConnectionFactoryPool factoryPool = PeerConnectionFactoryPool.getInstance(context);
+        LoopbackSignaling hostSignaling = new LoopbackSignaling("host");
+        LoopbackSignaling farSignaling = new LoopbackSignaling("far");
+        MeshSession host = new MeshSession(context, factoryPool, createParameters(), hostSignaling);
+        MeshSession far = new MeshSession(context, factoryPool, createParameters(), farSignaling);
+        hostSignaling.remote = far;
+        farSignaling.remote = host;
+        List<PeerConnection.IceServer> iceServers = Collections.emptyList();
+        host.start(null, new SyntheticVideoCapturer(), iceServers);
+        far.start(null, null, iceServers);
+
+        List<CountingSink> sinks = new ArrayList<>();
+        double previousCpuPercent = measureCpuPercent();
+        long previousPssKb = Debug.getPss();
+        Log.i(TAG, String.format(Locale.US, "0 peers: cpu %.1f%%, pss %d KB",
+                previousCpuPercent, previousPssKb));
+        for (int peers = 1; peers <= MAX_PEERS; peers++) {
+            String peerId = "peer-" + peers;
+            CountingSink sink = new CountingSink();
+            sinks.add(sink);
+            far.addPeer(peerId, false, sink);
+            host.addPeer(peerId, true, null);
+            assertTrue(peerId + " did not connect", hostSignaling.getConnectedLatch(peerId)
+                    .await(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            Thread.sleep(SETTLE_MS);
+
+            double cpuPercent = measureCpuPercent();
+            long pssKb = Debug.getPss();
+            Log.i(TAG, String.format(Locale.US,
+                    "%d peers: cpu %.1f%% (+%.1f), pss %d KB (+%d), native heap %d KB",
+                    peers, cpuPercent, cpuPercent - previousCpuPercent, pssKb,
+                    pssKb - previousPssKb, Debug.getNativeHeapAllocatedSize() / 1024));
+            previousCpuPercent = cpuPercent;
+            previousPssKb = pssKb;
+        }
+        assertEquals(MAX_PEERS, host.getPeerCount());
+        for (CountingSink sink : sinks) {
+            assertTrue(sink.frames.get() > 0);
+        }
+        assertTrue(hostSignaling.errors.toString(), hostSignaling.errors.isEmpty());
+        Log.i(TAG, host.getExecutorStats().toString());
+
+        host.close();
+        far.close();
+        assertTrue(hostSignaling.closed.await(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(farSignaling.closed.await(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    // Process CPU time over the window as a percentage of one core.
+    private static double measureCpuPercent() throws InterruptedException {
+        long cpuStartMs = Process.getElapsedCpuTime();
+        long wallStartMs = SystemClock.elapsedRealtime();
+        Thread.sleep(MEASURE_MS);
+        long cpuMs = Process.getElapsedCpuTime() - cpuStartMs;
+        long wallMs = SystemClock.elapsedRealtime() - wallStartMs;
+        return 100.0 * cpuMs / wallMs;
+    }
+}
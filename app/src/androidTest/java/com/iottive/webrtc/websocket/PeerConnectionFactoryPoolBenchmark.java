@@ -0,0 +1,76 @@
+package com.iottive.webrtc.websocket;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.webrtc.EglBase;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.audio.AudioDeviceModule;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// Compares the factory setup of back-to-back calls with and without the pool. Without it every
+// call initializes the library, builds the audio device module and codec factories and disposes
+// them again, with it the factory prewarmed by the application is leased.
+@RunWith(AndroidJUnit4.class)
+public class PeerConnectionFactoryPoolBenchmark {
+    private static final String TAG = "FactoryPoolBenchmark";
+    private static final int CALLS = 10;
+
+    @Test
+    public void setupLatency() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        PeerConnectionFactoryPool.Config config = PeerConnectionFactoryPool.Config.createDefault();
+        PeerConnectionFactoryPool.AudioErrorListener errorListener =
+                description -> Log.w(TAG, description);
+
+        long[] unpooledMs = new long[CALLS];
+        for (int i = 0; i < CALLS; i++) {
+            long startNs = System.nanoTime();
+            EglBase eglBase = EglBase.create();
+            PeerConnectionFactory.initialize(
+                    PeerConnectionFactory.InitializationOptions.builder(context)
+                            .setFieldTrials(config.fieldTrials)
+                            .createInitializationOptions());
+            AudioDeviceModule adm = PeerConnectionClient.createJavaAudioDevice(
+                    context, true, true, null, errorListener);
+            PeerConnectionFactory factory =
+                    PeerConnectionClient.createFactory(eglBase, true, false, null, adm);
+            adm.release();
+            unpooledMs[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+            factory.dispose();
+            eglBase.release();
+        }
+
+        PeerConnectionFactoryPool pool = PeerConnectionFactoryPool.getInstance(context);
+        long[] pooledMs = new long[CALLS];
+        for (int i = 0; i < CALLS; i++) {
+            long startNs = System.nanoTime();
+            pool.acquireEglBase();
+            PeerConnectionFactoryPool.Lease lease = pool.acquireFactory(config, errorListener);
+            pooledMs[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+            assertNotNull(lease.getFactory());
+            lease.release();
+            pool.releaseEglBase();
+        }
+
+        Log.i(TAG, "Without pool: median " + median(unpooledMs) + " ms, "
+                + Arrays.toString(unpooledMs));
+        Log.i(TAG, "With pool: median " + median(pooledMs) + " ms, " + Arrays.toString(pooledMs));
+        assertTrue(median(pooledMs) <= median(unpooledMs));
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
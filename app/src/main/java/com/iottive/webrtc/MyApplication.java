@@ -3,6 +3,8 @@ package com.iottive.webrtc;
 import android.app.Application;
 import android.content.Context;
 
+import com.iottive.webrtc.websocket.PeerConnectionFactoryPool;
+
 public class MyApplication extends Application {
 
     public static Context getContext;
@@ -11,5 +13,21 @@ public class MyApplication extends Application {
     public void onCreate() {
         super.onCreate();
         getContext = this;
+        // Builds the factory for the default call settings in the background, so that the first
+        // call does not wait for native and codec initialization.
+        PeerConnectionFactoryPool.getInstance(this)
+                .prewarm(PeerConnectionFactoryPool.Config.createDefault());
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        PeerConnectionFactoryPool.getInstance(this).onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        PeerConnectionFactoryPool.getInstance(this).onTrimMemory(TRIM_MEMORY_COMPLETE);
     }
 }
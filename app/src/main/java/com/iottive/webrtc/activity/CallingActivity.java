@@ -14,6 +14,7 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.PowerManager;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.View;
@@ -30,11 +31,21 @@ import com.iottive.webrtc.util.ToastUtil;
 import com.iottive.webrtc.websocket.apprtc.AppRTCAudioManager;
 import com.iottive.webrtc.websocket.apprtc.AppRTCClient;
 import com.iottive.webrtc.fragment.CallFragment;
+import com.iottive.webrtc.websocket.CallController;
 import com.iottive.webrtc.websocket.CpuMonitor;
 import com.iottive.webrtc.websocket.DirectRTCClient;
+import com.iottive.webrtc.websocket.DtlsCertificateCache;
+import com.iottive.webrtc.websocket.IceCandidateBatcher;
+import com.iottive.webrtc.websocket.IceServerCache;
+import com.iottive.webrtc.websocket.JoinTimeline;
 import com.iottive.webrtc.websocket.PeerConnectionClient;
+import com.iottive.webrtc.websocket.PeerConnectionFactoryPool;
+import com.iottive.webrtc.websocket.UiEventBatcher;
 import com.iottive.webrtc.websocket.UnhandledExceptionHandler;
 import com.iottive.webrtc.websocket.WebSocketRTCClient;
+import com.iottive.webrtc.websocket.adaptation.CaptureFormatLadder;
+import com.iottive.webrtc.websocket.video.AsyncVideoSink;
+import com.iottive.webrtc.websocket.video.VideoFrameRouter;
 
 
 import org.webrtc.Camera1Enumerator;
@@ -42,37 +53,41 @@ import org.webrtc.Camera2Enumerator;
 import org.webrtc.CameraEnumerator;
 import org.webrtc.EglBase;
 import org.webrtc.FileVideoCapturer;
-import org.webrtc.IceCandidate;
 import org.webrtc.Logging;
 import org.webrtc.PeerConnectionFactory;
 import org.webrtc.RendererCommon.ScalingType;
 import org.webrtc.ScreenCapturerAndroid;
-import org.webrtc.SessionDescription;
-import org.webrtc.StatsReport;
 import org.webrtc.VideoCapturer;
 import org.webrtc.VideoFileRenderer;
 import org.webrtc.VideoFrame;
 import org.webrtc.VideoSink;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Set;
 
+import static com.iottive.webrtc.util.Constant.EXTRA_ADAPTIVE_BITRATE;
 import static com.iottive.webrtc.util.Constant.EXTRA_AECDUMP_ENABLED;
 import static com.iottive.webrtc.util.Constant.EXTRA_AUDIOCODEC;
 import static com.iottive.webrtc.util.Constant.EXTRA_AUDIO_BITRATE;
 import static com.iottive.webrtc.util.Constant.EXTRA_CAMERA2;
 import static com.iottive.webrtc.util.Constant.EXTRA_CAPTURETOTEXTURE_ENABLED;
+import static com.iottive.webrtc.util.Constant.EXTRA_CAPTURE_FORMAT_LADDER;
 import static com.iottive.webrtc.util.Constant.EXTRA_CMDLINE;
 import static com.iottive.webrtc.util.Constant.EXTRA_DATA_CHANNEL_ENABLED;
+import static com.iottive.webrtc.util.Constant.EXTRA_DIRECT_BINARY_FRAMING;
+import static com.iottive.webrtc.util.Constant.EXTRA_DIRECT_NIO_TRANSPORT;
 import static com.iottive.webrtc.util.Constant.EXTRA_DISABLE_BUILT_IN_AEC;
 import static com.iottive.webrtc.util.Constant.EXTRA_DISABLE_BUILT_IN_AGC;
 import static com.iottive.webrtc.util.Constant.EXTRA_DISABLE_BUILT_IN_NS;
 import static com.iottive.webrtc.util.Constant.EXTRA_DISABLE_WEBRTC_AGC_AND_HPF;
+import static com.iottive.webrtc.util.Constant.EXTRA_DTLS_CERTIFICATE_CACHE;
 import static com.iottive.webrtc.util.Constant.EXTRA_ENABLE_RTCEVENTLOG;
+import static com.iottive.webrtc.util.Constant.EXTRA_FACTORY_POOL;
 import static com.iottive.webrtc.util.Constant.EXTRA_FLEXFEC_ENABLED;
 import static com.iottive.webrtc.util.Constant.EXTRA_HWCODEC_ENABLED;
+import static com.iottive.webrtc.util.Constant.EXTRA_ICE_CANDIDATE_BATCH_DELAY_MS;
+import static com.iottive.webrtc.util.Constant.EXTRA_ICE_CANDIDATE_BATCH_SIZE;
+import static com.iottive.webrtc.util.Constant.EXTRA_ICE_PRE_GATHERING;
 import static com.iottive.webrtc.util.Constant.EXTRA_ID;
 import static com.iottive.webrtc.util.Constant.EXTRA_LOOPBACK;
 import static com.iottive.webrtc.util.Constant.EXTRA_MAX_RETRANSMITS;
@@ -81,6 +96,7 @@ import static com.iottive.webrtc.util.Constant.EXTRA_NEGOTIATED;
 import static com.iottive.webrtc.util.Constant.EXTRA_NOAUDIOPROCESSING_ENABLED;
 import static com.iottive.webrtc.util.Constant.EXTRA_OPENSLES_ENABLED;
 import static com.iottive.webrtc.util.Constant.EXTRA_ORDERED;
+import static com.iottive.webrtc.util.Constant.EXTRA_PROBE_ICE_SERVERS;
 import static com.iottive.webrtc.util.Constant.EXTRA_PROTOCOL;
 import static com.iottive.webrtc.util.Constant.EXTRA_ROOMID;
 import static com.iottive.webrtc.util.Constant.EXTRA_RUNTIME;
@@ -89,6 +105,7 @@ import static com.iottive.webrtc.util.Constant.EXTRA_SAVE_REMOTE_VIDEO_TO_FILE;
 import static com.iottive.webrtc.util.Constant.EXTRA_SAVE_REMOTE_VIDEO_TO_FILE_HEIGHT;
 import static com.iottive.webrtc.util.Constant.EXTRA_SAVE_REMOTE_VIDEO_TO_FILE_WIDTH;
 import static com.iottive.webrtc.util.Constant.EXTRA_SCREENCAPTURE;
+import static com.iottive.webrtc.util.Constant.EXTRA_SPECULATIVE_OFFER;
 import static com.iottive.webrtc.util.Constant.EXTRA_TRACING;
 import static com.iottive.webrtc.util.Constant.EXTRA_URLPARAMETERS;
 import static com.iottive.webrtc.util.Constant.EXTRA_VIDEOCODEC;
@@ -97,10 +114,11 @@ import static com.iottive.webrtc.util.Constant.EXTRA_VIDEO_CALL;
 import static com.iottive.webrtc.util.Constant.EXTRA_VIDEO_FILE_AS_CAMERA;
 import static com.iottive.webrtc.util.Constant.EXTRA_VIDEO_FPS;
 import static com.iottive.webrtc.util.Constant.EXTRA_VIDEO_HEIGHT;
+import static com.iottive.webrtc.util.Constant.EXTRA_VIDEO_SIMULCAST_LAYERS;
+import static com.iottive.webrtc.util.Constant.EXTRA_VIDEO_TEMPORAL_LAYERS;
 import static com.iottive.webrtc.util.Constant.EXTRA_VIDEO_WIDTH;
 
-public class CallingActivity extends Activity implements AppRTCClient.SignalingEvents,
-        PeerConnectionClient.PeerConnectionEvents,
+public class CallingActivity extends Activity implements CallController.Listener,
         OnCallEvents, View.OnClickListener {
     private static final String TAG = "CallingActivity";
 
@@ -111,30 +129,39 @@ public class CallingActivity extends Activity implements AppRTCClient.SignalingE
             "android.permission.RECORD_AUDIO", "android.permission.INTERNET"};
 
     private static final int STAT_CALLBACK_PERIOD = 1000;
+    private static final int VIDEO_FILE_SINK_CAPACITY = 3;
+    // VideoFileRenderer converts on its render thread and writes on its file thread, one frame
+    // may be in each.
+    private static final int VIDEO_FILE_SINK_FRAMES_IN_FLIGHT = 2;
 
 
-    private static class ProxyVideoSink implements VideoSink {
-        private VideoSink target;
+    // Marks the first remote frame on the join timeline, then detaches itself.
+    private static class FirstFrameTimelineSink implements VideoSink {
+        private final VideoFrameRouter router;
+        private final JoinTimeline timeline;
 
-        @Override
-        synchronized public void onFrame(VideoFrame frame) {
-            if (target == null) {
-                Logging.d(TAG, "Dropping frame in proxy because target is null.");
-                return;
-            }
-
-            target.onFrame(frame);
+        FirstFrameTimelineSink(VideoFrameRouter router, JoinTimeline timeline) {
+            this.router = router;
+            this.timeline = timeline;
         }
 
-        synchronized public void setTarget(VideoSink target) {
-            this.target = target;
+        @Override
+        public void onFrame(VideoFrame frame) {
+            if (timeline.mark(JoinTimeline.Stage.FIRST_REMOTE_FRAME)) {
+                Log.i(TAG, "Join timeline: " + timeline);
+            }
+            router.removeSink(this);
         }
     }
 
-    private final ProxyVideoSink remoteProxyRenderer = new ProxyVideoSink();
-    private final ProxyVideoSink localProxyVideoSink = new ProxyVideoSink();
+    private final VideoFrameRouter remoteFrameRouter = new VideoFrameRouter();
+    private final VideoFrameRouter localFrameRouter = new VideoFrameRouter();
+    private CallController callController;
     @Nullable
     private PeerConnectionClient peerConnectionClient;
+    // Keeps the factory and the EGL context for later calls, null when disabled.
+    @Nullable
+    private PeerConnectionFactoryPool factoryPool;
     @Nullable
     private AppRTCClient appRtcClient;
     @Nullable
@@ -143,7 +170,12 @@ public class CallingActivity extends Activity implements AppRTCClient.SignalingE
     private AppRTCAudioManager audioManager;
     @Nullable
     private VideoFileRenderer videoFileRenderer;
-    private final List<VideoSink> remoteSinks = new ArrayList<>();
+    // Keeps disk writes of the recorder off the decoder thread.
+    @Nullable
+    private AsyncVideoSink videoFileSink;
+    // Capturer opened while the room request is in flight, handed over to the peer connection.
+    @Nullable
+    private VideoCapturer videoCapturer;
     private boolean commandLineRun;
     private boolean activityRunning;
     private AppRTCClient.RoomConnectionParameters roomConnectionParameters;
@@ -177,6 +209,7 @@ public class CallingActivity extends Activity implements AppRTCClient.SignalingE
         setContentView(binding.getRoot());
         connected = false;
         signalingParameters = null;
+        callController = new CallController(this, UiEventBatcher.createForMainThread());
 
         // Create UI controls.
         InitUI();
@@ -192,11 +225,13 @@ public class CallingActivity extends Activity implements AppRTCClient.SignalingE
         binding.pipVideoView.setOnClickListener(this::onClick);
         binding.fullscreenVideoView.setOnClickListener(this::onClick);
         callFragment = new CallFragment();
-        remoteSinks.add(remoteProxyRenderer);
 
 
         final Intent intent = getIntent();
-        final EglBase eglBase = EglBase.create();
+        if (intent.getBooleanExtra(EXTRA_FACTORY_POOL, true)) {
+            factoryPool = PeerConnectionFactoryPool.getInstance(getApplicationContext());
+        }
+        final EglBase eglBase = factoryPool != null ? factoryPool.acquireEglBase() : EglBase.create();
 
         // Create video renderers.
         binding.pipVideoView.init(eglBase.getEglBaseContext(), null);
@@ -209,7 +244,10 @@ public class CallingActivity extends Activity implements AppRTCClient.SignalingE
             try {
                 videoFileRenderer = new VideoFileRenderer(
                         saveRemoteVideoToFile, videoOutWidth, videoOutHeight, eglBase.getEglBaseContext());
-                remoteSinks.add(videoFileRenderer);
+                videoFileSink = new AsyncVideoSink(videoFileRenderer, "VideoFileSink",
+                        VIDEO_FILE_SINK_CAPACITY, VIDEO_FILE_SINK_FRAMES_IN_FLIGHT,
+                        AsyncVideoSink.DropPolicy.DROP_OLDEST);
+                remoteFrameRouter.addSink(videoFileSink);
             } catch (IOException e) {
                 throw new RuntimeException(
                         "Failed to open video file for output: " + saveRemoteVideoToFile, e);
@@ -307,7 +345,9 @@ public class CallingActivity extends Activity implements AppRTCClient.SignalingE
                         intent.getBooleanExtra(EXTRA_DISABLE_BUILT_IN_AGC, false),
                         intent.getBooleanExtra(EXTRA_DISABLE_BUILT_IN_NS, false),
                         intent.getBooleanExtra(EXTRA_DISABLE_WEBRTC_AGC_AND_HPF, false),
-                        intent.getBooleanExtra(EXTRA_ENABLE_RTCEVENTLOG, false), dataChannelParameters);
+                        intent.getBooleanExtra(EXTRA_ENABLE_RTCEVENTLOG, false),
+                        intent.getIntExtra(EXTRA_VIDEO_SIMULCAST_LAYERS, 0),
+                        intent.getIntExtra(EXTRA_VIDEO_TEMPORAL_LAYERS, 0), dataChannelParameters);
         commandLineRun = intent.getBooleanExtra(EXTRA_CMDLINE, false);
         int runTimeMs = intent.getIntExtra(EXTRA_RUNTIME, 0);
 
@@ -316,15 +356,19 @@ public class CallingActivity extends Activity implements AppRTCClient.SignalingE
         // Create connection client. Use DirectRTCClient if room name is an IP otherwise use the
         // standard WebSocketRTCClient.
         if (loopback || !DirectRTCClient.IP_PATTERN.matcher(roomId).matches()) {
-            appRtcClient = new WebSocketRTCClient(this);
+            appRtcClient = new WebSocketRTCClient(callController);
         } else {
             Log.i(TAG, "Using DirectRTCClient because room name looks like an IP.");
-            appRtcClient = new DirectRTCClient(this);
+            appRtcClient = new DirectRTCClient(callController, intent.getBooleanExtra(EXTRA_DIRECT_NIO_TRANSPORT, false),
+                    intent.getBooleanExtra(EXTRA_DIRECT_BINARY_FRAMING, true));
         }
         // Create connection parameters.
         String urlParameters = intent.getStringExtra(EXTRA_URLPARAMETERS);
         roomConnectionParameters =
-                new AppRTCClient.RoomConnectionParameters(roomUri.toString(), roomId, loopback, urlParameters);
+                new AppRTCClient.RoomConnectionParameters(roomUri.toString(), roomId, loopback, urlParameters,
+                        intent.getIntExtra(EXTRA_ICE_CANDIDATE_BATCH_SIZE, IceCandidateBatcher.DEFAULT_MAX_BATCH_SIZE),
+                        intent.getIntExtra(EXTRA_ICE_CANDIDATE_BATCH_DELAY_MS, IceCandidateBatcher.DEFAULT_MAX_DELAY_MS),
+                        intent.getBooleanExtra(EXTRA_PROBE_ICE_SERVERS, true));
 
         // Create CPU monitor
         if (CpuMonitor.isSupported()) {
@@ -349,13 +393,27 @@ public class CallingActivity extends Activity implements AppRTCClient.SignalingE
         }
 
         // Create peer connection client.
-        peerConnectionClient = new PeerConnectionClient(
-                getApplicationContext(), eglBase, peerConnectionParameters, CallingActivity.this);
+        peerConnectionClient = new PeerConnectionClient(getApplicationContext(), eglBase,
+                peerConnectionParameters, callController, factoryPool);
+        callController.setAppRtcClient(appRtcClient);
+        callController.setPeerConnectionClient(peerConnectionClient, peerConnectionParameters.videoMaxBitrate);
+        callController.setJoinTimeline(roomConnectionParameters.joinTimeline);
         PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
         if (loopback) {
             options.networkIgnoreMask = 0;
         }
+        peerConnectionClient.setJoinTimeline(roomConnectionParameters.joinTimeline);
+        if (getIntent().getBooleanExtra(EXTRA_DTLS_CERTIFICATE_CACHE, true)) {
+            peerConnectionClient.setCertificateCache(
+                    DtlsCertificateCache.getInstance(getApplicationContext()));
+        }
+        remoteFrameRouter.addSink(new FirstFrameTimelineSink(
+                remoteFrameRouter, roomConnectionParameters.joinTimeline));
         peerConnectionClient.createPeerConnectionFactory(options);
+        if (getIntent().getBooleanExtra(EXTRA_ICE_PRE_GATHERING, true)) {
+            peerConnectionClient.preGatherIceCandidates(
+                    IceServerCache.getInstance(getApplicationContext()));
+        }
     }
 
     @TargetApi(17)
@@ -534,11 +592,27 @@ public class CallingActivity extends Activity implements AppRTCClient.SignalingE
             return;
         }
         callStartedTimeMs = System.currentTimeMillis();
+        callController.setCallStartedTimeMs(callStartedTimeMs);
 
         // Start room connection.
         logAndToast(getString(R.string.connecting_to, roomConnectionParameters.roomUrl));
         appRtcClient.connectToRoom(roomConnectionParameters);
 
+        // The capturer does not depend on the room response, open it while the room request is in flight.
+        if (peerConnectionParameters.videoCallEnabled && videoCapturer == null) {
+            videoCapturer = createVideoCapturer();
+            if (videoCapturer != null) {
+                roomConnectionParameters.joinTimeline.mark(JoinTimeline.Stage.CAPTURER_CREATED);
+            }
+        }
+        // Set up the local media and a provisional offer before the room answers.
+        if (peerConnectionClient != null && getIntent().getBooleanExtra(EXTRA_SPECULATIVE_OFFER, true)) {
+            peerConnectionClient.createSpeculativeOffer(
+                    localFrameRouter, remoteFrameRouter, videoCapturer);
+            // The peer connection client owns the capturer from here on.
+            videoCapturer = null;
+        }
+
         audioManager = AppRTCAudioManager.create(getApplicationContext());
 
         Log.d(TAG, "Starting the audio manager...");
@@ -560,9 +634,27 @@ public class CallingActivity extends Activity implements AppRTCClient.SignalingE
             return;
         }
         peerConnectionClient.enableStatsEvents(true, STAT_CALLBACK_PERIOD);
+        if (getIntent().getBooleanExtra(EXTRA_ADAPTIVE_BITRATE, true)) {
+            peerConnectionClient.startAdaptiveBitrate(
+                    cpuMonitor != null ? cpuMonitor::getCpuUsageCurrent : null);
+        }
+        if (getIntent().getBooleanExtra(EXTRA_CAPTURE_FORMAT_LADDER, true)) {
+            peerConnectionClient.startCaptureFormatLadder(
+                    cpuMonitor != null ? cpuMonitor::getCpuUsageCurrent : null,
+                    createThermalStatusSource());
+        }
         setSwappedFeeds(false /* isSwappedFeeds */);
     }
 
+    @Nullable
+    private CaptureFormatLadder.ThermalStatusSource createThermalStatusSource() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return null;
+        }
+        final PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        return powerManager::getCurrentThermalStatus;
+    }
+
     private void onAudioManagerDevicesChanged(
             final AppRTCAudioManager.AudioDevice device, final Set<AppRTCAudioManager.AudioDevice> availableDevices) {
         Log.d(TAG, "onAudioManagerDevicesChanged: " + availableDevices + ", "
@@ -572,8 +664,9 @@ public class CallingActivity extends Activity implements AppRTCClient.SignalingE
 
     private void disconnect() {
         activityRunning = false;
-        remoteProxyRenderer.setTarget(null);
-        localProxyVideoSink.setTarget(null);
+        callController.close();
+        remoteFrameRouter.clear();
+        localFrameRouter.clear();
         if (appRtcClient != null) {
             appRtcClient.disconnectFromRoom();
             appRtcClient = null;
@@ -581,6 +674,10 @@ public class CallingActivity extends Activity implements AppRTCClient.SignalingE
         if (binding.pipVideoView != null) {
             binding.pipVideoView.release();
         }
+        if (videoFileSink != null) {
+            videoFileSink.release();
+            videoFileSink = null;
+        }
         if (videoFileRenderer != null) {
             videoFileRenderer.release();
             videoFileRenderer = null;
@@ -589,8 +686,16 @@ public class CallingActivity extends Activity implements AppRTCClient.SignalingE
             binding.fullscreenVideoView.release();
         }
         if (peerConnectionClient != null) {
+            // Releases the EGL context once capture is disposed on the client executor.
             peerConnectionClient.close();
             peerConnectionClient = null;
+        } else if (factoryPool != null) {
+            factoryPool.releaseEglBase();
+        }
+        factoryPool = null;
+        if (videoCapturer != null) {
+            videoCapturer.dispose();
+            videoCapturer = null;
         }
         if (audioManager != null) {
             audioManager.stop();
@@ -678,227 +783,54 @@ public class CallingActivity extends Activity implements AppRTCClient.SignalingE
     private void setSwappedFeeds(boolean isSwappedFeeds) {
         Logging.d(TAG, "setSwappedFeeds: " + isSwappedFeeds);
         this.isSwappedFeeds = isSwappedFeeds;
-        localProxyVideoSink.setTarget(isSwappedFeeds ? binding.fullscreenVideoView : binding.pipVideoView);
-        remoteProxyRenderer.setTarget(isSwappedFeeds ? binding.pipVideoView : binding.fullscreenVideoView);
+        localFrameRouter.setTarget(isSwappedFeeds ? binding.fullscreenVideoView : binding.pipVideoView);
+        remoteFrameRouter.setTarget(isSwappedFeeds ? binding.pipVideoView : binding.fullscreenVideoView);
         binding.fullscreenVideoView.setMirror(isSwappedFeeds);
         binding.pipVideoView.setMirror(!isSwappedFeeds);
     }
 
 
-    private void onConnectedToRoomInternal(final AppRTCClient.SignalingParameters params) {
-        final long delta = System.currentTimeMillis() - callStartedTimeMs;
-
-        signalingParameters = params;
-        logAndToast("Creating peer connection, delay=" + delta + "ms");
-        VideoCapturer videoCapturer = null;
-        if (peerConnectionParameters.videoCallEnabled) {
-            videoCapturer = createVideoCapturer();
-        }
-        peerConnectionClient.createPeerConnection(
-                localProxyVideoSink, remoteSinks, videoCapturer, signalingParameters);
-
-        if (signalingParameters.initiator) {
-            logAndToast("Creating OFFER...");
-            peerConnectionClient.createOffer();
-        } else {
-            if (params.offerSdp != null) {
-                peerConnectionClient.setRemoteDescription(params.offerSdp);
-                logAndToast("Creating ANSWER...");
-                peerConnectionClient.createAnswer();
-            }
-            if (params.iceCandidates != null) {
-                // Add remote ICE candidates from room.
-                for (IceCandidate iceCandidate : params.iceCandidates) {
-                    peerConnectionClient.addRemoteIceCandidate(iceCandidate);
-                }
-            }
-        }
-    }
+    // CallController.Listener, called on the main thread.
 
     @Override
     public void onConnectedToRoom(final AppRTCClient.SignalingParameters params) {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                onConnectedToRoomInternal(params);
-            }
-        });
-    }
-
-    @Override
-    public void onRemoteDescription(final SessionDescription desc) {
-        final long delta = System.currentTimeMillis() - callStartedTimeMs;
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if (peerConnectionClient == null) {
-                    Log.e(TAG, "Received remote SDP for non-initilized peer connection.");
-                    return;
-                }
-                logAndToast("Received remote " + desc.type + ", delay=" + delta + "ms");
-                peerConnectionClient.setRemoteDescription(desc);
-                if (!signalingParameters.initiator) {
-                    logAndToast("Creating ANSWER...");
-                    peerConnectionClient.createAnswer();
-                }
-            }
-        });
-    }
-
-    @Override
-    public void onRemoteIceCandidate(final IceCandidate candidate) {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if (peerConnectionClient == null) {
-                    Log.e(TAG, "Received ICE candidate for a non-initialized peer connection.");
-                    return;
-                }
-                peerConnectionClient.addRemoteIceCandidate(candidate);
-            }
-        });
-    }
-
-    @Override
-    public void onRemoteIceCandidatesRemoved(final IceCandidate[] candidates) {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if (peerConnectionClient == null) {
-                    Log.e(TAG, "Received ICE candidate removals for a non-initialized peer connection.");
-                    return;
-                }
-                peerConnectionClient.removeRemoteIceCandidates(candidates);
-            }
-        });
-    }
-
-    @Override
-    public void onChannelClose() {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                logAndToast("Remote end hung up; dropping PeerConnection");
-                disconnect();
-            }
-        });
-    }
-
-    @Override
-    public void onChannelError(final String description) {
-        reportError(description);
-    }
-
-    @Override
-    public void onLocalDescription(final SessionDescription desc) {
-        final long delta = System.currentTimeMillis() - callStartedTimeMs;
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if (appRtcClient != null) {
-                    logAndToast("Sending " + desc.type + ", delay=" + delta + "ms");
-                    if (signalingParameters.initiator) {
-                        appRtcClient.sendOfferSdp(desc);
-                    } else {
-                        appRtcClient.sendAnswerSdp(desc);
-                    }
-                }
-                if (peerConnectionParameters.videoMaxBitrate > 0) {
-                    Log.d(TAG, "Set video maximum bitrate: " + peerConnectionParameters.videoMaxBitrate);
-                    peerConnectionClient.setVideoMaxBitrate(peerConnectionParameters.videoMaxBitrate);
-                }
-            }
-        });
-    }
-
-    @Override
-    public void onIceCandidate(final IceCandidate candidate) {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if (appRtcClient != null) {
-                    appRtcClient.sendLocalIceCandidate(candidate);
-                }
-            }
-        });
-    }
-
-    @Override
-    public void onIceCandidatesRemoved(final IceCandidate[] candidates) {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if (appRtcClient != null) {
-                    appRtcClient.sendLocalIceCandidateRemovals(candidates);
-                }
-            }
-        });
-    }
-
-    @Override
-    public void onIceConnected() {
+        if (peerConnectionClient == null) {
+            return;
+        }
         final long delta = System.currentTimeMillis() - callStartedTimeMs;
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                logAndToast("ICE connected, delay=" + delta + "ms");
-            }
-        });
-    }
 
-    @Override
-    public void onIceDisconnected() {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                logAndToast("ICE disconnected");
-            }
-        });
+        signalingParameters = params;
+        logAndToast("Creating peer connection, delay=" + delta + "ms");
+        peerConnectionClient.createPeerConnection(
+                localFrameRouter, remoteFrameRouter, videoCapturer, signalingParameters);
+        // The peer connection client owns the capturer from here on.
+        videoCapturer = null;
     }
 
     @Override
-    public void onConnected() {
-        final long delta = System.currentTimeMillis() - callStartedTimeMs;
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                logAndToast("DTLS connected, delay=" + delta + "ms");
-                connected = true;
-                callConnected();
-            }
-        });
+    public void onCallStatus(String message) {
+        logAndToast(message);
     }
 
     @Override
-    public void onDisconnected() {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                logAndToast("DTLS disconnected");
-                connected = false;
-                disconnect();
-            }
-        });
+    public void onCallConnected() {
+        connected = true;
+        callConnected();
     }
 
     @Override
-    public void onPeerConnectionClosed() {
+    public void onCallDisconnected() {
+        connected = false;
+        disconnect();
     }
 
     @Override
-    public void onPeerConnectionStatsReady(final StatsReport[] reports) {
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if (!isError && connected) {
-
-                }
-            }
-        });
+    public void onRemoteHangUp() {
+        disconnect();
     }
 
     @Override
-    public void onPeerConnectionError(final String description) {
+    public void onCallError(String description) {
         reportError(description);
     }
 }
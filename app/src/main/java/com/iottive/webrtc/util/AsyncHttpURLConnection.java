@@ -1,16 +1,41 @@
 package com.iottive.webrtc.util;
 
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.util.Scanner;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AsyncHttpURLConnection {
+    private static final String TAG = "AsyncHttpURLConnection";
     private static final int HTTP_TIMEOUT_MS = 8000;
     private static final String HTTP_ORIGIN = "https://appr.tc";
+    @VisibleForTesting
+    static final int MAX_HTTP_THREADS = 4;
+    private static final int HTTP_THREAD_KEEP_ALIVE_SECONDS = 30;
+    private static final int DRAIN_BUFFER_SIZE = 8192;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final ExecutorService executor = createExecutor();
+    @Nullable
+    private static volatile HttpMetricsListener metricsListener;
+
     private final String method;
     private final String url;
     private final String message;
@@ -23,6 +48,37 @@ public class AsyncHttpURLConnection {
         void onHttpComplete(String response);
     }
 
+    public interface HttpMetricsListener {
+        void onHttpRequestMetrics(HttpRequestMetrics metrics);
+    }
+
+    public static class HttpRequestMetrics {
+        public final String method;
+        public final String url;
+        public final int responseCode;
+        public final long dnsMs;
+        public final long connectMs;
+        public final long timeToFirstByteMs;
+        public final long totalMs;
+
+        HttpRequestMetrics(String method, String url, int responseCode, long dnsMs, long connectMs,
+                           long timeToFirstByteMs, long totalMs) {
+            this.method = method;
+            this.url = url;
+            this.responseCode = responseCode;
+            this.dnsMs = dnsMs;
+            this.connectMs = connectMs;
+            this.timeToFirstByteMs = timeToFirstByteMs;
+            this.totalMs = totalMs;
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + url + " -> " + responseCode + ". DNS: " + dnsMs + " ms. Connect: "
+                    + connectMs + " ms. TTFB: " + timeToFirstByteMs + " ms. Total: " + totalMs + " ms";
+        }
+    }
+
     public AsyncHttpURLConnection(String method, String url, String message, AsyncHttpEvents events) {
         this.method = method;
         this.url = url;
@@ -30,20 +86,52 @@ public class AsyncHttpURLConnection {
         this.events = events;
     }
 
+    public static void setMetricsListener(@Nullable HttpMetricsListener listener) {
+        metricsListener = listener;
+    }
+
     public void setContentType(String contentType) {
         this.contentType = contentType;
     }
 
     public void send() {
-        new Thread(this::sendHttpMessage).start();
+        executor.execute(this::sendHttpMessage);
+    }
+
+    // Runs blocking HTTP work that does not fit the request/callback model on the shared pool.
+    public static <T> Future<T> submit(Callable<T> task) {
+        return executor.submit(task);
+    }
+
+    private static ExecutorService createExecutor() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_HTTP_THREADS, MAX_HTTP_THREADS,
+                HTTP_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "AsyncHttp-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
     }
 
     private void sendHttpMessage() {
+        final long startNs = System.nanoTime();
         try {
-            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            URL requestUrl = new URL(url);
+            // Resolving up front lets DNS time be reported separately, the connection then
+            // hits the resolver cache.
+            InetAddress.getByName(requestUrl.getHost());
+            final long dnsDoneNs = System.nanoTime();
+
+            HttpURLConnection connection = (HttpURLConnection) requestUrl.openConnection();
             byte[] postData = new byte[0];
             if (message != null) {
-                postData = message.getBytes("UTF-8");
+                postData = message.getBytes(UTF_8);
             }
             connection.setRequestMethod(method);
             connection.setUseCaches(false);
@@ -63,6 +151,8 @@ public class AsyncHttpURLConnection {
             } else {
                 connection.setRequestProperty("Content-Type", contentType);
             }
+            connection.connect();
+            final long connectDoneNs = System.nanoTime();
 
             // Send POST request.
             if (doOutput && postData.length > 0) {
@@ -72,16 +162,20 @@ public class AsyncHttpURLConnection {
             }
 
             int responseCode = connection.getResponseCode();
+            final long firstByteNs = System.nanoTime();
             if (responseCode != 200) {
                 events.onHttpError("Non-200 response to " + method + " to URL: " + url + " : "
                         + connection.getHeaderField(null));
                 connection.disconnect();
+                reportMetrics(responseCode, startNs, dnsDoneNs, connectDoneNs, firstByteNs);
                 return;
             }
+            // The stream is read to the end and closed without disconnect() so the socket goes back
+            // to the keep-alive pool for the next request to the same host.
             InputStream responseStream = connection.getInputStream();
-            String response = drainStream(responseStream);
+            String response = drainStream(responseStream, connection.getContentLength());
             responseStream.close();
-            connection.disconnect();
+            reportMetrics(responseCode, startNs, dnsDoneNs, connectDoneNs, firstByteNs);
             events.onHttpComplete(response);
         } catch (SocketTimeoutException e) {
             events.onHttpError("HTTP " + method + " to " + url + " timeout");
@@ -90,8 +184,29 @@ public class AsyncHttpURLConnection {
         }
     }
 
-    private static String drainStream(InputStream in) {
-        Scanner s = new Scanner(in, "UTF-8").useDelimiter("\\A");
-        return s.hasNext() ? s.next() : "";
+    private void reportMetrics(
+            int responseCode, long startNs, long dnsDoneNs, long connectDoneNs, long firstByteNs) {
+        final long endNs = System.nanoTime();
+        HttpRequestMetrics metrics = new HttpRequestMetrics(method, url, responseCode,
+                TimeUnit.NANOSECONDS.toMillis(dnsDoneNs - startNs),
+                TimeUnit.NANOSECONDS.toMillis(connectDoneNs - dnsDoneNs),
+                TimeUnit.NANOSECONDS.toMillis(firstByteNs - connectDoneNs),
+                TimeUnit.NANOSECONDS.toMillis(endNs - startNs));
+        Log.d(TAG, metrics.toString());
+        HttpMetricsListener listener = metricsListener;
+        if (listener != null) {
+            listener.onHttpRequestMetrics(metrics);
+        }
+    }
+
+    public static String drainStream(InputStream in, int contentLength) throws IOException {
+        ByteArrayOutputStream out =
+                new ByteArrayOutputStream(contentLength > 0 ? contentLength : DRAIN_BUFFER_SIZE);
+        byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), UTF_8);
     }
 }
@@ -51,5 +51,22 @@ public class Constant {
     public static final String EXTRA_NEGOTIATED = "com.iottive.webrtc.NEGOTIATED";
     public static final String EXTRA_ID = "com.iottive.webrtc.ID";
     public static final String EXTRA_ENABLE_RTCEVENTLOG = "com.iottive.webrtc.ENABLE_RTCEVENTLOG";
+    public static final String EXTRA_ICE_CANDIDATE_BATCH_SIZE =
+            "com.iottive.webrtc.ICE_CANDIDATE_BATCH_SIZE";
+    public static final String EXTRA_ICE_CANDIDATE_BATCH_DELAY_MS =
+            "com.iottive.webrtc.ICE_CANDIDATE_BATCH_DELAY_MS";
+    public static final String EXTRA_DIRECT_NIO_TRANSPORT = "com.iottive.webrtc.DIRECT_NIO_TRANSPORT";
+    public static final String EXTRA_DIRECT_BINARY_FRAMING =
+            "com.iottive.webrtc.DIRECT_BINARY_FRAMING";
+    public static final String EXTRA_ADAPTIVE_BITRATE = "com.iottive.webrtc.ADAPTIVE_BITRATE";
+    public static final String EXTRA_VIDEO_SIMULCAST_LAYERS = "com.iottive.webrtc.VIDEO_SIMULCAST_LAYERS";
+    public static final String EXTRA_VIDEO_TEMPORAL_LAYERS = "com.iottive.webrtc.VIDEO_TEMPORAL_LAYERS";
+    public static final String EXTRA_CAPTURE_FORMAT_LADDER = "com.iottive.webrtc.CAPTURE_FORMAT_LADDER";
+    public static final String EXTRA_FACTORY_POOL = "com.iottive.webrtc.FACTORY_POOL";
+    public static final String EXTRA_DTLS_CERTIFICATE_CACHE =
+            "com.iottive.webrtc.DTLS_CERTIFICATE_CACHE";
+    public static final String EXTRA_ICE_PRE_GATHERING = "com.iottive.webrtc.ICE_PRE_GATHERING";
+    public static final String EXTRA_PROBE_ICE_SERVERS = "com.iottive.webrtc.PROBE_ICE_SERVERS";
+    public static final String EXTRA_SPECULATIVE_OFFER = "com.iottive.webrtc.SPECULATIVE_OFFER";
 
 }
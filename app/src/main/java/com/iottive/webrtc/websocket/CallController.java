@@ -0,0 +1,309 @@
+package com.iottive.webrtc.websocket;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.iottive.webrtc.websocket.apprtc.AppRTCClient;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Connects the signaling client and the peer connection client directly. Descriptions and ICE
+// candidates go from the signaling thread to the peer connection executor and back without a
+// main looper hop, only status messages and call state changes reach the UI, batched per frame
+// by a UiEventBatcher. Remote signaling that arrives before the peer connection exists is
+// queued and replayed in order once PeerConnectionClient reports it created.
+public class CallController implements AppRTCClient.SignalingEvents,
+        PeerConnectionClient.PeerConnectionEvents {
+    private static final String TAG = "CallController";
+
+    // Called on the main thread.
+    public interface Listener {
+        // The UI creates the peer connection, negotiation starts once it exists.
+        void onConnectedToRoom(AppRTCClient.SignalingParameters params);
+
+        void onCallStatus(String message);
+
+        void onCallConnected();
+
+        void onCallDisconnected();
+
+        void onRemoteHangUp();
+
+        void onCallError(String description);
+    }
+
+    private final Listener listener;
+    private final UiEventBatcher uiEvents;
+    private final Object lock = new Object();
+    @Nullable
+    private volatile AppRTCClient appRtcClient;
+    @Nullable
+    private volatile PeerConnectionClient peerConnectionClient;
+    @Nullable
+    private volatile AppRTCClient.SignalingParameters signalingParameters;
+    @Nullable
+    private volatile JoinTimeline joinTimeline;
+    private volatile int videoMaxBitrateKbps;
+    private volatile long callStartedTimeMs;
+    // Remote signaling received before the peer connection was created, null afterwards.
+    @Nullable
+    private List<Runnable> pendingRemoteEvents = new ArrayList<>();
+    // Later remote descriptions renegotiate the running call. Guarded by |lock|.
+    private boolean remoteDescriptionReceived;
+    // Only read and written on the peer connection executor.
+    private boolean localDescriptionSent;
+    private boolean closed;
+
+    public CallController(Listener listener, UiEventBatcher uiEvents) {
+        this.listener = listener;
+        this.uiEvents = uiEvents;
+    }
+
+    public void setAppRtcClient(@Nullable AppRTCClient appRtcClient) {
+        this.appRtcClient = appRtcClient;
+    }
+
+    public void setPeerConnectionClient(@Nullable PeerConnectionClient peerConnectionClient,
+                                        int videoMaxBitrateKbps) {
+        this.peerConnectionClient = peerConnectionClient;
+        this.videoMaxBitrateKbps = videoMaxBitrateKbps;
+    }
+
+    public void setJoinTimeline(@Nullable JoinTimeline joinTimeline) {
+        this.joinTimeline = joinTimeline;
+    }
+
+    public void setCallStartedTimeMs(long callStartedTimeMs) {
+        this.callStartedTimeMs = callStartedTimeMs;
+    }
+
+    // Starts the offer/answer exchange and replays the remote signaling that arrived meanwhile.
+    private void startNegotiation(AppRTCClient.SignalingParameters params) {
+        PeerConnectionClient client = peerConnectionClient;
+        if (client == null) {
+            return;
+        }
+        if (params.initiator) {
+            postStatus("Creating OFFER...");
+            client.createOffer();
+        } else {
+            if (params.offerSdp != null) {
+                remoteDescriptionReceived = true;
+                client.setRemoteDescription(params.offerSdp);
+                postStatus("Creating ANSWER...");
+                client.createAnswer();
+            }
+            if (params.iceCandidates != null) {
+                // Add remote ICE candidates from room.
+                for (IceCandidate iceCandidate : params.iceCandidates) {
+                    client.addRemoteIceCandidate(iceCandidate);
+                }
+            }
+        }
+        synchronized (lock) {
+            if (pendingRemoteEvents != null) {
+                for (Runnable event : pendingRemoteEvents) {
+                    event.run();
+                }
+                pendingRemoteEvents = null;
+            }
+        }
+    }
+
+    // Ignores every later event, called when the call is torn down.
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            pendingRemoteEvents = null;
+        }
+        appRtcClient = null;
+        peerConnectionClient = null;
+        uiEvents.clear();
+    }
+
+    // Runs the event now, or queues it while the peer connection does not exist yet. Holding the
+    // lock keeps the replay and newer events in order.
+    private void onRemoteSignaling(Runnable event) {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            if (pendingRemoteEvents != null) {
+                pendingRemoteEvents.add(event);
+                return;
+            }
+            event.run();
+        }
+    }
+
+    private long getCallDelayMs() {
+        return System.currentTimeMillis() - callStartedTimeMs;
+    }
+
+    private void postStatus(final String message) {
+        uiEvents.post(() -> listener.onCallStatus(message));
+    }
+
+    // AppRTCClient.SignalingEvents, called on the signaling thread.
+
+    @Override
+    public void onConnectedToRoom(final AppRTCClient.SignalingParameters params) {
+        signalingParameters = params;
+        uiEvents.post(() -> listener.onConnectedToRoom(params));
+    }
+
+    @Override
+    public void onRemoteDescription(final SessionDescription desc) {
+        final long delta = getCallDelayMs();
+        onRemoteSignaling(() -> {
+            PeerConnectionClient client = peerConnectionClient;
+            if (client == null) {
+                Log.e(TAG, "Received remote SDP for non-initilized peer connection.");
+                return;
+            }
+            if (remoteDescriptionReceived) {
+                Log.d(TAG, "Received renegotiation " + desc.type);
+                client.setRenegotiationDescription(desc);
+                return;
+            }
+            remoteDescriptionReceived = true;
+            postStatus("Received remote " + desc.type + ", delay=" + delta + "ms");
+            client.setRemoteDescription(desc);
+            if (!signalingParameters.initiator) {
+                postStatus("Creating ANSWER...");
+                client.createAnswer();
+            }
+        });
+    }
+
+    @Override
+    public void onRemoteIceCandidate(final IceCandidate candidate) {
+        onRemoteSignaling(() -> {
+            PeerConnectionClient client = peerConnectionClient;
+            if (client == null) {
+                Log.e(TAG, "Received ICE candidate for a non-initialized peer connection.");
+                return;
+            }
+            client.addRemoteIceCandidate(candidate);
+        });
+    }
+
+    @Override
+    public void onRemoteIceCandidatesRemoved(final IceCandidate[] candidates) {
+        onRemoteSignaling(() -> {
+            PeerConnectionClient client = peerConnectionClient;
+            if (client == null) {
+                Log.e(TAG, "Received ICE candidate removals for a non-initialized peer connection.");
+                return;
+            }
+            client.removeRemoteIceCandidates(candidates);
+        });
+    }
+
+    @Override
+    public void onChannelClose() {
+        postStatus("Remote end hung up; dropping PeerConnection");
+        uiEvents.post(listener::onRemoteHangUp);
+    }
+
+    @Override
+    public void onChannelError(final String description) {
+        uiEvents.post(() -> listener.onCallError(description));
+    }
+
+    // PeerConnectionClient.PeerConnectionEvents, called on the peer connection executor.
+
+    @Override
+    public void onLocalDescription(final SessionDescription desc) {
+        AppRTCClient client = appRtcClient;
+        if (client != null) {
+            postStatus("Sending " + desc.type + ", delay=" + getCallDelayMs() + "ms");
+            // Either side offers when it renegotiates.
+            if (desc.type == SessionDescription.Type.OFFER) {
+                client.sendOfferSdp(desc);
+            } else {
+                client.sendAnswerSdp(desc);
+            }
+        }
+        // Renegotiations keep the limits the bitrate adaptation applied since.
+        boolean firstLocalDescription = !localDescriptionSent;
+        localDescriptionSent = true;
+        PeerConnectionClient peerConnection = peerConnectionClient;
+        if (firstLocalDescription && peerConnection != null && videoMaxBitrateKbps > 0) {
+            Log.d(TAG, "Set video maximum bitrate: " + videoMaxBitrateKbps);
+            peerConnection.setVideoMaxBitrate(videoMaxBitrateKbps);
+        }
+    }
+
+    @Override
+    public void onIceCandidate(final IceCandidate candidate) {
+        AppRTCClient client = appRtcClient;
+        if (client != null) {
+            client.sendLocalIceCandidate(candidate);
+        }
+    }
+
+    @Override
+    public void onIceCandidatesRemoved(final IceCandidate[] candidates) {
+        AppRTCClient client = appRtcClient;
+        if (client != null) {
+            client.sendLocalIceCandidateRemovals(candidates);
+        }
+    }
+
+    @Override
+    public void onIceGatheringComplete() {
+        AppRTCClient client = appRtcClient;
+        if (client != null) {
+            client.flushLocalIceCandidates();
+        }
+    }
+
+    @Override
+    public void onIceConnected() {
+        JoinTimeline timeline = joinTimeline;
+        if (timeline != null) {
+            timeline.mark(JoinTimeline.Stage.ICE_CONNECTED);
+        }
+        postStatus("ICE connected, delay=" + getCallDelayMs() + "ms");
+    }
+
+    @Override
+    public void onIceDisconnected() {
+        postStatus("ICE disconnected");
+    }
+
+    @Override
+    public void onConnected() {
+        postStatus("DTLS connected, delay=" + getCallDelayMs() + "ms");
+        uiEvents.post(listener::onCallConnected);
+    }
+
+    @Override
+    public void onDisconnected() {
+        postStatus("DTLS disconnected");
+        uiEvents.post(listener::onCallDisconnected);
+    }
+
+    @Override
+    public void onPeerConnectionCreated() {
+        AppRTCClient.SignalingParameters params = signalingParameters;
+        if (params != null) {
+            startNegotiation(params);
+        }
+    }
+
+    @Override
+    public void onPeerConnectionClosed() {
+    }
+
+    @Override
+    public void onPeerConnectionError(final String description) {
+        uiEvents.post(() -> listener.onCallError(description));
+    }
+}
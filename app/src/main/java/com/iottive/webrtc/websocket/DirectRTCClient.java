@@ -3,6 +3,7 @@ package com.iottive.webrtc.websocket;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.iottive.webrtc.websocket.apprtc.AppRTCClient;
 
@@ -12,9 +13,13 @@ import org.json.JSONObject;
 import org.webrtc.IceCandidate;
 import org.webrtc.SessionDescription;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.concurrent.ExecutorService;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -22,6 +27,7 @@ import java.util.regex.Pattern;
 public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChannelEvents {
     private static final String TAG = "DirectRTCClient";
     private static final int DEFAULT_PORT = 8888;
+    private static final String FRAMING_BINARY = "binary";
 
     public static final Pattern IP_PATTERN = Pattern.compile("("
             // IPv4
@@ -39,26 +45,50 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
             // Optional port number
             + "(:(\\d+))?");
 
-    private final ExecutorService executor;
+    private final ScheduledExecutorService executor;
     private final SignalingEvents events;
+    private final boolean useNioTransport;
+    private final boolean useBinaryFraming;
     @Nullable
-    private TCPChannelClient tcpClient;
+    private TCPChannel tcpClient;
     private RoomConnectionParameters connectionParameters;
+    @Nullable
+    private IceCandidateBatcher candidateBatcher;
 
     private enum ConnectionState {NEW, CONNECTED, CLOSED, ERROR}
 
     private ConnectionState roomState;
+    // Whether the peer agreed to SignalingFrameCodec frames. The server advertises them in its JSON
+    // offer, the client switches when it sees them advertised and answers with a binary frame, and
+    // the server switches on the first binary frame it receives. Peers that don't know the
+    // "framing" field ignore it and both sides stay on JSON.
+    private boolean binaryFraming;
 
     public DirectRTCClient(SignalingEvents events) {
+        this(events, false /* useNioTransport */, true /* useBinaryFraming */);
+    }
+
+    public DirectRTCClient(SignalingEvents events, boolean useNioTransport) {
+        this(events, useNioTransport, true /* useBinaryFraming */);
+    }
+
+    public DirectRTCClient(
+            SignalingEvents events, boolean useNioTransport, boolean useBinaryFraming) {
         this.events = events;
+        this.useNioTransport = useNioTransport;
+        this.useBinaryFraming = useBinaryFraming;
 
-        executor = Executors.newSingleThreadExecutor();
+        executor = Executors.newSingleThreadScheduledExecutor();
         roomState = ConnectionState.NEW;
     }
 
     @Override
     public void connectToRoom(RoomConnectionParameters connectionParameters) {
         this.connectionParameters = connectionParameters;
+        candidateBatcher = new IceCandidateBatcher(
+                (task, delayMs) -> executor.schedule(task, delayMs, TimeUnit.MILLISECONDS),
+                this::sendLocalIceCandidateBatch, connectionParameters.iceCandidateBatchSize,
+                connectionParameters.iceCandidateBatchDelayMs);
 
         if (connectionParameters.loopback) {
             reportError("Loopback connections aren't supported by DirectRTCClient.");
@@ -84,6 +114,8 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
 
     private void connectToRoomInternal() {
         this.roomState = ConnectionState.NEW;
+        binaryFraming = false;
+        connectionParameters.joinTimeline.mark(JoinTimeline.Stage.ROOM_CONNECT_STARTED);
 
         String endpoint = connectionParameters.roomId;
 
@@ -108,12 +140,23 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
             port = DEFAULT_PORT;
         }
 
-        tcpClient = new TCPChannelClient(executor, this, ip, port);
+        tcpClient = createTCPChannel(ip, port);
+    }
+
+    @VisibleForTesting
+    TCPChannel createTCPChannel(String ip, int port) {
+        if (useNioTransport) {
+            return new NioTCPChannelClient(executor, this, ip, port);
+        }
+        return new TCPChannelClient(executor, this, ip, port);
     }
 
     private void disconnectFromRoomInternal() {
         roomState = ConnectionState.CLOSED;
 
+        if (candidateBatcher != null) {
+            candidateBatcher.clear();
+        }
         if (tcpClient != null) {
             tcpClient.disconnect();
             tcpClient = null;
@@ -130,10 +173,19 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
                     reportError("Sending offer SDP in non connected state.");
                     return;
                 }
+                if (binaryFraming) {
+                    sendFrame(SignalingFrameCodec.TYPE_OFFER, SignalingFrameCodec.encodeSdp(sdp));
+                    markOfferSent();
+                    return;
+                }
                 JSONObject json = new JSONObject();
                 jsonPut(json, "sdp", sdp.description);
                 jsonPut(json, "type", "offer");
+                if (useBinaryFraming) {
+                    jsonPut(json, "framing", new JSONArray().put(FRAMING_BINARY));
+                }
                 sendMessage(json.toString());
+                markOfferSent();
             }
         });
     }
@@ -143,6 +195,10 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
         executor.execute(new Runnable() {
             @Override
             public void run() {
+                if (binaryFraming) {
+                    sendFrame(SignalingFrameCodec.TYPE_ANSWER, SignalingFrameCodec.encodeSdp(sdp));
+                    return;
+                }
                 JSONObject json = new JSONObject();
                 jsonPut(json, "sdp", sdp.description);
                 jsonPut(json, "type", "answer");
@@ -156,26 +212,73 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
         executor.execute(new Runnable() {
             @Override
             public void run() {
-                JSONObject json = new JSONObject();
-                jsonPut(json, "type", "candidate");
-                jsonPut(json, "label", candidate.sdpMLineIndex);
-                jsonPut(json, "id", candidate.sdpMid);
-                jsonPut(json, "candidate", candidate.sdp);
-
-                if (roomState != ConnectionState.CONNECTED) {
+                // The batcher only exists once connectToRoom has supplied its settings.
+                if (candidateBatcher == null) {
                     reportError("Sending ICE candidate in non connected state.");
                     return;
                 }
-                sendMessage(json.toString());
+                candidateBatcher.add(candidate);
             }
         });
     }
 
+    @Override
+    public void flushLocalIceCandidates() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (candidateBatcher != null) {
+                    candidateBatcher.flush();
+                }
+            }
+        });
+    }
+
+    private void sendLocalIceCandidateBatch(final List<IceCandidate> candidates) {
+        if (roomState == ConnectionState.CONNECTED && binaryFraming) {
+            if (candidates.size() == 1) {
+                sendFrame(SignalingFrameCodec.TYPE_CANDIDATE,
+                        SignalingFrameCodec.encodeCandidate(candidates.get(0)));
+            } else {
+                sendFrame(SignalingFrameCodec.TYPE_CANDIDATES,
+                        SignalingFrameCodec.encodeCandidates(candidates));
+            }
+            return;
+        }
+        JSONObject json;
+        if (candidates.size() == 1) {
+            json = toJsonCandidate(candidates.get(0));
+            jsonPut(json, "type", "candidate");
+        } else {
+            json = new JSONObject();
+            jsonPut(json, "type", "candidates");
+            JSONArray jsonArray = new JSONArray();
+            for (final IceCandidate candidate : candidates) {
+                jsonArray.put(toJsonCandidate(candidate));
+            }
+            jsonPut(json, "candidates", jsonArray);
+        }
+
+        if (roomState != ConnectionState.CONNECTED) {
+            reportError("Sending ICE candidate in non connected state.");
+            return;
+        }
+        sendMessage(json.toString());
+    }
+
     @Override
     public void sendLocalIceCandidateRemovals(final IceCandidate[] candidates) {
         executor.execute(new Runnable() {
             @Override
             public void run() {
+                if (candidateBatcher != null) {
+                    candidateBatcher.flush();
+                }
+                if (roomState == ConnectionState.CONNECTED && binaryFraming) {
+                    sendFrame(SignalingFrameCodec.TYPE_REMOVE_CANDIDATES,
+                            SignalingFrameCodec.encodeCandidates(Arrays.asList(candidates)));
+                    return;
+                }
                 JSONObject json = new JSONObject();
                 jsonPut(json, "type", "remove-candidates");
                 JSONArray jsonArray = new JSONArray();
@@ -198,6 +301,7 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
     public void onTCPConnected(boolean isServer) {
         if (isServer) {
             roomState = ConnectionState.CONNECTED;
+            connectionParameters.joinTimeline.mark(JoinTimeline.Stage.ROOM_PARAMETERS_RECEIVED);
 
             SignalingParameters parameters = new SignalingParameters(
                     new ArrayList<>(), isServer, null, null, null, null, null);
@@ -212,6 +316,11 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
             String type = json.optString("type");
             if (type.equals("candidate")) {
                 events.onRemoteIceCandidate(toJavaCandidate(json));
+            } else if (type.equals("candidates")) {
+                JSONArray candidateArray = json.getJSONArray("candidates");
+                for (int i = 0; i < candidateArray.length(); ++i) {
+                    events.onRemoteIceCandidate(toJavaCandidate(candidateArray.getJSONObject(i)));
+                }
             } else if (type.equals("remove-candidates")) {
                 JSONArray candidateArray = json.getJSONArray("candidates");
                 IceCandidate[] candidates = new IceCandidate[candidateArray.length()];
@@ -226,11 +335,10 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
             } else if (type.equals("offer")) {
                 SessionDescription sdp = new SessionDescription(
                         SessionDescription.Type.fromCanonicalForm(type), json.getString("sdp"));
-
-                SignalingParameters parameters = new SignalingParameters(
-                        new ArrayList<>(), false, null, null, null, sdp, null);
-                roomState = ConnectionState.CONNECTED;
-                events.onConnectedToRoom(parameters);
+                if (roomState != ConnectionState.CONNECTED) {
+                    binaryFraming = useBinaryFraming && supportsBinaryFraming(json);
+                }
+                onRemoteOffer(sdp);
             } else {
                 reportError("Unexpected TCP message: " + msg);
             }
@@ -239,6 +347,69 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
         }
     }
 
+    @Override
+    public void onTCPBinaryMessage(int type, byte[] payload) {
+        if (!useBinaryFraming) {
+            reportError("Unexpected binary TCP frame: " + type);
+            return;
+        }
+        binaryFraming = true;
+        try {
+            switch (type) {
+                case SignalingFrameCodec.TYPE_OFFER:
+                    onRemoteOffer(
+                            SignalingFrameCodec.decodeSdp(SessionDescription.Type.OFFER, payload));
+                    break;
+                case SignalingFrameCodec.TYPE_ANSWER:
+                    events.onRemoteDescription(
+                            SignalingFrameCodec.decodeSdp(SessionDescription.Type.ANSWER, payload));
+                    break;
+                case SignalingFrameCodec.TYPE_CANDIDATE:
+                    events.onRemoteIceCandidate(SignalingFrameCodec.decodeCandidate(payload));
+                    break;
+                case SignalingFrameCodec.TYPE_CANDIDATES:
+                    for (IceCandidate candidate : SignalingFrameCodec.decodeCandidates(payload)) {
+                        events.onRemoteIceCandidate(candidate);
+                    }
+                    break;
+                case SignalingFrameCodec.TYPE_REMOVE_CANDIDATES:
+                    events.onRemoteIceCandidatesRemoved(
+                            SignalingFrameCodec.decodeCandidates(payload));
+                    break;
+                default:
+                    reportError("Unexpected binary TCP frame: " + type);
+            }
+        } catch (IOException e) {
+            reportError("TCP frame parsing error: " + e.toString());
+        }
+    }
+
+    private void onRemoteOffer(SessionDescription sdp) {
+        if (roomState == ConnectionState.CONNECTED) {
+            // Renegotiation of the running call.
+            events.onRemoteDescription(sdp);
+            return;
+        }
+        SignalingParameters parameters = new SignalingParameters(
+                new ArrayList<>(), false, null, null, null, sdp, null);
+        roomState = ConnectionState.CONNECTED;
+        connectionParameters.joinTimeline.mark(JoinTimeline.Stage.ROOM_PARAMETERS_RECEIVED);
+        events.onConnectedToRoom(parameters);
+    }
+
+    private static boolean supportsBinaryFraming(JSONObject offer) {
+        JSONArray framing = offer.optJSONArray("framing");
+        if (framing == null) {
+            return false;
+        }
+        for (int i = 0; i < framing.length(); ++i) {
+            if (FRAMING_BINARY.equals(framing.optString(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public void onTCPError(String description) {
         reportError("TCP connection error: " + description);
@@ -249,6 +420,14 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
         events.onChannelClose();
     }
 
+    // Join-to-offer-sent latency, the first offer of a call only.
+    private void markOfferSent() {
+        if (connectionParameters.joinTimeline.mark(JoinTimeline.Stage.OFFER_SENT)) {
+            Log.i(TAG, "Offer sent " + connectionParameters.joinTimeline.getElapsedMs(
+                    JoinTimeline.Stage.OFFER_SENT) + " ms after join start.");
+        }
+    }
+
     private void reportError(final String errorMessage) {
         Log.e(TAG, errorMessage);
         executor.execute(new Runnable() {
@@ -271,6 +450,15 @@ public class DirectRTCClient implements AppRTCClient, TCPChannelClient.TCPChanne
         });
     }
 
+    private void sendFrame(final int type, final byte[] payload) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                tcpClient.sendBinary(type, payload);
+            }
+        });
+    }
+
     private static void jsonPut(JSONObject json, String key, Object value) {
         try {
             json.put(key, value);
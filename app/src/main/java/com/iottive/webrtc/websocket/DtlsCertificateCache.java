@@ -0,0 +1,277 @@
+package com.iottive.webrtc.websocket;
+
+import android.content.Context;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.PeerConnection;
+import org.webrtc.RtcCertificatePem;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+// Keeps the DTLS certificate of this device across calls so that peer connections skip key
+// generation during call setup. The certificate is generated in the background and stored in
+// app-private storage, encrypted with an Android Keystore key. It is replaced once a week, calls
+// keep using the previous certificate until its replacement is ready.
+public class DtlsCertificateCache {
+    private static final String TAG = "DtlsCertificateCache";
+    private static final String CACHE_FILE_NAME = "dtls_certificate";
+    private static final String ANDROID_KEY_STORE = "AndroidKeyStore";
+    private static final String KEY_ALIAS = "dtls_certificate_storage";
+    private static final String CIPHER_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int GCM_TAG_BITS = 128;
+    private static final long LIFETIME_MS = TimeUnit.DAYS.toMillis(30);
+    private static final long ROTATION_INTERVAL_MS = TimeUnit.DAYS.toMillis(7);
+    // A certificate closer to its expiry is not handed out, a call must not outlive it.
+    private static final long MIN_REMAINING_LIFETIME_MS = TimeUnit.DAYS.toMillis(1);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Nullable
+    private static DtlsCertificateCache instance;
+
+    private final File storageFile;
+    private final Executor executor;
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+    private final AtomicInteger generationCount = new AtomicInteger();
+    @Nullable
+    private Entry entry;
+    private boolean loaded;
+    private boolean generating;
+
+    private static class Entry {
+        final RtcCertificatePem certificate;
+        final long createdAtMs;
+        final long expiresAtMs;
+
+        Entry(RtcCertificatePem certificate, long createdAtMs, long expiresAtMs) {
+            this.certificate = certificate;
+            this.createdAtMs = createdAtMs;
+            this.expiresAtMs = expiresAtMs;
+        }
+
+        boolean isValid(long nowMs) {
+            return nowMs < expiresAtMs - MIN_REMAINING_LIFETIME_MS;
+        }
+
+        boolean needsRotation(long nowMs) {
+            return nowMs >= createdAtMs + ROTATION_INTERVAL_MS;
+        }
+    }
+
+    public static synchronized DtlsCertificateCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new DtlsCertificateCache(new File(context.getFilesDir(), CACHE_FILE_NAME),
+                    new InstrumentedExecutor(TAG));
+        }
+        return instance;
+    }
+
+    public DtlsCertificateCache(File storageFile, Executor executor) {
+        this.storageFile = storageFile;
+        this.executor = executor;
+    }
+
+    // Returns the stored certificate if it is still valid, null if the library has to generate
+    // one. Starts a generation in the background when the certificate is missing or due for
+    // rotation. Requires an initialized PeerConnectionFactory.
+    @Nullable
+    public RtcCertificatePem getCertificate() {
+        final long nowMs = currentTimeMillis();
+        synchronized (this) {
+            loadIfNeeded();
+            if (entry == null || !entry.isValid(nowMs)) {
+                missCount.incrementAndGet();
+                scheduleGeneration();
+                return null;
+            }
+            hitCount.incrementAndGet();
+            RtcCertificatePem certificate = entry.certificate;
+            if (entry.needsRotation(nowMs)) {
+                scheduleGeneration();
+            }
+            return certificate;
+        }
+    }
+
+    // Loads the stored certificate and generates a new one if needed, without blocking the caller.
+    // Requires an initialized PeerConnectionFactory.
+    public void prefetch() {
+        executor.execute(() -> {
+            final long nowMs = currentTimeMillis();
+            synchronized (this) {
+                loadIfNeeded();
+                if (entry == null || !entry.isValid(nowMs) || entry.needsRotation(nowMs)) {
+                    scheduleGeneration();
+                }
+            }
+        });
+    }
+
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    public int getGenerationCount() {
+        return generationCount.get();
+    }
+
+    @VisibleForTesting
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @VisibleForTesting
+    RtcCertificatePem generateCertificate(long lifetimeMs) {
+        return RtcCertificatePem.generateCertificate(
+                PeerConnection.KeyType.ECDSA, TimeUnit.MILLISECONDS.toSeconds(lifetimeMs));
+    }
+
+    // AES key that never leaves the Android Keystore, created on first use.
+    @VisibleForTesting
+    SecretKey getStorageKey() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(ANDROID_KEY_STORE);
+        keyStore.load(null);
+        SecretKey key = (SecretKey) keyStore.getKey(KEY_ALIAS, null);
+        if (key != null) {
+            return key;
+        }
+        KeyGenerator generator =
+                KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, ANDROID_KEY_STORE);
+        generator.init(new KeyGenParameterSpec.Builder(
+                KEY_ALIAS, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .build());
+        return generator.generateKey();
+    }
+
+    private void scheduleGeneration() {
+        if (generating) {
+            return;
+        }
+        generating = true;
+        executor.execute(() -> {
+            try {
+                long createdAtMs = currentTimeMillis();
+                long startNs = System.nanoTime();
+                RtcCertificatePem certificate = generateCertificate(LIFETIME_MS);
+                Log.d(TAG, "Generated DTLS certificate in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs) + " ms.");
+                generationCount.incrementAndGet();
+                synchronized (this) {
+                    entry = new Entry(certificate, createdAtMs, createdAtMs + LIFETIME_MS);
+                    save(entry);
+                }
+            } catch (RuntimeException e) {
+                Log.w(TAG, "DTLS certificate generation failed: " + e.getMessage());
+            } finally {
+                synchronized (this) {
+                    generating = false;
+                }
+            }
+        });
+    }
+
+    private void loadIfNeeded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!storageFile.exists()) {
+            return;
+        }
+        try {
+            byte[] content = new byte[(int) storageFile.length()];
+            DataInputStream in = new DataInputStream(new FileInputStream(storageFile));
+            try {
+                in.readFully(content);
+            } finally {
+                in.close();
+            }
+            JSONObject json = new JSONObject(new String(decrypt(content), UTF_8));
+            entry = new Entry(new RtcCertificatePem(json.getString("privateKey"),
+                    json.getString("certificate")), json.getLong("createdAtMs"),
+                    json.getLong("expiresAtMs"));
+            Log.d(TAG, "Loaded DTLS certificate created at " + entry.createdAtMs);
+        } catch (IOException | JSONException | GeneralSecurityException e) {
+            Log.w(TAG, "Failed to load DTLS certificate: " + e.getMessage());
+            entry = null;
+        }
+    }
+
+    private void save(Entry entry) {
+        File tmpFile = new File(storageFile.getPath() + ".tmp");
+        try {
+            JSONObject json = new JSONObject();
+            json.put("privateKey", entry.certificate.privateKey);
+            json.put("certificate", entry.certificate.certificate);
+            json.put("createdAtMs", entry.createdAtMs);
+            json.put("expiresAtMs", entry.expiresAtMs);
+            byte[] encrypted = encrypt(json.toString().getBytes(UTF_8));
+            OutputStream out = new FileOutputStream(tmpFile);
+            try {
+                out.write(encrypted);
+            } finally {
+                out.close();
+            }
+            if (!tmpFile.renameTo(storageFile)) {
+                throw new IOException("Failed to rename " + tmpFile);
+            }
+        } catch (IOException | JSONException | GeneralSecurityException e) {
+            Log.w(TAG, "Failed to save DTLS certificate: " + e.getMessage());
+            tmpFile.delete();
+        }
+    }
+
+    // Layout: IV length, IV, ciphertext with the GCM tag.
+    private byte[] encrypt(byte[] plaintext) throws GeneralSecurityException, IOException {
+        Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, getStorageKey());
+        byte[] iv = cipher.getIV();
+        byte[] ciphertext = cipher.doFinal(plaintext);
+        byte[] result = new byte[1 + iv.length + ciphertext.length];
+        result[0] = (byte) iv.length;
+        System.arraycopy(iv, 0, result, 1, iv.length);
+        System.arraycopy(ciphertext, 0, result, 1 + iv.length, ciphertext.length);
+        return result;
+    }
+
+    private byte[] decrypt(byte[] data) throws GeneralSecurityException, IOException {
+        if (data.length < 1 || data.length < 1 + data[0]) {
+            throw new IOException("Truncated certificate file");
+        }
+        int ivLength = data[0];
+        Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, getStorageKey(),
+                new GCMParameterSpec(GCM_TAG_BITS, Arrays.copyOfRange(data, 1, 1 + ivLength)));
+        return cipher.doFinal(data, 1 + ivLength, data.length - 1 - ivLength);
+    }
+}
@@ -0,0 +1,70 @@
+package com.iottive.webrtc.websocket;
+
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Groups local ICE candidates into batches of up to maxBatchSize candidates or maxDelayMs.
+// Not thread safe, all calls must be made on the signaling thread of the owning client.
+public class IceCandidateBatcher {
+    public static final int DEFAULT_MAX_BATCH_SIZE = 10;
+    public static final int DEFAULT_MAX_DELAY_MS = 50;
+
+    private final Scheduler scheduler;
+    private final IceCandidateBatchEvents events;
+    private final int maxBatchSize;
+    private final int maxDelayMs;
+    private final List<IceCandidate> pendingCandidates = new ArrayList<>();
+    private int batchId;
+
+    public interface Scheduler {
+        void postDelayed(Runnable task, long delayMs);
+    }
+
+    public interface IceCandidateBatchEvents {
+        void onIceCandidateBatch(List<IceCandidate> candidates);
+    }
+
+    public IceCandidateBatcher(Scheduler scheduler, IceCandidateBatchEvents events,
+                               int maxBatchSize, int maxDelayMs) {
+        this.scheduler = scheduler;
+        this.events = events;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    public void add(IceCandidate candidate) {
+        pendingCandidates.add(candidate);
+        if (pendingCandidates.size() >= maxBatchSize || maxDelayMs <= 0) {
+            flush();
+            return;
+        }
+        if (pendingCandidates.size() == 1) {
+            final int scheduledBatchId = batchId;
+            scheduler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (scheduledBatchId == batchId) {
+                        flush();
+                    }
+                }
+            }, maxDelayMs);
+        }
+    }
+
+    public void flush() {
+        if (pendingCandidates.isEmpty()) {
+            return;
+        }
+        batchId++;
+        List<IceCandidate> batch = new ArrayList<>(pendingCandidates);
+        pendingCandidates.clear();
+        events.onIceCandidateBatch(batch);
+    }
+
+    public void clear() {
+        batchId++;
+        pendingCandidates.clear();
+    }
+}
@@ -0,0 +1,360 @@
+package com.iottive.webrtc.websocket;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.iottive.webrtc.util.AsyncHttpURLConnection;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.PeerConnection;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Caches TURN servers per ice_server_url so joins with still valid credentials skip the TURN request.
+// Entries are persisted with their expiry time and refreshed in the background once most of the
+// credential lifetime has passed.
+public class IceServerCache {
+    private static final String TAG = "IceServerCache";
+    private static final String CACHE_FILE_NAME = "ice_server_cache.json";
+    // Key of the server list of the last join, it is not a URL so it cannot clash with one.
+    private static final String LAST_USED_KEY = "last_used";
+    private static final int TURN_HTTP_TIMEOUT_MS = 5000;
+    // Used when the TURN response does not carry a lifetimeDuration.
+    private static final long DEFAULT_LIFETIME_MS = 10 * 60 * 1000;
+    // Entries are refreshed once this fraction of their lifetime has passed.
+    private static final double REFRESH_LIFETIME_FRACTION = 0.75;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Nullable
+    private static IceServerCache instance;
+
+    private final File storageFile;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Set<String> pendingRefreshes = new HashSet<>();
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+    private final AtomicInteger refreshCount = new AtomicInteger();
+    private boolean loaded;
+
+    private static class Entry {
+        final List<PeerConnection.IceServer> iceServers;
+        final long fetchedAtMs;
+        final long expiresAtMs;
+
+        Entry(List<PeerConnection.IceServer> iceServers, long fetchedAtMs, long expiresAtMs) {
+            this.iceServers = iceServers;
+            this.fetchedAtMs = fetchedAtMs;
+            this.expiresAtMs = expiresAtMs;
+        }
+
+        boolean isValid(long nowMs) {
+            return nowMs < expiresAtMs;
+        }
+
+        boolean needsRefresh(long nowMs) {
+            return nowMs >= fetchedAtMs + (long) ((expiresAtMs - fetchedAtMs) * REFRESH_LIFETIME_FRACTION);
+        }
+    }
+
+    public static synchronized IceServerCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new IceServerCache(new File(context.getFilesDir(), CACHE_FILE_NAME));
+        }
+        return instance;
+    }
+
+    public IceServerCache(File storageFile) {
+        this.storageFile = storageFile;
+    }
+
+    // Returns the cached servers for |url| if their credentials are still valid, null otherwise.
+    @Nullable
+    public List<PeerConnection.IceServer> getIfValid(String url) {
+        final long nowMs = currentTimeMillis();
+        synchronized (this) {
+            loadIfNeeded();
+            Entry entry = entries.get(url);
+            if (entry == null || !entry.isValid(nowMs)) {
+                missCount.incrementAndGet();
+                return null;
+            }
+            hitCount.incrementAndGet();
+            if (entry.needsRefresh(nowMs)) {
+                scheduleRefresh(url);
+            }
+            return entry.iceServers;
+        }
+    }
+
+    // Requests TURN servers from |url| on the calling thread and stores them in the cache.
+    public List<PeerConnection.IceServer> fetch(String url) throws IOException, JSONException {
+        Entry entry = requestTurnServers(url);
+        synchronized (this) {
+            loadIfNeeded();
+            entries.put(url, entry);
+            save();
+        }
+        return entry.iceServers;
+    }
+
+    // Remembers the complete server list of the last join, so that the next join can start ICE
+    // gathering before its room parameters arrive. The list expires with the earliest cached TURN
+    // credentials it contains.
+    public void setLastUsed(List<PeerConnection.IceServer> iceServers) {
+        final long nowMs = currentTimeMillis();
+        synchronized (this) {
+            loadIfNeeded();
+            long expiresAtMs = Long.MAX_VALUE;
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (!entry.getKey().equals(LAST_USED_KEY)
+                        && containsAny(iceServers, entry.getValue().iceServers)) {
+                    expiresAtMs = Math.min(expiresAtMs, entry.getValue().expiresAtMs);
+                }
+            }
+            if (expiresAtMs == Long.MAX_VALUE) {
+                expiresAtMs = nowMs + DEFAULT_LIFETIME_MS;
+            }
+            entries.put(LAST_USED_KEY, new Entry(iceServers, nowMs, expiresAtMs));
+            save();
+        }
+    }
+
+    // Returns the server list of the last join if its credentials are still valid, null otherwise.
+    @Nullable
+    public List<PeerConnection.IceServer> getLastUsed() {
+        final long nowMs = currentTimeMillis();
+        synchronized (this) {
+            loadIfNeeded();
+            Entry entry = entries.get(LAST_USED_KEY);
+            return entry != null && entry.isValid(nowMs) ? entry.iceServers : null;
+        }
+    }
+
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    public int getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    @VisibleForTesting
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private void scheduleRefresh(final String url) {
+        if (!pendingRefreshes.add(url)) {
+            return;
+        }
+        Log.d(TAG, "Refreshing TURN servers from " + url);
+        AsyncHttpURLConnection.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                try {
+                    fetch(url);
+                    refreshCount.incrementAndGet();
+                } catch (IOException | JSONException e) {
+                    Log.w(TAG, "TURN server refresh failed: " + e.getMessage());
+                } finally {
+                    synchronized (IceServerCache.this) {
+                        pendingRefreshes.remove(url);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    // Whether both lists hold the same servers and credentials, in any order. Compares the lists
+    // the room returned, probing reorders and prunes them differently on every join.
+    public static boolean isSameIceServers(
+            List<PeerConnection.IceServer> first, List<PeerConnection.IceServer> second) {
+        return first.size() == second.size() && getServerKeys(first).equals(getServerKeys(second));
+    }
+
+    private static List<String> getServerKeys(List<PeerConnection.IceServer> iceServers) {
+        List<String> keys = new ArrayList<>();
+        for (PeerConnection.IceServer server : iceServers) {
+            List<String> urls = new ArrayList<>(server.urls);
+            Collections.sort(urls);
+            keys.add(urls + "\n" + server.username + "\n" + server.password);
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private static boolean containsAny(
+            List<PeerConnection.IceServer> iceServers, List<PeerConnection.IceServer> candidates) {
+        for (PeerConnection.IceServer server : iceServers) {
+            for (PeerConnection.IceServer candidate : candidates) {
+                if (server.urls.equals(candidate.urls)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private Entry requestTurnServers(String url) throws IOException, JSONException {
+        Log.d(TAG, "Request TURN from: " + url);
+        final long fetchedAtMs = currentTimeMillis();
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestProperty("REFERER", "https://appr.tc");
+        connection.setConnectTimeout(TURN_HTTP_TIMEOUT_MS);
+        connection.setReadTimeout(TURN_HTTP_TIMEOUT_MS);
+        int responseCode = connection.getResponseCode();
+        if (responseCode != 200) {
+            throw new IOException("Non-200 response when requesting TURN server from " + url + " : "
+                    + connection.getHeaderField(null));
+        }
+        InputStream responseStream = connection.getInputStream();
+        String response =
+                AsyncHttpURLConnection.drainStream(responseStream, connection.getContentLength());
+        responseStream.close();
+        Log.d(TAG, "TURN response: " + response);
+        JSONObject responseJSON = new JSONObject(response);
+        List<PeerConnection.IceServer> turnServers =
+                iceServersFromJSON(responseJSON.getJSONArray("iceServers"));
+        long lifetimeMs = parseLifetimeMs(responseJSON.optString("lifetimeDuration"));
+        return new Entry(turnServers, fetchedAtMs, fetchedAtMs + lifetimeMs);
+    }
+
+    // Parses a protobuf style duration such as "86400s" or "86400.000s".
+    private static long parseLifetimeMs(String lifetimeDuration) {
+        if (!lifetimeDuration.endsWith("s")) {
+            return DEFAULT_LIFETIME_MS;
+        }
+        try {
+            return (long) (Double.parseDouble(
+                    lifetimeDuration.substring(0, lifetimeDuration.length() - 1)) * 1000);
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid TURN lifetime: " + lifetimeDuration);
+            return DEFAULT_LIFETIME_MS;
+        }
+    }
+
+    private static List<PeerConnection.IceServer> iceServersFromJSON(JSONArray iceServers)
+            throws JSONException {
+        List<PeerConnection.IceServer> turnServers = new ArrayList<>();
+        for (int i = 0; i < iceServers.length(); ++i) {
+            JSONObject server = iceServers.getJSONObject(i);
+            JSONArray turnUrls = server.getJSONArray("urls");
+            String username = server.has("username") ? server.getString("username") : "";
+            String credential = server.has("credential") ? server.getString("credential") : "";
+            for (int j = 0; j < turnUrls.length(); j++) {
+                String turnUrl = turnUrls.getString(j);
+                PeerConnection.IceServer turnServer =
+                        PeerConnection.IceServer.builder(turnUrl)
+                                .setUsername(username)
+                                .setPassword(credential)
+                                .createIceServer();
+                Log.d(TAG, "TurnServer: " + turnServer);
+                turnServers.add(turnServer);
+            }
+        }
+        return turnServers;
+    }
+
+    private static JSONArray iceServersToJSON(List<PeerConnection.IceServer> iceServers)
+            throws JSONException {
+        JSONArray json = new JSONArray();
+        for (PeerConnection.IceServer server : iceServers) {
+            JSONObject serverJson = new JSONObject();
+            serverJson.put("urls", new JSONArray(server.urls));
+            serverJson.put("username", server.username);
+            serverJson.put("credential", server.password);
+            json.put(serverJson);
+        }
+        return json;
+    }
+
+    private void loadIfNeeded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!storageFile.exists()) {
+            return;
+        }
+        try {
+            InputStream in = new FileInputStream(storageFile);
+            String content;
+            try {
+                content = AsyncHttpURLConnection.drainStream(in, (int) storageFile.length());
+            } finally {
+                in.close();
+            }
+            JSONObject json = new JSONObject(content);
+            Iterator<String> urls = json.keys();
+            while (urls.hasNext()) {
+                String url = urls.next();
+                JSONObject entryJson = json.getJSONObject(url);
+                entries.put(url, new Entry(iceServersFromJSON(entryJson.getJSONArray("iceServers")),
+                        entryJson.getLong("fetchedAtMs"), entryJson.getLong("expiresAtMs")));
+            }
+            Log.d(TAG, "Loaded " + entries.size() + " cached TURN server entries");
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Failed to load TURN server cache: " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    private void save() {
+        final long nowMs = currentTimeMillis();
+        File tmpFile = new File(storageFile.getPath() + ".tmp");
+        try {
+            JSONObject json = new JSONObject();
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (!entry.getValue().isValid(nowMs)) {
+                    continue;
+                }
+                JSONObject entryJson = new JSONObject();
+                entryJson.put("fetchedAtMs", entry.getValue().fetchedAtMs);
+                entryJson.put("expiresAtMs", entry.getValue().expiresAtMs);
+                entryJson.put("iceServers", iceServersToJSON(entry.getValue().iceServers));
+                json.put(entry.getKey(), entryJson);
+            }
+            OutputStream out = new FileOutputStream(tmpFile);
+            try {
+                out.write(json.toString().getBytes(UTF_8));
+            } finally {
+                out.close();
+            }
+            if (!tmpFile.renameTo(storageFile)) {
+                throw new IOException("Failed to rename " + tmpFile);
+            }
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Failed to save TURN server cache: " + e.getMessage());
+            tmpFile.delete();
+        }
+    }
+}
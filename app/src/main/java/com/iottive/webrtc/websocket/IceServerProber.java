@@ -0,0 +1,424 @@
+package com.iottive.webrtc.websocket;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import org.webrtc.PeerConnection;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+// Sends a STUN binding request to every ICE server URL in parallel and ranks the servers by
+// reachability and round trip time. stun: and turn: URLs are probed over UDP, turn: URLs with
+// transport=tcp over TCP and turns: URLs over TLS. Unreachable servers are pruned, reachable ones
+// ordered UDP first and by round trip time, since the library prefers relays of earlier servers.
+public class IceServerProber {
+    private static final String TAG = "IceServerProber";
+    public static final long DEFAULT_TIMEOUT_MS = 1000;
+    private static final int STUN_PORT = 3478;
+    private static final int STUNS_PORT = 5349;
+    private static final long UDP_RETRANSMIT_MS = 250;
+    private static final int STUN_HEADER_SIZE = 20;
+    private static final int STUN_MAX_MESSAGE_SIZE = 1500;
+    private static final short BINDING_REQUEST = 0x0001;
+    private static final short BINDING_SUCCESS_RESPONSE = 0x0101;
+    private static final short BINDING_ERROR_RESPONSE = 0x0111;
+    private static final int MAGIC_COOKIE = 0x2112A442;
+
+    @Nullable
+    private static IceServerProber instance;
+
+    private final ExecutorService executor;
+    private final long timeoutMs;
+    private final Random random = new Random();
+
+    public enum Transport { UDP, TCP, TLS }
+
+    // Where a single ICE server URL is probed.
+    @VisibleForTesting
+    static final class Target {
+        final String host;
+        final int port;
+        final Transport transport;
+
+        Target(String host, int port, Transport transport) {
+            this.host = host;
+            this.port = port;
+            this.transport = transport;
+        }
+    }
+
+    public static final class Probe {
+        public final String url;
+        public final Transport transport;
+        public final boolean reachable;
+        // Includes connection setup for TCP and TLS, -1 if unreachable.
+        public final long rttMs;
+
+        Probe(String url, Transport transport, boolean reachable, long rttMs) {
+            this.url = url;
+            this.transport = transport;
+            this.reachable = reachable;
+            this.rttMs = rttMs;
+        }
+
+        @Override
+        public String toString() {
+            return url + " " + transport + (reachable ? " " + rttMs + "ms" : " unreachable");
+        }
+    }
+
+    public static final class Result {
+        public final List<PeerConnection.IceServer> iceServers;
+        public final List<Probe> probes;
+        // True if UDP was probed and no server answered over it, TCP candidates are needed then.
+        public final boolean udpBlocked;
+
+        Result(List<PeerConnection.IceServer> iceServers, List<Probe> probes, boolean udpBlocked) {
+            this.iceServers = iceServers;
+            this.probes = probes;
+            this.udpBlocked = udpBlocked;
+        }
+
+        @Override
+        public String toString() {
+            return "udpBlocked=" + udpBlocked + ", probes=" + probes;
+        }
+    }
+
+    // Ranking key of one server, the best of the probes of its URLs.
+    private static class RankedServer {
+        final PeerConnection.IceServer server;
+        final int index;
+        final List<String> probedUrls = new ArrayList<>();
+        final List<Future<Probe>> probes = new ArrayList<>();
+        @Nullable
+        Probe best;
+
+        RankedServer(PeerConnection.IceServer server, int index) {
+            this.server = server;
+            this.index = index;
+        }
+    }
+
+    public static synchronized IceServerProber getInstance() {
+        if (instance == null) {
+            instance = new IceServerProber(DEFAULT_TIMEOUT_MS);
+        }
+        return instance;
+    }
+
+    public IceServerProber(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+        final AtomicInteger threadCount = new AtomicInteger();
+        // Unbounded, probeAsync waits for the probes it submits on a pool thread.
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // Probes |iceServers| and the servers of |pendingServers| once they are available, without
+    // blocking the caller. The future fails if |pendingServers| fails.
+    public Future<Result> probeAsync(final List<PeerConnection.IceServer> iceServers,
+                                     @Nullable final Future<List<PeerConnection.IceServer>> pendingServers) {
+        return executor.submit(() -> {
+            List<PeerConnection.IceServer> allServers = new ArrayList<>(iceServers);
+            if (pendingServers != null) {
+                allServers.addAll(pendingServers.get());
+            }
+            return probe(allServers);
+        });
+    }
+
+    // Blocks for at most about the probe timeout. If no server answers at all the list is returned
+    // unchanged, probing itself is likely blocked then.
+    public Result probe(List<PeerConnection.IceServer> iceServers) {
+        final long startNs = System.nanoTime();
+        List<RankedServer> servers = new ArrayList<>();
+        for (PeerConnection.IceServer server : iceServers) {
+            RankedServer rankedServer = new RankedServer(server, servers.size());
+            servers.add(rankedServer);
+            for (final String url : server.urls) {
+                final Target target = parseUrl(url);
+                if (target != null) {
+                    rankedServer.probedUrls.add(url);
+                    rankedServer.probes.add(executor.submit(() -> probe(url, target)));
+                }
+            }
+        }
+
+        List<Probe> probes = new ArrayList<>();
+        boolean udpProbed = false;
+        boolean udpReachable = false;
+        boolean anyReachable = false;
+        for (RankedServer server : servers) {
+            for (int i = 0; i < server.probes.size(); i++) {
+                Probe probe = awaitProbe(server.probedUrls.get(i), server.probes.get(i));
+                probes.add(probe);
+                if (probe.transport == Transport.UDP) {
+                    udpProbed = true;
+                    udpReachable |= probe.reachable;
+                }
+                if (probe.reachable && (server.best == null || compare(probe, server.best) < 0)) {
+                    server.best = probe;
+                    anyReachable = true;
+                }
+            }
+        }
+
+        List<PeerConnection.IceServer> rankedServers = new ArrayList<>();
+        if (!anyReachable) {
+            rankedServers.addAll(iceServers);
+        } else {
+            List<RankedServer> kept = new ArrayList<>();
+            for (RankedServer server : servers) {
+                if (server.best != null || server.probes.isEmpty()) {
+                    kept.add(server);
+                }
+            }
+            Collections.sort(kept, new Comparator<RankedServer>() {
+                @Override
+                public int compare(RankedServer first, RankedServer second) {
+                    // Servers that could not be probed go last, in their original order.
+                    if (first.best == null || second.best == null) {
+                        if (first.best != second.best) {
+                            return first.best == null ? 1 : -1;
+                        }
+                        return Integer.compare(first.index, second.index);
+                    }
+                    return IceServerProber.compare(first.best, second.best);
+                }
+            });
+            for (RankedServer server : kept) {
+                rankedServers.add(server.server);
+            }
+        }
+        Result result = new Result(rankedServers, probes, udpProbed && !udpReachable);
+        Log.d(TAG, "Probed " + probes.size() + " ICE server URLs in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs) + " ms: " + result);
+        return result;
+    }
+
+    // Returns null for URLs that cannot be probed.
+    @VisibleForTesting
+    @Nullable
+    static Target parseUrl(String url) {
+        int schemeEnd = url.indexOf(':');
+        if (schemeEnd < 0) {
+            return null;
+        }
+        String scheme = url.substring(0, schemeEnd);
+        String address = url.substring(schemeEnd + 1);
+        String query = "";
+        int queryStart = address.indexOf('?');
+        if (queryStart >= 0) {
+            query = address.substring(queryStart + 1);
+            address = address.substring(0, queryStart);
+        }
+
+        final Transport transport;
+        final int defaultPort;
+        if (scheme.equals("stun")) {
+            transport = Transport.UDP;
+            defaultPort = STUN_PORT;
+        } else if (scheme.equals("turn")) {
+            transport = query.contains("transport=tcp") ? Transport.TCP : Transport.UDP;
+            defaultPort = STUN_PORT;
+        } else if (scheme.equals("stuns") || scheme.equals("turns")) {
+            transport = Transport.TLS;
+            defaultPort = STUNS_PORT;
+        } else {
+            return null;
+        }
+
+        String host = address;
+        String port = null;
+        if (address.startsWith("[")) {
+            int hostEnd = address.indexOf(']');
+            if (hostEnd < 0) {
+                return null;
+            }
+            host = address.substring(1, hostEnd);
+            if (address.length() > hostEnd + 1 && address.charAt(hostEnd + 1) == ':') {
+                port = address.substring(hostEnd + 2);
+            }
+        } else {
+            int portStart = address.lastIndexOf(':');
+            if (portStart >= 0) {
+                host = address.substring(0, portStart);
+                port = address.substring(portStart + 1);
+            }
+        }
+        if (host.isEmpty()) {
+            return null;
+        }
+        try {
+            return new Target(host, port != null ? Integer.parseInt(port) : defaultPort, transport);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // UDP before TCP before TLS, then by round trip time.
+    private static int compare(Probe first, Probe second) {
+        if (first.transport != second.transport) {
+            return first.transport.compareTo(second.transport);
+        }
+        return Long.compare(first.rttMs, second.rttMs);
+    }
+
+    private Probe awaitProbe(String url, Future<Probe> future) {
+        try {
+            // The probe enforces the timeout itself, this only guards against a stuck resolver.
+            return future.get(2 * timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            future.cancel(true);
+            Target target = parseUrl(url);
+            return new Probe(url, target != null ? target.transport : Transport.UDP, false, -1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Probe(url, Transport.UDP, false, -1);
+        }
+    }
+
+    private Probe probe(String url, Target target) {
+        final long deadlineNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        byte[] transactionId = new byte[12];
+        synchronized (random) {
+            random.nextBytes(transactionId);
+        }
+        try {
+            long rttMs = target.transport == Transport.UDP
+                    ? probeUdp(target, transactionId, deadlineNs)
+                    : probeStream(target, transactionId, deadlineNs);
+            return new Probe(url, target.transport, rttMs >= 0, rttMs);
+        } catch (IOException e) {
+            Log.d(TAG, "Probe of " + url + " failed: " + e.getMessage());
+            return new Probe(url, target.transport, false, -1);
+        }
+    }
+
+    // Returns the round trip time of the last sent request, -1 on timeout.
+    private static long probeUdp(Target target, byte[] transactionId, long deadlineNs)
+            throws IOException {
+        InetAddress address = InetAddress.getByName(target.host);
+        byte[] request = createBindingRequest(transactionId);
+        DatagramPacket requestPacket =
+                new DatagramPacket(request, request.length, address, target.port);
+        DatagramPacket responsePacket =
+                new DatagramPacket(new byte[STUN_MAX_MESSAGE_SIZE], STUN_MAX_MESSAGE_SIZE);
+        DatagramSocket socket = new DatagramSocket();
+        try {
+            long sendNs = System.nanoTime();
+            socket.send(requestPacket);
+            while (true) {
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadlineNs - System.nanoTime());
+                if (remainingMs <= 0) {
+                    return -1;
+                }
+                socket.setSoTimeout((int) Math.min(remainingMs, UDP_RETRANSMIT_MS));
+                try {
+                    socket.receive(responsePacket);
+                } catch (SocketTimeoutException e) {
+                    sendNs = System.nanoTime();
+                    socket.send(requestPacket);
+                    continue;
+                }
+                if (isBindingResponse(responsePacket.getData(), responsePacket.getLength(),
+                        transactionId)) {
+                    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sendNs);
+                }
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    // Returns the time from the start of the connection to the response, -1 on timeout.
+    private static long probeStream(Target target, byte[] transactionId, long deadlineNs)
+            throws IOException {
+        final long startNs = System.nanoTime();
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(target.host, target.port),
+                    (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadlineNs - startNs)));
+            socket.setSoTimeout(
+                    (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadlineNs - System.nanoTime())));
+            if (target.transport == Transport.TLS) {
+                SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                        .createSocket(socket, target.host, target.port, true);
+                sslSocket.startHandshake();
+                socket = sslSocket;
+            }
+            // STUN over TCP and TLS has no extra framing.
+            socket.getOutputStream().write(createBindingRequest(transactionId));
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] header = new byte[STUN_HEADER_SIZE];
+            in.readFully(header);
+            if (!isBindingResponse(header, header.length, transactionId)) {
+                return -1;
+            }
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+        } catch (SocketTimeoutException e) {
+            return -1;
+        } finally {
+            socket.close();
+        }
+    }
+
+    @VisibleForTesting
+    static byte[] createBindingRequest(byte[] transactionId) {
+        ByteBuffer buffer = ByteBuffer.allocate(STUN_HEADER_SIZE);
+        buffer.putShort(BINDING_REQUEST);
+        buffer.putShort((short) 0);
+        buffer.putInt(MAGIC_COOKIE);
+        buffer.put(transactionId);
+        return buffer.array();
+    }
+
+    // An error response proves reachability as well, e.g. from servers that require credentials.
+    private static boolean isBindingResponse(byte[] data, int length, byte[] transactionId) {
+        if (length < STUN_HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        short type = buffer.getShort();
+        buffer.getShort();
+        if ((type != BINDING_SUCCESS_RESPONSE && type != BINDING_ERROR_RESPONSE)
+                || buffer.getInt() != MAGIC_COOKIE) {
+            return false;
+        }
+        return Arrays.equals(transactionId, Arrays.copyOfRange(data, 8, STUN_HEADER_SIZE));
+    }
+}
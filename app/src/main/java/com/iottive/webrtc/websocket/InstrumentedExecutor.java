@@ -0,0 +1,116 @@
+package com.iottive.webrtc.websocket;
+
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Single thread executor that reports its queue depth and how long tasks wait and run. Tasks
+// submitted after shutdown are dropped instead of throwing, like posting to a quit looper.
+public class InstrumentedExecutor implements Executor {
+    private static final String TAG = "InstrumentedExecutor";
+
+    public static class Stats {
+        public final String name;
+        public final int queueDepth;
+        public final int maxQueueDepth;
+        public final long executedTasks;
+        public final long averageWaitUs;
+        public final long maxWaitUs;
+        public final long averageRunUs;
+        public final long maxRunUs;
+
+        Stats(String name, int queueDepth, int maxQueueDepth, long executedTasks,
+              long averageWaitUs, long maxWaitUs, long averageRunUs, long maxRunUs) {
+            this.name = name;
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.executedTasks = executedTasks;
+            this.averageWaitUs = averageWaitUs;
+            this.maxWaitUs = maxWaitUs;
+            this.averageRunUs = averageRunUs;
+            this.maxRunUs = maxRunUs;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + executedTasks + " tasks. Queue: " + queueDepth + " (max "
+                    + maxQueueDepth + "). Wait: " + averageWaitUs + " us avg, " + maxWaitUs
+                    + " us max. Run: " + averageRunUs + " us avg, " + maxRunUs + " us max";
+        }
+    }
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final Object statsLock = new Object();
+    private int queueDepth;
+    private int maxQueueDepth;
+    private long executedTasks;
+    private long totalWaitNs;
+    private long maxWaitNs;
+    private long totalRunNs;
+    private long maxRunNs;
+
+    public InstrumentedExecutor(final String name) {
+        this.name = name;
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> new Thread(runnable, name));
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        final long enqueuedNs = System.nanoTime();
+        synchronized (statsLock) {
+            queueDepth++;
+            maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+        }
+        try {
+            executor.execute(() -> {
+                long startNs = System.nanoTime();
+                synchronized (statsLock) {
+                    queueDepth--;
+                }
+                try {
+                    task.run();
+                } finally {
+                    long endNs = System.nanoTime();
+                    synchronized (statsLock) {
+                        executedTasks++;
+                        totalWaitNs += startNs - enqueuedNs;
+                        maxWaitNs = Math.max(maxWaitNs, startNs - enqueuedNs);
+                        totalRunNs += endNs - startNs;
+                        maxRunNs = Math.max(maxRunNs, endNs - startNs);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (statsLock) {
+                queueDepth--;
+            }
+            Log.w(TAG, name + " is shut down, dropping task.");
+        }
+    }
+
+    // Lets queued tasks finish, later tasks are dropped.
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    public Stats getStats() {
+        synchronized (statsLock) {
+            long divisor = Math.max(1, executedTasks);
+            return new Stats(name, queueDepth, maxQueueDepth, executedTasks,
+                    TimeUnit.NANOSECONDS.toMicros(totalWaitNs / divisor),
+                    TimeUnit.NANOSECONDS.toMicros(maxWaitNs),
+                    TimeUnit.NANOSECONDS.toMicros(totalRunNs / divisor),
+                    TimeUnit.NANOSECONDS.toMicros(maxRunNs));
+        }
+    }
+}
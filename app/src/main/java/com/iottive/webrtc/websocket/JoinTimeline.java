@@ -0,0 +1,62 @@
+package com.iottive.webrtc.websocket;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.concurrent.TimeUnit;
+
+// Records when each stage of a room join completed, relative to the creation of the timeline.
+// Stages may be marked from any thread, only the first mark of a stage is kept.
+public class JoinTimeline {
+    public enum Stage {
+        ROOM_CONNECT_STARTED,
+        FACTORY_CREATED,
+        CAPTURER_CREATED,
+        ROOM_PARAMETERS_RECEIVED,
+        TURN_SERVERS_RECEIVED,
+        WEBSOCKET_REGISTERED,
+        PEER_CONNECTION_CREATED,
+        LOCAL_DESCRIPTION_CREATED,
+        OFFER_SENT,
+        FIRST_LOCAL_CANDIDATE,
+        ICE_CONNECTED,
+        FIRST_REMOTE_FRAME
+    }
+
+    private final long originNs = nanoTime();
+    private final long[] stageNs = new long[Stage.values().length];
+
+    public synchronized boolean mark(Stage stage) {
+        if (stageNs[stage.ordinal()] != 0) {
+            return false;
+        }
+        stageNs[stage.ordinal()] = nanoTime();
+        return true;
+    }
+
+    @VisibleForTesting
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    // Returns -1 if the stage has not been reached yet.
+    public synchronized long getElapsedMs(Stage stage) {
+        long timeNs = stageNs[stage.ordinal()];
+        return timeNs == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(timeNs - originNs);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            long elapsedMs = getElapsedMs(stage);
+            if (elapsedMs < 0) {
+                continue;
+            }
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(stage).append("=").append(elapsedMs).append("ms");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,572 @@
+package com.iottive.webrtc.websocket;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.iottive.webrtc.websocket.PeerConnectionClient.PeerConnectionParameters;
+import com.iottive.webrtc.websocket.sdp.SdpRewriter;
+
+import org.webrtc.AudioSource;
+import org.webrtc.AudioTrack;
+import org.webrtc.DataChannel;
+import org.webrtc.EglBase;
+import org.webrtc.IceCandidate;
+import org.webrtc.MediaConstraints;
+import org.webrtc.MediaStream;
+import org.webrtc.MediaStreamTrack;
+import org.webrtc.PeerConnection;
+import org.webrtc.PeerConnection.IceConnectionState;
+import org.webrtc.PeerConnection.PeerConnectionState;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.RtpReceiver;
+import org.webrtc.SdpObserver;
+import org.webrtc.SessionDescription;
+import org.webrtc.SurfaceTextureHelper;
+import org.webrtc.VideoCapturer;
+import org.webrtc.VideoSink;
+import org.webrtc.VideoSource;
+import org.webrtc.VideoTrack;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Small group mesh call with one peer connection per remote client. All peers share a factory
+// leased from the PeerConnectionFactoryPool, with its audio device module, and one capture
+// pipeline: the local tracks are added to every peer connection, so the camera is captured once
+// while each peer still gets its own encoder. Peer state is keyed by remote client id and a
+// failing peer is closed without affecting the others. All work runs on the session executor,
+// events are called on it.
+public class MeshSession {
+    private static final String TAG = "MeshSession";
+    private static final String AUDIO_TRACK_ID = "ARDAMSa0";
+    private static final String VIDEO_TRACK_ID = "ARDAMSv0";
+    private static final String STREAM_ID = "ARDAMS";
+    private static final int DEFAULT_VIDEO_WIDTH = 1280;
+    private static final int DEFAULT_VIDEO_HEIGHT = 720;
+    private static final int DEFAULT_VIDEO_FPS = 30;
+    private static final AtomicInteger instanceCount = new AtomicInteger();
+
+    public interface MeshEvents {
+        void onLocalDescription(String remoteClientId, SessionDescription desc);
+
+        void onIceCandidate(String remoteClientId, IceCandidate candidate);
+
+        void onIceCandidatesRemoved(String remoteClientId, IceCandidate[] candidates);
+
+        void onPeerConnected(String remoteClientId);
+
+        void onPeerDisconnected(String remoteClientId);
+
+        // The peer has been closed and removed.
+        void onPeerError(String remoteClientId, String description);
+
+        // Failure of the shared factory or capture, every peer is affected.
+        void onSessionError(String description);
+
+        // Everything is disposed and the pooled factory and EGL context are released.
+        void onSessionClosed();
+    }
+
+    private final InstrumentedExecutor executor;
+    private final Context appContext;
+    private final PeerConnectionFactoryPool factoryPool;
+    private final PeerConnectionParameters parameters;
+    private final MeshEvents events;
+    private final HashMap<String, Peer> peers = new HashMap<>();
+    private volatile int peerCount;
+
+    @Nullable
+    private PeerConnectionFactoryPool.Lease factoryLease;
+    @Nullable
+    private PeerConnectionFactory factory;
+    // Held from start until close, the capture pipeline and hardware codecs use its context.
+    @Nullable
+    private EglBase eglBase;
+    @Nullable
+    private AudioSource audioSource;
+    @Nullable
+    private AudioTrack localAudioTrack;
+    @Nullable
+    private SurfaceTextureHelper surfaceTextureHelper;
+    @Nullable
+    private VideoSource videoSource;
+    @Nullable
+    private VideoCapturer videoCapturer;
+    @Nullable
+    private VideoTrack localVideoTrack;
+    private List<PeerConnection.IceServer> iceServers;
+    private MediaConstraints sdpMediaConstraints;
+    private boolean preferIsac;
+    private boolean closed;
+
+    // The factory and the EGL context come from |factoryPool|, which also initializes the library
+    // with the field trials of |parameters|.
+    public MeshSession(Context appContext, PeerConnectionFactoryPool factoryPool,
+                       PeerConnectionParameters parameters, MeshEvents events) {
+        this.appContext = appContext;
+        this.factoryPool = factoryPool;
+        this.parameters = parameters;
+        this.events = events;
+        executor = new InstrumentedExecutor("MeshSession-" + instanceCount.incrementAndGet());
+    }
+
+    // Creates the shared factory and local tracks. Without a capturer the session only receives
+    // video.
+    public void start(@Nullable final VideoSink localRender,
+                      @Nullable final VideoCapturer videoCapturer,
+                      final List<PeerConnection.IceServer> iceServers) {
+        executor.execute(() -> {
+            try {
+                startInternal(localRender, videoCapturer, iceServers);
+            } catch (RuntimeException e) {
+                reportSessionError("Failed to start mesh session: " + e.getMessage());
+            }
+        });
+    }
+
+    public void addPeer(final String remoteClientId, final boolean initiator,
+                        @Nullable final VideoSink remoteSink) {
+        executor.execute(() -> {
+            if (factory == null || closed) {
+                Log.e(TAG, "Adding peer " + remoteClientId + " to a session that is not started.");
+                return;
+            }
+            if (peers.containsKey(remoteClientId)) {
+                Log.w(TAG, "Peer " + remoteClientId + " already exists.");
+                return;
+            }
+            Peer peer = new Peer(remoteClientId, initiator, remoteSink);
+            peers.put(remoteClientId, peer);
+            peerCount = peers.size();
+            Log.d(TAG, "Added peer " + remoteClientId + ", " + peerCount + " peers.");
+            peer.connect();
+        });
+    }
+
+    public void removePeer(final String remoteClientId) {
+        executor.execute(() -> closePeer(remoteClientId));
+    }
+
+    public void setRemoteDescription(final String remoteClientId, final SessionDescription desc) {
+        executor.execute(() -> {
+            Peer peer = peers.get(remoteClientId);
+            if (peer == null) {
+                Log.w(TAG, "Remote SDP for unknown peer " + remoteClientId);
+                return;
+            }
+            peer.setRemoteDescription(desc);
+        });
+    }
+
+    public void addRemoteIceCandidate(final String remoteClientId, final IceCandidate candidate) {
+        executor.execute(() -> {
+            Peer peer = peers.get(remoteClientId);
+            if (peer != null) {
+                peer.addRemoteIceCandidate(candidate);
+            }
+        });
+    }
+
+    public void removeRemoteIceCandidates(final String remoteClientId,
+                                          final IceCandidate[] candidates) {
+        executor.execute(() -> {
+            Peer peer = peers.get(remoteClientId);
+            if (peer != null) {
+                peer.removeRemoteIceCandidates(candidates);
+            }
+        });
+    }
+
+    public void setAudioEnabled(final boolean enable) {
+        executor.execute(() -> {
+            if (localAudioTrack != null) {
+                localAudioTrack.setEnabled(enable);
+            }
+        });
+    }
+
+    public void setVideoEnabled(final boolean enable) {
+        executor.execute(() -> {
+            if (localVideoTrack != null) {
+                localVideoTrack.setEnabled(enable);
+            }
+        });
+    }
+
+    public int getPeerCount() {
+        return peerCount;
+    }
+
+    public InstrumentedExecutor.Stats getExecutorStats() {
+        return executor.getStats();
+    }
+
+    public void close() {
+        executor.execute(this::closeInternal);
+    }
+
+    private void startInternal(@Nullable VideoSink localRender,
+                               @Nullable VideoCapturer capturer,
+                               List<PeerConnection.IceServer> iceServers) {
+        if (eglBase != null || closed) {
+            Log.w(TAG, "Mesh session has already been started.");
+            return;
+        }
+        this.iceServers = iceServers;
+        preferIsac = PeerConnectionClient.AUDIO_CODEC_ISAC.equals(parameters.audioCodec);
+
+        eglBase = factoryPool.acquireEglBase();
+        PeerConnectionFactoryPool.Config config =
+                PeerConnectionFactoryPool.Config.create(parameters, null);
+        factoryLease = factoryPool.acquireFactory(config, this::reportSessionError);
+        factory = factoryLease.getFactory();
+
+        audioSource = factory.createAudioSource(
+                PeerConnectionClient.createAudioConstraints(parameters));
+        localAudioTrack = factory.createAudioTrack(AUDIO_TRACK_ID, audioSource);
+
+        if (parameters.videoCallEnabled && capturer != null) {
+            int width = parameters.videoWidth > 0 ? parameters.videoWidth : DEFAULT_VIDEO_WIDTH;
+            int height = parameters.videoHeight > 0 ? parameters.videoHeight : DEFAULT_VIDEO_HEIGHT;
+            int fps = parameters.videoFps > 0 ? parameters.videoFps : DEFAULT_VIDEO_FPS;
+            videoCapturer = capturer;
+            surfaceTextureHelper =
+                    SurfaceTextureHelper.create("MeshCaptureThread", eglBase.getEglBaseContext());
+            videoSource = factory.createVideoSource(capturer.isScreencast());
+            capturer.initialize(surfaceTextureHelper, appContext, videoSource.getCapturerObserver());
+            capturer.startCapture(width, height, fps);
+            localVideoTrack = factory.createVideoTrack(VIDEO_TRACK_ID, videoSource);
+            if (localRender != null) {
+                localVideoTrack.addSink(localRender);
+            }
+            Log.d(TAG, "Capturing format: " + width + "x" + height + "@" + fps);
+        }
+
+        sdpMediaConstraints = new MediaConstraints();
+        sdpMediaConstraints.mandatory.add(
+                new MediaConstraints.KeyValuePair("OfferToReceiveAudio", "true"));
+        sdpMediaConstraints.mandatory.add(new MediaConstraints.KeyValuePair(
+                "OfferToReceiveVideo", Boolean.toString(parameters.videoCallEnabled)));
+        Log.d(TAG, "Mesh session started.");
+    }
+
+    private void closePeer(String remoteClientId) {
+        Peer peer = peers.remove(remoteClientId);
+        if (peer == null) {
+            return;
+        }
+        peer.close();
+        peerCount = peers.size();
+        Log.d(TAG, "Removed peer " + remoteClientId + ", " + peerCount + " peers.");
+    }
+
+    private void closeInternal() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (String remoteClientId : new ArrayList<>(peers.keySet())) {
+            closePeer(remoteClientId);
+        }
+        if (audioSource != null) {
+            audioSource.dispose();
+            audioSource = null;
+        }
+        if (videoCapturer != null) {
+            try {
+                videoCapturer.stopCapture();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            videoCapturer.dispose();
+            videoCapturer = null;
+        }
+        if (videoSource != null) {
+            videoSource.dispose();
+            videoSource = null;
+        }
+        if (surfaceTextureHelper != null) {
+            surfaceTextureHelper.dispose();
+            surfaceTextureHelper = null;
+        }
+        localAudioTrack = null;
+        localVideoTrack = null;
+        factory = null;
+        if (factoryLease != null) {
+            factoryLease.release();
+            factoryLease = null;
+        }
+        // Nothing uses the EGL context any more.
+        if (eglBase != null) {
+            factoryPool.releaseEglBase();
+            eglBase = null;
+        }
+        Log.d(TAG, "Mesh session closed. " + executor.getStats());
+        events.onSessionClosed();
+        executor.shutdown();
+    }
+
+    private void reportSessionError(final String description) {
+        Log.e(TAG, "Mesh session error: " + description);
+        executor.execute(() -> {
+            if (!closed) {
+                events.onSessionError(description);
+            }
+        });
+    }
+
+    private SdpRewriter createSdpRewriter(String sdp) {
+        SdpRewriter rewriter = new SdpRewriter(sdp);
+        if (preferIsac) {
+            rewriter.preferCodec(PeerConnectionClient.AUDIO_CODEC_ISAC, true);
+        }
+        if (parameters.videoCallEnabled) {
+            rewriter.preferCodec(PeerConnectionClient.getSdpVideoCodecName(parameters), false);
+        }
+        return rewriter;
+    }
+
+    // State of the connection to one remote client. Observer callbacks hop to the session executor
+    // and are ignored once the peer has been removed.
+    private class Peer implements PeerConnection.Observer, SdpObserver {
+        private final String remoteClientId;
+        private final boolean initiator;
+        @Nullable
+        private final VideoSink remoteSink;
+        @Nullable
+        private PeerConnection peerConnection;
+        // Remote candidates received before the remote description, null once it is set.
+        @Nullable
+        private List<IceCandidate> queuedRemoteCandidates = new ArrayList<>();
+        @Nullable
+        private SessionDescription localDescription;
+        private boolean localDescriptionSent;
+
+        Peer(String remoteClientId, boolean initiator, @Nullable VideoSink remoteSink) {
+            this.remoteClientId = remoteClientId;
+            this.initiator = initiator;
+            this.remoteSink = remoteSink;
+        }
+
+        void connect() {
+            peerConnection = factory.createPeerConnection(
+                    PeerConnectionClient.createRtcConfig(iceServers, parameters, false), this);
+            if (peerConnection == null) {
+                fail("Failed to create peer connection.");
+                return;
+            }
+            List<String> streamIds = Collections.singletonList(STREAM_ID);
+            if (localVideoTrack != null) {
+                peerConnection.addTrack(localVideoTrack, streamIds);
+            }
+            peerConnection.addTrack(localAudioTrack, streamIds);
+            if (initiator) {
+                Log.d(TAG, "Create OFFER for " + remoteClientId);
+                peerConnection.createOffer(this, sdpMediaConstraints);
+            }
+        }
+
+        void setRemoteDescription(SessionDescription desc) {
+            if (peerConnection == null) {
+                return;
+            }
+            SdpRewriter rewriter = createSdpRewriter(desc.description);
+            if (parameters.audioStartBitrate > 0) {
+                rewriter.setStartBitrate(
+                        PeerConnectionClient.AUDIO_CODEC_OPUS, false, parameters.audioStartBitrate);
+            }
+            peerConnection.setRemoteDescription(
+                    this, new SessionDescription(desc.type, rewriter.rewrite()));
+        }
+
+        void addRemoteIceCandidate(IceCandidate candidate) {
+            if (peerConnection == null) {
+                return;
+            }
+            if (queuedRemoteCandidates != null) {
+                queuedRemoteCandidates.add(candidate);
+            } else {
+                peerConnection.addIceCandidate(candidate);
+            }
+        }
+
+        void removeRemoteIceCandidates(IceCandidate[] candidates) {
+            if (peerConnection == null) {
+                return;
+            }
+            drainCandidates();
+            peerConnection.removeIceCandidates(candidates);
+        }
+
+        void close() {
+            if (peerConnection != null) {
+                peerConnection.dispose();
+                peerConnection = null;
+            }
+            queuedRemoteCandidates = null;
+        }
+
+        private void drainCandidates() {
+            if (queuedRemoteCandidates != null) {
+                for (IceCandidate candidate : queuedRemoteCandidates) {
+                    peerConnection.addIceCandidate(candidate);
+                }
+                queuedRemoteCandidates = null;
+            }
+        }
+
+        private boolean isActive() {
+            return peers.get(remoteClientId) == this && peerConnection != null;
+        }
+
+        private void fail(final String description) {
+            executor.execute(() -> {
+                if (peers.get(remoteClientId) != this) {
+                    return;
+                }
+                Log.e(TAG, "Peer " + remoteClientId + " error: " + description);
+                closePeer(remoteClientId);
+                events.onPeerError(remoteClientId, description);
+            });
+        }
+
+        // SdpObserver.
+
+        @Override
+        public void onCreateSuccess(final SessionDescription desc) {
+            final SessionDescription newDesc =
+                    new SessionDescription(desc.type, createSdpRewriter(desc.description).rewrite());
+            executor.execute(() -> {
+                if (!isActive() || localDescription != null) {
+                    return;
+                }
+                localDescription = newDesc;
+                peerConnection.setLocalDescription(this, newDesc);
+            });
+        }
+
+        @Override
+        public void onSetSuccess() {
+            executor.execute(() -> {
+                if (!isActive()) {
+                    return;
+                }
+                if (peerConnection.getRemoteDescription() != null) {
+                    drainCandidates();
+                }
+                if (localDescription == null) {
+                    if (!initiator) {
+                        Log.d(TAG, "Create ANSWER for " + remoteClientId);
+                        peerConnection.createAnswer(this, sdpMediaConstraints);
+                    }
+                } else if (!localDescriptionSent) {
+                    localDescriptionSent = true;
+                    events.onLocalDescription(remoteClientId, localDescription);
+                }
+            });
+        }
+
+        @Override
+        public void onCreateFailure(String error) {
+            fail("createSDP error: " + error);
+        }
+
+        @Override
+        public void onSetFailure(String error) {
+            fail("setSDP error: " + error);
+        }
+
+        // PeerConnection.Observer.
+
+        @Override
+        public void onIceCandidate(final IceCandidate candidate) {
+            executor.execute(() -> {
+                if (isActive()) {
+                    events.onIceCandidate(remoteClientId, candidate);
+                }
+            });
+        }
+
+        @Override
+        public void onIceCandidatesRemoved(final IceCandidate[] candidates) {
+            executor.execute(() -> {
+                if (isActive()) {
+                    events.onIceCandidatesRemoved(remoteClientId, candidates);
+                }
+            });
+        }
+
+        @Override
+        public void onSignalingChange(PeerConnection.SignalingState newState) {
+            Log.d(TAG, remoteClientId + " SignalingState: " + newState);
+        }
+
+        @Override
+        public void onIceConnectionChange(IceConnectionState newState) {
+            Log.d(TAG, remoteClientId + " IceConnectionState: " + newState);
+            if (newState == IceConnectionState.FAILED) {
+                fail("ICE connection failed.");
+            }
+        }
+
+        @Override
+        public void onConnectionChange(final PeerConnectionState newState) {
+            executor.execute(() -> {
+                if (!isActive()) {
+                    return;
+                }
+                Log.d(TAG, remoteClientId + " PeerConnectionState: " + newState);
+                if (newState == PeerConnectionState.CONNECTED) {
+                    events.onPeerConnected(remoteClientId);
+                } else if (newState == PeerConnectionState.DISCONNECTED) {
+                    events.onPeerDisconnected(remoteClientId);
+                } else if (newState == PeerConnectionState.FAILED) {
+                    fail("DTLS connection failed.");
+                }
+            });
+        }
+
+        @Override
+        public void onIceConnectionReceivingChange(boolean receiving) {
+        }
+
+        @Override
+        public void onIceGatheringChange(PeerConnection.IceGatheringState newState) {
+        }
+
+        @Override
+        public void onAddStream(MediaStream stream) {
+        }
+
+        @Override
+        public void onRemoveStream(MediaStream stream) {
+        }
+
+        @Override
+        public void onDataChannel(DataChannel dataChannel) {
+        }
+
+        @Override
+        public void onRenegotiationNeeded() {
+        }
+
+        @Override
+        public void onAddTrack(final RtpReceiver receiver, MediaStream[] mediaStreams) {
+            executor.execute(() -> {
+                // A removed peer has disposed its receivers already.
+                if (!isActive() || remoteSink == null) {
+                    return;
+                }
+                MediaStreamTrack track = receiver.track();
+                if (track instanceof VideoTrack) {
+                    ((VideoTrack) track).addSink(remoteSink);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.iottive.webrtc.websocket;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Single I/O thread shared by all NioTCPChannelClient connections.
+class NioSelectorThread extends Thread {
+    private static final String TAG = "NioSelectorThread";
+
+    @Nullable
+    private static NioSelectorThread instance;
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+
+    interface SelectionHandler {
+        void onSelected(SelectionKey key);
+    }
+
+    static synchronized NioSelectorThread getInstance() throws IOException {
+        if (instance == null) {
+            instance = new NioSelectorThread(Selector.open());
+            instance.start();
+        }
+        return instance;
+    }
+
+    private NioSelectorThread(Selector selector) {
+        super(TAG);
+        this.selector = selector;
+        setDaemon(true);
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    boolean isCurrentThread() {
+        return Thread.currentThread() == this;
+    }
+
+    void post(Runnable task) {
+        pendingTasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                Log.e(TAG, "Select failed: " + e.getMessage());
+                continue;
+            }
+            Runnable task;
+            while ((task = pendingTasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Selector task failed", e);
+                }
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                try {
+                    ((SelectionHandler) key.attachment()).onSelected(key);
+                } catch (RuntimeException e) {
+                    // One broken connection must not stop the other sessions sharing this thread.
+                    Log.e(TAG, "Selection handler failed", e);
+                    key.cancel();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package com.iottive.webrtc.websocket;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import org.webrtc.ThreadUtils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Non-blocking variant of TCPChannelClient. All connections share the NioSelectorThread, inbound
+// lines and frames of one read are delivered in a single executor task and queued outbound messages
+// are written with one gathering write.
+public class NioTCPChannelClient implements TCPChannel, NioSelectorThread.SelectionHandler {
+    private static final String TAG = "NioTCPChannelClient";
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int INITIAL_LINE_BUFFER_SIZE = 4 * 1024;
+    private static final int MAX_GATHERED_BUFFERS = 64;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ExecutorService executor;
+    private final ThreadUtils.ThreadChecker executorThreadCheck;
+    private final TCPChannelClient.TCPChannelEvents eventListener;
+    private final ConcurrentLinkedQueue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushPosted = new AtomicBoolean();
+    @Nullable
+    private NioSelectorThread selectorThread;
+
+    // Accessed on the selector thread only.
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final List<ByteBuffer> pendingWrites = new ArrayList<>();
+    private byte[] lineBuffer = new byte[INITIAL_LINE_BUFFER_SIZE];
+    private int lineLength;
+    // Where the search for '\n' resumes when a text line spans several reads.
+    private int scanIndex;
+    @Nullable
+    private ServerSocketChannel serverChannel;
+    @Nullable
+    private SocketChannel channel;
+    @Nullable
+    private SelectionKey channelKey;
+    private boolean isServer;
+    private boolean connected;
+    private boolean closed;
+    private volatile int localPort;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushPosted.set(false);
+            try {
+                flushWrites();
+            } catch (IOException e) {
+                reportError("Failed to write to channel: " + e.getMessage());
+                close();
+            }
+        }
+    };
+
+    public NioTCPChannelClient(ExecutorService executor,
+                               TCPChannelClient.TCPChannelEvents eventListener, String ip, final int port) {
+        this.executor = executor;
+        executorThreadCheck = new ThreadUtils.ThreadChecker();
+        executorThreadCheck.detachThread();
+        this.eventListener = eventListener;
+
+        final InetAddress address;
+        try {
+            address = InetAddress.getByName(ip);
+        } catch (UnknownHostException e) {
+            reportError("Invalid IP address.");
+            return;
+        }
+        try {
+            selectorThread = NioSelectorThread.getInstance();
+        } catch (IOException e) {
+            reportError("Failed to open selector: " + e.getMessage());
+            return;
+        }
+
+        isServer = address.isAnyLocalAddress();
+        selectorThread.post(new Runnable() {
+            @Override
+            public void run() {
+                open(address, port);
+            }
+        });
+    }
+
+    @Override
+    public void disconnect() {
+        executorThreadCheck.checkIsOnValidThread();
+
+        if (selectorThread == null) {
+            return;
+        }
+        selectorThread.post(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+    }
+
+    @VisibleForTesting
+    int getLocalPort() {
+        return localPort;
+    }
+
+    @Override
+    public void send(String message) {
+        executorThreadCheck.checkIsOnValidThread();
+
+        Log.v(TAG, "Send: " + message);
+        enqueue((message + "\n").getBytes(UTF_8));
+    }
+
+    @Override
+    public void sendBinary(int type, byte[] payload) {
+        executorThreadCheck.checkIsOnValidThread();
+
+        Log.v(TAG, "Send binary frame " + type);
+        enqueue(SignalingFrameCodec.encodeFrame(type, payload));
+    }
+
+    private void enqueue(byte[] data) {
+        if (selectorThread == null) {
+            reportError("Sending data on closed socket.");
+            return;
+        }
+        writeQueue.add(ByteBuffer.wrap(data));
+        if (flushPosted.compareAndSet(false, true)) {
+            selectorThread.post(flushTask);
+        }
+    }
+
+    @Override
+    public void onSelected(SelectionKey key) {
+        if (closed) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            try {
+                accept();
+            } catch (IOException e) {
+                reportError("Failed to receive connection: " + e.getMessage());
+                close();
+            }
+            return;
+        }
+        if (key.isConnectable()) {
+            try {
+                if (channel.finishConnect()) {
+                    onConnected();
+                }
+            } catch (IOException e) {
+                reportError("Failed to connect: " + e.getMessage());
+                close();
+            }
+            return;
+        }
+        try {
+            if (key.isReadable()) {
+                read();
+            }
+            if (!closed && key.isValid() && key.isWritable()) {
+                flushWrites();
+            }
+        } catch (IOException e) {
+            reportError("Failed to read from channel: " + e.getMessage());
+            close();
+        }
+    }
+
+    private void open(InetAddress address, int port) {
+        try {
+            if (isServer) {
+                Log.d(TAG, "Listening on [" + address.getHostAddress() + "]:" + port);
+                serverChannel = ServerSocketChannel.open();
+                serverChannel.configureBlocking(false);
+                serverChannel.socket().setReuseAddress(true);
+                serverChannel.socket().bind(new InetSocketAddress(address, port));
+                localPort = serverChannel.socket().getLocalPort();
+                serverChannel.register(selectorThread.getSelector(), SelectionKey.OP_ACCEPT, this);
+            } else {
+                Log.d(TAG, "Connecting to [" + address.getHostAddress() + "]:" + port);
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channelKey = channel.register(selectorThread.getSelector(), SelectionKey.OP_CONNECT, this);
+                if (channel.connect(new InetSocketAddress(address, port))) {
+                    onConnected();
+                }
+            }
+        } catch (IOException e) {
+            reportError((isServer ? "Failed to create server socket: " : "Failed to connect: ")
+                    + e.getMessage());
+            close();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel accepted = serverChannel.accept();
+        if (accepted == null) {
+            return;
+        }
+        // Only a single peer is served, same as TCPChannelClient.
+        serverChannel.close();
+        serverChannel = null;
+        accepted.configureBlocking(false);
+        channel = accepted;
+        channelKey = accepted.register(selectorThread.getSelector(), SelectionKey.OP_READ, this);
+        onConnected();
+    }
+
+    private void onConnected() throws IOException {
+        Log.d(TAG, "TCP connection established.");
+        channel.socket().setTcpNoDelay(true);
+        channelKey.interestOps(SelectionKey.OP_READ);
+        connected = true;
+        postEvent(new Runnable() {
+            @Override
+            public void run() {
+                eventListener.onTCPConnected(isServer);
+            }
+        });
+        // Messages sent before the connection was established.
+        flushWrites();
+    }
+
+    private void read() throws IOException {
+        readBuffer.clear();
+        int bytesRead = channel.read(readBuffer);
+        if (bytesRead < 0) {
+            Log.d(TAG, "Channel closed by peer.");
+            close();
+            return;
+        }
+        readBuffer.flip();
+        if (lineLength + bytesRead > lineBuffer.length) {
+            byte[] grown = new byte[Math.max(lineBuffer.length * 2, lineLength + bytesRead)];
+            System.arraycopy(lineBuffer, 0, grown, 0, lineLength);
+            lineBuffer = grown;
+        }
+        readBuffer.get(lineBuffer, lineLength, bytesRead);
+        lineLength += bytesRead;
+
+        // Holds Strings for text lines and SignalingFrameCodec.Frames for binary frames.
+        List<Object> messages = null;
+        int messageStart = 0;
+        while (messageStart < lineLength) {
+            Object message;
+            int messageEnd;
+            if (SignalingFrameCodec.isFrameStart(lineBuffer[messageStart])) {
+                int headerLength =
+                        SignalingFrameCodec.varintLength(lineBuffer, messageStart + 1, lineLength);
+                if (headerLength == 0) {
+                    break;
+                }
+                int payloadStart = messageStart + 1 + headerLength;
+                messageEnd = payloadStart
+                        + SignalingFrameCodec.readVarint(lineBuffer, messageStart + 1);
+                if (messageEnd > lineLength) {
+                    break;
+                }
+                byte[] payload = new byte[messageEnd - payloadStart];
+                System.arraycopy(lineBuffer, payloadStart, payload, 0, payload.length);
+                message = new SignalingFrameCodec.Frame(lineBuffer[messageStart], payload);
+            } else {
+                int newline = -1;
+                for (int i = Math.max(messageStart, scanIndex); i < lineLength; i++) {
+                    if (lineBuffer[i] == '\n') {
+                        newline = i;
+                        break;
+                    }
+                }
+                if (newline < 0) {
+                    scanIndex = lineLength;
+                    break;
+                }
+                int lineEnd = (newline > messageStart && lineBuffer[newline - 1] == '\r')
+                        ? newline - 1 : newline;
+                message = new String(lineBuffer, messageStart, lineEnd - messageStart, UTF_8);
+                messageEnd = newline + 1;
+            }
+            if (messages == null) {
+                messages = new ArrayList<>();
+            }
+            messages.add(message);
+            messageStart = messageEnd;
+            scanIndex = messageStart;
+        }
+        if (messageStart > 0) {
+            System.arraycopy(lineBuffer, messageStart, lineBuffer, 0, lineLength - messageStart);
+            lineLength -= messageStart;
+            scanIndex = Math.max(0, scanIndex - messageStart);
+        }
+        if (messages != null) {
+            deliverMessages(messages);
+        }
+    }
+
+    private void deliverMessages(final List<Object> messages) {
+        postEvent(new Runnable() {
+            @Override
+            public void run() {
+                for (Object message : messages) {
+                    if (message instanceof SignalingFrameCodec.Frame) {
+                        SignalingFrameCodec.Frame frame = (SignalingFrameCodec.Frame) message;
+                        Log.v(TAG, "Receive binary frame " + frame.type);
+                        eventListener.onTCPBinaryMessage(frame.type, frame.payload);
+                    } else {
+                        Log.v(TAG, "Receive: " + message);
+                        eventListener.onTCPMessage((String) message);
+                    }
+                }
+            }
+        });
+    }
+
+    private void flushWrites() throws IOException {
+        if (!connected || closed) {
+            return;
+        }
+        ByteBuffer queued;
+        while ((queued = writeQueue.poll()) != null) {
+            pendingWrites.add(queued);
+        }
+        while (!pendingWrites.isEmpty()) {
+            int count = Math.min(pendingWrites.size(), MAX_GATHERED_BUFFERS);
+            ByteBuffer[] buffers = pendingWrites.subList(0, count).toArray(new ByteBuffer[count]);
+            channel.write(buffers);
+            int written = 0;
+            while (written < count && !buffers[written].hasRemaining()) {
+                written++;
+            }
+            pendingWrites.subList(0, written).clear();
+            if (written < count) {
+                // Socket send buffer is full, continue once the channel is writable.
+                channelKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        channelKey.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+                serverChannel = null;
+            }
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        } catch (IOException e) {
+            reportError("Failed to close channel: " + e.getMessage());
+        }
+        writeQueue.clear();
+        pendingWrites.clear();
+        if (connected) {
+            postEvent(new Runnable() {
+                @Override
+                public void run() {
+                    eventListener.onTCPClose();
+                }
+            });
+        }
+    }
+
+    private void reportError(final String message) {
+        Log.e(TAG, "TCP Error: " + message);
+        postEvent(new Runnable() {
+            @Override
+            public void run() {
+                eventListener.onTCPError(message);
+            }
+        });
+    }
+
+    // The owner may shut its executor down right after disconnect(), before the selector thread has
+    // closed the channel, and the shared selector thread must not be taken down by that.
+    private void postEvent(Runnable event) {
+        try {
+            executor.execute(event);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Dropping TCP event, executor is shut down.");
+        }
+    }
+}
@@ -7,7 +7,11 @@ import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+import com.iottive.webrtc.websocket.adaptation.AdaptiveBitrateController;
+import com.iottive.webrtc.websocket.adaptation.CaptureFormatLadder;
 import com.iottive.webrtc.websocket.apprtc.AppRTCClient;
+import com.iottive.webrtc.websocket.sdp.SdpRewriter;
+import com.iottive.webrtc.websocket.stats.StatsPipeline;
 
 import org.webrtc.AudioSource;
 import org.webrtc.AudioTrack;
@@ -26,6 +30,8 @@ import org.webrtc.PeerConnection;
 import org.webrtc.PeerConnection.IceConnectionState;
 import org.webrtc.PeerConnection.PeerConnectionState;
 import org.webrtc.PeerConnectionFactory;
+import org.webrtc.RTCStatsCollectorCallback;
+import org.webrtc.RTCStatsReport;
 import org.webrtc.RtpParameters;
 import org.webrtc.RtpReceiver;
 import org.webrtc.RtpSender;
@@ -34,8 +40,6 @@ import org.webrtc.SdpObserver;
 import org.webrtc.SessionDescription;
 import org.webrtc.SoftwareVideoDecoderFactory;
 import org.webrtc.SoftwareVideoEncoderFactory;
-import org.webrtc.StatsObserver;
-import org.webrtc.StatsReport;
 import org.webrtc.SurfaceTextureHelper;
 import org.webrtc.VideoCapturer;
 import org.webrtc.VideoDecoderFactory;
@@ -49,6 +53,7 @@ import org.webrtc.audio.JavaAudioDeviceModule.AudioRecordErrorCallback;
 import org.webrtc.audio.JavaAudioDeviceModule.AudioRecordStateCallback;
 import org.webrtc.audio.JavaAudioDeviceModule.AudioTrackErrorCallback;
 import org.webrtc.audio.JavaAudioDeviceModule.AudioTrackStateCallback;
+import org.webrtc.audio.JavaAudioDeviceModule.SamplesReadyCallback;
 
 import java.io.File;
 import java.io.IOException;
@@ -60,15 +65,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PeerConnectionClient {
     public static final String VIDEO_TRACK_ID = "ARDAMSv0";
@@ -79,16 +81,14 @@ public class PeerConnectionClient {
     private static final String VIDEO_CODEC_VP9 = "VP9";
     private static final String VIDEO_CODEC_H264 = "H264";
     private static final String VIDEO_CODEC_H264_BASELINE = "H264 Baseline";
-    private static final String VIDEO_CODEC_H264_HIGH = "H264 High";
-    private static final String AUDIO_CODEC_OPUS = "opus";
-    private static final String AUDIO_CODEC_ISAC = "ISAC";
-    private static final String VIDEO_CODEC_PARAM_START_BITRATE = "x-google-start-bitrate";
+    static final String VIDEO_CODEC_H264_HIGH = "H264 High";
+    static final String AUDIO_CODEC_OPUS = "opus";
+    static final String AUDIO_CODEC_ISAC = "ISAC";
     private static final String VIDEO_FLEXFEC_FIELDTRIAL =
             "WebRTC-FlexFEC-03-Advertised/Enabled/WebRTC-FlexFEC-03/Enabled/";
     private static final String VIDEO_VP8_INTEL_HW_ENCODER_FIELDTRIAL = "WebRTC-IntelVP8/Enabled/";
     private static final String DISABLE_WEBRTC_AGC_FIELDTRIAL =
             "WebRTC-Audio-MinimizeResamplingOnMobile/Enabled/";
-    private static final String AUDIO_CODEC_PARAM_BITRATE = "maxaveragebitrate";
     private static final String AUDIO_ECHO_CANCELLATION_CONSTRAINT = "googEchoCancellation";
     private static final String AUDIO_AUTO_GAIN_CONTROL_CONSTRAINT = "googAutoGainControl";
     private static final String AUDIO_HIGH_PASS_FILTER_CONSTRAINT = "googHighpassFilter";
@@ -98,19 +98,54 @@ public class PeerConnectionClient {
     private static final int HD_VIDEO_HEIGHT = 720;
     private static final int BPS_IN_KBPS = 1000;
     private static final String RTCEVENTLOG_OUTPUT_DIR_NAME = "rtc_event_log";
-    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final int TURN_SERVERS_TIMEOUT_MS = 10000;
+    // All media is bundled on one transport, so one pooled gathering session is enough.
+    private static final int ICE_CANDIDATE_POOL_SIZE = 1;
+    // The probe normally completes while the WebSocket connection is set up.
+    private static final long ICE_SERVER_PROBE_TIMEOUT_MS = 2 * IceServerProber.DEFAULT_TIMEOUT_MS;
+    // Budget split across simulcast layers when no maximum bitrate was configured.
+    private static final int DEFAULT_VIDEO_MAX_BITRATE_KBPS = 2500;
+    private static final AtomicInteger instanceCount = new AtomicInteger();
+
+    // Signaling and peer connection state of this call only, so calls do not queue behind each
+    // other. Stats parsing and file writes run on the worker and keep it responsive.
+    private final InstrumentedExecutor executor;
+    private final InstrumentedExecutor workerExecutor;
 
     private final PCObserver pcObserver = new PCObserver();
     private final SDPObserver sdpObserver = new SDPObserver();
+    private final SpeculativeOfferObserver speculativeOfferObserver = new SpeculativeOfferObserver();
     private final Timer statsTimer = new Timer();
+    private final StatsPipeline statsPipeline = new StatsPipeline();
     private final EglBase rootEglBase;
     private final Context appContext;
     private final PeerConnectionParameters peerConnectionParameters;
     private final PeerConnectionEvents events;
+    @Nullable
+    private final PeerConnectionFactoryPool factoryPool;
 
     @Nullable
     private PeerConnectionFactory factory;
     @Nullable
+    private PeerConnectionFactoryPool.Lease factoryLease;
+    @Nullable
+    private DtlsCertificateCache certificateCache;
+    // Set when ICE candidates are pre-gathered, the servers of each join are remembered in it.
+    @Nullable
+    private IceServerCache iceServerCache;
+    @Nullable
+    private PeerConnection preGatheredPeerConnection;
+    @Nullable
+    private List<PeerConnection.IceServer> preGatheredIceServers;
+    // Enabled only when probing found UDP to be blocked.
+    private boolean tcpCandidatesEnabled;
+    // Whether the data channel and local tracks were added to the pre-gathered connection.
+    private boolean preGatheredMediaAdded;
+    // Provisional offer of the pre-gathered connection, used if this client is the initiator.
+    @Nullable
+    private SessionDescription speculativeOffer;
+    private boolean speculativeOfferPending;
+    @Nullable
     private PeerConnection peerConnection;
     @Nullable
     private AudioSource audioSource;
@@ -136,6 +171,12 @@ public class PeerConnectionClient {
     private List<IceCandidate> queuedRemoteCandidates;
     private boolean isInitiator;
     @Nullable
+    private RenegotiationState renegotiation;
+    private long renegotiationStartNs;
+    // Replaces the codec of the parameters once changed during the call.
+    @Nullable
+    private String videoCodecOverride;
+    @Nullable
     private SessionDescription localDescription;
     @Nullable
     private VideoCapturer videoCapturer;
@@ -146,6 +187,16 @@ public class PeerConnectionClient {
     private VideoTrack remoteVideoTrack;
     @Nullable
     private RtpSender localVideoSender;
+    @Nullable
+    private SimulcastLayers simulcastLayers;
+    @Nullable
+    private TemporalLayers temporalLayers;
+    // Limits of the video encodings, null means no limit.
+    @Nullable
+    private Integer encodingMaxBitrateBps;
+    @Nullable
+    private Integer encodingMaxFramerate;
+    private double encodingScaleResolutionDownBy = 1;
     private boolean enableAudio = true;
     @Nullable
     private AudioTrack localAudioTrack;
@@ -156,6 +207,12 @@ public class PeerConnectionClient {
     private RtcEventLog rtcEventLog;
     @Nullable
     private RecordedAudioToFileController saveRecordedAudioToFile;
+    @Nullable
+    private AdaptiveBitrateController adaptiveBitrateController;
+    @Nullable
+    private CaptureFormatLadder captureFormatLadder;
+    @Nullable
+    private volatile JoinTimeline joinTimeline;
 
 
     public static class DataChannelParameters {
@@ -200,6 +257,11 @@ public class PeerConnectionClient {
         public final boolean disableBuiltInNS;
         public final boolean disableWebRtcAGCAndHPF;
         public final boolean enableRtcEventLog;
+        // Number of simulcast layers to publish, 0 or 1 sends a single stream.
+        public final int videoSimulcastLayers;
+        // Number of temporal layers per encoding, 0 leaves it to the encoder. Honoured by the VP8 and
+        // VP9 software encoders.
+        public final int videoTemporalLayers;
         private final DataChannelParameters dataChannelParameters;
 
         public PeerConnectionParameters(boolean videoCallEnabled, boolean loopback, boolean tracing,
@@ -208,6 +270,7 @@ public class PeerConnectionClient {
                                         String audioCodec, boolean noAudioProcessing, boolean aecDump, boolean saveInputAudioToFile,
                                         boolean useOpenSLES, boolean disableBuiltInAEC, boolean disableBuiltInAGC,
                                         boolean disableBuiltInNS, boolean disableWebRtcAGCAndHPF, boolean enableRtcEventLog,
+                                        int videoSimulcastLayers, int videoTemporalLayers,
                                         DataChannelParameters dataChannelParameters) {
             this.videoCallEnabled = videoCallEnabled;
             this.loopback = loopback;
@@ -230,6 +293,8 @@ public class PeerConnectionClient {
             this.disableBuiltInNS = disableBuiltInNS;
             this.disableWebRtcAGCAndHPF = disableWebRtcAGCAndHPF;
             this.enableRtcEventLog = enableRtcEventLog;
+            this.videoSimulcastLayers = videoSimulcastLayers;
+            this.videoTemporalLayers = videoTemporalLayers;
             this.dataChannelParameters = dataChannelParameters;
         }
     }
@@ -242,6 +307,8 @@ public class PeerConnectionClient {
 
         void onIceCandidatesRemoved(final IceCandidate[] candidates);
 
+        void onIceGatheringComplete();
+
         void onIceConnected();
 
         void onIceDisconnected();
@@ -250,23 +317,41 @@ public class PeerConnectionClient {
 
         void onDisconnected();
 
-        void onPeerConnectionClosed();
+        // The peer connection exists, calls that need it may be made from here on.
+        void onPeerConnectionCreated();
 
-        void onPeerConnectionStatsReady(final StatsReport[] reports);
+        void onPeerConnectionClosed();
 
         void onPeerConnectionError(final String description);
     }
 
     public PeerConnectionClient(Context appContext, EglBase eglBase,
                                 PeerConnectionParameters peerConnectionParameters, PeerConnectionEvents events) {
+        this(appContext, eglBase, peerConnectionParameters, events, null);
+    }
+
+    // With a pool the factory outlives the call, otherwise it is created for this call. Either way
+    // the client takes over the caller's reference to |eglBase|: it is released, or handed back
+    // with PeerConnectionFactoryPool.releaseEglBase, when the close has finished.
+    public PeerConnectionClient(Context appContext, EglBase eglBase,
+                                PeerConnectionParameters peerConnectionParameters, PeerConnectionEvents events,
+                                @Nullable PeerConnectionFactoryPool factoryPool) {
         this.rootEglBase = eglBase;
+        this.factoryPool = factoryPool;
         this.appContext = appContext;
         this.events = events;
         this.peerConnectionParameters = peerConnectionParameters;
         this.dataChannelEnabled = peerConnectionParameters.dataChannelParameters != null;
+        String executorName = "PeerConnectionClient-" + instanceCount.incrementAndGet();
+        executor = new InstrumentedExecutor(executorName);
+        workerExecutor = new InstrumentedExecutor(executorName + "-worker");
 
         Log.d(TAG, "Preferred video codec: " + getSdpVideoCodecName(peerConnectionParameters));
 
+        if (factoryPool != null) {
+            // The pool initializes the library before it creates a factory.
+            return;
+        }
         final String fieldTrials = getFieldTrials(peerConnectionParameters);
         executor.execute(() -> {
             Log.d(TAG, "Initialize WebRTC. Field trials: " + fieldTrials);
@@ -278,16 +363,86 @@ public class PeerConnectionClient {
         });
     }
 
+    public void setJoinTimeline(@Nullable JoinTimeline joinTimeline) {
+        this.joinTimeline = joinTimeline;
+    }
+
+    // Must be set before createPeerConnectionFactory.
+    public void setCertificateCache(@Nullable DtlsCertificateCache certificateCache) {
+        this.certificateCache = certificateCache;
+    }
+
     public void createPeerConnectionFactory(PeerConnectionFactory.Options options) {
         if (factory != null) {
             throw new IllegalStateException("PeerConnectionFactory has already been constructed");
         }
-        executor.execute(() -> createPeerConnectionFactoryInternal(options));
+        executor.execute(() -> {
+            createPeerConnectionFactoryInternal(options);
+            // Certificate generation needs the native library, loaded by now.
+            if (certificateCache != null) {
+                certificateCache.prefetch();
+            }
+        });
+    }
+
+    // Creates the peer connection early with the ICE servers of the last join, so that candidates
+    // are gathered into its pool while the room join is in progress. The connection is claimed by
+    // createPeerConnection if the join ends up with the same servers. Call after
+    // createPeerConnectionFactory.
+    public void preGatherIceCandidates(final IceServerCache iceServerCache) {
+        executor.execute(() -> {
+            this.iceServerCache = iceServerCache;
+            if (factory == null || isError || peerConnection != null) {
+                return;
+            }
+            List<PeerConnection.IceServer> iceServers = iceServerCache.getLastUsed();
+            if (iceServers == null) {
+                Log.d(TAG, "No ICE servers of a previous join, candidates are not pre-gathered.");
+                return;
+            }
+            Log.d(TAG, "Pre-gathering ICE candidates with " + iceServers.size() + " servers.");
+            preGatheredIceServers = iceServers;
+            preGatheredPeerConnection =
+                    factory.createPeerConnection(createRtcConfig(iceServers), pcObserver);
+        });
+    }
+
+    // Creates the local tracks while the room join is in flight and, on the pre-gathered peer
+    // connection, a provisional offer. The client owns |videoCapturer| from here on, later calls
+    // to createPeerConnection may pass null. createOffer uses the offer if the pre-gathered
+    // connection is claimed, otherwise it is dropped. Call after preGatherIceCandidates.
+    public void createSpeculativeOffer(final VideoSink localRender, final VideoSink remoteSink,
+                                       @Nullable final VideoCapturer videoCapturer) {
+        this.localRender = localRender;
+        this.remoteSinks = Collections.singletonList(remoteSink);
+        this.videoCapturer = videoCapturer;
+        executor.execute(() -> {
+            if (factory == null || isError || peerConnection != null) {
+                return;
+            }
+            createMediaConstraintsInternal();
+            if (isVideoCallEnabled() && localVideoTrack == null) {
+                createVideoTrack(videoCapturer);
+            }
+            if (localAudioTrack == null) {
+                createAudioTrack();
+            }
+            if (preGatheredPeerConnection == null) {
+                Log.d(TAG, "No pre-gathered peer connection, only local tracks created.");
+                return;
+            }
+            addLocalMedia(preGatheredPeerConnection);
+            preGatheredMediaAdded = true;
+            speculativeOfferPending = true;
+            Log.d(TAG, "PC create speculative OFFER");
+            preGatheredPeerConnection.createOffer(speculativeOfferObserver, sdpMediaConstraints);
+        });
     }
 
     public void createPeerConnection(final VideoSink localRender, final VideoSink remoteSink,
                                      final VideoCapturer videoCapturer, final AppRTCClient.SignalingParameters signalingParameters) {
-        if (peerConnectionParameters.videoCallEnabled && videoCapturer == null) {
+        if (peerConnectionParameters.videoCallEnabled && videoCapturer == null
+                && this.videoCapturer == null) {
             Log.w(TAG, "Video call enabled but no video capturer provided.");
         }
         createPeerConnection(
@@ -302,17 +457,33 @@ public class PeerConnectionClient {
         }
         this.localRender = localRender;
         this.remoteSinks = remoteSinks;
-        this.videoCapturer = videoCapturer;
+        // A speculative offer may already own the capturer.
+        if (videoCapturer != null) {
+            this.videoCapturer = videoCapturer;
+        }
         this.signalingParameters = signalingParameters;
-        executor.execute(() -> {
+        // The TURN request and the server probe may still run. They are awaited on the worker so
+        // the executor stays free for the speculative offer and for close meanwhile.
+        workerExecutor.execute(() -> {
+            final List<PeerConnection.IceServer> iceServers;
             try {
-                createMediaConstraintsInternal();
-                createPeerConnectionInternal();
-                maybeCreateAndStartRtcEventLog();
-            } catch (Exception e) {
-                reportError("Failed to create peer connection: " + e.getMessage());
-                throw e;
+                iceServers = signalingParameters.awaitIceServers(TURN_SERVERS_TIMEOUT_MS);
+            } catch (IOException e) {
+                reportError(e.getMessage());
+                return;
             }
+            final IceServerProber.Result probe =
+                    signalingParameters.awaitIceServerProbe(ICE_SERVER_PROBE_TIMEOUT_MS);
+            executor.execute(() -> {
+                try {
+                    createMediaConstraintsInternal();
+                    createPeerConnectionInternal(iceServers, probe);
+                    maybeCreateAndStartRtcEventLog();
+                } catch (Exception e) {
+                    reportError("Failed to create peer connection: " + e.getMessage());
+                    throw e;
+                }
+            });
         });
     }
 
@@ -327,6 +498,12 @@ public class PeerConnectionClient {
     private void createPeerConnectionFactoryInternal(PeerConnectionFactory.Options options) {
         isError = false;
 
+        PeerConnectionFactoryPool.Config poolConfig = null;
+        if (factoryPool != null) {
+            poolConfig = PeerConnectionFactoryPool.Config.create(peerConnectionParameters, options);
+            factoryPool.initialize(poolConfig);
+        }
+
         if (peerConnectionParameters.tracing) {
             PeerConnectionFactory.startInternalTracingCapture(
                     Environment.getExternalStorageDirectory().getAbsolutePath() + File.separator
@@ -339,63 +516,100 @@ public class PeerConnectionClient {
         if (peerConnectionParameters.saveInputAudioToFile) {
             if (!peerConnectionParameters.useOpenSLES) {
                 Log.d(TAG, "Enable recording of microphone input audio to file");
-                saveRecordedAudioToFile = new RecordedAudioToFileController(executor);
+                saveRecordedAudioToFile = new RecordedAudioToFileController(workerExecutor);
             } else {
                 Log.e(TAG, "Recording of input audio is not supported for OpenSL ES");
             }
         }
 
-        final AudioDeviceModule adm = createJavaAudioDevice();
-
         if (options != null) {
             Log.d(TAG, "Factory networkIgnoreMask option: " + options.networkIgnoreMask);
         }
-        final boolean enableH264HighProfile =
-                VIDEO_CODEC_H264_HIGH.equals(peerConnectionParameters.videoCodec);
+
+        // The recorded samples callback is bound to the audio device module of a factory, so
+        // recording to file needs a factory of its own.
+        if (poolConfig != null && saveRecordedAudioToFile == null) {
+            factoryLease = factoryPool.acquireFactory(poolConfig, this::reportError);
+            factory = factoryLease.getFactory();
+            Log.d(TAG, "Peer connection factory " + (factoryLease.isReused() ? "reused" : "created")
+                    + " in " + factoryLease.getAcquireTimeMs() + " ms.");
+            markJoinStage(JoinTimeline.Stage.FACTORY_CREATED);
+            return;
+        }
+
+        final AudioDeviceModule adm = createJavaAudioDevice(appContext,
+                !peerConnectionParameters.disableBuiltInAEC, !peerConnectionParameters.disableBuiltInNS,
+                saveRecordedAudioToFile, this::reportError);
+        factory = createFactory(rootEglBase, peerConnectionParameters.videoCodecHwAcceleration,
+                VIDEO_CODEC_H264_HIGH.equals(peerConnectionParameters.videoCodec), options, adm);
+        Log.d(TAG, "Peer connection factory created.");
+        markJoinStage(JoinTimeline.Stage.FACTORY_CREATED);
+        adm.release();
+    }
+
+    // Settings shared by every peer connection of the app, MeshSession uses them too.
+    static PeerConnection.RTCConfiguration createRtcConfig(
+            List<PeerConnection.IceServer> iceServers, PeerConnectionParameters parameters,
+            boolean tcpCandidatesEnabled) {
+        PeerConnection.RTCConfiguration rtcConfig = new PeerConnection.RTCConfiguration(iceServers);
+        rtcConfig.tcpCandidatePolicy = tcpCandidatesEnabled
+                ? PeerConnection.TcpCandidatePolicy.ENABLED
+                : PeerConnection.TcpCandidatePolicy.DISABLED;
+        rtcConfig.bundlePolicy = PeerConnection.BundlePolicy.MAXBUNDLE;
+        rtcConfig.rtcpMuxPolicy = PeerConnection.RtcpMuxPolicy.REQUIRE;
+        rtcConfig.continualGatheringPolicy = PeerConnection.ContinualGatheringPolicy.GATHER_CONTINUALLY;
+        rtcConfig.keyType = PeerConnection.KeyType.ECDSA;
+        rtcConfig.enableDtlsSrtp = !parameters.loopback;
+        rtcConfig.sdpSemantics = PeerConnection.SdpSemantics.UNIFIED_PLAN;
+        return rtcConfig;
+    }
+
+    static PeerConnectionFactory createFactory(EglBase eglBase, boolean hwAcceleration,
+                                               boolean enableH264HighProfile,
+                                               @Nullable PeerConnectionFactory.Options options,
+                                               AudioDeviceModule adm) {
         final VideoEncoderFactory encoderFactory;
         final VideoDecoderFactory decoderFactory;
 
-        if (peerConnectionParameters.videoCodecHwAcceleration) {
+        if (hwAcceleration) {
             encoderFactory = new DefaultVideoEncoderFactory(
-                    rootEglBase.getEglBaseContext(), true /* enableIntelVp8Encoder */, enableH264HighProfile);
-            decoderFactory = new DefaultVideoDecoderFactory(rootEglBase.getEglBaseContext());
+                    eglBase.getEglBaseContext(), true /* enableIntelVp8Encoder */, enableH264HighProfile);
+            decoderFactory = new DefaultVideoDecoderFactory(eglBase.getEglBaseContext());
         } else {
             encoderFactory = new SoftwareVideoEncoderFactory();
             decoderFactory = new SoftwareVideoDecoderFactory();
         }
 
-        factory = PeerConnectionFactory.builder()
+        return PeerConnectionFactory.builder()
                 .setOptions(options)
                 .setAudioDeviceModule(adm)
                 .setVideoEncoderFactory(encoderFactory)
                 .setVideoDecoderFactory(decoderFactory)
                 .createPeerConnectionFactory();
-        Log.d(TAG, "Peer connection factory created.");
-        adm.release();
     }
 
-    AudioDeviceModule createJavaAudioDevice() {
-        if (!peerConnectionParameters.useOpenSLES) {
-        }
-
+    static AudioDeviceModule createJavaAudioDevice(
+            Context appContext, boolean useHardwareAec, boolean useHardwareNs,
+            @Nullable SamplesReadyCallback samplesReadyCallback,
+            final PeerConnectionFactoryPool.AudioErrorListener errorListener) {
         AudioRecordErrorCallback audioRecordErrorCallback = new AudioRecordErrorCallback() {
             @Override
             public void onWebRtcAudioRecordInitError(String errorMessage) {
                 Log.e(TAG, "onWebRtcAudioRecordInitError: " + errorMessage);
-                reportError(errorMessage);
+                errorListener.onAudioDeviceError(errorMessage);
             }
 
             @Override
             public void onWebRtcAudioRecordStartError(
                     JavaAudioDeviceModule.AudioRecordStartErrorCode errorCode, String errorMessage) {
                 Log.e(TAG, "onWebRtcAudioRecordStartError: " + errorCode + ". " + errorMessage);
-                reportError(errorMessage);
+                errorListener.onAudioDeviceError(errorMessage);
             }
 
             @Override
             public void onWebRtcAudioRecordError(String errorMessage) {
                 Log.e(TAG, "onWebRtcAudioRecordError: " + errorMessage);
-                reportError(errorMessage);
+                errorListener.onAudioDeviceError(errorMessage);
             }
         };
 
@@ -403,20 +617,20 @@ public class PeerConnectionClient {
             @Override
             public void onWebRtcAudioTrackInitError(String errorMessage) {
                 Log.e(TAG, "onWebRtcAudioTrackInitError: " + errorMessage);
-                reportError(errorMessage);
+                errorListener.onAudioDeviceError(errorMessage);
             }
 
             @Override
             public void onWebRtcAudioTrackStartError(
                     JavaAudioDeviceModule.AudioTrackStartErrorCode errorCode, String errorMessage) {
                 Log.e(TAG, "onWebRtcAudioTrackStartError: " + errorCode + ". " + errorMessage);
-                reportError(errorMessage);
+                errorListener.onAudioDeviceError(errorMessage);
             }
 
             @Override
             public void onWebRtcAudioTrackError(String errorMessage) {
                 Log.e(TAG, "onWebRtcAudioTrackError: " + errorMessage);
-                reportError(errorMessage);
+                errorListener.onAudioDeviceError(errorMessage);
             }
         };
 
@@ -445,9 +659,9 @@ public class PeerConnectionClient {
         };
 
         return JavaAudioDeviceModule.builder(appContext)
-                .setSamplesReadyCallback(saveRecordedAudioToFile)
-                .setUseHardwareAcousticEchoCanceler(!peerConnectionParameters.disableBuiltInAEC)
-                .setUseHardwareNoiseSuppressor(!peerConnectionParameters.disableBuiltInNS)
+                .setSamplesReadyCallback(samplesReadyCallback)
+                .setUseHardwareAcousticEchoCanceler(useHardwareAec)
+                .setUseHardwareNoiseSuppressor(useHardwareNs)
                 .setAudioRecordErrorCallback(audioRecordErrorCallback)
                 .setAudioTrackErrorCallback(audioTrackErrorCallback)
                 .setAudioRecordStateCallback(audioRecordStateCallback)
@@ -472,26 +686,34 @@ public class PeerConnectionClient {
             Logging.d(TAG, "Capturing format: " + videoWidth + "x" + videoHeight + "@" + videoFps);
         }
 
-        audioConstraints = new MediaConstraints();
-        if (peerConnectionParameters.noAudioProcessing) {
+        audioConstraints = createAudioConstraints(peerConnectionParameters);
+        sdpMediaConstraints = new MediaConstraints();
+        sdpMediaConstraints.mandatory.add(
+                new MediaConstraints.KeyValuePair("OfferToReceiveAudio", "true"));
+        sdpMediaConstraints.mandatory.add(new MediaConstraints.KeyValuePair(
+                "OfferToReceiveVideo", Boolean.toString(isVideoCallEnabled())));
+    }
+
+    static MediaConstraints createAudioConstraints(PeerConnectionParameters parameters) {
+        MediaConstraints constraints = new MediaConstraints();
+        if (parameters.noAudioProcessing) {
             Log.d(TAG, "Disabling audio processing");
-            audioConstraints.mandatory.add(
+            constraints.mandatory.add(
                     new MediaConstraints.KeyValuePair(AUDIO_ECHO_CANCELLATION_CONSTRAINT, "false"));
-            audioConstraints.mandatory.add(
+            constraints.mandatory.add(
                     new MediaConstraints.KeyValuePair(AUDIO_AUTO_GAIN_CONTROL_CONSTRAINT, "false"));
-            audioConstraints.mandatory.add(
+            constraints.mandatory.add(
                     new MediaConstraints.KeyValuePair(AUDIO_HIGH_PASS_FILTER_CONSTRAINT, "false"));
-            audioConstraints.mandatory.add(
+            constraints.mandatory.add(
                     new MediaConstraints.KeyValuePair(AUDIO_NOISE_SUPPRESSION_CONSTRAINT, "false"));
         }
-        sdpMediaConstraints = new MediaConstraints();
-        sdpMediaConstraints.mandatory.add(
-                new MediaConstraints.KeyValuePair("OfferToReceiveAudio", "true"));
-        sdpMediaConstraints.mandatory.add(new MediaConstraints.KeyValuePair(
-                "OfferToReceiveVideo", Boolean.toString(isVideoCallEnabled())));
+        return constraints;
     }
 
-    private void createPeerConnectionInternal() {
+    // |roomIceServers| include the TURN servers, |probe| is null if the servers were not probed.
+    private void createPeerConnectionInternal(
+            final List<PeerConnection.IceServer> roomIceServers,
+            @Nullable IceServerProber.Result probe) {
         if (factory == null || isError) {
             Log.e(TAG, "Peerconnection factory is not created");
             return;
@@ -500,18 +722,56 @@ public class PeerConnectionClient {
 
         queuedRemoteCandidates = new ArrayList<>();
 
-        PeerConnection.RTCConfiguration rtcConfig =
-                new PeerConnection.RTCConfiguration(signalingParameters.iceServers);
-        rtcConfig.tcpCandidatePolicy = PeerConnection.TcpCandidatePolicy.DISABLED;
-        rtcConfig.bundlePolicy = PeerConnection.BundlePolicy.MAXBUNDLE;
-        rtcConfig.rtcpMuxPolicy = PeerConnection.RtcpMuxPolicy.REQUIRE;
-        rtcConfig.continualGatheringPolicy = PeerConnection.ContinualGatheringPolicy.GATHER_CONTINUALLY;
-        rtcConfig.keyType = PeerConnection.KeyType.ECDSA;
-        rtcConfig.enableDtlsSrtp = !peerConnectionParameters.loopback;
-        rtcConfig.sdpSemantics = PeerConnection.SdpSemantics.UNIFIED_PLAN;
+        // The unprobed list is remembered and compared, the probe ranking differs between joins.
+        if (iceServerCache != null) {
+            final IceServerCache cache = iceServerCache;
+            workerExecutor.execute(() -> cache.setLastUsed(roomIceServers));
+        }
+        List<PeerConnection.IceServer> iceServers = roomIceServers;
+        if (probe != null) {
+            Log.d(TAG, "ICE server probe: " + probe);
+            iceServers = probe.iceServers;
+            tcpCandidatesEnabled = probe.udpBlocked;
+        }
+        peerConnection = claimPreGatheredPeerConnection(roomIceServers);
+        if (peerConnection == null) {
+            peerConnection = factory.createPeerConnection(createRtcConfig(iceServers), pcObserver);
+        }
+        if (!preGatheredMediaAdded) {
+            addLocalMedia(peerConnection);
+        }
+        preGatheredMediaAdded = false;
+        isInitiator = false;
+        renegotiation = new RenegotiationState(!signalingParameters.initiator);
+
+        Logging.enableLogToDebugOutput(Logging.Severity.LS_INFO);
 
-        peerConnection = factory.createPeerConnection(rtcConfig, pcObserver);
+        if (peerConnectionParameters.aecDump) {
+            try {
+                ParcelFileDescriptor aecDumpFileDescriptor =
+                        ParcelFileDescriptor.open(new File(Environment.getExternalStorageDirectory().getPath()
+                                        + File.separator + "Download/audio.aecdump"),
+                                ParcelFileDescriptor.MODE_READ_WRITE | ParcelFileDescriptor.MODE_CREATE
+                                        | ParcelFileDescriptor.MODE_TRUNCATE);
+                factory.startAecDump(aecDumpFileDescriptor.detachFd(), -1);
+            } catch (IOException e) {
+                Log.e(TAG, "Can not open aecdump file", e);
+            }
+        }
 
+        if (saveRecordedAudioToFile != null) {
+            if (saveRecordedAudioToFile.start()) {
+                Log.d(TAG, "Recording input audio to file is activated");
+            }
+        }
+        Log.d(TAG, "Peer connection created.");
+        markJoinStage(JoinTimeline.Stage.PEER_CONNECTION_CREATED);
+        events.onPeerConnectionCreated();
+    }
+
+    // Creates the data channel and adds the local tracks to |connection|. The tracks are created
+    // on first use and shared if the media is added to a second connection.
+    private void addLocalMedia(PeerConnection connection) {
         if (dataChannelEnabled) {
             DataChannel.Init init = new DataChannel.Init();
             init.ordered = peerConnectionParameters.dataChannelParameters.ordered;
@@ -520,45 +780,114 @@ public class PeerConnectionClient {
             init.maxRetransmitTimeMs = peerConnectionParameters.dataChannelParameters.maxRetransmitTimeMs;
             init.id = peerConnectionParameters.dataChannelParameters.id;
             init.protocol = peerConnectionParameters.dataChannelParameters.protocol;
-            dataChannel = peerConnection.createDataChannel("ApprtcDemo data", init);
+            dataChannel = connection.createDataChannel("ApprtcDemo data", init);
         }
-        isInitiator = false;
-
-        Logging.enableLogToDebugOutput(Logging.Severity.LS_INFO);
 
         List<String> mediaStreamLabels = Collections.singletonList("ARDAMS");
         if (isVideoCallEnabled()) {
-            peerConnection.addTrack(createVideoTrack(videoCapturer), mediaStreamLabels);
-            remoteVideoTrack = getRemoteVideoTrack();
+            VideoTrack videoTrack =
+                    localVideoTrack != null ? localVideoTrack : createVideoTrack(videoCapturer);
+            List<RtpParameters.Encoding> encodings = createVideoEncodings();
+            if (encodings != null) {
+                connection.addTransceiver(videoTrack, new RtpTransceiver.RtpTransceiverInit(
+                        RtpTransceiver.RtpTransceiverDirection.SEND_RECV, mediaStreamLabels, encodings));
+            } else {
+                connection.addTrack(videoTrack, mediaStreamLabels);
+            }
+            remoteVideoTrack = getRemoteVideoTrack(connection);
             remoteVideoTrack.setEnabled(renderVideo);
             for (VideoSink remoteSink : remoteSinks) {
                 remoteVideoTrack.addSink(remoteSink);
             }
         }
-        peerConnection.addTrack(createAudioTrack(), mediaStreamLabels);
+        connection.addTrack(
+                localAudioTrack != null ? localAudioTrack : createAudioTrack(), mediaStreamLabels);
         if (isVideoCallEnabled()) {
-            findVideoSender();
+            findVideoSender(connection);
+        }
+    }
+
+    private PeerConnection.RTCConfiguration createRtcConfig(List<PeerConnection.IceServer> iceServers) {
+        PeerConnection.RTCConfiguration rtcConfig =
+                createRtcConfig(iceServers, peerConnectionParameters, tcpCandidatesEnabled);
+        if (certificateCache != null) {
+            rtcConfig.certificate = certificateCache.getCertificate();
+            Log.d(TAG, "DTLS certificate " + (rtcConfig.certificate != null ? "cached" : "generated")
+                    + ", cache hits: " + certificateCache.getHitCount() + ", misses: "
+                    + certificateCache.getMissCount());
+        }
+        if (iceServerCache != null) {
+            rtcConfig.iceCandidatePoolSize = ICE_CANDIDATE_POOL_SIZE;
         }
+        return rtcConfig;
+    }
 
-        if (peerConnectionParameters.aecDump) {
-            try {
-                ParcelFileDescriptor aecDumpFileDescriptor =
-                        ParcelFileDescriptor.open(new File(Environment.getExternalStorageDirectory().getPath()
-                                        + File.separator + "Download/audio.aecdump"),
-                                ParcelFileDescriptor.MODE_READ_WRITE | ParcelFileDescriptor.MODE_CREATE
-                                        | ParcelFileDescriptor.MODE_TRUNCATE);
-                factory.startAecDump(aecDumpFileDescriptor.detachFd(), -1);
-            } catch (IOException e) {
-                Log.e(TAG, "Can not open aecdump file", e);
+    // Returns the pre-gathered peer connection if it was created with the servers of |iceServers|,
+    // the list the room returned, and the same TCP candidate policy. It keeps its unranked server
+    // list. Changing the configuration of a connection would discard its pool, so a mismatch is
+    // disposed and null returned.
+    @Nullable
+    private PeerConnection claimPreGatheredPeerConnection(List<PeerConnection.IceServer> iceServers) {
+        PeerConnection connection = preGatheredPeerConnection;
+        preGatheredPeerConnection = null;
+        if (connection == null) {
+            return null;
+        }
+        // The early connection was created without TCP candidates.
+        if (tcpCandidatesEnabled
+                || !IceServerCache.isSameIceServers(preGatheredIceServers, iceServers)) {
+            Log.d(TAG, "ICE configuration changed since the last join, "
+                    + "pre-gathered candidates discarded.");
+            if (preGatheredMediaAdded) {
+                // The local tracks are added to the new connection, only the senders go.
+                for (RtpSender sender : connection.getSenders()) {
+                    sender.setTrack(null, false);
+                }
+                if (dataChannel != null) {
+                    dataChannel.dispose();
+                    dataChannel = null;
+                }
+                localVideoSender = null;
+                preGatheredMediaAdded = false;
             }
+            speculativeOffer = null;
+            speculativeOfferPending = false;
+            connection.dispose();
+            return null;
         }
+        Log.d(TAG, "Claimed peer connection with pre-gathered ICE candidates.");
+        return connection;
+    }
 
-        if (saveRecordedAudioToFile != null) {
-            if (saveRecordedAudioToFile.start()) {
-                Log.d(TAG, "Recording input audio to file is activated");
+    // Returns null if the default single encoding is used. Temporal layers can only be set up
+    // before the encoder starts, so they are part of the initial encodings.
+    @Nullable
+    private List<RtpParameters.Encoding> createVideoEncodings() {
+        List<RtpParameters.Encoding> encodings = null;
+        if (peerConnectionParameters.videoSimulcastLayers > 1) {
+            simulcastLayers = new SimulcastLayers(
+                    Math.min(peerConnectionParameters.videoSimulcastLayers, SimulcastLayers.MAX_LAYERS),
+                    getVideoMaxBitrateKbps() * BPS_IN_KBPS);
+            encodings = simulcastLayers.createEncodings();
+        }
+        if (peerConnectionParameters.videoTemporalLayers > 1) {
+            temporalLayers = new TemporalLayers(
+                    Math.min(peerConnectionParameters.videoTemporalLayers, TemporalLayers.MAX_LAYERS));
+            if (encodings == null) {
+                encodings = Collections.singletonList(new RtpParameters.Encoding(null, true, null));
+            }
+            for (RtpParameters.Encoding encoding : encodings) {
+                encoding.numTemporalLayers = temporalLayers.getLayerCount();
             }
         }
-        Log.d(TAG, "Peer connection created.");
+        return encodings;
+    }
+
+    private void markJoinStage(JoinTimeline.Stage stage) {
+        JoinTimeline timeline = joinTimeline;
+        if (timeline != null) {
+            timeline.mark(stage);
+        }
     }
 
     private File createRtcEventLogOutputFile() {
@@ -587,6 +916,14 @@ public class PeerConnectionClient {
         }
         Log.d(TAG, "Closing peer connection.");
         statsTimer.cancel();
+        if (adaptiveBitrateController != null) {
+            statsPipeline.unsubscribeIntervals(adaptiveBitrateController);
+            adaptiveBitrateController = null;
+        }
+        if (captureFormatLadder != null) {
+            statsPipeline.unsubscribeIntervals(captureFormatLadder);
+            captureFormatLadder = null;
+        }
         if (dataChannel != null) {
             dataChannel.dispose();
             dataChannel = null;
@@ -600,6 +937,14 @@ public class PeerConnectionClient {
             peerConnection.dispose();
             peerConnection = null;
         }
+        if (preGatheredPeerConnection != null) {
+            preGatheredPeerConnection.dispose();
+            preGatheredPeerConnection = null;
+        }
+        renegotiation = null;
+        preGatheredMediaAdded = false;
+        speculativeOffer = null;
+        speculativeOfferPending = false;
         Log.d(TAG, "Closing audio source.");
         if (audioSource != null) {
             audioSource.dispose();
@@ -633,15 +978,36 @@ public class PeerConnectionClient {
         localRender = null;
         remoteSinks = null;
         Log.d(TAG, "Closing peer connection factory.");
-        if (factory != null) {
+        if (factoryLease != null) {
+            factoryLease.release();
+            factoryLease = null;
+            factory = null;
+        } else if (factory != null) {
             factory.dispose();
             factory = null;
         }
-        rootEglBase.release();
+        // Capture and the codecs are disposed, the EGL context is not used by this call any more.
+        if (factoryPool == null) {
+            rootEglBase.release();
+        } else {
+            factoryPool.releaseEglBase();
+        }
         Log.d(TAG, "Closing peer connection done.");
         events.onPeerConnectionClosed();
         PeerConnectionFactory.stopInternalTracingCapture();
-        PeerConnectionFactory.shutdownInternalTracer();
+        if (factoryPool == null) {
+            PeerConnectionFactory.shutdownInternalTracer();
+        }
+        for (InstrumentedExecutor.Stats stats : getExecutorStats()) {
+            Log.d(TAG, stats.toString());
+        }
+        workerExecutor.shutdown();
+        executor.shutdown();
+    }
+
+    // Queue depth and task latency of the executors of this call.
+    public List<InstrumentedExecutor.Stats> getExecutorStats() {
+        return Arrays.asList(executor.getStats(), workerExecutor.getStats());
     }
 
     public boolean isHDVideo() {
@@ -652,15 +1018,17 @@ public class PeerConnectionClient {
         if (peerConnection == null || isError) {
             return;
         }
-        boolean success = peerConnection.getStats(new StatsObserver() {
+        peerConnection.getStats(new RTCStatsCollectorCallback() {
             @Override
-            public void onComplete(final StatsReport[] reports) {
-                events.onPeerConnectionStatsReady(reports);
+            public void onStatsDelivered(final RTCStatsReport report) {
+                workerExecutor.execute(() -> statsPipeline.onStatsDelivered(report));
             }
-        }, null);
-        if (!success) {
-            Log.e(TAG, "getStats() returns false!");
-        }
+        });
+    }
+
+    // Derived per-interval metrics, updated on the worker executor once stats events are enabled.
+    public StatsPipeline getStatsPipeline() {
+        return statsPipeline;
     }
 
     public void enableStatsEvents(boolean enable, int periodMs) {
@@ -704,8 +1072,18 @@ public class PeerConnectionClient {
     public void createOffer() {
         executor.execute(() -> {
             if (peerConnection != null && !isError) {
-                Log.d(TAG, "PC Create OFFER");
                 isInitiator = true;
+                SessionDescription offer = speculativeOffer;
+                speculativeOffer = null;
+                speculativeOfferPending = false;
+                if (offer != null) {
+                    Log.d(TAG, "PC use speculative OFFER");
+                    markJoinStage(JoinTimeline.Stage.LOCAL_DESCRIPTION_CREATED);
+                    localDescription = offer;
+                    peerConnection.setLocalDescription(sdpObserver, offer);
+                    return;
+                }
+                Log.d(TAG, "PC Create OFFER");
                 peerConnection.createOffer(sdpObserver, sdpMediaConstraints);
             }
         });
@@ -716,6 +1094,9 @@ public class PeerConnectionClient {
             if (peerConnection != null && !isError) {
                 Log.d(TAG, "PC create ANSWER");
                 isInitiator = false;
+                // The remote side made the offer, the provisional one is never applied.
+                speculativeOffer = null;
+                speculativeOfferPending = false;
                 peerConnection.createAnswer(sdpObserver, sdpMediaConstraints);
             }
         });
@@ -748,23 +1129,241 @@ public class PeerConnectionClient {
             if (peerConnection == null || isError) {
                 return;
             }
-            String sdp = desc.description;
-            if (preferIsac) {
-                sdp = preferCodec(sdp, AUDIO_CODEC_ISAC, true);
+            Log.d(TAG, "Set remote SDP.");
+            peerConnection.setRemoteDescription(sdpObserver, rewriteRemoteDescription(desc));
+        });
+    }
+
+    // Applies a description the remote peer sent after the initial offer/answer exchange, see
+    // RenegotiationState for how crossing offers are resolved. Offers are answered here.
+    public void setRenegotiationDescription(final SessionDescription desc) {
+        executor.execute(() -> {
+            if (peerConnection == null || isError || renegotiation == null) {
+                return;
+            }
+            final SessionDescription sdpRemote = rewriteRemoteDescription(desc);
+            if (desc.type == SessionDescription.Type.ANSWER) {
+                if (peerConnection.signalingState()
+                        != PeerConnection.SignalingState.HAVE_LOCAL_OFFER) {
+                    Log.w(TAG, "Dropped renegotiation answer without a local offer.");
+                    return;
+                }
+                peerConnection.setRemoteDescription(new RenegotiationObserver() {
+                    @Override
+                    public void onSetSuccess() {
+                        Log.d(TAG, "Renegotiation completed in " + TimeUnit.NANOSECONDS.toMillis(
+                                System.nanoTime() - renegotiationStartNs) + " ms.");
+                    }
+                }, sdpRemote);
+                return;
             }
-            if (isVideoCallEnabled()) {
-                sdp = preferCodec(sdp, getSdpVideoCodecName(peerConnectionParameters), false);
+            switch (renegotiation.onRemoteOffer(peerConnection.signalingState())) {
+                case IGNORE:
+                    Log.d(TAG, "Offer collision, keeping the local offer.");
+                    return;
+                case ROLLBACK_AND_ACCEPT:
+                    Log.d(TAG, "Offer collision, rolling back the local offer.");
+                    peerConnection.setLocalDescription(new RenegotiationObserver() {
+                        @Override
+                        public void onSetSuccess() {
+                            executor.execute(() -> answerRenegotiationOffer(sdpRemote));
+                        }
+                    }, new SessionDescription(SessionDescription.Type.ROLLBACK, ""));
+                    return;
+                default:
+                    answerRenegotiationOffer(sdpRemote);
             }
-            if (peerConnectionParameters.audioStartBitrate > 0) {
-                sdp = setStartBitrate(
-                        AUDIO_CODEC_OPUS, false, sdp, peerConnectionParameters.audioStartBitrate);
+        });
+    }
+
+    // Sends the video of |capturer| instead of the current one, e.g. to switch between the camera
+    // and a screen share. The track of the sender is replaced, so no renegotiation is needed. The
+    // client owns |capturer| from here on. Requires a call that was started with video.
+    public void replaceVideoCapturer(final VideoCapturer capturer) {
+        executor.execute(() -> {
+            if (peerConnection == null || localVideoSender == null || isError) {
+                Log.e(TAG, "Failed to replace video capturer, no video sender.");
+                capturer.dispose();
+                return;
             }
-            Log.d(TAG, "Set remote SDP.");
-            SessionDescription sdpRemote = new SessionDescription(desc.type, sdp);
-            peerConnection.setRemoteDescription(sdpObserver, sdpRemote);
+            VideoCapturer oldCapturer = videoCapturer;
+            VideoSource oldSource = videoSource;
+            VideoTrack oldTrack = localVideoTrack;
+            SurfaceTextureHelper oldSurfaceTextureHelper = surfaceTextureHelper;
+            videoCapturer = capturer;
+            VideoTrack videoTrack = createVideoTrack(capturer);
+            if (!localVideoSender.setTrack(videoTrack, false)) {
+                Log.w(TAG, "Failed to replace the video track.");
+            }
+            videoCapturerStopped = false;
+            try {
+                oldCapturer.stopCapture();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            oldCapturer.dispose();
+            if (localRender != null) {
+                oldTrack.removeSink(localRender);
+            }
+            oldTrack.dispose();
+            oldSource.dispose();
+            oldSurfaceTextureHelper.dispose();
+            Log.d(TAG, "Replaced video capturer, screencast: " + capturer.isScreencast());
+        });
+    }
+
+    // Starts or stops sending video while keeping the call, e.g. to switch to audio only. Changes
+    // the direction of the video transceiver, which renegotiates the call.
+    public void setVideoSending(final boolean sending) {
+        executor.execute(() -> {
+            if (peerConnection == null || isError) {
+                return;
+            }
+            RtpTransceiver transceiver = findVideoTransceiver();
+            if (transceiver == null) {
+                Log.e(TAG, "Failed to change video direction, the call was started without video.");
+                return;
+            }
+            transceiver.setDirection(sending ? RtpTransceiver.RtpTransceiverDirection.SEND_RECV
+                    : RtpTransceiver.RtpTransceiverDirection.RECV_ONLY);
+            if (sending) {
+                startVideoSource();
+            } else {
+                stopVideoSource();
+            }
+            deferRenegotiationUntilReady();
+        });
+    }
+
+    // Prefers |videoCodec|, one of the VIDEO_CODEC_* names, from the next negotiation on and
+    // renegotiates the call to switch to it.
+    public void setVideoCodec(final String videoCodec) {
+        executor.execute(() -> {
+            if (peerConnection == null || isError) {
+                return;
+            }
+            Log.d(TAG, "Switching preferred video codec to " + videoCodec);
+            videoCodecOverride = videoCodec;
+            renegotiateInternal();
         });
     }
 
+    private SessionDescription rewriteRemoteDescription(SessionDescription desc) {
+        SdpRewriter rewriter = createSdpRewriter(desc.description);
+        if (peerConnectionParameters.audioStartBitrate > 0) {
+            rewriter.setStartBitrate(
+                    AUDIO_CODEC_OPUS, false, peerConnectionParameters.audioStartBitrate);
+        }
+        return new SessionDescription(desc.type, rewriter.rewrite());
+    }
+
+    // The native renegotiation event only counts once the initial exchange is done, a change
+    // between the initial offer and its answer is offered afterwards.
+    private void deferRenegotiationUntilReady() {
+        if (renegotiation != null && !renegotiation.isReady()) {
+            renegotiation.requestOffer(peerConnection.signalingState());
+        }
+    }
+
+    private void renegotiateInternal() {
+        if (peerConnection == null || isError || renegotiation == null) {
+            return;
+        }
+        if (renegotiation.requestOffer(peerConnection.signalingState())) {
+            createRenegotiationOffer();
+        } else {
+            Log.d(TAG, "Renegotiation deferred until the signaling state is stable.");
+        }
+    }
+
+    private void createRenegotiationOffer() {
+        Log.d(TAG, "PC create renegotiation OFFER");
+        renegotiationStartNs = System.nanoTime();
+        peerConnection.createOffer(new RenegotiationObserver() {
+            @Override
+            public void onCreateSuccess(final SessionDescription desc) {
+                executor.execute(() -> {
+                    if (peerConnection == null || isError || renegotiation == null) {
+                        return;
+                    }
+                    if (!renegotiation.isMakingOffer() || peerConnection.signalingState()
+                            != PeerConnection.SignalingState.STABLE) {
+                        Log.d(TAG, "Renegotiation offer dropped, a remote offer came first.");
+                        renegotiation.onOfferFinished();
+                        return;
+                    }
+                    setRenegotiationLocalDescription(new SessionDescription(
+                            desc.type, createSdpRewriter(desc.description).rewrite()));
+                });
+            }
+
+            @Override
+            public void onCreateFailure(final String error) {
+                executor.execute(PeerConnectionClient.this::finishRenegotiationOffer);
+                super.onCreateFailure(error);
+            }
+        }, sdpMediaConstraints);
+    }
+
+    // The state is gone once the call is closed, late observer callbacks are ignored.
+    private void finishRenegotiationOffer() {
+        if (renegotiation != null) {
+            renegotiation.onOfferFinished();
+        }
+    }
+
+    private void answerRenegotiationOffer(SessionDescription offer) {
+        if (peerConnection == null || isError) {
+            return;
+        }
+        Log.d(TAG, "Set remote renegotiation OFFER");
+        peerConnection.setRemoteDescription(new RenegotiationObserver() {
+            @Override
+            public void onSetSuccess() {
+                executor.execute(() -> {
+                    if (peerConnection == null || isError) {
+                        return;
+                    }
+                    peerConnection.createAnswer(new RenegotiationObserver() {
+                        @Override
+                        public void onCreateSuccess(final SessionDescription desc) {
+                            executor.execute(() -> setRenegotiationLocalDescription(
+                                    new SessionDescription(desc.type,
+                                            createSdpRewriter(desc.description).rewrite())));
+                        }
+                    }, sdpMediaConstraints);
+                });
+            }
+        }, offer);
+    }
+
+    private void setRenegotiationLocalDescription(final SessionDescription desc) {
+        if (peerConnection == null || isError) {
+            return;
+        }
+        peerConnection.setLocalDescription(new RenegotiationObserver() {
+            @Override
+            public void onSetSuccess() {
+                executor.execute(() -> {
+                    if (desc.type == SessionDescription.Type.OFFER) {
+                        finishRenegotiationOffer();
+                    }
+                    if (peerConnection != null && !isError) {
+                        events.onLocalDescription(desc);
+                    }
+                });
+            }
+
+            @Override
+            public void onSetFailure(final String error) {
+                if (desc.type == SessionDescription.Type.OFFER) {
+                    executor.execute(PeerConnectionClient.this::finishRenegotiationOffer);
+                }
+                super.onSetFailure(error);
+            }
+        }, desc);
+    }
+
     public void stopVideoSource() {
         executor.execute(() -> {
             if (videoCapturer != null && !videoCapturerStopped) {
@@ -794,28 +1393,180 @@ public class PeerConnectionClient {
                 return;
             }
             Log.d(TAG, "Requested max video bitrate: " + maxBitrateKbps);
-            if (localVideoSender == null) {
-                Log.w(TAG, "Sender is not ready.");
-                return;
+            // Null value means no limit.
+            encodingMaxBitrateBps = maxBitrateKbps == null ? null : maxBitrateKbps * BPS_IN_KBPS;
+            if (updateVideoEncodings()) {
+                Log.d(TAG, "Configured max video bitrate to: " + maxBitrateKbps);
             }
+        });
+    }
 
-            RtpParameters parameters = localVideoSender.getParameters();
-            if (parameters.encodings.size() == 0) {
-                Log.w(TAG, "RtpParameters are not ready.");
+    // Turns a simulcast layer on or off, e.g. when the SFU reports that nobody receives it. An
+    // inactive layer is neither encoded nor sent.
+    public void setSimulcastLayerActive(final String rid, final boolean active) {
+        executor.execute(() -> {
+            if (peerConnection == null || localVideoSender == null || simulcastLayers == null
+                    || isError) {
                 return;
             }
-
+            RtpParameters parameters = localVideoSender.getParameters();
+            boolean found = false;
             for (RtpParameters.Encoding encoding : parameters.encodings) {
-                // Null value means no limit.
-                encoding.maxBitrateBps = maxBitrateKbps == null ? null : maxBitrateKbps * BPS_IN_KBPS;
+                if (rid.equals(encoding.rid)) {
+                    encoding.active = active;
+                    found = true;
+                }
+            }
+            if (!found) {
+                Log.w(TAG, "Unknown simulcast layer: " + rid);
+                return;
             }
             if (!localVideoSender.setParameters(parameters)) {
                 Log.e(TAG, "RtpSender.setParameters failed.");
+                return;
+            }
+            Log.d(TAG, "Simulcast layer " + rid + (active ? " enabled." : " disabled."));
+        });
+    }
+
+    private int getVideoMaxBitrateKbps() {
+        return peerConnectionParameters.videoMaxBitrate > 0
+                ? peerConnectionParameters.videoMaxBitrate : DEFAULT_VIDEO_MAX_BITRATE_KBPS;
+    }
+
+    // Lets an AdaptiveBitrateController drive the video encoding from the stats pipeline. Requires
+    // stats events to be enabled. The controller never raises the bitrate above the configured
+    // maximum, so calls without a maximum bitrate or simulcast layers stay unlimited and skip it.
+    public void startAdaptiveBitrate(
+            @Nullable final AdaptiveBitrateController.CpuLoadSource cpuLoadSource) {
+        executor.execute(() -> {
+            if (!isVideoCallEnabled() || adaptiveBitrateController != null || isError) {
+                return;
+            }
+            if (simulcastLayers == null && peerConnectionParameters.videoMaxBitrate <= 0) {
+                Log.d(TAG, "No maximum video bitrate set, adaptive bitrate is not started.");
+                return;
+            }
+            int maxBitrateBps = simulcastLayers != null ? simulcastLayers.getTotalMaxBitrateBps()
+                    : peerConnectionParameters.videoMaxBitrate * BPS_IN_KBPS;
+            adaptiveBitrateController = new AdaptiveBitrateController(maxBitrateBps,
+                    videoFps, this::setVideoEncodingLimits, cpuLoadSource);
+            adaptiveBitrateController.setCpuAdaptationEnabled(captureFormatLadder == null);
+            statsPipeline.subscribeIntervals(adaptiveBitrateController);
+        });
+    }
+
+    public void stopAdaptiveBitrate() {
+        executor.execute(() -> {
+            if (adaptiveBitrateController != null) {
+                statsPipeline.unsubscribeIntervals(adaptiveBitrateController);
+                adaptiveBitrateController = null;
+            }
+        });
+    }
+
+    // Lets a CaptureFormatLadder step the capture format down and up from the encoder backlog,
+    // the CPU load and the thermal status. Takes over the CPU adaptation of the adaptive bitrate
+    // controller. Requires stats events to be enabled.
+    public void startCaptureFormatLadder(
+            @Nullable final AdaptiveBitrateController.CpuLoadSource cpuLoadSource,
+            @Nullable final CaptureFormatLadder.ThermalStatusSource thermalStatusSource) {
+        executor.execute(() -> {
+            if (!isVideoCallEnabled() || captureFormatLadder != null || isError) {
+                return;
+            }
+            captureFormatLadder = new CaptureFormatLadder(videoWidth, videoHeight, videoFps,
+                    this::changeCaptureFormat, cpuLoadSource, thermalStatusSource);
+            if (adaptiveBitrateController != null) {
+                adaptiveBitrateController.setCpuAdaptationEnabled(false);
+            }
+            statsPipeline.subscribeIntervals(captureFormatLadder);
+        });
+    }
+
+    public void stopCaptureFormatLadder() {
+        executor.execute(() -> {
+            if (captureFormatLadder == null) {
+                return;
+            }
+            statsPipeline.unsubscribeIntervals(captureFormatLadder);
+            if (captureFormatLadder.getLevel() > 0) {
+                changeCaptureFormatInternal(videoWidth, videoHeight, videoFps);
+            }
+            captureFormatLadder = null;
+            if (adaptiveBitrateController != null) {
+                adaptiveBitrateController.setCpuAdaptationEnabled(true);
+            }
+        });
+    }
+
+    // Approximates dropping the upper temporal layers under load: the encoding maxFramerate halves
+    // and maxBitrateBps shrinks to the remaining layer share for every dropped layer, but the
+    // encoder still produces all of its layers. Has no effect unless the stream was created with
+    // temporal layers.
+    public void setActiveTemporalLayers(final int activeLayers) {
+        executor.execute(() -> {
+            if (peerConnection == null || localVideoSender == null || temporalLayers == null
+                    || isError) {
+                return;
+            }
+            if (temporalLayers.setActiveLayers(activeLayers)) {
+                Log.d(TAG, "Active temporal layers: " + temporalLayers.getActiveLayers() + "/"
+                        + temporalLayers.getLayerCount());
+                updateVideoEncodings();
+            }
+        });
+    }
+
+    private void setVideoEncodingLimits(
+            final int maxBitrateBps, final int maxFramerate, final double scaleResolutionDownBy) {
+        executor.execute(() -> {
+            if (peerConnection == null || localVideoSender == null || isError) {
+                return;
             }
-            Log.d(TAG, "Configured max video bitrate to: " + maxBitrateKbps);
+            encodingMaxBitrateBps = maxBitrateBps;
+            encodingMaxFramerate = maxFramerate;
+            encodingScaleResolutionDownBy = scaleResolutionDownBy;
+            updateVideoEncodings();
         });
     }
 
+    // Writes the current limits to every encoding of the video sender. Simulcast layers share the
+    // bitrate and scale on top of their own scale, dropped temporal layers lower both.
+    private boolean updateVideoEncodings() {
+        RtpParameters parameters = localVideoSender.getParameters();
+        if (parameters.encodings.size() == 0) {
+            Log.w(TAG, "RtpParameters are not ready.");
+            return false;
+        }
+        Integer maxFramerate = encodingMaxFramerate;
+        if (temporalLayers != null) {
+            maxFramerate = temporalLayers.getMaxFramerate(
+                    maxFramerate != null ? maxFramerate : videoFps);
+        }
+        for (RtpParameters.Encoding encoding : parameters.encodings) {
+            int layer = simulcastLayers != null ? simulcastLayers.indexOf(encoding.rid) : -1;
+            Integer maxBitrateBps = encodingMaxBitrateBps;
+            double scale = encodingScaleResolutionDownBy;
+            if (layer >= 0) {
+                // Without a limit the configured layer bitrate applies.
+                maxBitrateBps = simulcastLayers.getMaxBitrateBps(layer, maxBitrateBps);
+                scale = simulcastLayers.getScaleResolutionDownBy(layer, scale);
+            }
+            if (maxBitrateBps != null && temporalLayers != null) {
+                maxBitrateBps = temporalLayers.getMaxBitrateBps(maxBitrateBps);
+            }
+            encoding.maxBitrateBps = maxBitrateBps;
+            encoding.maxFramerate = maxFramerate;
+            encoding.scaleResolutionDownBy = scale;
+        }
+        if (!localVideoSender.setParameters(parameters)) {
+            Log.e(TAG, "RtpSender.setParameters failed.");
+            return false;
+        }
+        return true;
+    }
+
     private void reportError(final String errorMessage) {
         Log.e(TAG, "Peerconnection error: " + errorMessage);
         executor.execute(() -> {
@@ -848,8 +1599,18 @@ public class PeerConnectionClient {
         return localVideoTrack;
     }
 
-    private void findVideoSender() {
-        for (RtpSender sender : peerConnection.getSenders()) {
+    @Nullable
+    private RtpTransceiver findVideoTransceiver() {
+        for (RtpTransceiver transceiver : peerConnection.getTransceivers()) {
+            if (transceiver.getMediaType() == MediaStreamTrack.MediaType.MEDIA_TYPE_VIDEO) {
+                return transceiver;
+            }
+        }
+        return null;
+    }
+
+    private void findVideoSender(PeerConnection connection) {
+        for (RtpSender sender : connection.getSenders()) {
             if (sender.track() != null) {
                 String trackType = sender.track().kind();
                 if (trackType.equals(VIDEO_TRACK_TYPE)) {
@@ -861,8 +1622,8 @@ public class PeerConnectionClient {
     }
 
     private @Nullable
-    VideoTrack getRemoteVideoTrack() {
-        for (RtpTransceiver transceiver : peerConnection.getTransceivers()) {
+    VideoTrack getRemoteVideoTrack(PeerConnection connection) {
+        for (RtpTransceiver transceiver : connection.getTransceivers()) {
             MediaStreamTrack track = transceiver.getReceiver().track();
             if (track instanceof VideoTrack) {
                 return (VideoTrack) track;
@@ -871,8 +1632,12 @@ public class PeerConnectionClient {
         return null;
     }
 
-    private static String getSdpVideoCodecName(PeerConnectionParameters parameters) {
-        switch (parameters.videoCodec) {
+    static String getSdpVideoCodecName(PeerConnectionParameters parameters) {
+        return getSdpVideoCodecName(parameters.videoCodec);
+    }
+
+    static String getSdpVideoCodecName(String videoCodec) {
+        switch (videoCodec) {
             case VIDEO_CODEC_VP8:
                 return VIDEO_CODEC_VP8;
             case VIDEO_CODEC_VP9:
@@ -885,151 +1650,36 @@ public class PeerConnectionClient {
         }
     }
 
-    private static String getFieldTrials(PeerConnectionParameters peerConnectionParameters) {
+    static String getFieldTrials(PeerConnectionParameters peerConnectionParameters) {
+        return getFieldTrials(peerConnectionParameters.videoFlexfecEnabled,
+                peerConnectionParameters.disableWebRtcAGCAndHPF);
+    }
+
+    static String getFieldTrials(boolean videoFlexfecEnabled, boolean disableWebRtcAGCAndHPF) {
         String fieldTrials = "";
-        if (peerConnectionParameters.videoFlexfecEnabled) {
+        if (videoFlexfecEnabled) {
             fieldTrials += VIDEO_FLEXFEC_FIELDTRIAL;
             Log.d(TAG, "Enable FlexFEC field trial.");
         }
         fieldTrials += VIDEO_VP8_INTEL_HW_ENCODER_FIELDTRIAL;
-        if (peerConnectionParameters.disableWebRtcAGCAndHPF) {
+        if (disableWebRtcAGCAndHPF) {
             fieldTrials += DISABLE_WEBRTC_AGC_FIELDTRIAL;
             Log.d(TAG, "Disable WebRTC AGC field trial.");
         }
         return fieldTrials;
     }
 
-    private static String setStartBitrate(
-            String codec, boolean isVideoCodec, String sdp, int bitrateKbps) {
-        String[] lines = sdp.split("\r\n");
-        int rtpmapLineIndex = -1;
-        boolean sdpFormatUpdated = false;
-        String codecRtpMap = null;
-        String regex = "^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$";
-        Pattern codecPattern = Pattern.compile(regex);
-        for (int i = 0; i < lines.length; i++) {
-            Matcher codecMatcher = codecPattern.matcher(lines[i]);
-            if (codecMatcher.matches()) {
-                codecRtpMap = codecMatcher.group(1);
-                rtpmapLineIndex = i;
-                break;
-            }
-        }
-        if (codecRtpMap == null) {
-            Log.w(TAG, "No rtpmap for " + codec + " codec");
-            return sdp;
-        }
-        Log.d(TAG, "Found " + codec + " rtpmap " + codecRtpMap + " at " + lines[rtpmapLineIndex]);
-
-        regex = "^a=fmtp:" + codecRtpMap + " \\w+=\\d+.*[\r]?$";
-        codecPattern = Pattern.compile(regex);
-        for (int i = 0; i < lines.length; i++) {
-            Matcher codecMatcher = codecPattern.matcher(lines[i]);
-            if (codecMatcher.matches()) {
-                Log.d(TAG, "Found " + codec + " " + lines[i]);
-                if (isVideoCodec) {
-                    lines[i] += "; " + VIDEO_CODEC_PARAM_START_BITRATE + "=" + bitrateKbps;
-                } else {
-                    lines[i] += "; " + AUDIO_CODEC_PARAM_BITRATE + "=" + (bitrateKbps * 1000);
-                }
-                Log.d(TAG, "Update remote SDP line: " + lines[i]);
-                sdpFormatUpdated = true;
-                break;
-            }
-        }
-
-        StringBuilder newSdpDescription = new StringBuilder();
-        for (int i = 0; i < lines.length; i++) {
-            newSdpDescription.append(lines[i]).append("\r\n");
-            if (!sdpFormatUpdated && i == rtpmapLineIndex) {
-                String bitrateSet;
-                if (isVideoCodec) {
-                    bitrateSet =
-                            "a=fmtp:" + codecRtpMap + " " + VIDEO_CODEC_PARAM_START_BITRATE + "=" + bitrateKbps;
-                } else {
-                    bitrateSet = "a=fmtp:" + codecRtpMap + " " + AUDIO_CODEC_PARAM_BITRATE + "="
-                            + (bitrateKbps * 1000);
-                }
-                Log.d(TAG, "Add remote SDP line: " + bitrateSet);
-                newSdpDescription.append(bitrateSet).append("\r\n");
-            }
-        }
-        return newSdpDescription.toString();
-    }
-
-    private static int findMediaDescriptionLine(boolean isAudio, String[] sdpLines) {
-        final String mediaDescription = isAudio ? "m=audio " : "m=video ";
-        for (int i = 0; i < sdpLines.length; ++i) {
-            if (sdpLines[i].startsWith(mediaDescription)) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
-    private static String joinString(
-            Iterable<? extends CharSequence> s, String delimiter, boolean delimiterAtEnd) {
-        Iterator<? extends CharSequence> iter = s.iterator();
-        if (!iter.hasNext()) {
-            return "";
-        }
-        StringBuilder buffer = new StringBuilder(iter.next());
-        while (iter.hasNext()) {
-            buffer.append(delimiter).append(iter.next());
-        }
-        if (delimiterAtEnd) {
-            buffer.append(delimiter);
-        }
-        return buffer.toString();
-    }
-
-    private static @Nullable
-    String movePayloadTypesToFront(
-            List<String> preferredPayloadTypes, String mLine) {
-        // The format of the media description line should be: m=<media> <port> <proto> <fmt> ...
-        final List<String> origLineParts = Arrays.asList(mLine.split(" "));
-        if (origLineParts.size() <= 3) {
-            Log.e(TAG, "Wrong SDP media description format: " + mLine);
-            return null;
-        }
-        final List<String> header = origLineParts.subList(0, 3);
-        final List<String> unpreferredPayloadTypes =
-                new ArrayList<>(origLineParts.subList(3, origLineParts.size()));
-        unpreferredPayloadTypes.removeAll(preferredPayloadTypes);
-        final List<String> newLineParts = new ArrayList<>();
-        newLineParts.addAll(header);
-        newLineParts.addAll(preferredPayloadTypes);
-        newLineParts.addAll(unpreferredPayloadTypes);
-        return joinString(newLineParts, " ", false /* delimiterAtEnd */);
-    }
-
-    private static String preferCodec(String sdp, String codec, boolean isAudio) {
-        final String[] lines = sdp.split("\r\n");
-        final int mLineIndex = findMediaDescriptionLine(isAudio, lines);
-        if (mLineIndex == -1) {
-            Log.w(TAG, "No mediaDescription line, so can't prefer " + codec);
-            return sdp;
-        }
-        final List<String> codecPayloadTypes = new ArrayList<>();
-        final Pattern codecPattern = Pattern.compile("^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$");
-        for (String line : lines) {
-            Matcher codecMatcher = codecPattern.matcher(line);
-            if (codecMatcher.matches()) {
-                codecPayloadTypes.add(codecMatcher.group(1));
-            }
-        }
-        if (codecPayloadTypes.isEmpty()) {
-            Log.w(TAG, "No payload types with name " + codec);
-            return sdp;
+    private SdpRewriter createSdpRewriter(String sdp) {
+        SdpRewriter rewriter = new SdpRewriter(sdp);
+        if (preferIsac) {
+            rewriter.preferCodec(AUDIO_CODEC_ISAC, true);
         }
-
-        final String newMLine = movePayloadTypesToFront(codecPayloadTypes, lines[mLineIndex]);
-        if (newMLine == null) {
-            return sdp;
+        if (isVideoCallEnabled()) {
+            rewriter.preferCodec(videoCodecOverride != null
+                    ? getSdpVideoCodecName(videoCodecOverride)
+                    : getSdpVideoCodecName(peerConnectionParameters), false);
         }
-        Log.d(TAG, "Change media description from: " + lines[mLineIndex] + " to " + newMLine);
-        lines[mLineIndex] = newMLine;
-        return joinString(Arrays.asList(lines), "\r\n", true /* delimiterAtEnd */);
+        return rewriter;
     }
 
     private void drainCandidates() {
@@ -1079,6 +1729,7 @@ public class PeerConnectionClient {
     private class PCObserver implements PeerConnection.Observer {
         @Override
         public void onIceCandidate(final IceCandidate candidate) {
+            markJoinStage(JoinTimeline.Stage.FIRST_LOCAL_CANDIDATE);
             executor.execute(() -> events.onIceCandidate(candidate));
         }
 
@@ -1090,6 +1741,12 @@ public class PeerConnectionClient {
         @Override
         public void onSignalingChange(PeerConnection.SignalingState newState) {
             Log.d(TAG, "SignalingState: " + newState);
+            executor.execute(() -> {
+                if (peerConnection != null && !isError && renegotiation != null
+                        && renegotiation.onSignalingChange(peerConnection.signalingState())) {
+                    createRenegotiationOffer();
+                }
+            });
         }
 
         @Override
@@ -1123,6 +1780,9 @@ public class PeerConnectionClient {
         @Override
         public void onIceGatheringChange(PeerConnection.IceGatheringState newState) {
             Log.d(TAG, "IceGatheringState: " + newState);
+            if (newState == PeerConnection.IceGatheringState.COMPLETE) {
+                executor.execute(() -> events.onIceGatheringComplete());
+            }
         }
 
         @Override
@@ -1178,6 +1838,11 @@ public class PeerConnectionClient {
 
         @Override
         public void onRenegotiationNeeded() {
+            executor.execute(() -> {
+                if (renegotiation != null && renegotiation.isReady()) {
+                    renegotiateInternal();
+                }
+            });
         }
 
         @Override
@@ -1185,6 +1850,13 @@ public class PeerConnectionClient {
         }
     }
 
+    private void onInitialNegotiationComplete() {
+        if (renegotiation != null
+                && renegotiation.onInitialNegotiationComplete(peerConnection.signalingState())) {
+            createRenegotiationOffer();
+        }
+    }
+
     private class SDPObserver implements SdpObserver {
         @Override
         public void onCreateSuccess(final SessionDescription desc) {
@@ -1192,13 +1864,8 @@ public class PeerConnectionClient {
                 reportError("Multiple SDP create.");
                 return;
             }
-            String sdp = desc.description;
-            if (preferIsac) {
-                sdp = preferCodec(sdp, AUDIO_CODEC_ISAC, true);
-            }
-            if (isVideoCallEnabled()) {
-                sdp = preferCodec(sdp, getSdpVideoCodecName(peerConnectionParameters), false);
-            }
+            markJoinStage(JoinTimeline.Stage.LOCAL_DESCRIPTION_CREATED);
+            String sdp = createSdpRewriter(desc.description).rewrite();
             final SessionDescription newDesc = new SessionDescription(desc.type, sdp);
             localDescription = newDesc;
             executor.execute(() -> {
@@ -1222,12 +1889,14 @@ public class PeerConnectionClient {
                     } else {
                         Log.d(TAG, "Remote SDP set succesfully");
                         drainCandidates();
+                        onInitialNegotiationComplete();
                     }
                 } else {
                     if (peerConnection.getLocalDescription() != null) {
                         Log.d(TAG, "Local SDP set succesfully");
                         events.onLocalDescription(localDescription);
                         drainCandidates();
+                        onInitialNegotiationComplete();
                     } else {
                         Log.d(TAG, "Remote SDP set succesfully");
                     }
@@ -1245,4 +1914,58 @@ public class PeerConnectionClient {
             reportError("setSDP error: " + error);
         }
     }
+
+    // Keeps the provisional offer of the pre-gathered connection without applying it, the local
+    // description is only set once this client is known to be the caller.
+    private class SpeculativeOfferObserver implements SdpObserver {
+        @Override
+        public void onCreateSuccess(final SessionDescription desc) {
+            executor.execute(() -> {
+                if (!speculativeOfferPending) {
+                    return;
+                }
+                speculativeOfferPending = false;
+                speculativeOffer = new SessionDescription(
+                        desc.type, createSdpRewriter(desc.description).rewrite());
+                Log.d(TAG, "Speculative offer created.");
+            });
+        }
+
+        @Override
+        public void onSetSuccess() {
+        }
+
+        @Override
+        public void onCreateFailure(final String error) {
+            executor.execute(() -> {
+                Log.w(TAG, "Speculative offer failed: " + error);
+                speculativeOfferPending = false;
+            });
+        }
+
+        @Override
+        public void onSetFailure(final String error) {
+        }
+    }
+
+    // Observer of one renegotiation step, failures end the call like those of SDPObserver.
+    private class RenegotiationObserver implements SdpObserver {
+        @Override
+        public void onCreateSuccess(final SessionDescription desc) {
+        }
+
+        @Override
+        public void onSetSuccess() {
+        }
+
+        @Override
+        public void onCreateFailure(final String error) {
+            reportError("Renegotiation createSDP error: " + error);
+        }
+
+        @Override
+        public void onSetFailure(final String error) {
+            reportError("Renegotiation setSDP error: " + error);
+        }
+    }
 }
@@ -0,0 +1,420 @@
+package com.iottive.webrtc.websocket;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.iottive.webrtc.websocket.PeerConnectionClient.PeerConnectionParameters;
+
+import org.webrtc.EglBase;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.audio.AudioDeviceModule;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+// Keeps peer connection factories and the root EGL context alive across calls. Factories are keyed
+// by the settings they are built with and reference counted. A factory without users stays in the
+// pool, so the next call with the same settings skips native and codec initialization. Idle
+// factories and the unused EGL context are only disposed on memory pressure.
+//
+// The pool monitor only guards the bookkeeping. Factories are built outside of it, one at a time
+// under |buildLock|, and the EGL context has a lock of its own, so neither acquireEglBase on the
+// main thread nor a reused factory waits for another factory being built.
+public class PeerConnectionFactoryPool {
+    private static final String TAG = "PCFactoryPool";
+
+    @Nullable
+    private static PeerConnectionFactoryPool instance;
+
+    public interface AudioErrorListener {
+        void onAudioDeviceError(String description);
+    }
+
+    // Creates and disposes the native objects.
+    interface Backend {
+        void initialize(String fieldTrials);
+
+        EglBase createEglBase();
+
+        PeerConnectionFactory createFactory(
+                Config config, @Nullable EglBase eglBase, AudioErrorListener errorListener);
+
+        void disposeFactory(PeerConnectionFactory factory);
+    }
+
+    // Settings a factory is built with, calls with equal configs share a factory.
+    public static final class Config {
+        final boolean hwAcceleration;
+        final boolean h264HighProfile;
+        final boolean hardwareAec;
+        final boolean hardwareNs;
+        final String fieldTrials;
+        final int networkIgnoreMask;
+        final boolean disableEncryption;
+        final boolean disableNetworkMonitor;
+
+        Config(boolean hwAcceleration, boolean h264HighProfile, boolean hardwareAec,
+               boolean hardwareNs, String fieldTrials, @Nullable PeerConnectionFactory.Options options) {
+            this.hwAcceleration = hwAcceleration;
+            this.h264HighProfile = h264HighProfile;
+            this.hardwareAec = hardwareAec;
+            this.hardwareNs = hardwareNs;
+            this.fieldTrials = fieldTrials;
+            networkIgnoreMask = options != null ? options.networkIgnoreMask : 0;
+            disableEncryption = options != null && options.disableEncryption;
+            disableNetworkMonitor = options != null && options.disableNetworkMonitor;
+        }
+
+        public static Config create(PeerConnectionParameters parameters,
+                                    @Nullable PeerConnectionFactory.Options options) {
+            return new Config(parameters.videoCodecHwAcceleration,
+                    PeerConnectionClient.VIDEO_CODEC_H264_HIGH.equals(parameters.videoCodec),
+                    !parameters.disableBuiltInAEC, !parameters.disableBuiltInNS,
+                    PeerConnectionClient.getFieldTrials(parameters), options);
+        }
+
+        // Matches the default call settings, used to prewarm the pool.
+        public static Config createDefault() {
+            return new Config(true, false, true, true,
+                    PeerConnectionClient.getFieldTrials(false, false), null);
+        }
+
+        PeerConnectionFactory.Options createOptions() {
+            PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
+            options.networkIgnoreMask = networkIgnoreMask;
+            options.disableEncryption = disableEncryption;
+            options.disableNetworkMonitor = disableNetworkMonitor;
+            return options;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Config)) {
+                return false;
+            }
+            Config config = (Config) other;
+            return hwAcceleration == config.hwAcceleration
+                    && h264HighProfile == config.h264HighProfile
+                    && hardwareAec == config.hardwareAec
+                    && hardwareNs == config.hardwareNs
+                    && fieldTrials.equals(config.fieldTrials)
+                    && networkIgnoreMask == config.networkIgnoreMask
+                    && disableEncryption == config.disableEncryption
+                    && disableNetworkMonitor == config.disableNetworkMonitor;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = fieldTrials.hashCode();
+            hash = 31 * hash + networkIgnoreMask;
+            hash = 31 * hash + (hwAcceleration ? 1 : 0);
+            hash = 31 * hash + (h264HighProfile ? 1 : 0);
+            hash = 31 * hash + (hardwareAec ? 1 : 0);
+            hash = 31 * hash + (hardwareNs ? 1 : 0);
+            hash = 31 * hash + (disableEncryption ? 1 : 0);
+            return 31 * hash + (disableNetworkMonitor ? 1 : 0);
+        }
+    }
+
+    private static class Entry {
+        // Audio device errors go to the current users of the factory.
+        final CopyOnWriteArrayList<AudioErrorListener> errorListeners = new CopyOnWriteArrayList<>();
+        PeerConnectionFactory factory;
+        int users;
+        // Set under the pool monitor once the factory is built or failed to build.
+        boolean ready;
+        boolean failed;
+    }
+
+    // Use of a pooled factory by one call. Must be released once, the factory is not disposed.
+    public final class Lease {
+        private final Entry entry;
+        private final AudioErrorListener errorListener;
+        private final boolean reused;
+        private final long acquireTimeMs;
+        private boolean released;
+
+        Lease(Entry entry, AudioErrorListener errorListener, boolean reused, long acquireTimeMs) {
+            this.entry = entry;
+            this.errorListener = errorListener;
+            this.reused = reused;
+            this.acquireTimeMs = acquireTimeMs;
+        }
+
+        public PeerConnectionFactory getFactory() {
+            return entry.factory;
+        }
+
+        // False if the factory had to be created for this lease.
+        public boolean isReused() {
+            return reused;
+        }
+
+        // Includes waiting for a prewarm that was in progress.
+        public long getAcquireTimeMs() {
+            return acquireTimeMs;
+        }
+
+        public void release() {
+            synchronized (PeerConnectionFactoryPool.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                entry.users--;
+                entry.errorListeners.remove(errorListener);
+            }
+        }
+    }
+
+    private final Backend backend;
+    private final Executor executor;
+    private final HashMap<Config, Entry> entries = new HashMap<>();
+    // Serializes library initialization, factory creation and disposal. Taken before the pool
+    // monitor and |eglLock|, never while holding them.
+    private final Object buildLock = new Object();
+    private final Object eglLock = new Object();
+    @Nullable
+    private EglBase eglBase;
+    private int eglBaseUsers;
+    @Nullable
+    private String initializedFieldTrials;
+
+    PeerConnectionFactoryPool(Backend backend, Executor executor) {
+        this.backend = backend;
+        this.executor = executor;
+    }
+
+    public static synchronized PeerConnectionFactoryPool getInstance(Context context) {
+        if (instance == null) {
+            instance = new PeerConnectionFactoryPool(
+                    new WebRtcBackend(context.getApplicationContext()),
+                    new InstrumentedExecutor("PeerConnectionFactoryPool"));
+        }
+        return instance;
+    }
+
+    // Memory pressure levels of ComponentCallbacks2.onTrimMemory, hiding the UI alone is not one.
+    public static boolean isMemoryPressure(int level) {
+        return level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                && level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
+    }
+
+    // Creates the factory for the config in the background, e.g. at application start.
+    public void prewarm(final Config config) {
+        executor.execute(() -> {
+            final Entry entry;
+            synchronized (this) {
+                if (entries.containsKey(config)) {
+                    return;
+                }
+                entry = new Entry();
+                entries.put(config, entry);
+            }
+            long startNs = System.nanoTime();
+            buildEntry(config, entry);
+            Log.d(TAG, "Prewarmed peer connection factory in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs) + " ms.");
+        });
+    }
+
+    // Initializes the library with the field trials of the config, done by acquireFactory too.
+    public void initialize(Config config) {
+        synchronized (buildLock) {
+            if (!config.fieldTrials.equals(initializedFieldTrials)) {
+                Log.d(TAG, "Initialize WebRTC. Field trials: " + config.fieldTrials);
+                backend.initialize(config.fieldTrials);
+                initializedFieldTrials = config.fieldTrials;
+            }
+        }
+    }
+
+    // Blocks while the factory is created or prewarmed.
+    public Lease acquireFactory(Config config, AudioErrorListener errorListener) {
+        long startNs = System.nanoTime();
+        final Entry entry;
+        final boolean reused;
+        synchronized (this) {
+            Entry existing = entries.get(config);
+            reused = existing != null;
+            entry = reused ? existing : new Entry();
+            if (!reused) {
+                entries.put(config, entry);
+            }
+            entry.users++;
+            entry.errorListeners.add(errorListener);
+        }
+        if (!reused) {
+            buildEntry(config, entry);
+        } else {
+            awaitEntry(entry);
+        }
+        return new Lease(entry, errorListener, reused,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs));
+    }
+
+    // The root EGL context shared by renderers and hardware codecs. Each call must be paired with
+    // releaseEglBase, the context itself is kept until memory pressure.
+    public EglBase acquireEglBase() {
+        synchronized (eglLock) {
+            eglBaseUsers++;
+            return getEglBase();
+        }
+    }
+
+    public void releaseEglBase() {
+        synchronized (eglLock) {
+            if (eglBaseUsers > 0) {
+                eglBaseUsers--;
+            }
+        }
+    }
+
+    public void onTrimMemory(int level) {
+        if (isMemoryPressure(level)) {
+            executor.execute(this::trim);
+        }
+    }
+
+    public synchronized int getFactoryCount() {
+        return entries.size();
+    }
+
+    // Called with |eglLock| held.
+    private EglBase getEglBase() {
+        if (eglBase == null) {
+            eglBase = backend.createEglBase();
+        }
+        return eglBase;
+    }
+
+    // Builds the factory of an entry reserved by the caller and publishes it to the callers
+    // waiting in acquireFactory. A failed entry is dropped from the pool.
+    private void buildEntry(Config config, final Entry entry) {
+        PeerConnectionFactory factory = null;
+        boolean built = false;
+        try {
+            synchronized (buildLock) {
+                initialize(config);
+                EglBase sharedEglBase = null;
+                if (config.hwAcceleration) {
+                    // Hardware codecs share the root EGL context, which therefore outlives the
+                    // factory.
+                    synchronized (eglLock) {
+                        sharedEglBase = getEglBase();
+                    }
+                }
+                factory = backend.createFactory(config, sharedEglBase, description -> {
+                    for (AudioErrorListener listener : entry.errorListeners) {
+                        listener.onAudioDeviceError(description);
+                    }
+                });
+            }
+            built = true;
+        } finally {
+            synchronized (this) {
+                entry.factory = factory;
+                entry.ready = true;
+                entry.failed = !built;
+                if (!built) {
+                    entries.remove(config);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized void awaitEntry(Entry entry) {
+        boolean interrupted = false;
+        while (!entry.ready) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (entry.failed) {
+            throw new IllegalStateException("Failed to create peer connection factory.");
+        }
+    }
+
+    private void trim() {
+        synchronized (buildLock) {
+            List<Entry> idle = new ArrayList<>();
+            int inUse;
+            synchronized (this) {
+                Iterator<Entry> iterator = entries.values().iterator();
+                while (iterator.hasNext()) {
+                    Entry entry = iterator.next();
+                    // A reserved entry is built as soon as |buildLock| is free again.
+                    if (entry.users == 0 && entry.ready) {
+                        idle.add(entry);
+                        iterator.remove();
+                    }
+                }
+                inUse = entries.size();
+            }
+            for (Entry entry : idle) {
+                backend.disposeFactory(entry.factory);
+            }
+            if (inUse == 0) {
+                synchronized (eglLock) {
+                    if (eglBaseUsers == 0 && eglBase != null) {
+                        eglBase.release();
+                        eglBase = null;
+                    }
+                }
+            }
+            Log.d(TAG, "Trimmed " + idle.size() + " idle factories, " + inUse + " in use.");
+        }
+    }
+
+    private static class WebRtcBackend implements Backend {
+        private final Context appContext;
+
+        WebRtcBackend(Context appContext) {
+            this.appContext = appContext;
+        }
+
+        @Override
+        public void initialize(String fieldTrials) {
+            PeerConnectionFactory.initialize(
+                    PeerConnectionFactory.InitializationOptions.builder(appContext)
+                            .setFieldTrials(fieldTrials)
+                            .setEnableInternalTracer(true)
+                            .createInitializationOptions());
+        }
+
+        @Override
+        public EglBase createEglBase() {
+            return EglBase.create();
+        }
+
+        @Override
+        public PeerConnectionFactory createFactory(
+                Config config, @Nullable EglBase eglBase, AudioErrorListener errorListener) {
+            AudioDeviceModule adm = PeerConnectionClient.createJavaAudioDevice(appContext,
+                    config.hardwareAec, config.hardwareNs, null, errorListener);
+            PeerConnectionFactory factory = PeerConnectionClient.createFactory(eglBase,
+                    config.hwAcceleration, config.h264HighProfile, config.createOptions(), adm);
+            adm.release();
+            return factory;
+        }
+
+        @Override
+        public void disposeFactory(PeerConnectionFactory factory) {
+            factory.dispose();
+        }
+    }
+}
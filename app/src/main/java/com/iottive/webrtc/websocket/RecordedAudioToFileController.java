@@ -14,20 +14,20 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
 
 public class RecordedAudioToFileController implements SamplesReadyCallback {
     private static final String TAG = "RecordedAudioToFile";
     private static final long MAX_FILE_SIZE_IN_BYTES = 58348800L;
 
     private final Object lock = new Object();
-    private final ExecutorService executor;
+    private final Executor executor;
     @Nullable
     private OutputStream rawAudioFileOutputStream;
     private boolean isRunning;
     private long fileSizeInBytes;
 
-    public RecordedAudioToFileController(ExecutorService executor) {
+    public RecordedAudioToFileController(Executor executor) {
         Log.d(TAG, "ctor");
         this.executor = executor;
     }
@@ -0,0 +1,82 @@
+package com.iottive.webrtc.websocket;
+
+import org.webrtc.PeerConnection;
+
+// Offer/answer roles of a call once the initial exchange completed, following the "perfect
+// negotiation" pattern: either side may send an offer when its media changes. If both offers
+// cross, the impolite side ignores the remote offer and keeps its own, the polite side rolls its
+// offer back, answers, and offers again afterwards. The callee is the polite side. Used on the
+// peer connection executor only.
+class RenegotiationState {
+    enum RemoteOfferAction {
+        ACCEPT,
+        ROLLBACK_AND_ACCEPT,
+        IGNORE
+    }
+
+    private final boolean polite;
+    private boolean ready;
+    private boolean makingOffer;
+    private boolean pending;
+
+    RenegotiationState(boolean polite) {
+        this.polite = polite;
+    }
+
+    boolean isPolite() {
+        return polite;
+    }
+
+    boolean isReady() {
+        return ready;
+    }
+
+    boolean isMakingOffer() {
+        return makingOffer;
+    }
+
+    // Returns true if a deferred offer should be created now.
+    boolean onInitialNegotiationComplete(PeerConnection.SignalingState signalingState) {
+        ready = true;
+        return pending && requestOffer(signalingState);
+    }
+
+    // Returns true if the caller should create an offer now. Otherwise the request is kept until
+    // the signaling state is stable again.
+    boolean requestOffer(PeerConnection.SignalingState signalingState) {
+        if (!ready || makingOffer || signalingState != PeerConnection.SignalingState.STABLE) {
+            pending = true;
+            return false;
+        }
+        pending = false;
+        makingOffer = true;
+        return true;
+    }
+
+    // The local offer was set, or dropped before that because a remote offer won.
+    void onOfferFinished() {
+        makingOffer = false;
+    }
+
+    RemoteOfferAction onRemoteOffer(PeerConnection.SignalingState signalingState) {
+        boolean collision =
+                makingOffer || signalingState != PeerConnection.SignalingState.STABLE;
+        if (!collision) {
+            return RemoteOfferAction.ACCEPT;
+        }
+        if (!polite) {
+            return RemoteOfferAction.IGNORE;
+        }
+        // The local change still has to be offered once the remote one is answered.
+        makingOffer = false;
+        pending = true;
+        return signalingState == PeerConnection.SignalingState.HAVE_LOCAL_OFFER
+                ? RemoteOfferAction.ROLLBACK_AND_ACCEPT
+                : RemoteOfferAction.ACCEPT;
+    }
+
+    // Returns true if a deferred offer should be created now.
+    boolean onSignalingChange(PeerConnection.SignalingState signalingState) {
+        return pending && ready && requestOffer(signalingState);
+    }
+}
@@ -2,6 +2,8 @@ package com.iottive.webrtc.websocket;
 
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
 import com.iottive.webrtc.util.AsyncHttpURLConnection;
 import com.iottive.webrtc.util.AsyncHttpURLConnection.AsyncHttpEvents;
 import com.iottive.webrtc.websocket.apprtc.AppRTCClient;
@@ -14,19 +16,20 @@ import org.webrtc.PeerConnection;
 import org.webrtc.SessionDescription;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 public class RoomParametersFetcher {
     private static final String TAG = "RoomRTCClient";
-    private static final int TURN_HTTP_TIMEOUT_MS = 5000;
     private final RoomParametersFetcherEvents events;
     private final String roomUrl;
     private final String roomMessage;
+    private final JoinTimeline joinTimeline;
+    private final IceServerCache iceServerCache;
+    @Nullable
+    private final IceServerProber iceServerProber;
 
     public interface RoomParametersFetcherEvents {
         void onSignalingParametersReady(final AppRTCClient.SignalingParameters params);
@@ -35,9 +38,14 @@ public class RoomParametersFetcher {
     }
 
     public RoomParametersFetcher(
-            String roomUrl, String roomMessage, final RoomParametersFetcherEvents events) {
+            String roomUrl, String roomMessage, JoinTimeline joinTimeline,
+            IceServerCache iceServerCache, @Nullable IceServerProber iceServerProber,
+            final RoomParametersFetcherEvents events) {
         this.roomUrl = roomUrl;
         this.roomMessage = roomMessage;
+        this.joinTimeline = joinTimeline;
+        this.iceServerCache = iceServerCache;
+        this.iceServerProber = iceServerProber;
         this.events = events;
     }
 
@@ -94,6 +102,13 @@ public class RoomParametersFetcher {
                         IceCandidate candidate = new IceCandidate(
                                 message.getString("id"), message.getInt("label"), message.getString("candidate"));
                         iceCandidates.add(candidate);
+                    } else if (messageType.equals("candidates")) {
+                        JSONArray candidates = message.getJSONArray("candidates");
+                        for (int j = 0; j < candidates.length(); ++j) {
+                            JSONObject candidate = candidates.getJSONObject(j);
+                            iceCandidates.add(new IceCandidate(candidate.getString("id"),
+                                    candidate.getInt("label"), candidate.getString("candidate")));
+                        }
                     } else {
                         Log.e(TAG, "Unknown message: " + messageString);
                     }
@@ -116,64 +131,46 @@ public class RoomParametersFetcher {
                     }
                 }
             }
-            // Request TURN servers.
+            // Use cached TURN servers while their credentials are valid. Otherwise request them in the
+            // background, the WebSocket connection does not need them and the peer connection waits for
+            // the result only when it is created.
+            Future<List<PeerConnection.IceServer>> turnServers = null;
             if (!isTurnPresent && !roomJson.optString("ice_server_url").isEmpty()) {
-                List<PeerConnection.IceServer> turnServers =
-                        requestTurnServers(roomJson.getString("ice_server_url"));
-                for (PeerConnection.IceServer turnServer : turnServers) {
-                    Log.d(TAG, "TurnServer: " + turnServer);
-                    iceServers.add(turnServer);
+                final String iceServerUrl = roomJson.getString("ice_server_url");
+                List<PeerConnection.IceServer> cachedTurnServers = iceServerCache.getIfValid(iceServerUrl);
+                Log.d(TAG, "TURN cache hits: " + iceServerCache.getHitCount() + ". Misses: "
+                        + iceServerCache.getMissCount() + ". Refreshes: " + iceServerCache.getRefreshCount());
+                if (cachedTurnServers != null) {
+                    iceServers.addAll(cachedTurnServers);
+                    joinTimeline.mark(JoinTimeline.Stage.TURN_SERVERS_RECEIVED);
+                } else {
+                    turnServers = AsyncHttpURLConnection.submit(new Callable<List<PeerConnection.IceServer>>() {
+                        @Override
+                        public List<PeerConnection.IceServer> call() throws IOException, JSONException {
+                            List<PeerConnection.IceServer> servers = iceServerCache.fetch(iceServerUrl);
+                            joinTimeline.mark(JoinTimeline.Stage.TURN_SERVERS_RECEIVED);
+                            return servers;
+                        }
+                    });
                 }
             }
 
-            AppRTCClient.SignalingParameters params = new AppRTCClient.SignalingParameters(
-                    iceServers, initiator, clientId, wssUrl, wssPostUrl, offerSdp, iceCandidates);
+            // Probing starts with the room response and includes the TURN servers once they arrive,
+            // it runs while the WebSocket connection is set up.
+            Future<IceServerProber.Result> iceServerProbe = null;
+            if (iceServerProber != null) {
+                iceServerProbe = iceServerProber.probeAsync(iceServers, turnServers);
+            }
+
+            AppRTCClient.SignalingParameters params = new AppRTCClient.SignalingParameters(iceServers,
+                    initiator, clientId, wssUrl, wssPostUrl, offerSdp, iceCandidates, turnServers,
+                    iceServerProbe);
             events.onSignalingParametersReady(params);
         } catch (JSONException e) {
             events.onSignalingParametersError("Room JSON parsing error: " + e.toString());
-        } catch (IOException e) {
-            events.onSignalingParametersError("Room IO error: " + e.toString());
         }
     }
 
-    private List<PeerConnection.IceServer> requestTurnServers(String url)
-            throws IOException, JSONException {
-        List<PeerConnection.IceServer> turnServers = new ArrayList<>();
-        Log.d(TAG, "Request TURN from: " + url);
-        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
-        connection.setDoOutput(true);
-        connection.setRequestProperty("REFERER", "https://appr.tc");
-        connection.setConnectTimeout(TURN_HTTP_TIMEOUT_MS);
-        connection.setReadTimeout(TURN_HTTP_TIMEOUT_MS);
-        int responseCode = connection.getResponseCode();
-        if (responseCode != 200) {
-            throw new IOException("Non-200 response when requesting TURN server from " + url + " : "
-                    + connection.getHeaderField(null));
-        }
-        InputStream responseStream = connection.getInputStream();
-        String response = drainStream(responseStream);
-        connection.disconnect();
-        Log.d(TAG, "TURN response: " + response);
-        JSONObject responseJSON = new JSONObject(response);
-        JSONArray iceServers = responseJSON.getJSONArray("iceServers");
-        for (int i = 0; i < iceServers.length(); ++i) {
-            JSONObject server = iceServers.getJSONObject(i);
-            JSONArray turnUrls = server.getJSONArray("urls");
-            String username = server.has("username") ? server.getString("username") : "";
-            String credential = server.has("credential") ? server.getString("credential") : "";
-            for (int j = 0; j < turnUrls.length(); j++) {
-                String turnUrl = turnUrls.getString(j);
-                PeerConnection.IceServer turnServer =
-                        PeerConnection.IceServer.builder(turnUrl)
-                                .setUsername(username)
-                                .setPassword(credential)
-                                .createIceServer();
-                turnServers.add(turnServer);
-            }
-        }
-        return turnServers;
-    }
-
     private List<PeerConnection.IceServer> iceServersFromPCConfigJSON(String pcConfig)
             throws JSONException {
         JSONObject json = new JSONObject(pcConfig);
@@ -191,9 +188,4 @@ public class RoomParametersFetcher {
         }
         return ret;
     }
-
-    private static String drainStream(InputStream in) {
-        Scanner s = new Scanner(in, "UTF-8").useDelimiter("\\A");
-        return s.hasNext() ? s.next() : "";
-    }
 }
@@ -0,0 +1,202 @@
+package com.iottive.webrtc.websocket;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+// Binary signaling frames used by DirectRTCClient once both peers agreed on them: a type byte, a
+// varint payload length and the payload. Type bytes are control characters other than '\t', '\n'
+// and '\r', so a frame can never be mistaken for the start of a JSON line on the same connection.
+public class SignalingFrameCodec {
+    public static final int TYPE_OFFER = 0x01;
+    public static final int TYPE_ANSWER = 0x02;
+    public static final int TYPE_CANDIDATE = 0x03;
+    public static final int TYPE_CANDIDATES = 0x04;
+    public static final int TYPE_REMOVE_CANDIDATES = 0x05;
+    public static final int MAX_PAYLOAD_SIZE = 1024 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static class Frame {
+        public final int type;
+        public final byte[] payload;
+
+        public Frame(int type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    public static boolean isFrameStart(int firstByte) {
+        return firstByte >= 0 && firstByte < 0x20 && firstByte != '\t' && firstByte != '\n'
+                && firstByte != '\r';
+    }
+
+    public static byte[] encodeFrame(int type, byte[] payload) {
+        byte[] frame = new byte[1 + varintSize(payload.length) + payload.length];
+        frame[0] = (byte) type;
+        int position = writeVarint(frame, 1, payload.length);
+        System.arraycopy(payload, 0, frame, position, payload.length);
+        return frame;
+    }
+
+    // Returns the number of bytes the varint at |offset| occupies, 0 if it is not complete yet.
+    public static int varintLength(byte[] buffer, int offset, int limit) throws IOException {
+        for (int i = 0; i < 5; i++) {
+            if (offset + i >= limit) {
+                return 0;
+            }
+            if ((buffer[offset + i] & 0x80) == 0) {
+                return i + 1;
+            }
+        }
+        throw new IOException("Invalid frame length");
+    }
+
+    public static int readVarint(byte[] buffer, int offset) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = buffer[offset++] & 0xff;
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return checkPayloadSize(value);
+            }
+        }
+        throw new IOException("Invalid frame length");
+    }
+
+    public static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Stream closed inside frame header");
+            }
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return checkPayloadSize(value);
+            }
+        }
+        throw new IOException("Invalid frame length");
+    }
+
+    public static byte[] encodeSdp(SessionDescription sdp) {
+        return sdp.description.getBytes(UTF_8);
+    }
+
+    public static SessionDescription decodeSdp(SessionDescription.Type type, byte[] payload) {
+        return new SessionDescription(type, new String(payload, UTF_8));
+    }
+
+    public static byte[] encodeCandidate(IceCandidate candidate) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(candidate.sdp.length() + 16);
+        writeCandidate(out, candidate);
+        return out.toByteArray();
+    }
+
+    public static IceCandidate decodeCandidate(byte[] payload) throws IOException {
+        return new PayloadReader(payload).readCandidate();
+    }
+
+    public static byte[] encodeCandidates(List<IceCandidate> candidates) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(candidates.size() * 96);
+        writeVarint(out, candidates.size());
+        for (IceCandidate candidate : candidates) {
+            writeCandidate(out, candidate);
+        }
+        return out.toByteArray();
+    }
+
+    public static IceCandidate[] decodeCandidates(byte[] payload) throws IOException {
+        PayloadReader reader = new PayloadReader(payload);
+        IceCandidate[] candidates = new IceCandidate[reader.readVarint()];
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] = reader.readCandidate();
+        }
+        return candidates;
+    }
+
+    private static int checkPayloadSize(int size) throws IOException {
+        if (size < 0 || size > MAX_PAYLOAD_SIZE) {
+            throw new IOException("Frame too large: " + size);
+        }
+        return size;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int writeVarint(byte[] buffer, int offset, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeCandidate(ByteArrayOutputStream out, IceCandidate candidate) {
+        writeVarint(out, candidate.sdpMLineIndex);
+        writeString(out, candidate.sdpMid);
+        writeString(out, candidate.sdp);
+    }
+
+    private static class PayloadReader {
+        private final byte[] payload;
+        private int position;
+
+        PayloadReader(byte[] payload) {
+            this.payload = payload;
+        }
+
+        int readVarint() throws IOException {
+            int length = varintLength(payload, position, payload.length);
+            if (length == 0) {
+                throw new IOException("Truncated payload");
+            }
+            int value = SignalingFrameCodec.readVarint(payload, position);
+            position += length;
+            return value;
+        }
+
+        String readString() throws IOException {
+            int length = readVarint();
+            if (position + length > payload.length) {
+                throw new IOException("Truncated payload");
+            }
+            String value = new String(payload, position, length, UTF_8);
+            position += length;
+            return value;
+        }
+
+        IceCandidate readCandidate() throws IOException {
+            int sdpMLineIndex = readVarint();
+            String sdpMid = readString();
+            return new IceCandidate(sdpMid, sdpMLineIndex, readString());
+        }
+    }
+}
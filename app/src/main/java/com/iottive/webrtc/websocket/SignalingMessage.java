@@ -0,0 +1,75 @@
+package com.iottive.webrtc.websocket;
+
+import androidx.annotation.Nullable;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Room signaling message exchanged with the remote peer, see SignalingMessageCodec for the wire
+// format.
+public class SignalingMessage {
+    public enum Type {
+        OFFER("offer"),
+        ANSWER("answer"),
+        CANDIDATE("candidate"),
+        CANDIDATES("candidates"),
+        REMOVE_CANDIDATES("remove-candidates"),
+        BYE("bye");
+
+        final String canonicalForm;
+
+        Type(String canonicalForm) {
+            this.canonicalForm = canonicalForm;
+        }
+
+        @Nullable
+        static Type fromCanonicalForm(String canonicalForm) {
+            for (Type type : values()) {
+                if (type.canonicalForm.equals(canonicalForm)) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    public final Type type;
+    @Nullable
+    public final SessionDescription sdp;
+    public final List<IceCandidate> candidates;
+
+    private SignalingMessage(
+            Type type, @Nullable SessionDescription sdp, List<IceCandidate> candidates) {
+        this.type = type;
+        this.sdp = sdp;
+        this.candidates = candidates;
+    }
+
+    public static SignalingMessage description(SessionDescription sdp) {
+        return new SignalingMessage(sdp.type == SessionDescription.Type.OFFER ? Type.OFFER
+                : Type.ANSWER, sdp, Collections.<IceCandidate>emptyList());
+    }
+
+    // A single candidate is sent as "candidate" so that peers without batching support can read it.
+    public static SignalingMessage candidates(List<IceCandidate> candidates) {
+        return new SignalingMessage(candidates.size() == 1 ? Type.CANDIDATE : Type.CANDIDATES, null,
+                candidates);
+    }
+
+    public static SignalingMessage removeCandidates(IceCandidate[] candidates) {
+        return new SignalingMessage(Type.REMOVE_CANDIDATES, null, Arrays.asList(candidates));
+    }
+
+    public static SignalingMessage bye() {
+        return new SignalingMessage(Type.BYE, null, Collections.<IceCandidate>emptyList());
+    }
+
+    static SignalingMessage create(
+            Type type, @Nullable SessionDescription sdp, List<IceCandidate> candidates) {
+        return new SignalingMessage(type, sdp, candidates);
+    }
+}
@@ -0,0 +1,503 @@
+package com.iottive.webrtc.websocket;
+
+import androidx.annotation.Nullable;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Reads and writes the room signaling messages without building org.json trees. Messages sent over
+// the WebSocket server are wrapped as {"cmd":"send","msg":"<message>"} and received as
+// {"msg":"<message>","error":"..."}; the inner message is written straight into the envelope with
+// both escaping levels applied in one pass and read straight out of the envelope string.
+public class SignalingMessageCodec {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    public static class MalformedMessageException extends Exception {
+        MalformedMessageException(String message) {
+            super(message);
+        }
+    }
+
+    // A message received from the WebSocket server.
+    public static class Envelope {
+        // Raw inner message, empty if the server only reported an error.
+        public final String payload;
+        public final String error;
+
+        Envelope(String payload, String error) {
+            this.payload = payload;
+            this.error = error;
+        }
+    }
+
+    public static String encode(SignalingMessage message) {
+        StringBuilder out = new StringBuilder(estimateSize(message));
+        writeMessage(new Writer(out, false), message);
+        return out.toString();
+    }
+
+    public static String encodeSendCommand(SignalingMessage message) {
+        StringBuilder out = new StringBuilder(estimateSize(message) + 32);
+        out.append("{\"cmd\":\"send\",\"msg\":\"");
+        writeMessage(new Writer(out, true), message);
+        out.append("\"}");
+        return out.toString();
+    }
+
+    public static String encodeRegisterCommand(String roomId, String clientId) {
+        StringBuilder out = new StringBuilder(64);
+        Writer writer = new Writer(out, false);
+        out.append("{\"cmd\":\"register\",\"roomid\":");
+        writer.string(roomId);
+        out.append(",\"clientid\":");
+        writer.string(clientId);
+        out.append('}');
+        return out.toString();
+    }
+
+    public static Envelope decodeEnvelope(String json) throws MalformedMessageException {
+        Reader reader = new Reader(json);
+        String payload = null;
+        String error = "";
+        reader.expect('{');
+        if (!reader.consume('}')) {
+            do {
+                String key = reader.readName();
+                reader.expect(':');
+                if (key.equals("msg")) {
+                    payload = reader.readString();
+                } else if (key.equals("error")) {
+                    String value = reader.readString();
+                    error = value != null ? value : "";
+                } else {
+                    reader.skipValue();
+                }
+            } while (reader.consume(','));
+            reader.expect('}');
+        }
+        reader.expectEnd();
+        if (payload == null) {
+            throw new MalformedMessageException("No value for msg");
+        }
+        return new Envelope(payload, error);
+    }
+
+    // Returns null if the message type is unknown.
+    @Nullable
+    public static SignalingMessage decode(String json) throws MalformedMessageException {
+        Reader reader = new Reader(json);
+        String type = null;
+        String sdp = null;
+        String sdpMid = null;
+        String candidateSdp = null;
+        int sdpMLineIndex = -1;
+        List<IceCandidate> candidates = null;
+        reader.expect('{');
+        if (!reader.consume('}')) {
+            do {
+                String key = reader.readName();
+                reader.expect(':');
+                switch (key) {
+                    case "type":
+                        type = reader.readString();
+                        break;
+                    case "sdp":
+                        sdp = reader.readString();
+                        break;
+                    case "id":
+                        sdpMid = reader.readString();
+                        break;
+                    case "label":
+                        sdpMLineIndex = reader.readInt();
+                        break;
+                    case "candidate":
+                        candidateSdp = reader.readString();
+                        break;
+                    case "candidates":
+                        candidates = readCandidates(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            } while (reader.consume(','));
+            reader.expect('}');
+        }
+        reader.expectEnd();
+
+        SignalingMessage.Type messageType =
+                type != null ? SignalingMessage.Type.fromCanonicalForm(type) : null;
+        if (messageType == null) {
+            return null;
+        }
+        switch (messageType) {
+            case OFFER:
+            case ANSWER:
+                return SignalingMessage.create(messageType,
+                        new SessionDescription(SessionDescription.Type.fromCanonicalForm(type),
+                                require(sdp, "sdp")),
+                        Collections.<IceCandidate>emptyList());
+            case CANDIDATE:
+                return SignalingMessage.create(messageType, null, Collections.singletonList(
+                        createCandidate(sdpMid, sdpMLineIndex, candidateSdp)));
+            case CANDIDATES:
+            case REMOVE_CANDIDATES:
+                return SignalingMessage.create(
+                        messageType, null, require(candidates, "candidates"));
+            default:
+                return SignalingMessage.bye();
+        }
+    }
+
+    private static List<IceCandidate> readCandidates(Reader reader)
+            throws MalformedMessageException {
+        List<IceCandidate> candidates = new ArrayList<>();
+        reader.expect('[');
+        if (reader.consume(']')) {
+            return candidates;
+        }
+        do {
+            String sdpMid = null;
+            String sdp = null;
+            int sdpMLineIndex = -1;
+            reader.expect('{');
+            if (!reader.consume('}')) {
+                do {
+                    String key = reader.readName();
+                    reader.expect(':');
+                    if (key.equals("id")) {
+                        sdpMid = reader.readString();
+                    } else if (key.equals("label")) {
+                        sdpMLineIndex = reader.readInt();
+                    } else if (key.equals("candidate")) {
+                        sdp = reader.readString();
+                    } else {
+                        reader.skipValue();
+                    }
+                } while (reader.consume(','));
+                reader.expect('}');
+            }
+            candidates.add(createCandidate(sdpMid, sdpMLineIndex, sdp));
+        } while (reader.consume(','));
+        reader.expect(']');
+        return candidates;
+    }
+
+    private static IceCandidate createCandidate(
+            @Nullable String sdpMid, int sdpMLineIndex, @Nullable String sdp)
+            throws MalformedMessageException {
+        if (sdpMLineIndex < 0) {
+            throw new MalformedMessageException("No value for label");
+        }
+        return new IceCandidate(require(sdpMid, "id"), sdpMLineIndex, require(sdp, "candidate"));
+    }
+
+    private static <T> T require(@Nullable T value, String key) throws MalformedMessageException {
+        if (value == null) {
+            throw new MalformedMessageException("No value for " + key);
+        }
+        return value;
+    }
+
+    private static int estimateSize(SignalingMessage message) {
+        int size = 64;
+        if (message.sdp != null) {
+            size += message.sdp.description.length() * 9 / 8;
+        }
+        return size + message.candidates.size() * 160;
+    }
+
+    private static void writeMessage(Writer writer, SignalingMessage message) {
+        writer.beginObject();
+        writer.name("type");
+        writer.string(message.type.canonicalForm);
+        switch (message.type) {
+            case OFFER:
+            case ANSWER:
+                writer.comma();
+                writer.name("sdp");
+                writer.string(message.sdp.description);
+                break;
+            case CANDIDATE:
+                writer.comma();
+                writeCandidateFields(writer, message.candidates.get(0));
+                break;
+            case CANDIDATES:
+            case REMOVE_CANDIDATES:
+                writer.comma();
+                writer.name("candidates");
+                writer.out.append('[');
+                for (int i = 0; i < message.candidates.size(); i++) {
+                    if (i > 0) {
+                        writer.comma();
+                    }
+                    writer.beginObject();
+                    writeCandidateFields(writer, message.candidates.get(i));
+                    writer.endObject();
+                }
+                writer.out.append(']');
+                break;
+            default:
+                break;
+        }
+        writer.endObject();
+    }
+
+    private static void writeCandidateFields(Writer writer, IceCandidate candidate) {
+        writer.name("label");
+        writer.out.append(candidate.sdpMLineIndex);
+        writer.comma();
+        writer.name("id");
+        writer.string(candidate.sdpMid);
+        writer.comma();
+        writer.name("candidate");
+        writer.string(candidate.sdp);
+    }
+
+    // Writes JSON, or with |nested| set, JSON that is itself escaped as the contents of a string.
+    private static class Writer {
+        final StringBuilder out;
+        private final String quote;
+        private final String backslash;
+
+        Writer(StringBuilder out, boolean nested) {
+            this.out = out;
+            quote = nested ? "\\\"" : "\"";
+            backslash = nested ? "\\\\" : "\\";
+        }
+
+        void beginObject() {
+            out.append('{');
+        }
+
+        void endObject() {
+            out.append('}');
+        }
+
+        void comma() {
+            out.append(',');
+        }
+
+        void name(String name) {
+            out.append(quote).append(name).append(quote).append(':');
+        }
+
+        void string(@Nullable String value) {
+            if (value == null) {
+                out.append("null");
+                return;
+            }
+            out.append(quote);
+            int length = value.length();
+            int chunkStart = 0;
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    continue;
+                }
+                out.append(value, chunkStart, i).append(backslash);
+                switch (c) {
+                    case '"':
+                        out.append(quote);
+                        break;
+                    case '\\':
+                        out.append(backslash);
+                        break;
+                    case '\n':
+                        out.append('n');
+                        break;
+                    case '\r':
+                        out.append('r');
+                        break;
+                    case '\t':
+                        out.append('t');
+                        break;
+                    default:
+                        out.append("u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xf]);
+                }
+                chunkStart = i + 1;
+            }
+            out.append(value, chunkStart, length).append(quote);
+        }
+    }
+
+    private static class Reader {
+        private final String json;
+        private int position;
+
+        Reader(String json) {
+            this.json = json;
+        }
+
+        boolean consume(char expected) throws MalformedMessageException {
+            if (peek() != expected) {
+                return false;
+            }
+            position++;
+            return true;
+        }
+
+        void expect(char expected) throws MalformedMessageException {
+            if (!consume(expected)) {
+                throw syntaxError("Expected '" + expected + "'");
+            }
+        }
+
+        void expectEnd() throws MalformedMessageException {
+            skipWhitespace();
+            if (position < json.length()) {
+                throw syntaxError("Unexpected trailing data");
+            }
+        }
+
+        String readName() throws MalformedMessageException {
+            if (peek() != '"') {
+                throw syntaxError("Expected a name");
+            }
+            return readString();
+        }
+
+        // Reads a string value, null for a JSON null.
+        @Nullable
+        String readString() throws MalformedMessageException {
+            if (peek() == 'n') {
+                readLiteral("null");
+                return null;
+            }
+            expect('"');
+            StringBuilder builder = null;
+            int quote = -1;
+            while (true) {
+                if (quote < position) {
+                    quote = json.indexOf('"', position);
+                    if (quote < 0) {
+                        throw syntaxError("Unterminated string");
+                    }
+                }
+                int escape = json.indexOf('\\', position);
+                if (escape < 0 || escape > quote) {
+                    String value = builder == null ? json.substring(position, quote)
+                            : builder.append(json, position, quote).toString();
+                    position = quote + 1;
+                    return value;
+                }
+                if (builder == null) {
+                    builder = new StringBuilder(quote - position + 16);
+                }
+                builder.append(json, position, escape);
+                position = escape;
+                builder.append(readEscape());
+            }
+        }
+
+        int readInt() throws MalformedMessageException {
+            skipWhitespace();
+            int start = position;
+            while (position < json.length()
+                    && "+-0123456789.eE".indexOf(json.charAt(position)) >= 0) {
+                position++;
+            }
+            try {
+                return (int) Double.parseDouble(json.substring(start, position));
+            } catch (NumberFormatException e) {
+                throw syntaxError("Expected a number");
+            }
+        }
+
+        void skipValue() throws MalformedMessageException {
+            char c = peek();
+            if (c == '"') {
+                readString();
+            } else if (c == '{' || c == '[') {
+                char close = c == '{' ? '}' : ']';
+                position++;
+                if (consume(close)) {
+                    return;
+                }
+                do {
+                    if (c == '{') {
+                        readName();
+                        expect(':');
+                    }
+                    skipValue();
+                } while (consume(','));
+                expect(close);
+            } else if (c == 't') {
+                readLiteral("true");
+            } else if (c == 'f') {
+                readLiteral("false");
+            } else if (c == 'n') {
+                readLiteral("null");
+            } else {
+                readInt();
+            }
+        }
+
+        private char readEscape() throws MalformedMessageException {
+            if (position + 1 >= json.length()) {
+                throw syntaxError("Unterminated escape sequence");
+            }
+            char c = json.charAt(position + 1);
+            position += 2;
+            switch (c) {
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'u':
+                    if (position + 4 > json.length()) {
+                        throw syntaxError("Unterminated escape sequence");
+                    }
+                    try {
+                        char decoded =
+                                (char) Integer.parseInt(json.substring(position, position + 4), 16);
+                        position += 4;
+                        return decoded;
+                    } catch (NumberFormatException e) {
+                        throw syntaxError("Invalid escape sequence");
+                    }
+                default:
+                    // '"', '\\', '/' and the lenient cases org.json accepts as well.
+                    return c;
+            }
+        }
+
+        private void readLiteral(String literal) throws MalformedMessageException {
+            if (!json.startsWith(literal, position)) {
+                throw syntaxError("Expected " + literal);
+            }
+            position += literal.length();
+        }
+
+        private char peek() throws MalformedMessageException {
+            skipWhitespace();
+            if (position >= json.length()) {
+                throw syntaxError("Unexpected end of input");
+            }
+            return json.charAt(position);
+        }
+
+        private void skipWhitespace() {
+            while (position < json.length()) {
+                char c = json.charAt(position);
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    return;
+                }
+                position++;
+            }
+        }
+
+        private MalformedMessageException syntaxError(String description) {
+            return new MalformedMessageException(description + " at character " + position);
+        }
+    }
+}
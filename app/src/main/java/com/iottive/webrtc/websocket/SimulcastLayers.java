@@ -0,0 +1,91 @@
+package com.iottive.webrtc.websocket;
+
+import androidx.annotation.Nullable;
+
+import org.webrtc.RtpParameters;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Layout of the simulcast layers published to an SFU. Layers are ordered from the full resolution
+// down because a remote side that does not negotiate simulcast only keeps the first encoding.
+public class SimulcastLayers {
+    public static final int MAX_LAYERS = 3;
+    public static final String RID_FULL = "f";
+    public static final String RID_HALF = "h";
+    public static final String RID_QUARTER = "q";
+
+    private static final String[] RIDS = {RID_FULL, RID_HALF, RID_QUARTER};
+    private static final double[] SCALES = {1, 2, 4};
+    // The full layer gets what is left of the total after the lower layers.
+    private static final int[] LOWER_LAYER_BITRATES_BPS = {0, 500000, 150000};
+    private static final int MIN_FULL_LAYER_BITRATE_BPS = 300000;
+
+    private final int layerCount;
+    private final int[] maxBitratesBps;
+
+    public SimulcastLayers(int layerCount, int totalMaxBitrateBps) {
+        if (layerCount < 2 || layerCount > MAX_LAYERS) {
+            throw new IllegalArgumentException("Invalid simulcast layer count: " + layerCount);
+        }
+        this.layerCount = layerCount;
+        maxBitratesBps = new int[layerCount];
+        int lowerLayersBps = 0;
+        for (int i = 1; i < layerCount; i++) {
+            maxBitratesBps[i] = LOWER_LAYER_BITRATES_BPS[i];
+            lowerLayersBps += maxBitratesBps[i];
+        }
+        maxBitratesBps[0] = Math.max(MIN_FULL_LAYER_BITRATE_BPS, totalMaxBitrateBps - lowerLayersBps);
+    }
+
+    public int getLayerCount() {
+        return layerCount;
+    }
+
+    public String getRid(int layer) {
+        return RIDS[layer];
+    }
+
+    public int getTotalMaxBitrateBps() {
+        int total = 0;
+        for (int bitrate : maxBitratesBps) {
+            total += bitrate;
+        }
+        return total;
+    }
+
+    public List<RtpParameters.Encoding> createEncodings() {
+        List<RtpParameters.Encoding> encodings = new ArrayList<>(layerCount);
+        for (int i = 0; i < layerCount; i++) {
+            RtpParameters.Encoding encoding = new RtpParameters.Encoding(RIDS[i], true, SCALES[i]);
+            encoding.maxBitrateBps = maxBitratesBps[i];
+            encodings.add(encoding);
+        }
+        return encodings;
+    }
+
+    // Share of a limit for the whole stream, in proportion to the configured layer bitrates. A
+    // null total returns the configured bitrate of the layer.
+    public int getMaxBitrateBps(int layer, @Nullable Integer totalBitrateBps) {
+        if (totalBitrateBps == null) {
+            return maxBitratesBps[layer];
+        }
+        double share = Math.min(1, (double) totalBitrateBps / getTotalMaxBitrateBps());
+        return (int) (maxBitratesBps[layer] * share);
+    }
+
+    // Applies a resolution scale for the whole stream on top of the layer's own scale.
+    public double getScaleResolutionDownBy(int layer, double scaleResolutionDownBy) {
+        return SCALES[layer] * scaleResolutionDownBy;
+    }
+
+    // Returns -1 if the rid is not one of ours.
+    public int indexOf(@Nullable String rid) {
+        for (int i = 0; i < layerCount; i++) {
+            if (RIDS[i].equals(rid)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,12 @@
+package com.iottive.webrtc.websocket;
+
+// Transport for newline delimited signaling messages and SignalingFrameCodec binary frames. Events
+// are delivered through TCPChannelClient.TCPChannelEvents on the executor passed to the
+// implementation.
+public interface TCPChannel {
+    void send(String message);
+
+    void sendBinary(int type, byte[] payload);
+
+    void disconnect();
+}
@@ -4,14 +4,15 @@ package com.iottive.webrtc.websocket;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import org.webrtc.ThreadUtils;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
@@ -20,19 +21,24 @@ import java.nio.charset.Charset;
 import java.util.concurrent.ExecutorService;
 
 
-public class TCPChannelClient {
+public class TCPChannelClient implements TCPChannel {
     private static final String TAG = "TCPChannelClient";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
     private final ExecutorService executor;
     private final ThreadUtils.ThreadChecker executorThreadCheck;
     private final TCPChannelEvents eventListener;
     private TCPSocket socket;
+    // Port the server socket is bound to, 0 until it listens. Same in NioTCPChannelClient.
+    private volatile int localPort;
 
     public interface TCPChannelEvents {
         void onTCPConnected(boolean server);
 
         void onTCPMessage(String message);
 
+        void onTCPBinaryMessage(int type, byte[] payload);
+
         void onTCPError(String description);
 
         void onTCPClose();
@@ -62,16 +68,30 @@ public class TCPChannelClient {
         socket.start();
     }
 
+    @Override
     public void disconnect() {
         executorThreadCheck.checkIsOnValidThread();
 
         socket.disconnect();
     }
 
+    @VisibleForTesting
+    int getLocalPort() {
+        return localPort;
+    }
+
+    @Override
     public void send(String message) {
         executorThreadCheck.checkIsOnValidThread();
 
-        socket.send(message);
+        socket.send((message + "\n").getBytes(UTF_8), message);
+    }
+
+    @Override
+    public void sendBinary(int type, byte[] payload) {
+        executorThreadCheck.checkIsOnValidThread();
+
+        socket.send(SignalingFrameCodec.encodeFrame(type, payload), "binary frame " + type);
     }
 
     private void reportError(final String message) {
@@ -87,7 +107,7 @@ public class TCPChannelClient {
     private abstract class TCPSocket extends Thread {
         protected final Object rawSocketLock;
         @Nullable
-        private PrintWriter out;
+        private OutputStream out;
         @Nullable
         private Socket rawSocket;
 
@@ -106,7 +126,7 @@ public class TCPChannelClient {
             Log.d(TAG, "Listening thread started...");
 
             Socket tempSocket = connect();
-            BufferedReader in;
+            InputStream in;
 
             Log.d(TAG, "TCP connection established.");
 
@@ -122,10 +142,8 @@ public class TCPChannelClient {
                 }
 
                 try {
-                    out = new PrintWriter(
-                            new OutputStreamWriter(rawSocket.getOutputStream(), Charset.forName("UTF-8")), true);
-                    in = new BufferedReader(
-                            new InputStreamReader(rawSocket.getInputStream(), Charset.forName("UTF-8")));
+                    out = rawSocket.getOutputStream();
+                    in = new BufferedInputStream(rawSocket.getInputStream());
                 } catch (IOException e) {
                     reportError("Failed to open IO on rawSocket: " + e.getMessage());
                     return;
@@ -141,10 +159,15 @@ public class TCPChannelClient {
                 }
             });
 
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
             while (true) {
-                final String message;
+                final int firstByte;
                 try {
-                    message = in.readLine();
+                    firstByte = in.read();
+                    if (firstByte >= 0 && SignalingFrameCodec.isFrameStart(firstByte)) {
+                        readFrame(in, firstByte);
+                        continue;
+                    }
                 } catch (IOException e) {
                     synchronized (rawSocketLock) {
                         if (rawSocket == null) {
@@ -156,6 +179,17 @@ public class TCPChannelClient {
                     break;
                 }
 
+                if (firstByte < 0) {
+                    break;
+                }
+
+                final String message;
+                try {
+                    message = readLine(in, firstByte, line);
+                } catch (IOException e) {
+                    reportError("Failed to read from rawSocket: " + e.getMessage());
+                    break;
+                }
                 if (message == null) {
                     break;
                 }
@@ -174,6 +208,47 @@ public class TCPChannelClient {
             disconnect();
         }
 
+        private void readFrame(InputStream in, final int type) throws IOException {
+            final byte[] payload = new byte[SignalingFrameCodec.readVarint(in)];
+            int read = 0;
+            while (read < payload.length) {
+                int count = in.read(payload, read, payload.length - read);
+                if (count < 0) {
+                    throw new IOException("Stream closed inside frame");
+                }
+                read += count;
+            }
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Log.v(TAG, "Receive binary frame " + type);
+                    eventListener.onTCPBinaryMessage(type, payload);
+                }
+            });
+        }
+
+        // Returns null if the stream ended before the line was terminated.
+        @Nullable
+        private String readLine(InputStream in, int firstByte, ByteArrayOutputStream line)
+                throws IOException {
+            line.reset();
+            int b = firstByte;
+            while (b != '\n') {
+                if (b < 0) {
+                    return null;
+                }
+                line.write(b);
+                b = in.read();
+            }
+            byte[] bytes = line.toByteArray();
+            int length = bytes.length;
+            if (length > 0 && bytes[length - 1] == '\r') {
+                length--;
+            }
+            return new String(bytes, 0, length, UTF_8);
+        }
+
         public void disconnect() {
             try {
                 synchronized (rawSocketLock) {
@@ -195,8 +270,8 @@ public class TCPChannelClient {
             }
         }
 
-        public void send(String message) {
-            Log.v(TAG, "Send: " + message);
+        public void send(byte[] data, String description) {
+            Log.v(TAG, "Send: " + description);
 
             synchronized (rawSocketLock) {
                 if (out == null) {
@@ -204,8 +279,12 @@ public class TCPChannelClient {
                     return;
                 }
 
-                out.write(message + "\n");
-                out.flush();
+                try {
+                    out.write(data);
+                    out.flush();
+                } catch (IOException e) {
+                    reportError("Failed to write to rawSocket: " + e.getMessage());
+                }
             }
         }
     }
@@ -242,6 +321,7 @@ public class TCPChannelClient {
 
                 serverSocket = tempSocket;
             }
+            localPort = tempSocket.getLocalPort();
 
             try {
                 return tempSocket.accept();
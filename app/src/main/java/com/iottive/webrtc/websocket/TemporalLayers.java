@@ -0,0 +1,51 @@
+package com.iottive.webrtc.websocket;
+
+// Temporal scalability of the video encodings. Every temporal layer doubles the frame rate of the
+// layers below it, so dropping the upper layers halves the frame rate per layer while the base
+// layer stays decodable. Bitrate shares follow the libvpx allocation for 2 and 3 layers.
+// RtpParameters cannot switch a temporal layer off, so "active layers" only sets the maxFramerate
+// and maxBitrateBps limits the dropped layers would leave. The encoder keeps its layer structure
+// and spreads the remaining frames over it.
+public class TemporalLayers {
+    public static final int MAX_LAYERS = 3;
+
+    // Cumulative share of the bitrate up to and including each layer.
+    private static final double[][] BITRATE_SHARES = {{1}, {0.6, 1}, {0.4, 0.6, 1}};
+
+    private final int layerCount;
+    private int activeLayers;
+
+    public TemporalLayers(int layerCount) {
+        if (layerCount < 1 || layerCount > MAX_LAYERS) {
+            throw new IllegalArgumentException("Invalid temporal layer count: " + layerCount);
+        }
+        this.layerCount = layerCount;
+        activeLayers = layerCount;
+    }
+
+    public int getLayerCount() {
+        return layerCount;
+    }
+
+    public int getActiveLayers() {
+        return activeLayers;
+    }
+
+    // Returns false if the count is unchanged.
+    public boolean setActiveLayers(int activeLayers) {
+        activeLayers = Math.max(1, Math.min(layerCount, activeLayers));
+        if (activeLayers == this.activeLayers) {
+            return false;
+        }
+        this.activeLayers = activeLayers;
+        return true;
+    }
+
+    public int getMaxFramerate(int framerate) {
+        return Math.max(1, framerate >> (layerCount - activeLayers));
+    }
+
+    public int getMaxBitrateBps(int bitrateBps) {
+        return (int) (bitrateBps * BITRATE_SHARES[layerCount - 1][activeLayers - 1]);
+    }
+}
@@ -0,0 +1,68 @@
+package com.iottive.webrtc.websocket;
+
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+
+// Collects UI work posted from any thread and runs it on the main thread in one batch per display
+// frame, so a burst of call events costs a single main looper message.
+public class UiEventBatcher {
+    public interface FrameScheduler {
+        void scheduleFrame(Runnable onFrame);
+    }
+
+    private final FrameScheduler scheduler;
+    private final Object lock = new Object();
+    private final Runnable flushTask = this::flush;
+    private ArrayList<Runnable> pending = new ArrayList<>();
+    private ArrayList<Runnable> running = new ArrayList<>();
+    private boolean scheduled;
+    private boolean cleared;
+
+    public UiEventBatcher(FrameScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    // Must be called on the main thread.
+    public static UiEventBatcher createForMainThread() {
+        final Choreographer choreographer = Choreographer.getInstance();
+        return new UiEventBatcher(
+                onFrame -> choreographer.postFrameCallback(frameTimeNanos -> onFrame.run()));
+    }
+
+    public void post(Runnable event) {
+        synchronized (lock) {
+            if (cleared) {
+                return;
+            }
+            pending.add(event);
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        scheduler.scheduleFrame(flushTask);
+    }
+
+    // Drops pending events and ignores later ones, e.g. once the activity is finishing.
+    public void clear() {
+        synchronized (lock) {
+            cleared = true;
+            pending.clear();
+        }
+    }
+
+    private void flush() {
+        ArrayList<Runnable> batch;
+        synchronized (lock) {
+            batch = pending;
+            pending = running;
+            running = batch;
+            scheduled = false;
+        }
+        for (Runnable event : batch) {
+            event.run();
+        }
+        batch.clear();
+    }
+}
@@ -8,9 +8,6 @@ import androidx.annotation.Nullable;
 import com.iottive.webrtc.util.AsyncHttpURLConnection;
 import com.iottive.webrtc.util.AsyncHttpURLConnection.AsyncHttpEvents;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -37,13 +34,15 @@ public class WebSocketChannelClient {
     private WebSocketObserver wsObserver;
     private final Object closeEventLock = new Object();
     private boolean closeEvent;
-    private final List<String> wsSendQueue = new ArrayList<>();
+    private final List<SignalingMessage> wsSendQueue = new ArrayList<>();
 
     public enum WebSocketConnectionState {NEW, CONNECTED, REGISTERED, CLOSED, ERROR}
 
     public interface WebSocketChannelEvents {
         void onWebSocketMessage(final String message);
 
+        void onWebSocketRegistered();
+
         void onWebSocketClose();
 
         void onWebSocketError(final String description);
@@ -92,46 +91,33 @@ public class WebSocketChannelClient {
             return;
         }
         Log.d(TAG, "Registering WebSocket for room " + roomID + ". ClientID: " + clientID);
-        JSONObject json = new JSONObject();
-        try {
-            json.put("cmd", "register");
-            json.put("roomid", roomID);
-            json.put("clientid", clientID);
-            Log.d(TAG, "C->WSS: " + json.toString());
-            ws.sendTextMessage(json.toString());
-            state = WebSocketConnectionState.REGISTERED;
-            for (String sendMessage : wsSendQueue) {
-                send(sendMessage);
-            }
-            wsSendQueue.clear();
-        } catch (JSONException e) {
-            reportError("WebSocket register JSON error: " + e.getMessage());
+        String registerMessage = SignalingMessageCodec.encodeRegisterCommand(roomID, clientID);
+        Log.d(TAG, "C->WSS: " + registerMessage);
+        ws.sendTextMessage(registerMessage);
+        state = WebSocketConnectionState.REGISTERED;
+        events.onWebSocketRegistered();
+        for (SignalingMessage sendMessage : wsSendQueue) {
+            send(sendMessage);
         }
+        wsSendQueue.clear();
     }
 
-    public void send(String message) {
+    public void send(SignalingMessage message) {
         checkIfCalledOnValidThread();
         switch (state) {
             case NEW:
             case CONNECTED:
-                Log.d(TAG, "WS ACC: " + message);
+                Log.d(TAG, "WS ACC: " + message.type);
                 wsSendQueue.add(message);
                 return;
             case ERROR:
             case CLOSED:
-                Log.e(TAG, "WebSocket send() in error or closed state : " + message);
+                Log.e(TAG, "WebSocket send() in error or closed state : " + message.type);
                 return;
             case REGISTERED:
-                JSONObject json = new JSONObject();
-                try {
-                    json.put("cmd", "send");
-                    json.put("msg", message);
-                    message = json.toString();
-                    Log.d(TAG, "C->WSS: " + message);
-                    ws.sendTextMessage(message);
-                } catch (JSONException e) {
-                    reportError("WebSocket send JSON error: " + e.getMessage());
-                }
+                String sendMessage = SignalingMessageCodec.encodeSendCommand(message);
+                Log.d(TAG, "C->WSS: " + sendMessage);
+                ws.sendTextMessage(sendMessage);
                 break;
         }
     }
@@ -146,7 +132,7 @@ public class WebSocketChannelClient {
         Log.d(TAG, "Disconnect WebSocket. State: " + state);
         if (state == WebSocketConnectionState.REGISTERED) {
             // Send "bye" to WebSocket server.
-            send("{\"type\": \"bye\"}");
+            send(SignalingMessage.bye());
             state = WebSocketConnectionState.CONNECTED;
             // Send http DELETE to http WebSocket server.
             sendWSSMessage("DELETE", "");
@@ -6,16 +6,18 @@ import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+import com.iottive.webrtc.MyApplication;
 import com.iottive.webrtc.util.AsyncHttpURLConnection;
 import com.iottive.webrtc.util.AsyncHttpURLConnection.AsyncHttpEvents;
 import com.iottive.webrtc.websocket.apprtc.AppRTCClient;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.webrtc.IceCandidate;
 import org.webrtc.SessionDescription;
 
+import java.util.List;
+
 public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.WebSocketChannelEvents {
     private static final String TAG = "WSRTCClient";
     private static final String ROOM_JOIN = "join";
@@ -34,6 +36,8 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.
     private RoomConnectionParameters connectionParameters;
     private String messageUrl;
     private String leaveUrl;
+    @Nullable
+    private IceCandidateBatcher candidateBatcher;
 
     public WebSocketRTCClient(SignalingEvents events) {
         this.events = events;
@@ -46,6 +50,8 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.
     @Override
     public void connectToRoom(RoomConnectionParameters connectionParameters) {
         this.connectionParameters = connectionParameters;
+        candidateBatcher = new IceCandidateBatcher(handler::postDelayed, this::sendLocalIceCandidateBatch,
+                connectionParameters.iceCandidateBatchSize, connectionParameters.iceCandidateBatchDelayMs);
         handler.post(new Runnable() {
             @Override
             public void run() {
@@ -68,6 +74,7 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.
     private void connectToRoomInternal() {
         String connectionUrl = getConnectionUrl(connectionParameters);
         Log.d(TAG, "Connect to room: " + connectionUrl);
+        connectionParameters.joinTimeline.mark(JoinTimeline.Stage.ROOM_CONNECT_STARTED);
         roomState = ConnectionState.NEW;
         wsClient = new WebSocketChannelClient(handler, this);
 
@@ -88,7 +95,10 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.
             }
         };
 
-        new RoomParametersFetcher(connectionUrl, null, callbacks).makeRequest();
+        new RoomParametersFetcher(connectionUrl, null, connectionParameters.joinTimeline,
+                IceServerCache.getInstance(MyApplication.getContext),
+                connectionParameters.probeIceServers ? IceServerProber.getInstance() : null,
+                callbacks).makeRequest();
     }
 
     private void disconnectFromRoomInternal() {
@@ -98,6 +108,9 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.
             sendPostMessage(MessageType.LEAVE, leaveUrl, null);
         }
         roomState = ConnectionState.CLOSED;
+        if (candidateBatcher != null) {
+            candidateBatcher.clear();
+        }
         if (wsClient != null) {
             wsClient.disconnect(true);
         }
@@ -130,6 +143,7 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.
 
     private void signalingParametersReady(final SignalingParameters signalingParameters) {
         Log.d(TAG, "Room connection completed.");
+        connectionParameters.joinTimeline.mark(JoinTimeline.Stage.ROOM_PARAMETERS_RECEIVED);
         if (connectionParameters.loopback
                 && (!signalingParameters.initiator || signalingParameters.offerSdp != null)) {
             reportError("Loopback room is busy.");
@@ -161,10 +175,14 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.
                     reportError("Sending offer SDP in non connected state.");
                     return;
                 }
-                JSONObject json = new JSONObject();
-                jsonPut(json, "sdp", sdp.description);
-                jsonPut(json, "type", "offer");
-                sendPostMessage(MessageType.MESSAGE, messageUrl, json.toString());
+                if (initiator) {
+                    sendPostMessage(MessageType.MESSAGE, messageUrl,
+                            SignalingMessageCodec.encode(SignalingMessage.description(sdp)));
+                } else {
+                    // Renegotiation offer of the receiving side, the initiator is registered.
+                    wsClient.send(SignalingMessage.description(sdp));
+                }
+                markOfferSent();
                 if (connectionParameters.loopback) {
                     // In loopback mode rename this offer to answer and route it back.
                     SessionDescription sdpAnswer = new SessionDescription(
@@ -184,10 +202,7 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.
                     Log.e(TAG, "Sending answer in loopback mode.");
                     return;
                 }
-                JSONObject json = new JSONObject();
-                jsonPut(json, "sdp", sdp.description);
-                jsonPut(json, "type", "answer");
-                wsClient.send(json.toString());
+                wsClient.send(SignalingMessage.description(sdp));
             }
         });
     }
@@ -197,54 +212,72 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.
         handler.post(new Runnable() {
             @Override
             public void run() {
-                JSONObject json = new JSONObject();
-                jsonPut(json, "type", "candidate");
-                jsonPut(json, "label", candidate.sdpMLineIndex);
-                jsonPut(json, "id", candidate.sdpMid);
-                jsonPut(json, "candidate", candidate.sdp);
-                if (initiator) {
-                    // Call initiator sends ice candidates to GAE server.
-                    if (roomState != ConnectionState.CONNECTED) {
-                        reportError("Sending ICE candidate in non connected state.");
-                        return;
-                    }
-                    sendPostMessage(MessageType.MESSAGE, messageUrl, json.toString());
-                    if (connectionParameters.loopback) {
-                        events.onRemoteIceCandidate(candidate);
-                    }
-                } else {
-                    // Call receiver sends ice candidates to websocket server.
-                    wsClient.send(json.toString());
+                // The batcher only exists once connectToRoom has supplied its settings.
+                if (candidateBatcher == null) {
+                    reportError("Sending ICE candidate in non connected state.");
+                    return;
                 }
+                candidateBatcher.add(candidate);
             }
         });
     }
 
+    @Override
+    public void flushLocalIceCandidates() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (candidateBatcher != null) {
+                    candidateBatcher.flush();
+                }
+            }
+        });
+    }
+
+    private void sendLocalIceCandidateBatch(final List<IceCandidate> candidates) {
+        SignalingMessage message = SignalingMessage.candidates(candidates);
+        if (initiator) {
+            // Call initiator sends ice candidates to GAE server.
+            if (roomState != ConnectionState.CONNECTED) {
+                reportError("Sending ICE candidate in non connected state.");
+                return;
+            }
+            sendPostMessage(MessageType.MESSAGE, messageUrl, SignalingMessageCodec.encode(message));
+            if (connectionParameters.loopback) {
+                for (IceCandidate candidate : candidates) {
+                    events.onRemoteIceCandidate(candidate);
+                }
+            }
+        } else {
+            // Call receiver sends ice candidates to websocket server.
+            wsClient.send(message);
+        }
+    }
+
     @Override
     public void sendLocalIceCandidateRemovals(final IceCandidate[] candidates) {
         handler.post(new Runnable() {
             @Override
             public void run() {
-                JSONObject json = new JSONObject();
-                jsonPut(json, "type", "remove-candidates");
-                JSONArray jsonArray = new JSONArray();
-                for (final IceCandidate candidate : candidates) {
-                    jsonArray.put(toJsonCandidate(candidate));
+                // Candidates still waiting in a batch must reach the remote side before their removal.
+                if (candidateBatcher != null) {
+                    candidateBatcher.flush();
                 }
-                jsonPut(json, "candidates", jsonArray);
+                SignalingMessage message = SignalingMessage.removeCandidates(candidates);
                 if (initiator) {
                     // Call initiator sends ice candidates to GAE server.
                     if (roomState != ConnectionState.CONNECTED) {
                         reportError("Sending ICE candidate removals in non connected state.");
                         return;
                     }
-                    sendPostMessage(MessageType.MESSAGE, messageUrl, json.toString());
+                    sendPostMessage(
+                            MessageType.MESSAGE, messageUrl, SignalingMessageCodec.encode(message));
                     if (connectionParameters.loopback) {
                         events.onRemoteIceCandidatesRemoved(candidates);
                     }
                 } else {
                     // Call receiver sends ice candidates to websocket server.
-                    wsClient.send(json.toString());
+                    wsClient.send(message);
                 }
             }
         });
@@ -257,54 +290,51 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.
             return;
         }
         try {
-            JSONObject json = new JSONObject(msg);
-            String msgText = json.getString("msg");
-            String errorText = json.optString("error");
-            if (msgText.length() > 0) {
-                json = new JSONObject(msgText);
-                String type = json.optString("type");
-                if (type.equals("candidate")) {
-                    events.onRemoteIceCandidate(toJavaCandidate(json));
-                } else if (type.equals("remove-candidates")) {
-                    JSONArray candidateArray = json.getJSONArray("candidates");
-                    IceCandidate[] candidates = new IceCandidate[candidateArray.length()];
-                    for (int i = 0; i < candidateArray.length(); ++i) {
-                        candidates[i] = toJavaCandidate(candidateArray.getJSONObject(i));
-                    }
-                    events.onRemoteIceCandidatesRemoved(candidates);
-                } else if (type.equals("answer")) {
-                    if (initiator) {
-                        SessionDescription sdp = new SessionDescription(
-                                SessionDescription.Type.fromCanonicalForm(type), json.getString("sdp"));
-                        events.onRemoteDescription(sdp);
-                    } else {
-                        reportError("Received answer for call initiator: " + msg);
-                    }
-                } else if (type.equals("offer")) {
-                    if (!initiator) {
-                        SessionDescription sdp = new SessionDescription(
-                                SessionDescription.Type.fromCanonicalForm(type), json.getString("sdp"));
-                        events.onRemoteDescription(sdp);
-                    } else {
-                        reportError("Received offer for call receiver: " + msg);
-                    }
-                } else if (type.equals("bye")) {
-                    events.onChannelClose();
-                } else {
+            SignalingMessageCodec.Envelope envelope = SignalingMessageCodec.decodeEnvelope(msg);
+            if (envelope.payload.length() > 0) {
+                SignalingMessage message = SignalingMessageCodec.decode(envelope.payload);
+                if (message == null) {
                     reportError("Unexpected WebSocket message: " + msg);
+                    return;
+                }
+                switch (message.type) {
+                    case CANDIDATE:
+                    case CANDIDATES:
+                        for (IceCandidate candidate : message.candidates) {
+                            events.onRemoteIceCandidate(candidate);
+                        }
+                        break;
+                    case REMOVE_CANDIDATES:
+                        events.onRemoteIceCandidatesRemoved(
+                                message.candidates.toArray(new IceCandidate[0]));
+                        break;
+                    case ANSWER:
+                    case OFFER:
+                        // Both sides may offer once the call is set up, CallController tells the
+                        // initial exchange and renegotiations apart.
+                        events.onRemoteDescription(message.sdp);
+                        break;
+                    case BYE:
+                        events.onChannelClose();
+                        break;
                 }
             } else {
-                if (errorText != null && errorText.length() > 0) {
-                    reportError("WebSocket error message: " + errorText);
+                if (envelope.error.length() > 0) {
+                    reportError("WebSocket error message: " + envelope.error);
                 } else {
                     reportError("Unexpected WebSocket message: " + msg);
                 }
             }
-        } catch (JSONException e) {
+        } catch (SignalingMessageCodec.MalformedMessageException e) {
             reportError("WebSocket message JSON parsing error: " + e.toString());
         }
     }
 
+    @Override
+    public void onWebSocketRegistered() {
+        connectionParameters.joinTimeline.mark(JoinTimeline.Stage.WEBSOCKET_REGISTERED);
+    }
+
     @Override
     public void onWebSocketClose() {
         events.onChannelClose();
@@ -316,6 +346,14 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.
     }
 
 
+    // Join-to-offer-sent latency, the first offer of a call only.
+    private void markOfferSent() {
+        if (connectionParameters.joinTimeline.mark(JoinTimeline.Stage.OFFER_SENT)) {
+            Log.i(TAG, "Offer sent " + connectionParameters.joinTimeline.getElapsedMs(
+                    JoinTimeline.Stage.OFFER_SENT) + " ms after join start.");
+        }
+    }
+
     private void reportError(final String errorMessage) {
         Log.e(TAG, errorMessage);
         handler.post(new Runnable() {
@@ -329,14 +367,6 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.
         });
     }
 
-    private static void jsonPut(JSONObject json, String key, Object value) {
-        try {
-            json.put(key, value);
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
     private void sendPostMessage(
             final MessageType messageType, final String url, @Nullable final String message) {
         String logInfo = url;
@@ -368,17 +398,4 @@ public class WebSocketRTCClient implements AppRTCClient, WebSocketChannelClient.
                 });
         httpConnection.send();
     }
-
-    private JSONObject toJsonCandidate(final IceCandidate candidate) {
-        JSONObject json = new JSONObject();
-        jsonPut(json, "label", candidate.sdpMLineIndex);
-        jsonPut(json, "id", candidate.sdpMid);
-        jsonPut(json, "candidate", candidate.sdp);
-        return json;
-    }
-
-    IceCandidate toJavaCandidate(JSONObject json) throws JSONException {
-        return new IceCandidate(
-                json.getString("id"), json.getInt("label"), json.getString("candidate"));
-    }
 }
@@ -0,0 +1,244 @@
+package com.iottive.webrtc.websocket.adaptation;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.iottive.webrtc.websocket.stats.StatsMetric;
+import com.iottive.webrtc.websocket.stats.StatsPipeline;
+
+import java.util.Locale;
+
+// Closed loop controller for the local video encoding. Every stats interval is reduced to a Sample,
+// congestion lowers the target bitrate quickly while a clean network raises it slowly after a hold
+// off, and sustained CPU overuse steps the frame rate and resolution down. Decisions only depend on
+// the samples, so recorded traces (see Sample.fromTraceLine) replay deterministically.
+public class AdaptiveBitrateController implements StatsPipeline.IntervalListener {
+    private static final String TAG = "AdaptiveBitrate";
+    public static final String TRACE_PREFIX = "ABR sample: ";
+
+    public static final int MIN_BITRATE_BPS = 150000;
+    // Loss at or above HEAVY_LOSS_PERCENT is congestion, at or below LOW_LOSS_PERCENT the network
+    // is clean, anything in between holds the current target.
+    static final double HEAVY_LOSS_PERCENT = 10;
+    static final double LOW_LOSS_PERCENT = 2;
+    // Queuing delay on top of the lowest round trip time seen in the call.
+    static final double RTT_INCREASE_MS = 200;
+    static final double DECREASE_FACTOR = 0.8;
+    static final double INCREASE_FACTOR = 1.08;
+    static final int BAD_SAMPLES_TO_DECREASE = 2;
+    static final int GOOD_SAMPLES_TO_INCREASE = 3;
+    static final long INCREASE_HOLD_OFF_MS = 8000;
+    static final int CPU_OVERUSE_PERCENT = 85;
+    static final int CPU_UNDERUSE_PERCENT = 60;
+    static final int CPU_OVERUSE_SAMPLES = 3;
+    static final int CPU_UNDERUSE_SAMPLES = 10;
+    // Bitrate changes smaller than this are not worth a setParameters call.
+    private static final double MIN_BITRATE_CHANGE = 0.05;
+
+    // CPU steps as {max frame rate, resolution scale}. A frame rate of 0 keeps the capture rate.
+    private static final double[][] CPU_LEVELS = {{0, 1}, {24, 1}, {24, 1.5}, {15, 2}};
+    // Resolution scale once the target falls below the given fraction of the maximum bitrate.
+    private static final double[][] BANDWIDTH_LEVELS = {{1, 1}, {0.5, 1.5}, {0.25, 2}};
+    private static final double BANDWIDTH_LEVEL_HYSTERESIS = 1.2;
+
+    public interface EncodingActuator {
+        void applyEncodingLimits(int maxBitrateBps, int maxFramerate, double scaleResolutionDownBy);
+    }
+
+    public interface CpuLoadSource {
+        // Returns the current CPU usage in percent, or a negative value if unknown.
+        int getCpuUsagePercent();
+    }
+
+    public static class Sample {
+        public final long timestampMs;
+        public final double rttMs;
+        public final double lossPercent;
+        public final double availableBitrateBps;
+        public final int qualityLimitation;
+        public final int cpuUsagePercent;
+
+        // NaN marks metrics that were not reported.
+        public Sample(long timestampMs, double rttMs, double lossPercent, double availableBitrateBps,
+                      int qualityLimitation, int cpuUsagePercent) {
+            this.timestampMs = timestampMs;
+            this.rttMs = rttMs;
+            this.lossPercent = lossPercent;
+            this.availableBitrateBps = availableBitrateBps;
+            this.qualityLimitation = qualityLimitation;
+            this.cpuUsagePercent = cpuUsagePercent;
+        }
+
+        public String toTraceLine() {
+            return String.format(Locale.US, "%d,%.1f,%.2f,%.0f,%d,%d", timestampMs, rttMs,
+                    lossPercent, availableBitrateBps, qualityLimitation, cpuUsagePercent);
+        }
+
+        public static Sample fromTraceLine(String line) {
+            String[] fields = line.trim().split(",");
+            if (fields.length != 6) {
+                throw new IllegalArgumentException("Invalid trace line: " + line);
+            }
+            return new Sample(Long.parseLong(fields[0]), Double.parseDouble(fields[1]),
+                    Double.parseDouble(fields[2]), Double.parseDouble(fields[3]),
+                    Integer.parseInt(fields[4]), Integer.parseInt(fields[5]));
+        }
+    }
+
+    private final int maxBitrateBps;
+    private final int maxFramerate;
+    private final EncodingActuator actuator;
+    @Nullable
+    private final CpuLoadSource cpuLoadSource;
+
+    private double targetBitrateBps;
+    private double minRttMs = Double.MAX_VALUE;
+    private int badSamples;
+    private int goodSamples;
+    private long lastDecreaseMs = Long.MIN_VALUE / 2;
+    private volatile boolean cpuAdaptationEnabled = true;
+    private int cpuLevel;
+    private int cpuOveruseSamples;
+    private int cpuUnderuseSamples;
+    private int bandwidthLevel;
+    private int appliedBitrateBps = -1;
+    private int appliedFramerate = -1;
+    private double appliedScale = -1;
+
+    public AdaptiveBitrateController(int maxBitrateBps, int maxFramerate,
+                                     EncodingActuator actuator, @Nullable CpuLoadSource cpuLoadSource) {
+        this.maxBitrateBps = Math.max(MIN_BITRATE_BPS, maxBitrateBps);
+        this.maxFramerate = maxFramerate;
+        this.actuator = actuator;
+        this.cpuLoadSource = cpuLoadSource;
+        targetBitrateBps = this.maxBitrateBps;
+    }
+
+    @Override
+    public void onStatsInterval(long timestampMs, StatsPipeline.StatsInterval interval) {
+        double qualityLimitation = interval.get(StatsMetric.VIDEO_QUALITY_LIMITATION);
+        Sample sample = new Sample(timestampMs, interval.get(StatsMetric.ROUND_TRIP_TIME_MS),
+                interval.get(StatsMetric.OUTBOUND_VIDEO_PACKET_LOSS_PERCENT),
+                interval.get(StatsMetric.AVAILABLE_OUTGOING_BITRATE_BPS),
+                Double.isNaN(qualityLimitation) ? StatsPipeline.QUALITY_LIMITATION_NONE
+                        : (int) qualityLimitation,
+                cpuLoadSource != null ? cpuLoadSource.getCpuUsagePercent() : -1);
+        Log.d(TAG, TRACE_PREFIX + sample.toTraceLine());
+        onSample(sample);
+    }
+
+    public void onSample(Sample sample) {
+        updateBitrate(sample);
+        updateCpuLevel(sample);
+        updateBandwidthLevel();
+        applyIfChanged();
+    }
+
+    // Disabled when a CaptureFormatLadder already reacts to the CPU load.
+    public void setCpuAdaptationEnabled(boolean enabled) {
+        cpuAdaptationEnabled = enabled;
+    }
+
+    public int getTargetBitrateBps() {
+        return (int) targetBitrateBps;
+    }
+
+    public int getMaxFramerate() {
+        double framerate = CPU_LEVELS[cpuLevel][0];
+        return framerate > 0 ? (int) Math.min(framerate, maxFramerate) : maxFramerate;
+    }
+
+    public double getScaleResolutionDownBy() {
+        return Math.max(CPU_LEVELS[cpuLevel][1], BANDWIDTH_LEVELS[bandwidthLevel][1]);
+    }
+
+    private void updateBitrate(Sample sample) {
+        if (!Double.isNaN(sample.rttMs) && sample.rttMs > 0) {
+            minRttMs = Math.min(minRttMs, sample.rttMs);
+        }
+        double loss = Double.isNaN(sample.lossPercent) ? 0 : sample.lossPercent;
+        boolean rttInflated = !Double.isNaN(sample.rttMs) && sample.rttMs - minRttMs > RTT_INCREASE_MS;
+        boolean availableBelowTarget = !Double.isNaN(sample.availableBitrateBps)
+                && sample.availableBitrateBps > 0
+                && sample.availableBitrateBps < targetBitrateBps * DECREASE_FACTOR;
+
+        if (loss >= HEAVY_LOSS_PERCENT || rttInflated || availableBelowTarget) {
+            goodSamples = 0;
+            badSamples++;
+            // Very heavy loss is acted on without waiting for confirmation.
+            if (badSamples >= BAD_SAMPLES_TO_DECREASE || loss >= 2 * HEAVY_LOSS_PERCENT) {
+                double target = targetBitrateBps * DECREASE_FACTOR;
+                if (availableBelowTarget) {
+                    target = Math.min(target, sample.availableBitrateBps * 0.9);
+                }
+                targetBitrateBps = Math.max(MIN_BITRATE_BPS, target);
+                lastDecreaseMs = sample.timestampMs;
+                badSamples = 0;
+            }
+        } else if (loss <= LOW_LOSS_PERCENT
+                && sample.qualityLimitation != StatsPipeline.QUALITY_LIMITATION_BANDWIDTH) {
+            badSamples = 0;
+            goodSamples++;
+            if (goodSamples >= GOOD_SAMPLES_TO_INCREASE
+                    && sample.timestampMs - lastDecreaseMs >= INCREASE_HOLD_OFF_MS) {
+                targetBitrateBps = Math.min(maxBitrateBps, targetBitrateBps * INCREASE_FACTOR);
+                goodSamples = 0;
+            }
+        } else {
+            badSamples = 0;
+            goodSamples = 0;
+        }
+    }
+
+    private void updateCpuLevel(Sample sample) {
+        if (!cpuAdaptationEnabled) {
+            cpuLevel = 0;
+            cpuOveruseSamples = 0;
+            cpuUnderuseSamples = 0;
+            return;
+        }
+        boolean overuse = sample.qualityLimitation == StatsPipeline.QUALITY_LIMITATION_CPU
+                || sample.cpuUsagePercent >= CPU_OVERUSE_PERCENT;
+        boolean underuse = !overuse && sample.cpuUsagePercent < CPU_UNDERUSE_PERCENT;
+        cpuOveruseSamples = overuse ? cpuOveruseSamples + 1 : 0;
+        cpuUnderuseSamples = underuse ? cpuUnderuseSamples + 1 : 0;
+        if (cpuOveruseSamples >= CPU_OVERUSE_SAMPLES && cpuLevel < CPU_LEVELS.length - 1) {
+            cpuLevel++;
+            cpuOveruseSamples = 0;
+        } else if (cpuUnderuseSamples >= CPU_UNDERUSE_SAMPLES && cpuLevel > 0) {
+            cpuLevel--;
+            cpuUnderuseSamples = 0;
+        }
+    }
+
+    private void updateBandwidthLevel() {
+        double fraction = targetBitrateBps / maxBitrateBps;
+        while (bandwidthLevel < BANDWIDTH_LEVELS.length - 1
+                && fraction < BANDWIDTH_LEVELS[bandwidthLevel + 1][0]) {
+            bandwidthLevel++;
+        }
+        while (bandwidthLevel > 0
+                && fraction >= BANDWIDTH_LEVELS[bandwidthLevel][0] * BANDWIDTH_LEVEL_HYSTERESIS) {
+            bandwidthLevel--;
+        }
+    }
+
+    private void applyIfChanged() {
+        int bitrate = getTargetBitrateBps();
+        int framerate = getMaxFramerate();
+        double scale = getScaleResolutionDownBy();
+        boolean bitrateChanged = appliedBitrateBps < 0
+                || Math.abs(bitrate - appliedBitrateBps) > appliedBitrateBps * MIN_BITRATE_CHANGE
+                || (bitrate != appliedBitrateBps && (bitrate == maxBitrateBps
+                || bitrate == MIN_BITRATE_BPS));
+        if (!bitrateChanged && framerate == appliedFramerate && scale == appliedScale) {
+            return;
+        }
+        Log.d(TAG, "Encoding limits: " + bitrate + " bps, " + framerate + " fps, scale " + scale);
+        appliedBitrateBps = bitrate;
+        appliedFramerate = framerate;
+        appliedScale = scale;
+        actuator.applyEncodingLimits(bitrate, framerate, scale);
+    }
+}
@@ -0,0 +1,178 @@
+package com.iottive.webrtc.websocket.adaptation;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.iottive.webrtc.websocket.stats.StatsMetric;
+import com.iottive.webrtc.websocket.stats.StatsPipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Steps the capture format down a fixed ladder when the encoder falls behind, the CPU is
+// saturated or the device heats up, and back up once it has been quiet for a while. The encoder
+// backlog is the share of captured frames per second the encoder did not produce. Every step is
+// logged as an EVENT_PREFIX line so sessions can be analysed offline.
+public class CaptureFormatLadder implements StatsPipeline.IntervalListener {
+    private static final String TAG = "CaptureFormatLadder";
+    public static final String EVENT_PREFIX = "Capture ladder event: ";
+
+    // {width, height, frame rate}, from best to worst.
+    private static final int[][] LADDER = {
+            {1280, 720, 30}, {960, 540, 30}, {640, 360, 24}, {424, 240, 15}};
+
+    static final double BACKLOG_OVERUSE = 0.2;
+    static final double BACKLOG_UNDERUSE = 0.05;
+    static final int CPU_OVERUSE_PERCENT = 90;
+    static final int CPU_UNDERUSE_PERCENT = 70;
+    static final int OVERUSE_SAMPLES = 3;
+    static final int UNDERUSE_SAMPLES = 15;
+    // Below this many captured frames per second the backlog is too noisy to act on.
+    private static final double MIN_CAPTURE_FRAME_RATE = 5;
+
+    // Values of PowerManager.THERMAL_STATUS_*.
+    public static final int THERMAL_STATUS_NONE = 0;
+    public static final int THERMAL_STATUS_MODERATE = 2;
+    public static final int THERMAL_STATUS_SEVERE = 3;
+    public static final int THERMAL_STATUS_CRITICAL = 4;
+
+    public static final String REASON_ENCODER = "encoder";
+    public static final String REASON_CPU = "cpu";
+    public static final String REASON_THERMAL = "thermal";
+    public static final String REASON_RECOVERED = "recovered";
+
+    public interface FormatActuator {
+        void changeCaptureFormat(int width, int height, int framerate);
+    }
+
+    public interface ThermalStatusSource {
+        // Returns one of the THERMAL_STATUS_* values, THERMAL_STATUS_NONE if unknown.
+        int getThermalStatus();
+    }
+
+    public static class Sample {
+        public final long timestampMs;
+        public final double captureFrameRate;
+        public final double encodedFrameRate;
+        public final int cpuUsagePercent;
+        public final int thermalStatus;
+
+        // NaN marks frame rates that were not reported, a negative CPU usage is unknown.
+        public Sample(long timestampMs, double captureFrameRate, double encodedFrameRate,
+                      int cpuUsagePercent, int thermalStatus) {
+            this.timestampMs = timestampMs;
+            this.captureFrameRate = captureFrameRate;
+            this.encodedFrameRate = encodedFrameRate;
+            this.cpuUsagePercent = cpuUsagePercent;
+            this.thermalStatus = thermalStatus;
+        }
+
+        // Returns NaN if the backlog can not be derived from this sample.
+        public double getEncoderBacklog() {
+            if (Double.isNaN(captureFrameRate) || Double.isNaN(encodedFrameRate)
+                    || captureFrameRate < MIN_CAPTURE_FRAME_RATE) {
+                return Double.NaN;
+            }
+            return Math.max(0, captureFrameRate - encodedFrameRate) / captureFrameRate;
+        }
+    }
+
+    private final int[][] formats;
+    private final FormatActuator actuator;
+    @Nullable
+    private final AdaptiveBitrateController.CpuLoadSource cpuLoadSource;
+    @Nullable
+    private final ThermalStatusSource thermalStatusSource;
+
+    private int level;
+    private int overuseSamples;
+    private int underuseSamples;
+
+    // The ladder starts at the requested capture format, only smaller rungs are used below it.
+    public CaptureFormatLadder(int width, int height, int framerate, FormatActuator actuator,
+                               @Nullable AdaptiveBitrateController.CpuLoadSource cpuLoadSource,
+                               @Nullable ThermalStatusSource thermalStatusSource) {
+        List<int[]> formats = new ArrayList<>();
+        formats.add(new int[] {width, height, framerate});
+        for (int[] format : LADDER) {
+            if (format[0] * format[1] < width * height) {
+                formats.add(new int[] {format[0], format[1], Math.min(format[2], framerate)});
+            }
+        }
+        this.formats = formats.toArray(new int[formats.size()][]);
+        this.actuator = actuator;
+        this.cpuLoadSource = cpuLoadSource;
+        this.thermalStatusSource = thermalStatusSource;
+    }
+
+    @Override
+    public void onStatsInterval(long timestampMs, StatsPipeline.StatsInterval interval) {
+        onSample(new Sample(timestampMs, interval.get(StatsMetric.CAPTURE_FRAME_RATE),
+                interval.get(StatsMetric.OUTBOUND_FRAME_RATE),
+                cpuLoadSource != null ? cpuLoadSource.getCpuUsagePercent() : -1,
+                thermalStatusSource != null ? thermalStatusSource.getThermalStatus()
+                        : THERMAL_STATUS_NONE));
+    }
+
+    public void onSample(Sample sample) {
+        int thermalLevel = Math.min(getThermalLevel(sample.thermalStatus), formats.length - 1);
+        if (level < thermalLevel) {
+            overuseSamples = 0;
+            underuseSamples = 0;
+            setLevel(sample, thermalLevel, REASON_THERMAL);
+            return;
+        }
+
+        double backlog = sample.getEncoderBacklog();
+        String overuseReason = null;
+        if (backlog >= BACKLOG_OVERUSE) {
+            overuseReason = REASON_ENCODER;
+        } else if (sample.cpuUsagePercent >= CPU_OVERUSE_PERCENT) {
+            overuseReason = REASON_CPU;
+        }
+        boolean underuse = overuseReason == null
+                && (Double.isNaN(backlog) || backlog <= BACKLOG_UNDERUSE)
+                && sample.cpuUsagePercent < CPU_UNDERUSE_PERCENT;
+
+        overuseSamples = overuseReason != null ? overuseSamples + 1 : 0;
+        underuseSamples = underuse ? underuseSamples + 1 : 0;
+        if (overuseSamples >= OVERUSE_SAMPLES && level < formats.length - 1) {
+            overuseSamples = 0;
+            setLevel(sample, level + 1, overuseReason);
+        } else if (underuseSamples >= UNDERUSE_SAMPLES && level > thermalLevel) {
+            underuseSamples = 0;
+            setLevel(sample, level - 1, REASON_RECOVERED);
+        }
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    // Returns {width, height, frame rate} of the current rung.
+    public int[] getFormat() {
+        return formats[level].clone();
+    }
+
+    private static int getThermalLevel(int thermalStatus) {
+        if (thermalStatus >= THERMAL_STATUS_CRITICAL) {
+            return Integer.MAX_VALUE;
+        } else if (thermalStatus >= THERMAL_STATUS_SEVERE) {
+            return 2;
+        } else if (thermalStatus >= THERMAL_STATUS_MODERATE) {
+            return 1;
+        }
+        return 0;
+    }
+
+    private void setLevel(Sample sample, int newLevel, String reason) {
+        int[] format = formats[newLevel];
+        Log.i(TAG, EVENT_PREFIX + String.format(Locale.US, "%d,%d,%d,%dx%d@%d,%s,%.2f,%d,%d",
+                sample.timestampMs, level, newLevel, format[0], format[1], format[2], reason,
+                sample.getEncoderBacklog(), sample.cpuUsagePercent, sample.thermalStatus));
+        level = newLevel;
+        actuator.changeCaptureFormat(format[0], format[1], format[2]);
+    }
+}
@@ -1,10 +1,22 @@
 package com.iottive.webrtc.websocket.apprtc;
 
+import androidx.annotation.Nullable;
+
+import com.iottive.webrtc.websocket.IceCandidateBatcher;
+import com.iottive.webrtc.websocket.IceServerProber;
+import com.iottive.webrtc.websocket.JoinTimeline;
+
 import org.webrtc.IceCandidate;
 import org.webrtc.PeerConnection;
 import org.webrtc.SessionDescription;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
 public interface AppRTCClient {
@@ -14,13 +26,42 @@ public interface AppRTCClient {
         public final String roomId;
         public final boolean loopback;
         public final String urlParameters;
-
-        public RoomConnectionParameters(
-                String roomUrl, String roomId, boolean loopback, String urlParameters) {
+        public final int iceCandidateBatchSize;
+        public final int iceCandidateBatchDelayMs;
+        public final JoinTimeline joinTimeline;
+        // Whether the ICE servers of the room are probed and ranked before they are used.
+        public final boolean probeIceServers;
+
+        public RoomConnectionParameters(String roomUrl, String roomId, boolean loopback,
+                                        String urlParameters, int iceCandidateBatchSize, int iceCandidateBatchDelayMs,
+                                        boolean probeIceServers, JoinTimeline joinTimeline) {
             this.roomUrl = roomUrl;
             this.roomId = roomId;
             this.loopback = loopback;
             this.urlParameters = urlParameters;
+            this.iceCandidateBatchSize = iceCandidateBatchSize;
+            this.iceCandidateBatchDelayMs = iceCandidateBatchDelayMs;
+            this.probeIceServers = probeIceServers;
+            this.joinTimeline = joinTimeline;
+        }
+
+        public RoomConnectionParameters(String roomUrl, String roomId, boolean loopback,
+                                        String urlParameters, int iceCandidateBatchSize, int iceCandidateBatchDelayMs,
+                                        boolean probeIceServers) {
+            this(roomUrl, roomId, loopback, urlParameters, iceCandidateBatchSize, iceCandidateBatchDelayMs,
+                    probeIceServers, new JoinTimeline());
+        }
+
+        public RoomConnectionParameters(String roomUrl, String roomId, boolean loopback,
+                                        String urlParameters, int iceCandidateBatchSize, int iceCandidateBatchDelayMs) {
+            this(roomUrl, roomId, loopback, urlParameters, iceCandidateBatchSize, iceCandidateBatchDelayMs,
+                    true);
+        }
+
+        public RoomConnectionParameters(
+                String roomUrl, String roomId, boolean loopback, String urlParameters) {
+            this(roomUrl, roomId, loopback, urlParameters, IceCandidateBatcher.DEFAULT_MAX_BATCH_SIZE,
+                    IceCandidateBatcher.DEFAULT_MAX_DELAY_MS);
         }
 
         public RoomConnectionParameters(String roomUrl, String roomId, boolean loopback) {
@@ -38,6 +79,8 @@ public interface AppRTCClient {
 
     void sendLocalIceCandidateRemovals(final IceCandidate[] candidates);
 
+    void flushLocalIceCandidates();
+
     void disconnectFromRoom();
 
     class SignalingParameters {
@@ -48,10 +91,18 @@ public interface AppRTCClient {
         public final String wssPostUrl;
         public final SessionDescription offerSdp;
         public final List<IceCandidate> iceCandidates;
+        // TURN servers still being fetched when the room response arrived, null if none are needed.
+        @Nullable
+        public final Future<List<PeerConnection.IceServer>> turnServers;
+        // Probe of all servers including the TURN servers, null if the servers are not probed.
+        @Nullable
+        public final Future<IceServerProber.Result> iceServerProbe;
 
         public SignalingParameters(List<PeerConnection.IceServer> iceServers, boolean initiator,
                                    String clientId, String wssUrl, String wssPostUrl, SessionDescription offerSdp,
-                                   List<IceCandidate> iceCandidates) {
+                                   List<IceCandidate> iceCandidates,
+                                   @Nullable Future<List<PeerConnection.IceServer>> turnServers,
+                                   @Nullable Future<IceServerProber.Result> iceServerProbe) {
             this.iceServers = iceServers;
             this.initiator = initiator;
             this.clientId = clientId;
@@ -59,6 +110,50 @@ public interface AppRTCClient {
             this.wssPostUrl = wssPostUrl;
             this.offerSdp = offerSdp;
             this.iceCandidates = iceCandidates;
+            this.turnServers = turnServers;
+            this.iceServerProbe = iceServerProbe;
+        }
+
+        public SignalingParameters(List<PeerConnection.IceServer> iceServers, boolean initiator,
+                                   String clientId, String wssUrl, String wssPostUrl, SessionDescription offerSdp,
+                                   List<IceCandidate> iceCandidates) {
+            this(iceServers, initiator, clientId, wssUrl, wssPostUrl, offerSdp, iceCandidates, null, null);
+        }
+
+        // Blocks until the pending TURN request, if any, has completed and returns the full server list.
+        public List<PeerConnection.IceServer> awaitIceServers(long timeoutMs) throws IOException {
+            if (turnServers == null) {
+                return iceServers;
+            }
+            List<PeerConnection.IceServer> allServers = new ArrayList<>(iceServers);
+            try {
+                allServers.addAll(turnServers.get(timeoutMs, TimeUnit.MILLISECONDS));
+            } catch (ExecutionException e) {
+                throw new IOException("TURN request failed: " + e.getCause().getMessage());
+            } catch (TimeoutException e) {
+                throw new IOException("TURN request timeout");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("TURN request interrupted");
+            }
+            return allServers;
+        }
+
+        // Blocks until the ICE server probe has completed. Returns null if the servers are not
+        // probed or the probe did not complete, the servers of awaitIceServers are used unranked then.
+        @Nullable
+        public IceServerProber.Result awaitIceServerProbe(long timeoutMs) {
+            if (iceServerProbe == null) {
+                return null;
+            }
+            try {
+                return iceServerProbe.get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
         }
     }
 
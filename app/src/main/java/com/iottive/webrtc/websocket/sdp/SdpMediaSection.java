@@ -0,0 +1,244 @@
+package com.iottive.webrtc.websocket.sdp;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SdpMediaSection {
+    private static final String LINE_SEPARATOR = "\r\n";
+    private static final String RTPMAP_PREFIX = "a=rtpmap:";
+    private static final String FMTP_PREFIX = "a=fmtp:";
+    private static final String RTCP_FB_PREFIX = "a=rtcp-fb:";
+    private static final String MID_PREFIX = "a=mid:";
+
+    private final String source;
+    private final int start;
+    private final int end;
+    private final String media;
+
+    private boolean parsed;
+    private boolean modified;
+    private String mLineHeader;
+    private List<String> payloadTypes;
+    private List<String> lines;
+    private Map<String, String> rtpmaps;
+    private Map<String, String> fmtps;
+    private Map<String, List<String>> rtcpFeedback;
+    @Nullable
+    private String mid;
+
+    SdpMediaSection(String source, int start, int end) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        int mediaEnd = source.indexOf(' ', start);
+        this.media = source.substring(start + 2, mediaEnd < 0 || mediaEnd > end ? end : mediaEnd);
+    }
+
+    public String getMedia() {
+        return media;
+    }
+
+    public boolean isAudio() {
+        return media.equals("audio");
+    }
+
+    public boolean isVideo() {
+        return media.equals("video");
+    }
+
+    public boolean isModified() {
+        return modified;
+    }
+
+    @VisibleForTesting
+    boolean isParsed() {
+        return parsed;
+    }
+
+    @Nullable
+    public String getMid() {
+        ensureParsed();
+        return mid;
+    }
+
+    public List<String> getPayloadTypes() {
+        ensureParsed();
+        return Collections.unmodifiableList(payloadTypes);
+    }
+
+    // Payload type to encoding, e.g. "111" -> "opus/48000/2".
+    public Map<String, String> getRtpmaps() {
+        ensureParsed();
+        return Collections.unmodifiableMap(rtpmaps);
+    }
+
+    public Map<String, String> getFmtps() {
+        ensureParsed();
+        return Collections.unmodifiableMap(fmtps);
+    }
+
+    public Map<String, List<String>> getRtcpFeedback() {
+        ensureParsed();
+        return Collections.unmodifiableMap(rtcpFeedback);
+    }
+
+    public List<String> findPayloadTypes(String codec) {
+        ensureParsed();
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, String> entry : rtpmaps.entrySet()) {
+            if (codecName(entry.getValue()).equals(codec)) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    public boolean preferCodec(String codec) {
+        List<String> preferred = findPayloadTypes(codec);
+        preferred.retainAll(payloadTypes);
+        if (preferred.isEmpty() || payloadTypes.subList(0, preferred.size()).equals(preferred)) {
+            return false;
+        }
+        List<String> reordered = new ArrayList<>(payloadTypes.size());
+        reordered.addAll(preferred);
+        for (String payloadType : payloadTypes) {
+            if (!preferred.contains(payloadType)) {
+                reordered.add(payloadType);
+            }
+        }
+        payloadTypes = reordered;
+        modified = true;
+        return true;
+    }
+
+    public boolean addCodecParameter(String codec, String parameter) {
+        List<String> codecPayloadTypes = findPayloadTypes(codec);
+        if (codecPayloadTypes.isEmpty()) {
+            return false;
+        }
+        final String payloadType = codecPayloadTypes.get(0);
+        final String current = fmtps.get(payloadType);
+        setFmtp(payloadType, current == null ? parameter : current + "; " + parameter);
+        return true;
+    }
+
+    public void setFmtp(String payloadType, String parameters) {
+        ensureParsed();
+        final String line = FMTP_PREFIX + payloadType + " " + parameters;
+        final String fmtpPrefix = FMTP_PREFIX + payloadType + " ";
+        final String rtpmapPrefix = RTPMAP_PREFIX + payloadType + " ";
+        int rtpmapIndex = -1;
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).startsWith(fmtpPrefix)) {
+                lines.set(i, line);
+                fmtps.put(payloadType, parameters);
+                modified = true;
+                return;
+            }
+            if (rtpmapIndex < 0 && lines.get(i).startsWith(rtpmapPrefix)) {
+                rtpmapIndex = i;
+            }
+        }
+        lines.add(rtpmapIndex < 0 ? lines.size() : rtpmapIndex + 1, line);
+        fmtps.put(payloadType, parameters);
+        modified = true;
+    }
+
+    void serialize(StringBuilder builder) {
+        if (!modified) {
+            builder.append(source, start, end);
+            return;
+        }
+        builder.append(mLineHeader);
+        for (String payloadType : payloadTypes) {
+            builder.append(' ').append(payloadType);
+        }
+        builder.append(LINE_SEPARATOR);
+        for (String line : lines) {
+            builder.append(line).append(LINE_SEPARATOR);
+        }
+    }
+
+    private void ensureParsed() {
+        if (parsed) {
+            return;
+        }
+        parsed = true;
+        lines = new ArrayList<>();
+        payloadTypes = new ArrayList<>();
+        rtpmaps = new LinkedHashMap<>();
+        fmtps = new LinkedHashMap<>();
+        rtcpFeedback = new LinkedHashMap<>();
+
+        int lineStart = start;
+        while (lineStart < end) {
+            int lineEnd = source.indexOf('\n', lineStart);
+            int next = lineEnd < 0 || lineEnd >= end ? end : lineEnd + 1;
+            if (lineEnd < 0 || lineEnd >= end) {
+                lineEnd = end;
+            }
+            if (lineEnd > lineStart && source.charAt(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            final String line = source.substring(lineStart, lineEnd);
+            if (mLineHeader == null) {
+                parseMediaDescription(line);
+            } else if (!line.isEmpty() || next < end) {
+                lines.add(line);
+                parseAttribute(line);
+            }
+            lineStart = next;
+        }
+    }
+
+    private void parseMediaDescription(String mLine) {
+        // The format of the media description line should be: m=<media> <port> <proto> <fmt> ...
+        String[] parts = mLine.split(" ");
+        if (parts.length < 3) {
+            mLineHeader = mLine;
+            return;
+        }
+        mLineHeader = parts[0] + " " + parts[1] + " " + parts[2];
+        for (int i = 3; i < parts.length; i++) {
+            payloadTypes.add(parts[i]);
+        }
+    }
+
+    private void parseAttribute(String line) {
+        if (line.startsWith(RTPMAP_PREFIX)) {
+            int space = line.indexOf(' ');
+            if (space > 0) {
+                rtpmaps.put(line.substring(RTPMAP_PREFIX.length(), space), line.substring(space + 1));
+            }
+        } else if (line.startsWith(FMTP_PREFIX)) {
+            int space = line.indexOf(' ');
+            if (space > 0) {
+                fmtps.put(line.substring(FMTP_PREFIX.length(), space), line.substring(space + 1));
+            }
+        } else if (line.startsWith(RTCP_FB_PREFIX)) {
+            int space = line.indexOf(' ');
+            if (space > 0) {
+                final String payloadType = line.substring(RTCP_FB_PREFIX.length(), space);
+                List<String> feedback = rtcpFeedback.get(payloadType);
+                if (feedback == null) {
+                    feedback = new ArrayList<>();
+                    rtcpFeedback.put(payloadType, feedback);
+                }
+                feedback.add(line.substring(space + 1));
+            }
+        } else if (line.startsWith(MID_PREFIX)) {
+            mid = line.substring(MID_PREFIX.length());
+        }
+    }
+
+    private static String codecName(String encoding) {
+        int slash = encoding.indexOf('/');
+        return slash < 0 ? encoding : encoding.substring(0, slash);
+    }
+}
@@ -0,0 +1,113 @@
+package com.iottive.webrtc.websocket.sdp;
+
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SdpRewriter {
+    private static final String TAG = "SdpRewriter";
+    private static final String VIDEO_CODEC_PARAM_START_BITRATE = "x-google-start-bitrate";
+    private static final String AUDIO_CODEC_PARAM_BITRATE = "maxaveragebitrate";
+
+    private final String sdp;
+    private final List<CodecPreference> codecPreferences = new ArrayList<>();
+    private final List<StartBitrate> startBitrates = new ArrayList<>();
+
+    private static class CodecPreference {
+        final String codec;
+        final boolean isAudio;
+
+        CodecPreference(String codec, boolean isAudio) {
+            this.codec = codec;
+            this.isAudio = isAudio;
+        }
+    }
+
+    private static class StartBitrate {
+        final String codec;
+        final boolean isVideoCodec;
+        final int bitrateKbps;
+
+        StartBitrate(String codec, boolean isVideoCodec, int bitrateKbps) {
+            this.codec = codec;
+            this.isVideoCodec = isVideoCodec;
+            this.bitrateKbps = bitrateKbps;
+        }
+    }
+
+    public SdpRewriter(String sdp) {
+        this.sdp = sdp;
+    }
+
+    public SdpRewriter preferCodec(String codec, boolean isAudio) {
+        codecPreferences.add(new CodecPreference(codec, isAudio));
+        return this;
+    }
+
+    public SdpRewriter setStartBitrate(String codec, boolean isVideoCodec, int bitrateKbps) {
+        startBitrates.add(new StartBitrate(codec, isVideoCodec, bitrateKbps));
+        return this;
+    }
+
+    public String rewrite() {
+        if (codecPreferences.isEmpty() && startBitrates.isEmpty()) {
+            return sdp;
+        }
+        SdpSession session = SdpSession.parse(sdp);
+        apply(session);
+        return session.toString();
+    }
+
+    @VisibleForTesting
+    void apply(SdpSession session) {
+        for (CodecPreference preference : codecPreferences) {
+            applyCodecPreference(session, preference);
+        }
+        for (StartBitrate startBitrate : startBitrates) {
+            applyStartBitrate(session, startBitrate);
+        }
+    }
+
+    private static void applyCodecPreference(SdpSession session, CodecPreference preference) {
+        boolean foundSection = false;
+        for (SdpMediaSection section : session.getMediaSections()) {
+            if (preference.isAudio ? !section.isAudio() : !section.isVideo()) {
+                continue;
+            }
+            foundSection = true;
+            if (section.findPayloadTypes(preference.codec).isEmpty()) {
+                Log.w(TAG, "No payload types with name " + preference.codec);
+            } else if (section.preferCodec(preference.codec)) {
+                Log.d(TAG, "Prefer " + preference.codec + " in m-section " + section.getMid()
+                        + ": " + section.getPayloadTypes());
+            }
+        }
+        if (!foundSection) {
+            Log.w(TAG, "No mediaDescription line, so can't prefer " + preference.codec);
+        }
+    }
+
+    private static void applyStartBitrate(SdpSession session, StartBitrate startBitrate) {
+        final String parameter = startBitrate.isVideoCodec
+                ? VIDEO_CODEC_PARAM_START_BITRATE + "=" + startBitrate.bitrateKbps
+                : AUDIO_CODEC_PARAM_BITRATE + "=" + (startBitrate.bitrateKbps * 1000);
+        boolean updated = false;
+        for (SdpMediaSection section : session.getMediaSections()) {
+            // Other sections stay unparsed.
+            if (startBitrate.isVideoCodec ? !section.isVideo() : !section.isAudio()) {
+                continue;
+            }
+            if (section.addCodecParameter(startBitrate.codec, parameter)) {
+                Log.d(TAG, "Set " + parameter + " for " + startBitrate.codec
+                        + " in m-section " + section.getMid());
+                updated = true;
+            }
+        }
+        if (!updated) {
+            Log.w(TAG, "No rtpmap for " + startBitrate.codec + " codec");
+        }
+    }
+}
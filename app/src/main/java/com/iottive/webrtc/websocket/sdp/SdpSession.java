@@ -0,0 +1,78 @@
+package com.iottive.webrtc.websocket.sdp;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class SdpSession {
+    private final String source;
+    private final int sessionEnd;
+    private final List<SdpMediaSection> mediaSections;
+
+    private SdpSession(String source, int sessionEnd, List<SdpMediaSection> mediaSections) {
+        this.source = source;
+        this.sessionEnd = sessionEnd;
+        this.mediaSections = mediaSections;
+    }
+
+    // Only the m-section boundaries are located here, each section parses its lines on first use.
+    public static SdpSession parse(String sdp) {
+        List<SdpMediaSection> sections = new ArrayList<>();
+        int sectionStart = sdp.startsWith("m=") ? 0 : findMediaLine(sdp, 0);
+        final int sessionEnd = sectionStart < 0 ? sdp.length() : sectionStart;
+        while (sectionStart >= 0) {
+            int nextSection = findMediaLine(sdp, sectionStart + 2);
+            sections.add(new SdpMediaSection(
+                    sdp, sectionStart, nextSection < 0 ? sdp.length() : nextSection));
+            sectionStart = nextSection;
+        }
+        return new SdpSession(sdp, sessionEnd, sections);
+    }
+
+    private static int findMediaLine(String sdp, int from) {
+        int index = sdp.indexOf("\nm=", from);
+        return index < 0 ? -1 : index + 1;
+    }
+
+    public List<SdpMediaSection> getMediaSections() {
+        return Collections.unmodifiableList(mediaSections);
+    }
+
+    @Nullable
+    public SdpMediaSection findMediaSection(String mid) {
+        for (SdpMediaSection section : mediaSections) {
+            if (mid.equals(section.getMid())) {
+                return section;
+            }
+        }
+        return null;
+    }
+
+    public boolean isModified() {
+        for (SdpMediaSection section : mediaSections) {
+            if (section.isModified()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void serialize(StringBuilder builder) {
+        builder.append(source, 0, sessionEnd);
+        for (SdpMediaSection section : mediaSections) {
+            section.serialize(builder);
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (!isModified()) {
+            return source;
+        }
+        StringBuilder builder = new StringBuilder(source.length() + 64);
+        serialize(builder);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,74 @@
+package com.iottive.webrtc.websocket.stats;
+
+// Fixed capacity history of one metric. Storage is allocated up front and the oldest sample is
+// overwritten once the buffer is full. Written on the stats thread, readable from any thread.
+public class MetricRingBuffer {
+    private final long[] timestampsMs;
+    private final double[] values;
+    private int next;
+    private int size;
+
+    public MetricRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        timestampsMs = new long[capacity];
+        values = new double[capacity];
+    }
+
+    public synchronized void add(long timestampMs, double value) {
+        timestampsMs[next] = timestampMs;
+        values[next] = value;
+        next = (next + 1) % values.length;
+        if (size < values.length) {
+            size++;
+        }
+    }
+
+    public int capacity() {
+        return values.length;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // |index| 0 is the oldest sample still held.
+    public synchronized double getValue(int index) {
+        return values[position(index)];
+    }
+
+    public synchronized long getTimestampMs(int index) {
+        return timestampsMs[position(index)];
+    }
+
+    // Returns NaN if there are no samples.
+    public synchronized double getLatest() {
+        return size == 0 ? Double.NaN : values[position(size - 1)];
+    }
+
+    // Average of the newest |count| samples, NaN if there are no samples.
+    public synchronized double getAverage(int count) {
+        count = Math.min(count, size);
+        if (count <= 0) {
+            return Double.NaN;
+        }
+        double sum = 0;
+        for (int i = size - count; i < size; i++) {
+            sum += values[position(i)];
+        }
+        return sum / count;
+    }
+
+    public synchronized void clear() {
+        next = 0;
+        size = 0;
+    }
+
+    private int position(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+        return (next - size + index + values.length) % values.length;
+    }
+}
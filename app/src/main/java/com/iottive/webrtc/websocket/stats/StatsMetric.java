@@ -0,0 +1,25 @@
+package com.iottive.webrtc.websocket.stats;
+
+// Per-interval metrics derived from successive RTCStatsReports by StatsPipeline.
+public enum StatsMetric {
+    OUTBOUND_VIDEO_BITRATE_BPS,
+    OUTBOUND_AUDIO_BITRATE_BPS,
+    INBOUND_VIDEO_BITRATE_BPS,
+    INBOUND_AUDIO_BITRATE_BPS,
+    INBOUND_VIDEO_PACKET_LOSS_PERCENT,
+    INBOUND_AUDIO_PACKET_LOSS_PERCENT,
+    // Loss of the video we send, as reported back by the remote side.
+    OUTBOUND_VIDEO_PACKET_LOSS_PERCENT,
+    INBOUND_VIDEO_JITTER_MS,
+    INBOUND_AUDIO_JITTER_MS,
+    // Frames per second the capturer hands to the encoder, from the video media-source.
+    CAPTURE_FRAME_RATE,
+    OUTBOUND_FRAME_RATE,
+    INBOUND_FRAME_RATE,
+    ROUND_TRIP_TIME_MS,
+    AVAILABLE_OUTGOING_BITRATE_BPS,
+    // One of the StatsPipeline.QUALITY_LIMITATION_* values.
+    VIDEO_QUALITY_LIMITATION,
+    ENCODE_TIME_MS,
+    DECODE_TIME_MS
+}
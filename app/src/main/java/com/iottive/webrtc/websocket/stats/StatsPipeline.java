@@ -0,0 +1,325 @@
+package com.iottive.webrtc.websocket.stats;
+
+import androidx.annotation.Nullable;
+
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsCollectorCallback;
+import org.webrtc.RTCStatsReport;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Turns successive RTCStatsReports into per-interval metrics. Cumulative counters are diffed
+// against the previous report of the same RTCStats id, every metric is kept in its own
+// MetricRingBuffer and subscribers are notified of the metrics they registered for on the thread
+// that delivers the report.
+public class StatsPipeline implements RTCStatsCollectorCallback {
+    public static final int DEFAULT_HISTORY_SIZE = 120;
+    public static final int QUALITY_LIMITATION_NONE = 0;
+    public static final int QUALITY_LIMITATION_OTHER = 1;
+    public static final int QUALITY_LIMITATION_BANDWIDTH = 2;
+    public static final int QUALITY_LIMITATION_CPU = 3;
+
+    private static final StatsMetric[] METRICS = StatsMetric.values();
+
+    public interface MetricListener {
+        void onMetric(StatsMetric metric, long timestampMs, double value);
+    }
+
+    // Called once per report after all metrics of the interval have been recorded.
+    public interface IntervalListener {
+        void onStatsInterval(long timestampMs, StatsInterval interval);
+    }
+
+    // Metrics of one interval. Only valid during the IntervalListener callback.
+    public static class StatsInterval {
+        private final double[] values;
+
+        StatsInterval(double[] values) {
+            this.values = values;
+        }
+
+        // Returns NaN if the metric was not reported in this interval.
+        public double get(StatsMetric metric) {
+            return values[metric.ordinal()];
+        }
+    }
+
+    private final EnumMap<StatsMetric, MetricRingBuffer> history = new EnumMap<>(StatsMetric.class);
+    private final EnumMap<StatsMetric, CopyOnWriteArrayList<MetricListener>> listeners =
+            new EnumMap<>(StatsMetric.class);
+    private final CopyOnWriteArrayList<IntervalListener> intervalListeners =
+            new CopyOnWriteArrayList<>();
+    // Scratch state of the report being processed, reused between reports.
+    private final double[] values = new double[METRICS.length];
+    private final StatsInterval interval = new StatsInterval(values);
+    private Map<String, RTCStats> previousStats = new HashMap<>();
+    private Map<String, RTCStats> currentStats = new HashMap<>();
+    private double encodedFrames;
+    private double encodeSeconds;
+    private double decodedFrames;
+    private double decodeSeconds;
+    private final double[] lostPackets = new double[2];
+    private final double[] receivedPackets = new double[2];
+
+    public StatsPipeline() {
+        this(DEFAULT_HISTORY_SIZE);
+    }
+
+    public StatsPipeline(int historySize) {
+        for (StatsMetric metric : METRICS) {
+            history.put(metric, new MetricRingBuffer(historySize));
+            listeners.put(metric, new CopyOnWriteArrayList<MetricListener>());
+        }
+    }
+
+    public MetricRingBuffer getHistory(StatsMetric metric) {
+        return history.get(metric);
+    }
+
+    public void subscribe(StatsMetric metric, MetricListener listener) {
+        listeners.get(metric).addIfAbsent(listener);
+    }
+
+    public void unsubscribe(MetricListener listener) {
+        for (CopyOnWriteArrayList<MetricListener> metricListeners : listeners.values()) {
+            metricListeners.remove(listener);
+        }
+    }
+
+    public void subscribeIntervals(IntervalListener listener) {
+        intervalListeners.addIfAbsent(listener);
+    }
+
+    public void unsubscribeIntervals(IntervalListener listener) {
+        intervalListeners.remove(listener);
+    }
+
+    // Forgets the previous report, e.g. when the peer connection is recreated.
+    public synchronized void reset() {
+        previousStats.clear();
+        for (MetricRingBuffer buffer : history.values()) {
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public synchronized void onStatsDelivered(RTCStatsReport report) {
+        Arrays.fill(values, Double.NaN);
+        encodedFrames = 0;
+        encodeSeconds = 0;
+        decodedFrames = 0;
+        decodeSeconds = 0;
+        Arrays.fill(lostPackets, 0);
+        Arrays.fill(receivedPackets, 0);
+        currentStats.clear();
+
+        for (RTCStats stats : report.getStatsMap().values()) {
+            String type = stats.getType();
+            if ("outbound-rtp".equals(type)) {
+                currentStats.put(stats.getId(), stats);
+                processOutboundRtp(stats, previousStats.get(stats.getId()));
+            } else if ("inbound-rtp".equals(type)) {
+                currentStats.put(stats.getId(), stats);
+                processInboundRtp(stats, previousStats.get(stats.getId()));
+            } else if ("remote-inbound-rtp".equals(type)) {
+                processRemoteInboundRtp(stats);
+            } else if ("candidate-pair".equals(type)) {
+                processCandidatePair(stats);
+            } else if ("media-source".equals(type)) {
+                processMediaSource(stats);
+            }
+        }
+
+        if (encodedFrames > 0) {
+            values[StatsMetric.ENCODE_TIME_MS.ordinal()] = encodeSeconds * 1000 / encodedFrames;
+        }
+        if (decodedFrames > 0) {
+            values[StatsMetric.DECODE_TIME_MS.ordinal()] = decodeSeconds * 1000 / decodedFrames;
+        }
+        setPacketLoss(StatsMetric.INBOUND_VIDEO_PACKET_LOSS_PERCENT, 0);
+        setPacketLoss(StatsMetric.INBOUND_AUDIO_PACKET_LOSS_PERCENT, 1);
+
+        Map<String, RTCStats> swap = previousStats;
+        previousStats = currentStats;
+        currentStats = swap;
+
+        long timestampMs = (long) (report.getTimestampUs() / 1000);
+        for (StatsMetric metric : METRICS) {
+            double value = values[metric.ordinal()];
+            if (Double.isNaN(value)) {
+                continue;
+            }
+            history.get(metric).add(timestampMs, value);
+            for (MetricListener listener : listeners.get(metric)) {
+                listener.onMetric(metric, timestampMs, value);
+            }
+        }
+        for (IntervalListener listener : intervalListeners) {
+            listener.onStatsInterval(timestampMs, interval);
+        }
+    }
+
+    private void processOutboundRtp(RTCStats stats, @Nullable RTCStats previous) {
+        boolean video = isVideo(stats);
+        if (video) {
+            max(StatsMetric.VIDEO_QUALITY_LIMITATION,
+                    getQualityLimitation(stats.getMembers().get("qualityLimitationReason")));
+        }
+        double intervalSeconds = getIntervalSeconds(stats, previous);
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        double bytes = getDelta(stats, previous, "bytesSent");
+        if (bytes >= 0) {
+            add(video ? StatsMetric.OUTBOUND_VIDEO_BITRATE_BPS
+                    : StatsMetric.OUTBOUND_AUDIO_BITRATE_BPS, bytes * 8 / intervalSeconds);
+        }
+        if (!video) {
+            return;
+        }
+        double frames = getDelta(stats, previous, "framesEncoded");
+        if (frames >= 0) {
+            // Simulcast layers are separate streams, the top layer has the highest frame rate.
+            max(StatsMetric.OUTBOUND_FRAME_RATE, frames / intervalSeconds);
+            double seconds = getDelta(stats, previous, "totalEncodeTime");
+            if (frames > 0 && seconds >= 0) {
+                encodedFrames += frames;
+                encodeSeconds += seconds;
+            }
+        }
+    }
+
+    private void processInboundRtp(RTCStats stats, @Nullable RTCStats previous) {
+        boolean video = isVideo(stats);
+        double jitter = getMember(stats, "jitter");
+        if (!Double.isNaN(jitter)) {
+            max(video ? StatsMetric.INBOUND_VIDEO_JITTER_MS : StatsMetric.INBOUND_AUDIO_JITTER_MS,
+                    jitter * 1000);
+        }
+        double intervalSeconds = getIntervalSeconds(stats, previous);
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        double bytes = getDelta(stats, previous, "bytesReceived");
+        if (bytes >= 0) {
+            add(video ? StatsMetric.INBOUND_VIDEO_BITRATE_BPS
+                    : StatsMetric.INBOUND_AUDIO_BITRATE_BPS, bytes * 8 / intervalSeconds);
+        }
+        double received = getDelta(stats, previous, "packetsReceived");
+        double lost = getDelta(stats, previous, "packetsLost");
+        if (received >= 0 && lost >= 0) {
+            receivedPackets[video ? 0 : 1] += received;
+            lostPackets[video ? 0 : 1] += lost;
+        }
+        if (!video) {
+            return;
+        }
+        double frames = getDelta(stats, previous, "framesDecoded");
+        if (frames >= 0) {
+            max(StatsMetric.INBOUND_FRAME_RATE, frames / intervalSeconds);
+            double seconds = getDelta(stats, previous, "totalDecodeTime");
+            if (frames > 0 && seconds >= 0) {
+                decodedFrames += frames;
+                decodeSeconds += seconds;
+            }
+        }
+    }
+
+    private void processCandidatePair(RTCStats stats) {
+        Map<String, Object> members = stats.getMembers();
+        if (!Boolean.TRUE.equals(members.get("nominated"))
+                || !"succeeded".equals(members.get("state"))) {
+            return;
+        }
+        double roundTripTime = getMember(stats, "currentRoundTripTime");
+        if (!Double.isNaN(roundTripTime)) {
+            values[StatsMetric.ROUND_TRIP_TIME_MS.ordinal()] = roundTripTime * 1000;
+        }
+        double availableBitrate = getMember(stats, "availableOutgoingBitrate");
+        if (!Double.isNaN(availableBitrate)) {
+            values[StatsMetric.AVAILABLE_OUTGOING_BITRATE_BPS.ordinal()] = availableBitrate;
+        }
+    }
+
+    private void processMediaSource(RTCStats stats) {
+        double framesPerSecond = getMember(stats, "framesPerSecond");
+        if (isVideo(stats) && !Double.isNaN(framesPerSecond)) {
+            max(StatsMetric.CAPTURE_FRAME_RATE, framesPerSecond);
+        }
+    }
+
+    private void processRemoteInboundRtp(RTCStats stats) {
+        double fractionLost = getMember(stats, "fractionLost");
+        if (isVideo(stats) && !Double.isNaN(fractionLost)) {
+            max(StatsMetric.OUTBOUND_VIDEO_PACKET_LOSS_PERCENT, fractionLost * 100);
+        }
+    }
+
+    private static int getQualityLimitation(@Nullable Object reason) {
+        if (reason == null || "none".equals(reason)) {
+            return QUALITY_LIMITATION_NONE;
+        } else if ("cpu".equals(reason)) {
+            return QUALITY_LIMITATION_CPU;
+        } else if ("bandwidth".equals(reason)) {
+            return QUALITY_LIMITATION_BANDWIDTH;
+        }
+        return QUALITY_LIMITATION_OTHER;
+    }
+
+    private void setPacketLoss(StatsMetric metric, int kind) {
+        double expected = receivedPackets[kind] + lostPackets[kind];
+        if (expected > 0) {
+            values[metric.ordinal()] = Math.max(0, lostPackets[kind]) * 100 / expected;
+        }
+    }
+
+    private void add(StatsMetric metric, double value) {
+        double current = values[metric.ordinal()];
+        values[metric.ordinal()] = Double.isNaN(current) ? value : current + value;
+    }
+
+    private void max(StatsMetric metric, double value) {
+        double current = values[metric.ordinal()];
+        values[metric.ordinal()] = Double.isNaN(current) ? value : Math.max(current, value);
+    }
+
+    private static boolean isVideo(RTCStats stats) {
+        Map<String, Object> members = stats.getMembers();
+        Object kind = members.get("kind");
+        if (kind == null) {
+            // Older releases only report mediaType.
+            kind = members.get("mediaType");
+        }
+        return "video".equals(kind);
+    }
+
+    // Returns 0 if this is the first report for the stream.
+    private static double getIntervalSeconds(RTCStats stats, @Nullable RTCStats previous) {
+        if (previous == null) {
+            return 0;
+        }
+        return (stats.getTimestampUs() - previous.getTimestampUs()) / 1000000;
+    }
+
+    // Returns a negative value if the counter is missing or went backwards.
+    private static double getDelta(RTCStats stats, @Nullable RTCStats previous, String name) {
+        if (previous == null) {
+            return -1;
+        }
+        double value = getMember(stats, name);
+        double previousValue = getMember(previous, name);
+        if (Double.isNaN(value) || Double.isNaN(previousValue) || value < previousValue) {
+            return -1;
+        }
+        return value - previousValue;
+    }
+
+    private static double getMember(RTCStats stats, String name) {
+        Object value = stats.getMembers().get(name);
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+}
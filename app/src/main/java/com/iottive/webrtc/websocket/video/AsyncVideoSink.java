@@ -0,0 +1,193 @@
+package com.iottive.webrtc.websocket.video;
+
+import android.util.Log;
+
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoSink;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Moves a slow sink such as a file recorder off the delivering thread. Frames are retained into a
+// bounded queue and handed to the sink on its own thread, when the queue is full the oldest or the
+// newest frame is dropped according to the policy. The delivering thread never waits for the sink.
+// A sink that queues frames internally, like VideoFileRenderer, is only bounded with
+// |maxFramesInFlight|: a frame stays in flight until the sink released it and everything derived
+// from it, and no further frame is handed over meanwhile.
+//
+// Queued frames hold their buffers. A texture frame from a hardware decoder holds the decoder's
+// SurfaceTextureHelper, which delivers no further frame until the texture is returned, so a stalled
+// sink stalls decoding for all sinks. Keep the capacity and frames in flight small for such
+// streams, or convert to I420 before queueing.
+public class AsyncVideoSink implements VideoSink {
+    private static final String TAG = "AsyncVideoSink";
+
+    public enum DropPolicy {
+        // Keeps the latest frames, suits renderers and analyzers that only care about the present.
+        DROP_OLDEST,
+        // Keeps the queued frames, the incoming one is discarded.
+        DROP_NEWEST
+    }
+
+    private final VideoSink sink;
+    private final String name;
+    private final int capacity;
+    private final int maxFramesInFlight;
+    private final DropPolicy dropPolicy;
+    private final ExecutorService executor;
+    private final Object lock = new Object();
+    private final ArrayDeque<VideoFrame> queue;
+    private final Runnable drainTask = this::drain;
+    private boolean drainScheduled;
+    private boolean released;
+    private int framesInFlight;
+    private long deliveredFrames;
+    private long droppedFrames;
+    private int maxQueueDepth;
+
+    public AsyncVideoSink(VideoSink sink, String name, int capacity, DropPolicy dropPolicy) {
+        this(sink, name, capacity, 0, dropPolicy);
+    }
+
+    // |maxFramesInFlight| 0 considers a frame done when onFrame returns.
+    public AsyncVideoSink(VideoSink sink, String name, int capacity, int maxFramesInFlight,
+                          DropPolicy dropPolicy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        if (maxFramesInFlight < 0) {
+            throw new IllegalArgumentException("Invalid frames in flight: " + maxFramesInFlight);
+        }
+        this.sink = sink;
+        this.name = name;
+        this.capacity = capacity;
+        this.maxFramesInFlight = maxFramesInFlight;
+        this.dropPolicy = dropPolicy;
+        queue = new ArrayDeque<>(capacity);
+        executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, name));
+    }
+
+    @Override
+    public void onFrame(VideoFrame frame) {
+        VideoFrame dropped = null;
+        synchronized (lock) {
+            if (released) {
+                return;
+            }
+            if (queue.size() == capacity) {
+                droppedFrames++;
+                if (dropPolicy == DropPolicy.DROP_NEWEST) {
+                    return;
+                }
+                dropped = queue.pollFirst();
+            }
+            frame.retain();
+            queue.addLast(frame);
+            maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+            if (!drainScheduled) {
+                drainScheduled = true;
+                executor.execute(drainTask);
+            }
+        }
+        if (dropped != null) {
+            dropped.release();
+        }
+    }
+
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return queue.size();
+        }
+    }
+
+    public int getMaxQueueDepth() {
+        synchronized (lock) {
+            return maxQueueDepth;
+        }
+    }
+
+    public long getDeliveredFrames() {
+        synchronized (lock) {
+            return deliveredFrames;
+        }
+    }
+
+    public int getFramesInFlight() {
+        synchronized (lock) {
+            return framesInFlight;
+        }
+    }
+
+    public long getDroppedFrames() {
+        synchronized (lock) {
+            return droppedFrames;
+        }
+    }
+
+    // Discards the queued frames and stops the thread. The wrapped sink is not released, a frame
+    // it is handling at the time still completes.
+    public void release() {
+        synchronized (lock) {
+            if (released) {
+                return;
+            }
+            released = true;
+            for (VideoFrame frame : queue) {
+                frame.release();
+            }
+            queue.clear();
+            Log.d(TAG, name + ": delivered " + deliveredFrames + " frames, dropped " + droppedFrames
+                    + ", max queue depth " + maxQueueDepth);
+        }
+        executor.shutdown();
+    }
+
+    private void drain() {
+        while (true) {
+            VideoFrame frame;
+            synchronized (lock) {
+                if (maxFramesInFlight > 0 && framesInFlight >= maxFramesInFlight) {
+                    // Resumed by onFrameDone.
+                    drainScheduled = false;
+                    return;
+                }
+                frame = queue.pollFirst();
+                if (frame == null) {
+                    drainScheduled = false;
+                    return;
+                }
+                if (maxFramesInFlight > 0) {
+                    framesInFlight++;
+                    // The tracked frame owns the queue's reference from here on.
+                    frame = new VideoFrame(new TrackedVideoBuffer(frame.getBuffer(),
+                            new TrackedVideoBuffer.Token(this::onFrameDone)),
+                            frame.getRotation(), frame.getTimestampNs());
+                }
+            }
+            try {
+                sink.onFrame(frame);
+                synchronized (lock) {
+                    deliveredFrames++;
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, name + " failed to handle frame.", e);
+                synchronized (lock) {
+                    droppedFrames++;
+                }
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    private void onFrameDone() {
+        synchronized (lock) {
+            framesInFlight--;
+            if (!released && !drainScheduled && !queue.isEmpty()) {
+                drainScheduled = true;
+                executor.execute(drainTask);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.iottive.webrtc.websocket.video;
+
+import org.webrtc.VideoFrame;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Buffer handed to a sink that keeps working on a frame after onFrame returns, such as
+// VideoFileRenderer with its render and file threads. The frame counts as in flight until this
+// buffer and every buffer derived from it, crops, scales and I420 conversions, are released, on
+// whatever thread that happens.
+class TrackedVideoBuffer implements VideoFrame.Buffer {
+    // Shared by a frame and the buffers derived from it, runs |onDone| once all are released.
+    static class Token {
+        private final AtomicInteger refCount = new AtomicInteger(1);
+        private final Runnable onDone;
+
+        Token(Runnable onDone) {
+            this.onDone = onDone;
+        }
+
+        Token retain() {
+            refCount.incrementAndGet();
+            return this;
+        }
+
+        void release() {
+            if (refCount.decrementAndGet() == 0) {
+                onDone.run();
+            }
+        }
+    }
+
+    private final VideoFrame.Buffer buffer;
+    private final Token token;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    // Takes over a reference to |buffer| and to |token|.
+    TrackedVideoBuffer(VideoFrame.Buffer buffer, Token token) {
+        this.buffer = buffer;
+        this.token = token;
+    }
+
+    @Override
+    public int getWidth() {
+        return buffer.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return buffer.getHeight();
+    }
+
+    @Override
+    public VideoFrame.I420Buffer toI420() {
+        return new TrackedI420Buffer(buffer.toI420(), token.retain());
+    }
+
+    @Override
+    public VideoFrame.Buffer cropAndScale(int cropX, int cropY, int cropWidth, int cropHeight,
+                                          int scaleWidth, int scaleHeight) {
+        return new TrackedVideoBuffer(buffer.cropAndScale(
+                cropX, cropY, cropWidth, cropHeight, scaleWidth, scaleHeight), token.retain());
+    }
+
+    @Override
+    public void retain() {
+        refCount.incrementAndGet();
+    }
+
+    @Override
+    public void release() {
+        if (refCount.decrementAndGet() == 0) {
+            buffer.release();
+            token.release();
+        }
+    }
+
+    private static class TrackedI420Buffer extends TrackedVideoBuffer
+            implements VideoFrame.I420Buffer {
+        private final VideoFrame.I420Buffer i420Buffer;
+
+        TrackedI420Buffer(VideoFrame.I420Buffer buffer, Token token) {
+            super(buffer, token);
+            i420Buffer = buffer;
+        }
+
+        @Override
+        public VideoFrame.I420Buffer toI420() {
+            retain();
+            return this;
+        }
+
+        @Override
+        public ByteBuffer getDataY() {
+            return i420Buffer.getDataY();
+        }
+
+        @Override
+        public ByteBuffer getDataU() {
+            return i420Buffer.getDataU();
+        }
+
+        @Override
+        public ByteBuffer getDataV() {
+            return i420Buffer.getDataV();
+        }
+
+        @Override
+        public int getStrideY() {
+            return i420Buffer.getStrideY();
+        }
+
+        @Override
+        public int getStrideU() {
+            return i420Buffer.getStrideU();
+        }
+
+        @Override
+        public int getStrideV() {
+            return i420Buffer.getStrideV();
+        }
+    }
+}
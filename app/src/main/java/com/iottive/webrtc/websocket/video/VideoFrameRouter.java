@@ -0,0 +1,155 @@
+package com.iottive.webrtc.websocket.video;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoSink;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Fans every frame out to a swappable target and any number of attached sinks without taking a
+// lock on the delivering thread. The sinks are kept in a copy on write array, so onFrame only
+// reads a volatile snapshot. Each sink gets the same frame, retained for the duration of its
+// onFrame call and released afterwards, so nothing is copied. A sink that throws drops that frame
+// and is counted, the other sinks still see it.
+public class VideoFrameRouter implements VideoSink {
+    private static final String TAG = "VideoFrameRouter";
+    private static final Route[] NO_ROUTES = new Route[0];
+
+    public static class Route {
+        private final VideoSink sink;
+        private final AtomicLong deliveredFrames = new AtomicLong();
+        private final AtomicLong droppedFrames = new AtomicLong();
+        private volatile boolean enabled = true;
+
+        private Route(VideoSink sink) {
+            this.sink = sink;
+        }
+
+        public VideoSink getSink() {
+            return sink;
+        }
+
+        public long getDeliveredFrames() {
+            return deliveredFrames.get();
+        }
+
+        // Frames that arrived while the route was disabled or that the sink failed on.
+        public long getDroppedFrames() {
+            return droppedFrames.get();
+        }
+
+        // A disabled route keeps its place and counters but skips the frames.
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        private void deliver(VideoFrame frame) {
+            if (!enabled) {
+                droppedFrames.incrementAndGet();
+                return;
+            }
+            frame.retain();
+            try {
+                sink.onFrame(frame);
+                deliveredFrames.incrementAndGet();
+            } catch (RuntimeException e) {
+                droppedFrames.incrementAndGet();
+                Log.e(TAG, "Sink failed to handle frame.", e);
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    private final Object routesLock = new Object();
+    @Nullable
+    private volatile Route target;
+    private volatile Route[] routes = NO_ROUTES;
+    private final AtomicLong targetlessFrames = new AtomicLong();
+
+    @Override
+    public void onFrame(VideoFrame frame) {
+        Route target = this.target;
+        if (target != null) {
+            target.deliver(frame);
+        } else {
+            targetlessFrames.incrementAndGet();
+        }
+        for (Route route : routes) {
+            route.deliver(frame);
+        }
+    }
+
+    // Replaces the target, typically the renderer on screen. A null target drops the frames for it.
+    public void setTarget(@Nullable VideoSink sink) {
+        target = sink == null ? null : new Route(sink);
+    }
+
+    @Nullable
+    public Route getTargetRoute() {
+        return target;
+    }
+
+    // Frames that arrived without a target.
+    public long getTargetlessFrames() {
+        return targetlessFrames.get();
+    }
+
+    // Returns the existing route if the sink is attached already.
+    public Route addSink(VideoSink sink) {
+        synchronized (routesLock) {
+            Route route = findRoute(routes, sink);
+            if (route != null) {
+                return route;
+            }
+            route = new Route(sink);
+            Route[] newRoutes = Arrays.copyOf(routes, routes.length + 1);
+            newRoutes[routes.length] = route;
+            routes = newRoutes;
+            return route;
+        }
+    }
+
+    // May be called from within a sink's onFrame, the sink then stops with the next frame.
+    public void removeSink(VideoSink sink) {
+        synchronized (routesLock) {
+            Route[] current = routes;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].sink == sink) {
+                    Route[] newRoutes = new Route[current.length - 1];
+                    System.arraycopy(current, 0, newRoutes, 0, i);
+                    System.arraycopy(current, i + 1, newRoutes, i, current.length - i - 1);
+                    routes = newRoutes.length == 0 ? NO_ROUTES : newRoutes;
+                    return;
+                }
+            }
+        }
+    }
+
+    @Nullable
+    public Route getRoute(VideoSink sink) {
+        return findRoute(routes, sink);
+    }
+
+    // Detaches everything, e.g. when the call ends.
+    public void clear() {
+        synchronized (routesLock) {
+            target = null;
+            routes = NO_ROUTES;
+        }
+    }
+
+    @Nullable
+    private static Route findRoute(Route[] routes, VideoSink sink) {
+        for (Route route : routes) {
+            if (route.sink == sink) {
+                return route;
+            }
+        }
+        return null;
+    }
+}
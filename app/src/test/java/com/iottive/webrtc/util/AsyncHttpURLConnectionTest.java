@@ -0,0 +1,82 @@
+package com.iottive.webrtc.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncHttpURLConnectionTest {
+    private static final int REQUEST_COUNT = 20;
+    private static final byte[] RESPONSE = "{\"result\":\"SUCCESS\"}".getBytes();
+
+    private HttpServer server;
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                InputStream body = exchange.getRequestBody();
+                while (body.read() != -1) {
+                }
+                exchange.sendResponseHeaders(200, RESPONSE.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(RESPONSE);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void send_reusesConnectionsOnBoundedPool() throws InterruptedException {
+        final String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/message";
+        final CountDownLatch done = new CountDownLatch(REQUEST_COUNT);
+        final Set<String> threadNames = Collections.synchronizedSet(new HashSet<String>());
+        final Set<String> errors = Collections.synchronizedSet(new HashSet<String>());
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            new AsyncHttpURLConnection("POST", url, "message " + i,
+                    new AsyncHttpURLConnection.AsyncHttpEvents() {
+                        @Override
+                        public void onHttpError(String errorMessage) {
+                            errors.add(errorMessage);
+                            done.countDown();
+                        }
+
+                        @Override
+                        public void onHttpComplete(String response) {
+                            threadNames.add(Thread.currentThread().getName());
+                            done.countDown();
+                        }
+                    }).send();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertTrue(threadNames.size() <= AsyncHttpURLConnection.MAX_HTTP_THREADS);
+        assertTrue(clientPorts.toString(),
+                clientPorts.size() <= AsyncHttpURLConnection.MAX_HTTP_THREADS);
+    }
+}
@@ -0,0 +1,35 @@
+package com.iottive.webrtc.websocket;
+
+import org.junit.Assume;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+// Keeps timing tests out of the default unit test run. They run with ./gradlew test -Pbenchmark
+// and append their numbers to build/reports/benchmarks/<name>.txt instead of the console.
+public final class Benchmarks {
+    private Benchmarks() {
+    }
+
+    public static void assumeEnabled() {
+        Assume.assumeTrue("Benchmarks run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+    }
+
+    public static void report(String name, String result) throws IOException {
+        File dir = new File(System.getProperty("benchmark.dir", "build/reports/benchmarks"));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        Writer writer = new OutputStreamWriter(
+                new FileOutputStream(new File(dir, name + ".txt"), true), Charset.forName("UTF-8"));
+        try {
+            writer.write(result + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+}
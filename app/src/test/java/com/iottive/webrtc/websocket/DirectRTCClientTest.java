@@ -0,0 +1,122 @@
+package com.iottive.webrtc.websocket;
+
+import com.iottive.webrtc.websocket.apprtc.AppRTCClient;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DirectRTCClientTest {
+    private static final int TIMEOUT_SECONDS = 10;
+    // Long enough that only a flush sends a partial batch during the test.
+    private static final int BATCH_DELAY_MS = 5000;
+
+    private static class FakeChannel implements TCPChannel {
+        final LinkedBlockingQueue<String> sent = new LinkedBlockingQueue<>();
+
+        @Override
+        public void send(String message) {
+            sent.add(message);
+        }
+
+        @Override
+        public void sendBinary(int type, byte[] payload) {
+            sent.add("binary " + type);
+        }
+
+        @Override
+        public void disconnect() {
+        }
+    }
+
+    private static class Events implements AppRTCClient.SignalingEvents {
+        final CountDownLatch connected = new CountDownLatch(1);
+        final LinkedBlockingQueue<String> errors = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onConnectedToRoom(AppRTCClient.SignalingParameters params) {
+            connected.countDown();
+        }
+
+        @Override
+        public void onRemoteDescription(SessionDescription sdp) {
+        }
+
+        @Override
+        public void onRemoteIceCandidate(IceCandidate candidate) {
+        }
+
+        @Override
+        public void onRemoteIceCandidatesRemoved(IceCandidate[] candidates) {
+        }
+
+        @Override
+        public void onChannelClose() {
+        }
+
+        @Override
+        public void onChannelError(String description) {
+            errors.add(description);
+        }
+    }
+
+    private final FakeChannel channel = new FakeChannel();
+    private final Events events = new Events();
+    private final DirectRTCClient client =
+            new DirectRTCClient(events, false /* useNioTransport */, false /* useBinaryFraming */) {
+                @Override
+                TCPChannel createTCPChannel(String ip, int port) {
+                    // Accepts the peer right away, as the listening socket would.
+                    onTCPConnected(true /* isServer */);
+                    return channel;
+                }
+            };
+
+    private static IceCandidate createCandidate(int index) {
+        return new IceCandidate("0", 0,
+                "candidate:" + index + " 1 udp 2122260223 192.168.1.2 5432" + index + " typ host");
+    }
+
+    @After
+    public void tearDown() {
+        client.disconnectFromRoom();
+    }
+
+    @Test
+    public void removals_areSentAfterPendingCandidates() throws Exception {
+        client.connectToRoom(new AppRTCClient.RoomConnectionParameters(
+                null, "0.0.0.0:0", false, null, 10, BATCH_DELAY_MS));
+        assertTrue(events.connected.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        client.sendLocalIceCandidate(createCandidate(0));
+        client.sendLocalIceCandidate(createCandidate(1));
+        client.sendLocalIceCandidateRemovals(new IceCandidate[] {createCandidate(0)});
+
+        JSONObject first = new JSONObject(channel.sent.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("candidates", first.getString("type"));
+        assertEquals(2, first.getJSONArray("candidates").length());
+        JSONObject second = new JSONObject(channel.sent.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("remove-candidates", second.getString("type"));
+        assertEquals(1, second.getJSONArray("candidates").length());
+        assertTrue(events.errors.isEmpty());
+    }
+
+    @Test
+    public void candidate_beforeConnectToRoom_reportsError() throws Exception {
+        client.sendLocalIceCandidate(createCandidate(0));
+        client.flushLocalIceCandidates();
+        client.sendLocalIceCandidateRemovals(new IceCandidate[] {createCandidate(0)});
+
+        assertEquals("Sending ICE candidate in non connected state.",
+                events.errors.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(channel.sent.isEmpty());
+    }
+}
@@ -0,0 +1,112 @@
+package com.iottive.webrtc.websocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.webrtc.RtcCertificatePem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.*;
+
+public class DtlsCertificateCacheTest {
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+
+    private File storageFile;
+    private SecretKey storageKey;
+    private long nowMs = 1000000;
+    private int generated;
+
+    @Before
+    public void setUp() throws IOException, NoSuchAlgorithmException {
+        storageFile = File.createTempFile("dtls_certificate", ".bin");
+        storageFile.delete();
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(128);
+        storageKey = generator.generateKey();
+    }
+
+    @After
+    public void tearDown() {
+        storageFile.delete();
+    }
+
+    private DtlsCertificateCache createCache() {
+        return new DtlsCertificateCache(storageFile, Runnable::run) {
+            @Override
+            long currentTimeMillis() {
+                return nowMs;
+            }
+
+            @Override
+            RtcCertificatePem generateCertificate(long lifetimeMs) {
+                generated++;
+                return new RtcCertificatePem("privateKey" + generated, "certificate" + generated);
+            }
+
+            @Override
+            SecretKey getStorageKey() {
+                return storageKey;
+            }
+        };
+    }
+
+    @Test
+    public void miss_generatesCertificateForNextCall() {
+        DtlsCertificateCache cache = createCache();
+        assertNull(cache.getCertificate());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getGenerationCount());
+
+        assertEquals("certificate1", cache.getCertificate().certificate);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, generated);
+    }
+
+    @Test
+    public void certificate_isStoredEncryptedAcrossInstances() throws IOException {
+        createCache().prefetch();
+        assertTrue(storageFile.exists());
+        String content = new String(Files.readAllBytes(storageFile.toPath()), "ISO-8859-1");
+        assertFalse(content.contains("privateKey1"));
+
+        RtcCertificatePem certificate = createCache().getCertificate();
+        assertEquals("privateKey1", certificate.privateKey);
+        assertEquals(1, generated);
+    }
+
+    @Test
+    public void unreadableFile_isTreatedAsMiss() throws IOException {
+        Files.write(storageFile.toPath(), new byte[] {12, 1, 2, 3});
+        DtlsCertificateCache cache = createCache();
+        assertNull(cache.getCertificate());
+        assertEquals("certificate1", cache.getCertificate().certificate);
+    }
+
+    @Test
+    public void rotation_servesPreviousCertificateWhileGenerating() {
+        createCache().prefetch();
+        nowMs += 8 * DAY_MS;
+        DtlsCertificateCache cache = createCache();
+        assertEquals("certificate1", cache.getCertificate().certificate);
+        assertEquals(2, generated);
+        assertEquals("certificate2", cache.getCertificate().certificate);
+    }
+
+    @Test
+    public void expiringCertificate_isNotServed() {
+        createCache().prefetch();
+        nowMs += 29 * DAY_MS + 1;
+        DtlsCertificateCache cache = createCache();
+        assertNull(cache.getCertificate());
+        assertEquals(1, cache.getMissCount());
+        assertEquals("certificate2", cache.getCertificate().certificate);
+    }
+}
@@ -0,0 +1,130 @@
+package com.iottive.webrtc.websocket;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class IceCandidateBatcherTest {
+    private static final int MAX_BATCH_SIZE = 3;
+    private static final int MAX_DELAY_MS = 50;
+
+    // Runs delayed tasks when the test moves the clock past their time.
+    private static class FakeScheduler implements IceCandidateBatcher.Scheduler {
+        final List<Runnable> tasks = new ArrayList<>();
+        final List<Long> runAtMs = new ArrayList<>();
+        long nowMs;
+
+        @Override
+        public void postDelayed(Runnable task, long delayMs) {
+            tasks.add(task);
+            runAtMs.add(nowMs + delayMs);
+        }
+
+        void advance(long ms) {
+            nowMs += ms;
+            for (int i = 0; i < tasks.size(); ) {
+                if (runAtMs.get(i) <= nowMs) {
+                    runAtMs.remove(i);
+                    tasks.remove(i).run();
+                } else {
+                    i++;
+                }
+            }
+        }
+    }
+
+    private final FakeScheduler scheduler = new FakeScheduler();
+    private final List<List<IceCandidate>> batches = new ArrayList<>();
+    private final IceCandidateBatcher batcher =
+            new IceCandidateBatcher(scheduler, batches::add, MAX_BATCH_SIZE, MAX_DELAY_MS);
+
+    private static IceCandidate createCandidate(int index) {
+        return new IceCandidate("0", 0,
+                "candidate:" + index + " 1 udp 2122260223 192.168.1.2 5432" + index + " typ host");
+    }
+
+    @Test
+    public void fullBatch_isSentWithoutWaiting() {
+        for (int i = 0; i < MAX_BATCH_SIZE; i++) {
+            batcher.add(createCandidate(i));
+        }
+        assertEquals(1, batches.size());
+        assertEquals(MAX_BATCH_SIZE, batches.get(0).size());
+        assertEquals(createCandidate(2).sdp, batches.get(0).get(2).sdp);
+
+        // The timer of the sent batch does not flush the next one early.
+        batcher.add(createCandidate(3));
+        scheduler.advance(MAX_DELAY_MS - 1);
+        assertEquals(1, batches.size());
+        scheduler.advance(1);
+        assertEquals(2, batches.size());
+        assertEquals(1, batches.get(1).size());
+    }
+
+    @Test
+    public void partialBatch_isSentAfterDelay() {
+        batcher.add(createCandidate(0));
+        scheduler.advance(20);
+        batcher.add(createCandidate(1));
+        assertEquals(1, scheduler.tasks.size());
+
+        scheduler.advance(MAX_DELAY_MS - 21);
+        assertTrue(batches.isEmpty());
+        scheduler.advance(1);
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).size());
+    }
+
+    @Test
+    public void flush_onGatheringComplete_sendsPendingCandidates() {
+        batcher.add(createCandidate(0));
+        batcher.add(createCandidate(1));
+        batcher.flush();
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).size());
+
+        scheduler.advance(MAX_DELAY_MS);
+        batcher.flush();
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void clear_onDisconnect_dropsPendingCandidates() {
+        batcher.add(createCandidate(0));
+        batcher.add(createCandidate(1));
+        batcher.clear();
+        scheduler.advance(MAX_DELAY_MS);
+        batcher.flush();
+        assertTrue(batches.isEmpty());
+    }
+
+    @Test
+    public void singleCandidate_isSentAsCandidateMessage() throws Exception {
+        batcher.add(createCandidate(0));
+        scheduler.advance(MAX_DELAY_MS);
+        assertEquals(1, batches.size());
+
+        JSONObject json = new JSONObject(
+                SignalingMessageCodec.encode(SignalingMessage.candidates(batches.get(0))));
+        assertEquals("candidate", json.getString("type"));
+        assertEquals("0", json.getString("id"));
+        assertEquals(0, json.getInt("label"));
+        assertEquals(createCandidate(0).sdp, json.getString("candidate"));
+        assertFalse(json.has("candidates"));
+    }
+
+    @Test
+    public void zeroDelay_sendsEveryCandidateAlone() {
+        IceCandidateBatcher batcher =
+                new IceCandidateBatcher(scheduler, batches::add, MAX_BATCH_SIZE, 0);
+        batcher.add(createCandidate(0));
+        batcher.add(createCandidate(1));
+        assertEquals(2, batches.size());
+        assertTrue(scheduler.tasks.isEmpty());
+    }
+}
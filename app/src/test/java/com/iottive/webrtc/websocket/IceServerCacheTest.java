@@ -0,0 +1,154 @@
+package com.iottive.webrtc.websocket;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.webrtc.PeerConnection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class IceServerCacheTest {
+    private static final String TURN_RESPONSE = "{\"lifetimeDuration\":\"100s\",\"iceServers\":[{"
+            + "\"urls\":[\"turn:turn.example.com:3478?transport=udp\"],"
+            + "\"username\":\"user\",\"credential\":\"secret\"}]}";
+
+    private HttpServer server;
+    private String turnUrl;
+    private File storageFile;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private long nowMs = 1000000;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/turn", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requestCount.incrementAndGet();
+                byte[] response = TURN_RESPONSE.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        server.start();
+        turnUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/turn";
+        storageFile = File.createTempFile("ice_server_cache", ".json");
+        storageFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        storageFile.delete();
+    }
+
+    private IceServerCache createCache() {
+        return new IceServerCache(storageFile) {
+            @Override
+            long currentTimeMillis() {
+                return nowMs;
+            }
+        };
+    }
+
+    @Test
+    public void getIfValid_servesFetchedServersUntilExpiry() throws Exception {
+        IceServerCache cache = createCache();
+        assertNull(cache.getIfValid(turnUrl));
+        cache.fetch(turnUrl);
+
+        List<PeerConnection.IceServer> servers = cache.getIfValid(turnUrl);
+        assertNotNull(servers);
+        assertEquals("turn:turn.example.com:3478?transport=udp", servers.get(0).urls.get(0));
+        assertEquals("secret", servers.get(0).password);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        nowMs += 100000;
+        assertNull(cache.getIfValid(turnUrl));
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, requestCount.get());
+    }
+
+    @Test
+    public void getIfValid_loadsPersistedEntries() throws Exception {
+        createCache().fetch(turnUrl);
+
+        IceServerCache cache = createCache();
+        List<PeerConnection.IceServer> servers = cache.getIfValid(turnUrl);
+        assertNotNull(servers);
+        assertEquals("user", servers.get(0).username);
+        assertEquals(1, requestCount.get());
+    }
+
+    @Test
+    public void getIfValid_refreshesInBackgroundBeforeExpiry() throws Exception {
+        IceServerCache cache = createCache();
+        cache.fetch(turnUrl);
+
+        nowMs += 80000;
+        assertNotNull(cache.getIfValid(turnUrl));
+        for (int i = 0; i < 100 && cache.getRefreshCount() == 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, cache.getRefreshCount());
+        assertEquals(2, requestCount.get());
+
+        // The refreshed entry is valid for a full lifetime from the refresh time.
+        nowMs += 90000;
+        assertNotNull(cache.getIfValid(turnUrl));
+    }
+
+    @Test
+    public void lastUsed_expiresWithItsTurnCredentials() throws Exception {
+        IceServerCache cache = createCache();
+        assertNull(cache.getLastUsed());
+        List<PeerConnection.IceServer> servers = new ArrayList<>(cache.fetch(turnUrl));
+        servers.add(PeerConnection.IceServer.builder("stun:stun.example.com").createIceServer());
+        cache.setLastUsed(servers);
+
+        List<PeerConnection.IceServer> lastUsed = createCache().getLastUsed();
+        assertNotNull(lastUsed);
+        assertEquals(2, lastUsed.size());
+        assertEquals("stun:stun.example.com", lastUsed.get(1).urls.get(0));
+
+        nowMs += 100000;
+        assertNull(createCache().getLastUsed());
+    }
+
+    @Test
+    public void isSameIceServers_ignoresOrder() {
+        PeerConnection.IceServer stun =
+                PeerConnection.IceServer.builder("stun:stun.example.com").createIceServer();
+        PeerConnection.IceServer turn = PeerConnection.IceServer.builder(Arrays.asList(
+                "turn:turn.example.com?transport=udp", "turn:turn.example.com?transport=tcp"))
+                .setUsername("user").setPassword("secret").createIceServer();
+        PeerConnection.IceServer turnReordered = PeerConnection.IceServer.builder(Arrays.asList(
+                "turn:turn.example.com?transport=tcp", "turn:turn.example.com?transport=udp"))
+                .setUsername("user").setPassword("secret").createIceServer();
+        PeerConnection.IceServer turnRotated = PeerConnection.IceServer.builder(
+                turn.urls).setUsername("user").setPassword("rotated").createIceServer();
+
+        assertTrue(IceServerCache.isSameIceServers(
+                Arrays.asList(stun, turn), Arrays.asList(turnReordered, stun)));
+        assertFalse(IceServerCache.isSameIceServers(
+                Arrays.asList(stun, turn), Arrays.asList(stun, turnRotated)));
+        assertFalse(IceServerCache.isSameIceServers(
+                Arrays.asList(stun, turn), Arrays.asList(turn)));
+    }
+}
@@ -0,0 +1,161 @@
+package com.iottive.webrtc.websocket;
+
+import org.junit.After;
+import org.junit.Test;
+import org.webrtc.PeerConnection;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class IceServerProberTest {
+    private static final long TIMEOUT_MS = 400;
+
+    private final List<DatagramSocket> udpSockets = new ArrayList<>();
+    private final List<ServerSocket> tcpSockets = new ArrayList<>();
+    private final IceServerProber prober = new IceServerProber(TIMEOUT_MS);
+
+    @After
+    public void tearDown() throws IOException {
+        for (DatagramSocket socket : udpSockets) {
+            socket.close();
+        }
+        for (ServerSocket socket : tcpSockets) {
+            socket.close();
+        }
+    }
+
+    // Answers binding requests with a success response after |delayMs|, or never if |respond| is
+    // false. Returns the port.
+    private int startUdpResponder(final boolean respond, final long delayMs) throws IOException {
+        final DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        udpSockets.add(socket);
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[1500];
+            while (!socket.isClosed()) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                try {
+                    socket.receive(packet);
+                    if (!respond) {
+                        continue;
+                    }
+                    Thread.sleep(delayMs);
+                    byte[] response = createResponse(packet.getData());
+                    socket.send(new DatagramPacket(response, response.length,
+                            packet.getAddress(), packet.getPort()));
+                } catch (IOException | InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return socket.getLocalPort();
+    }
+
+    private int startTcpResponder() throws IOException {
+        final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        tcpSockets.add(serverSocket);
+        Thread thread = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try (Socket socket = serverSocket.accept()) {
+                    byte[] request = new byte[20];
+                    new DataInputStream(socket.getInputStream()).readFully(request);
+                    socket.getOutputStream().write(createResponse(request));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return serverSocket.getLocalPort();
+    }
+
+    // Binding success response without attributes, with the transaction of |request|.
+    private static byte[] createResponse(byte[] request) {
+        byte[] response = Arrays.copyOf(request, 20);
+        response[0] = 0x01;
+        response[1] = 0x01;
+        response[2] = 0;
+        response[3] = 0;
+        return response;
+    }
+
+    private static PeerConnection.IceServer server(String url) {
+        return PeerConnection.IceServer.builder(url).createIceServer();
+    }
+
+    @Test
+    public void parseUrl_handlesSchemesPortsAndTransports() {
+        IceServerProber.Target stun = IceServerProber.parseUrl("stun:stun.example.com:19302");
+        assertEquals("stun.example.com", stun.host);
+        assertEquals(19302, stun.port);
+        assertEquals(IceServerProber.Transport.UDP, stun.transport);
+
+        IceServerProber.Target turn = IceServerProber.parseUrl("turn:[::1]?transport=tcp");
+        assertEquals("::1", turn.host);
+        assertEquals(3478, turn.port);
+        assertEquals(IceServerProber.Transport.TCP, turn.transport);
+
+        IceServerProber.Target turns = IceServerProber.parseUrl("turns:turn.example.com");
+        assertEquals(5349, turns.port);
+        assertEquals(IceServerProber.Transport.TLS, turns.transport);
+
+        assertNull(IceServerProber.parseUrl("http://example.com"));
+        assertNull(IceServerProber.parseUrl("stun:host:port"));
+    }
+
+    @Test
+    public void probe_prunesUnreachableAndRanksByRtt() throws IOException {
+        PeerConnection.IceServer slow = server("stun:127.0.0.1:" + startUdpResponder(true, 100));
+        PeerConnection.IceServer silent = server("stun:127.0.0.1:" + startUdpResponder(false, 0));
+        PeerConnection.IceServer fast = server("turn:127.0.0.1:" + startUdpResponder(true, 0));
+        PeerConnection.IceServer unprobed = server("unknown:127.0.0.1");
+
+        long startNs = System.nanoTime();
+        IceServerProber.Result result = prober.probe(Arrays.asList(slow, silent, unprobed, fast));
+        // Probes run in parallel, so the total is bounded by a single timeout.
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs) < 2 * TIMEOUT_MS);
+
+        assertEquals(Arrays.asList(fast, slow, unprobed), result.iceServers);
+        assertFalse(result.udpBlocked);
+        assertEquals(3, result.probes.size());
+        assertFalse(result.probes.get(1).reachable);
+        assertTrue(result.probes.get(0).rttMs >= 100);
+    }
+
+    @Test
+    public void probe_detectsBlockedUdp() throws IOException {
+        PeerConnection.IceServer udp = server("stun:127.0.0.1:" + startUdpResponder(false, 0));
+        PeerConnection.IceServer tcp =
+                server("turn:127.0.0.1:" + startTcpResponder() + "?transport=tcp");
+
+        IceServerProber.Result result = prober.probe(Arrays.asList(udp, tcp));
+        assertTrue(result.udpBlocked);
+        assertEquals(Arrays.asList(tcp), result.iceServers);
+        assertEquals(IceServerProber.Transport.TCP, result.probes.get(1).transport);
+        assertTrue(result.probes.get(1).reachable);
+    }
+
+    @Test
+    public void probe_keepsListWhenNothingAnswers() throws Exception {
+        List<PeerConnection.IceServer> servers = Arrays.asList(
+                server("stun:127.0.0.1:" + startUdpResponder(false, 0)),
+                server("turn:127.0.0.1:" + startUdpResponder(false, 0)));
+
+        IceServerProber.Result result = prober.probeAsync(servers, null).get();
+        assertEquals(servers, result.iceServers);
+        assertTrue(result.udpBlocked);
+    }
+}
@@ -0,0 +1,77 @@
+package com.iottive.webrtc.websocket;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class InstrumentedExecutorTest {
+    private final InstrumentedExecutor first = new InstrumentedExecutor("first");
+    private final InstrumentedExecutor second = new InstrumentedExecutor("second");
+
+    @After
+    public void tearDown() {
+        first.shutdown();
+        second.shutdown();
+    }
+
+    // Tasks queued before it are accounted for when this returns, the drain task itself may not be.
+    private static void drain(InstrumentedExecutor executor) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void queuedTasks_areCounted() throws InterruptedException {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        first.execute(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            first.execute(() -> { });
+        }
+        assertTrue(first.getStats().queueDepth >= 5);
+        blocked.countDown();
+        drain(first);
+
+        InstrumentedExecutor.Stats stats = first.getStats();
+        assertEquals("first", stats.name);
+        assertTrue(stats.executedTasks >= 6);
+        assertEquals(0, stats.queueDepth);
+        assertTrue(stats.maxQueueDepth >= 5);
+    }
+
+    @Test
+    public void blockedInstance_doesNotDelayAnother() throws InterruptedException {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        first.execute(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        drain(second);
+        assertEquals(0, first.getStats().executedTasks);
+        blocked.countDown();
+        drain(first);
+    }
+
+    @Test
+    public void tasksAfterShutdown_areDropped() throws InterruptedException {
+        drain(first);
+        first.shutdown();
+        assertTrue(first.isShutdown());
+        first.execute(() -> fail("Ran after shutdown"));
+
+        assertEquals(0, first.getStats().queueDepth);
+    }
+}
@@ -0,0 +1,59 @@
+package com.iottive.webrtc.websocket;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class JoinTimelineTest {
+    private long nowNs = TimeUnit.SECONDS.toNanos(100);
+    private final JoinTimeline timeline = new JoinTimeline() {
+        @Override
+        long nanoTime() {
+            return nowNs;
+        }
+    };
+
+    private void advanceMs(long ms) {
+        nowNs += TimeUnit.MILLISECONDS.toNanos(ms);
+    }
+
+    @Test
+    public void stages_areTimedFromCreation() {
+        advanceMs(5);
+        assertTrue(timeline.mark(JoinTimeline.Stage.ROOM_CONNECT_STARTED));
+        advanceMs(120);
+        assertTrue(timeline.mark(JoinTimeline.Stage.ROOM_PARAMETERS_RECEIVED));
+        advanceMs(30);
+        assertTrue(timeline.mark(JoinTimeline.Stage.PEER_CONNECTION_CREATED));
+
+        assertEquals(5, timeline.getElapsedMs(JoinTimeline.Stage.ROOM_CONNECT_STARTED));
+        assertEquals(125, timeline.getElapsedMs(JoinTimeline.Stage.ROOM_PARAMETERS_RECEIVED));
+        assertEquals(155, timeline.getElapsedMs(JoinTimeline.Stage.PEER_CONNECTION_CREATED));
+        assertEquals(-1, timeline.getElapsedMs(JoinTimeline.Stage.ICE_CONNECTED));
+    }
+
+    @Test
+    public void mark_keepsFirstTime() {
+        advanceMs(10);
+        assertTrue(timeline.mark(JoinTimeline.Stage.FIRST_LOCAL_CANDIDATE));
+        advanceMs(10);
+        assertFalse(timeline.mark(JoinTimeline.Stage.FIRST_LOCAL_CANDIDATE));
+        assertEquals(10, timeline.getElapsedMs(JoinTimeline.Stage.FIRST_LOCAL_CANDIDATE));
+    }
+
+    @Test
+    public void toString_listsReachedStagesInJoinOrder() {
+        // Pipelined stages may complete out of order, the summary keeps the stage order.
+        advanceMs(40);
+        timeline.mark(JoinTimeline.Stage.TURN_SERVERS_RECEIVED);
+        advanceMs(10);
+        timeline.mark(JoinTimeline.Stage.FACTORY_CREATED);
+        advanceMs(50);
+        timeline.mark(JoinTimeline.Stage.ICE_CONNECTED);
+
+        assertEquals("FACTORY_CREATED=50ms, TURN_SERVERS_RECEIVED=40ms, ICE_CONNECTED=100ms",
+                timeline.toString());
+    }
+}
@@ -0,0 +1,298 @@
+package com.iottive.webrtc.websocket;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.webrtc.SessionDescription;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class NioTCPChannelClientTest {
+    private static final int THROUGHPUT_MESSAGE_COUNT = 5000;
+    private static final int LATENCY_ROUND_TRIPS = 500;
+    private static final int TIMEOUT_SECONDS = 10;
+
+    private static class Peer implements TCPChannelClient.TCPChannelEvents {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch connected = new CountDownLatch(1);
+        final LinkedBlockingQueue<String> messages = new LinkedBlockingQueue<>();
+        final LinkedBlockingQueue<SignalingFrameCodec.Frame> frames = new LinkedBlockingQueue<>();
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        final boolean echo;
+        TCPChannel channel;
+
+        Peer(boolean echo) {
+            this.echo = echo;
+        }
+
+        void open(final boolean nio, final String ip, final int port) throws Exception {
+            final Peer peer = this;
+            executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    channel = nio ? new NioTCPChannelClient(executor, peer, ip, port)
+                            : new TCPChannelClient(executor, peer, ip, port);
+                    return null;
+                }
+            }).get();
+        }
+
+        void send(final String message) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    channel.send(message);
+                }
+            });
+        }
+
+        void sendBinary(final int type, final byte[] payload) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    channel.sendBinary(type, payload);
+                }
+            });
+        }
+
+        void close() throws Exception {
+            executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    channel.disconnect();
+                    return null;
+                }
+            }).get();
+            executor.shutdown();
+        }
+
+        @Override
+        public void onTCPConnected(boolean server) {
+            connected.countDown();
+        }
+
+        @Override
+        public void onTCPMessage(String message) {
+            if (echo) {
+                channel.send(message);
+            } else {
+                messages.add(message);
+            }
+        }
+
+        @Override
+        public void onTCPBinaryMessage(int type, byte[] payload) {
+            if (echo) {
+                channel.sendBinary(type, payload);
+            } else {
+                frames.add(new SignalingFrameCodec.Frame(type, payload));
+            }
+        }
+
+        @Override
+        public void onTCPError(String description) {
+            errors.add(description);
+        }
+
+        @Override
+        public void onTCPClose() {
+        }
+    }
+
+    // The server listens on port 0, the client connects to the port it was given.
+    private static int waitUntilListening(Peer server) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            int port = server.channel instanceof NioTCPChannelClient
+                    ? ((NioTCPChannelClient) server.channel).getLocalPort()
+                    : ((TCPChannelClient) server.channel).getLocalPort();
+            if (port != 0) {
+                return port;
+            }
+            Thread.sleep(10);
+        }
+        fail("Server is not listening");
+        return 0;
+    }
+
+    private static Peer[] connect(boolean nioServer, boolean nioClient, boolean serverEcho)
+            throws Exception {
+        Peer server = new Peer(serverEcho);
+        server.open(nioServer, "0.0.0.0", 0);
+        int port = waitUntilListening(server);
+        Peer client = new Peer(false);
+        client.open(nioClient, "127.0.0.1", port);
+        assertTrue(server.connected.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(client.connected.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return new Peer[] {server, client};
+    }
+
+    private static String createPayload(int length) {
+        StringBuilder builder = new StringBuilder(length);
+        while (builder.length() < length) {
+            builder.append("a=candidate:1 1 udp 2122260223 192.168.1.2 54321 typ host\u00e9");
+        }
+        return builder.substring(0, length);
+    }
+
+    @Test
+    public void nioAndLegacyTransports_exchangeMessages() throws Exception {
+        for (boolean nioServer : new boolean[] {true, false}) {
+            Peer[] peers = connect(nioServer, !nioServer, false);
+            Peer server = peers[0];
+            Peer client = peers[1];
+            // Larger than the NIO read buffer so lines span several reads.
+            String largeMessage = createPayload(40000);
+            client.send("hello");
+            client.send(largeMessage);
+            server.send("world\u00fc");
+
+            assertEquals("hello", server.messages.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertEquals(largeMessage, server.messages.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertEquals("world\u00fc", client.messages.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertTrue(server.errors.toString(), server.errors.isEmpty());
+            assertTrue(client.errors.toString(), client.errors.isEmpty());
+            client.close();
+            server.close();
+        }
+    }
+
+    private static String createSdp(int length) {
+        StringBuilder builder = new StringBuilder(length);
+        while (builder.length() < length) {
+            builder.append("a=rtpmap:96 VP8/90000\r\na=rtcp-fb:96 goog-remb\r\n");
+        }
+        return builder.substring(0, length);
+    }
+
+    @Test
+    public void nioAndLegacyTransports_exchangeMixedTextAndBinaryFrames() throws Exception {
+        for (boolean nioServer : new boolean[] {true, false}) {
+            Peer[] peers = connect(nioServer, !nioServer, false);
+            Peer server = peers[0];
+            Peer client = peers[1];
+            byte[] largePayload = createSdp(40000).getBytes(Charset.forName("UTF-8"));
+            client.send("{\"type\":\"offer\"}");
+            client.sendBinary(SignalingFrameCodec.TYPE_ANSWER, largePayload);
+            client.sendBinary(SignalingFrameCodec.TYPE_CANDIDATE, new byte[0]);
+            client.send("after");
+            server.sendBinary(SignalingFrameCodec.TYPE_OFFER, new byte[] {'\n', '\r', 0});
+
+            assertEquals("{\"type\":\"offer\"}",
+                    server.messages.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            SignalingFrameCodec.Frame frame = server.frames.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertEquals(SignalingFrameCodec.TYPE_ANSWER, frame.type);
+            assertArrayEquals(largePayload, frame.payload);
+            frame = server.frames.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertEquals(SignalingFrameCodec.TYPE_CANDIDATE, frame.type);
+            assertEquals(0, frame.payload.length);
+            assertEquals("after", server.messages.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            frame = client.frames.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertArrayEquals(new byte[] {'\n', '\r', 0}, frame.payload);
+            assertTrue(server.errors.toString(), server.errors.isEmpty());
+            assertTrue(client.errors.toString(), client.errors.isEmpty());
+            client.close();
+            server.close();
+        }
+    }
+
+    private static String createJsonOffer(SessionDescription offer) throws Exception {
+        return new JSONObject().put("sdp", offer.description).put("type", "offer").toString();
+    }
+
+    @Test
+    public void binaryFrame_isSmallerThanJsonLine() throws Exception {
+        SessionDescription offer = new SessionDescription(SessionDescription.Type.OFFER,
+                createSdp(6000));
+        long jsonBytes = createJsonOffer(offer).getBytes(Charset.forName("UTF-8")).length + 1;
+        long binaryBytes = SignalingFrameCodec.encodeFrame(
+                SignalingFrameCodec.TYPE_OFFER, SignalingFrameCodec.encodeSdp(offer)).length;
+        assertTrue(binaryBytes < jsonBytes);
+    }
+
+    // Sends the same offers as JSON lines and as binary frames and reports the receiver side parse
+    // time of both.
+    @Test
+    public void benchmark_binaryFramingAgainstJson() throws Exception {
+        Benchmarks.assumeEnabled();
+        SessionDescription offer = new SessionDescription(SessionDescription.Type.OFFER,
+                createSdp(6000));
+        String json = createJsonOffer(offer);
+        byte[] payload = SignalingFrameCodec.encodeSdp(offer);
+
+        for (boolean nio : new boolean[] {false, true}) {
+            Peer[] peers = connect(nio, nio, false);
+            long jsonParseNs = 0;
+            long binaryParseNs = 0;
+            for (int i = 0; i < LATENCY_ROUND_TRIPS; i++) {
+                peers[1].send(json);
+                String message = peers[0].messages.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                long startNs = System.nanoTime();
+                SessionDescription parsed = new SessionDescription(SessionDescription.Type.OFFER,
+                        new JSONObject(message).getString("sdp"));
+                jsonParseNs += System.nanoTime() - startNs;
+                assertEquals(offer.description, parsed.description);
+
+                peers[1].sendBinary(SignalingFrameCodec.TYPE_OFFER, payload);
+                SignalingFrameCodec.Frame frame =
+                        peers[0].frames.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                startNs = System.nanoTime();
+                parsed = SignalingFrameCodec.decodeSdp(
+                        SessionDescription.Type.OFFER, frame.payload);
+                binaryParseNs += System.nanoTime() - startNs;
+                assertEquals(offer.description, parsed.description);
+            }
+            peers[1].close();
+            peers[0].close();
+
+            Benchmarks.report("SignalingFrameCodec", (nio ? "NIO" : "Legacy") + ": JSON "
+                    + (jsonParseNs / LATENCY_ROUND_TRIPS / 1000) + " us parse, binary "
+                    + (binaryParseNs / LATENCY_ROUND_TRIPS / 1000) + " us parse");
+        }
+    }
+
+    // Not a timing assertion, reports loopback numbers for both transports for comparison.
+    @Test
+    public void benchmark_loopbackThroughputAndLatency() throws Exception {
+        Benchmarks.assumeEnabled();
+        String payload = createPayload(1024);
+        for (boolean nio : new boolean[] {false, true}) {
+            String name = nio ? "NIO" : "Legacy";
+
+            Peer[] peers = connect(nio, nio, false);
+            long startNs = System.nanoTime();
+            for (int i = 0; i < THROUGHPUT_MESSAGE_COUNT; i++) {
+                peers[1].send(payload);
+            }
+            for (int i = 0; i < THROUGHPUT_MESSAGE_COUNT; i++) {
+                assertNotNull(peers[0].messages.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            }
+            long throughputNs = System.nanoTime() - startNs;
+            peers[1].close();
+            peers[0].close();
+
+            peers = connect(nio, nio, true);
+            startNs = System.nanoTime();
+            for (int i = 0; i < LATENCY_ROUND_TRIPS; i++) {
+                peers[1].send(payload);
+                assertNotNull(peers[1].messages.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            }
+            long latencyNs = System.nanoTime() - startNs;
+            peers[1].close();
+            peers[0].close();
+
+            Benchmarks.report("NioTCPChannelClient", name + ": "
+                    + (THROUGHPUT_MESSAGE_COUNT * 1000000000L / throughputNs) + " msg/s, round trip "
+                    + (latencyNs / LATENCY_ROUND_TRIPS / 1000) + " us");
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.iottive.webrtc.websocket;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+import org.webrtc.EglBase;
+import org.webrtc.PeerConnectionFactory;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PeerConnectionFactoryPoolTest {
+    private static final PeerConnectionFactoryPool.Config CONFIG =
+            new PeerConnectionFactoryPool.Config(true, false, true, true, "trials", null);
+    private static final PeerConnectionFactoryPool.Config SOFTWARE_CONFIG =
+            new PeerConnectionFactoryPool.Config(false, false, true, true, "trials", null);
+
+    private static class FakeBackend implements PeerConnectionFactoryPool.Backend {
+        final List<String> initializedFieldTrials = new ArrayList<>();
+        final List<PeerConnectionFactoryPool.AudioErrorListener> errorListeners = new ArrayList<>();
+        int eglBasesCreated;
+        int eglBasesReleased;
+        int factoriesCreated;
+        int factoriesDisposed;
+
+        @Override
+        public void initialize(String fieldTrials) {
+            initializedFieldTrials.add(fieldTrials);
+        }
+
+        @Override
+        public EglBase createEglBase() {
+            eglBasesCreated++;
+            return (EglBase) Proxy.newProxyInstance(EglBase.class.getClassLoader(),
+                    new Class<?>[] {EglBase.class}, (proxy, method, args) -> {
+                        if (method.getName().equals("release")) {
+                            eglBasesReleased++;
+                        }
+                        return null;
+                    });
+        }
+
+        @Override
+        public PeerConnectionFactory createFactory(PeerConnectionFactoryPool.Config config,
+                                                   EglBase eglBase,
+                                                   PeerConnectionFactoryPool.AudioErrorListener errorListener) {
+            assertEquals(config.hwAcceleration, eglBase != null);
+            factoriesCreated++;
+            errorListeners.add(errorListener);
+            return null;
+        }
+
+        @Override
+        public void disposeFactory(PeerConnectionFactory factory) {
+            factoriesDisposed++;
+        }
+    }
+
+    private final FakeBackend backend = new FakeBackend();
+    private final PeerConnectionFactoryPool pool =
+            new PeerConnectionFactoryPool(backend, Runnable::run);
+    private final List<String> audioErrors = new ArrayList<>();
+
+    @Test
+    public void idleFactory_isReusedUntilMemoryPressure() {
+        PeerConnectionFactoryPool.Lease first = pool.acquireFactory(CONFIG, audioErrors::add);
+        assertFalse(first.isReused());
+        first.release();
+        first.release();
+
+        PeerConnectionFactoryPool.Lease second = pool.acquireFactory(CONFIG, audioErrors::add);
+        assertTrue(second.isReused());
+        second.release();
+        assertEquals(1, backend.factoriesCreated);
+        assertEquals(1, backend.initializedFieldTrials.size());
+
+        pool.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(1, pool.getFactoryCount());
+        pool.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(0, pool.getFactoryCount());
+        assertEquals(1, backend.factoriesDisposed);
+        assertEquals(1, backend.eglBasesReleased);
+
+        assertFalse(pool.acquireFactory(CONFIG, audioErrors::add).isReused());
+        assertEquals(2, backend.factoriesCreated);
+        assertEquals(2, backend.eglBasesCreated);
+    }
+
+    @Test
+    public void factoryInUse_survivesTrim() {
+        PeerConnectionFactoryPool.Lease hardware = pool.acquireFactory(CONFIG, audioErrors::add);
+        pool.prewarm(SOFTWARE_CONFIG);
+        assertEquals(2, pool.getFactoryCount());
+
+        pool.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertEquals(1, pool.getFactoryCount());
+        assertEquals(0, backend.eglBasesReleased);
+
+        hardware.release();
+        pool.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertEquals(0, pool.getFactoryCount());
+        assertEquals(1, backend.eglBasesReleased);
+    }
+
+    @Test
+    public void eglBase_isSharedAndKeptWhileAcquired() {
+        EglBase eglBase = pool.acquireEglBase();
+        PeerConnectionFactoryPool.Lease lease = pool.acquireFactory(CONFIG, audioErrors::add);
+        lease.release();
+        pool.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertEquals(0, backend.eglBasesReleased);
+
+        assertSame(eglBase, pool.acquireEglBase());
+        assertEquals(1, backend.eglBasesCreated);
+        pool.releaseEglBase();
+        pool.releaseEglBase();
+        pool.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertEquals(1, backend.eglBasesReleased);
+    }
+
+    @Test
+    public void audioErrors_reachCurrentUsersOnly() {
+        List<String> otherErrors = new ArrayList<>();
+        PeerConnectionFactoryPool.Lease first = pool.acquireFactory(CONFIG, audioErrors::add);
+        PeerConnectionFactoryPool.Lease second = pool.acquireFactory(CONFIG, otherErrors::add);
+        first.release();
+
+        backend.errorListeners.get(0).onAudioDeviceError("Record error");
+        assertTrue(audioErrors.isEmpty());
+        assertEquals(1, otherErrors.size());
+        second.release();
+    }
+
+    @Test
+    public void factoryBeingBuilt_doesNotBlockEglBase() throws Exception {
+        final CountDownLatch building = new CountDownLatch(1);
+        final CountDownLatch finishBuild = new CountDownLatch(1);
+        FakeBackend slowBackend = new FakeBackend() {
+            @Override
+            public PeerConnectionFactory createFactory(PeerConnectionFactoryPool.Config config,
+                                                       EglBase eglBase,
+                                                       PeerConnectionFactoryPool.AudioErrorListener errorListener) {
+                building.countDown();
+                try {
+                    finishBuild.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.createFactory(config, eglBase, errorListener);
+            }
+        };
+        ExecutorService prewarmExecutor = Executors.newSingleThreadExecutor();
+        ExecutorService callExecutor = Executors.newSingleThreadExecutor();
+        PeerConnectionFactoryPool pool =
+                new PeerConnectionFactoryPool(slowBackend, prewarmExecutor);
+        pool.prewarm(CONFIG);
+        assertTrue(building.await(5, TimeUnit.SECONDS));
+
+        // The main thread gets the EGL context while the prewarm is still building.
+        assertNotNull(pool.acquireEglBase());
+        assertEquals(1, pool.getFactoryCount());
+        Future<PeerConnectionFactoryPool.Lease> lease =
+                callExecutor.submit(() -> pool.acquireFactory(CONFIG, audioErrors::add));
+        Thread.sleep(50);
+        assertFalse(lease.isDone());
+
+        finishBuild.countDown();
+        assertTrue(lease.get(5, TimeUnit.SECONDS).isReused());
+        assertEquals(1, slowBackend.factoriesCreated);
+        assertEquals(1, slowBackend.eglBasesCreated);
+        prewarmExecutor.shutdown();
+        callExecutor.shutdown();
+    }
+}
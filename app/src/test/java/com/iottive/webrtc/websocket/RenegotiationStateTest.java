@@ -0,0 +1,76 @@
+package com.iottive.webrtc.websocket;
+
+import org.junit.Test;
+import org.webrtc.PeerConnection.SignalingState;
+
+import static org.junit.Assert.*;
+
+public class RenegotiationStateTest {
+    @Test
+    public void requestBeforeInitialNegotiation_isDeferred() {
+        RenegotiationState state = new RenegotiationState(false);
+        assertFalse(state.requestOffer(SignalingState.HAVE_LOCAL_OFFER));
+        assertFalse(state.isMakingOffer());
+
+        assertTrue(state.onInitialNegotiationComplete(SignalingState.STABLE));
+        assertTrue(state.isMakingOffer());
+    }
+
+    @Test
+    public void requestWhileOffering_runsWhenStableAgain() {
+        RenegotiationState state = new RenegotiationState(true);
+        assertFalse(state.onInitialNegotiationComplete(SignalingState.STABLE));
+        assertTrue(state.requestOffer(SignalingState.STABLE));
+        assertFalse(state.requestOffer(SignalingState.STABLE));
+
+        state.onOfferFinished();
+        assertFalse(state.onSignalingChange(SignalingState.HAVE_LOCAL_OFFER));
+        assertTrue(state.onSignalingChange(SignalingState.STABLE));
+        assertFalse(state.onSignalingChange(SignalingState.STABLE));
+    }
+
+    @Test
+    public void remoteOfferWithoutCollision_isAccepted() {
+        RenegotiationState state = new RenegotiationState(false);
+        state.onInitialNegotiationComplete(SignalingState.STABLE);
+        assertEquals(RenegotiationState.RemoteOfferAction.ACCEPT,
+                state.onRemoteOffer(SignalingState.STABLE));
+    }
+
+    @Test
+    public void collision_impoliteSideKeepsItsOffer() {
+        RenegotiationState state = new RenegotiationState(false);
+        state.onInitialNegotiationComplete(SignalingState.STABLE);
+        state.requestOffer(SignalingState.STABLE);
+        state.onOfferFinished();
+
+        assertEquals(RenegotiationState.RemoteOfferAction.IGNORE,
+                state.onRemoteOffer(SignalingState.HAVE_LOCAL_OFFER));
+        assertFalse(state.onSignalingChange(SignalingState.STABLE));
+    }
+
+    @Test
+    public void collision_politeSideRollsBackAndOffersAgain() {
+        RenegotiationState state = new RenegotiationState(true);
+        state.onInitialNegotiationComplete(SignalingState.STABLE);
+        state.requestOffer(SignalingState.STABLE);
+        state.onOfferFinished();
+
+        assertEquals(RenegotiationState.RemoteOfferAction.ROLLBACK_AND_ACCEPT,
+                state.onRemoteOffer(SignalingState.HAVE_LOCAL_OFFER));
+        assertFalse(state.onSignalingChange(SignalingState.HAVE_REMOTE_OFFER));
+        assertTrue(state.onSignalingChange(SignalingState.STABLE));
+    }
+
+    @Test
+    public void collisionWhileCreatingOffer_politeSideDropsItsOffer() {
+        RenegotiationState state = new RenegotiationState(true);
+        state.onInitialNegotiationComplete(SignalingState.STABLE);
+        state.requestOffer(SignalingState.STABLE);
+
+        assertEquals(RenegotiationState.RemoteOfferAction.ACCEPT,
+                state.onRemoteOffer(SignalingState.STABLE));
+        assertFalse(state.isMakingOffer());
+        assertTrue(state.onSignalingChange(SignalingState.STABLE));
+    }
+}
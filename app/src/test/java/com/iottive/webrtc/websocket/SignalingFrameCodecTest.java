@@ -0,0 +1,86 @@
+package com.iottive.webrtc.websocket;
+
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SignalingFrameCodecTest {
+    private static final IceCandidate CANDIDATE_AUDIO = new IceCandidate("0", 0,
+            "candidate:842163049 1 udp 1677729535 203.0.113.7 46154 typ srflx raddr 10.0.0.2 "
+                    + "rport 46154 generation 0 ufrag sXt4 network-cost 999");
+    private static final IceCandidate CANDIDATE_VIDEO = new IceCandidate("video\u00e9", 1,
+            "candidate:1 1 udp 2122260223 192.168.1.2 54321 typ host");
+
+    private static void assertCandidateEquals(IceCandidate expected, IceCandidate actual) {
+        assertEquals(expected.sdpMid, actual.sdpMid);
+        assertEquals(expected.sdpMLineIndex, actual.sdpMLineIndex);
+        assertEquals(expected.sdp, actual.sdp);
+    }
+
+    @Test
+    public void encodeFrame_headerHoldsTypeAndVarintLength() throws IOException {
+        byte[] payload = new byte[300];
+        byte[] frame = SignalingFrameCodec.encodeFrame(SignalingFrameCodec.TYPE_OFFER, payload);
+
+        assertEquals(1 + 2 + 300, frame.length);
+        assertTrue(SignalingFrameCodec.isFrameStart(frame[0]));
+        assertEquals(2, SignalingFrameCodec.varintLength(frame, 1, frame.length));
+        assertEquals(0, SignalingFrameCodec.varintLength(frame, 1, 2));
+        assertEquals(300, SignalingFrameCodec.readVarint(frame, 1));
+        assertEquals(300, SignalingFrameCodec.readVarint(
+                new ByteArrayInputStream(frame, 1, frame.length - 1)));
+    }
+
+    @Test
+    public void isFrameStart_neverMatchesJsonLines() {
+        assertFalse(SignalingFrameCodec.isFrameStart('{'));
+        assertFalse(SignalingFrameCodec.isFrameStart('\n'));
+        assertFalse(SignalingFrameCodec.isFrameStart('\r'));
+        assertFalse(SignalingFrameCodec.isFrameStart('\t'));
+        assertFalse(SignalingFrameCodec.isFrameStart(' '));
+        assertTrue(SignalingFrameCodec.isFrameStart(SignalingFrameCodec.TYPE_REMOVE_CANDIDATES));
+    }
+
+    @Test
+    public void candidates_roundTrip() throws IOException {
+        assertCandidateEquals(CANDIDATE_AUDIO, SignalingFrameCodec.decodeCandidate(
+                SignalingFrameCodec.encodeCandidate(CANDIDATE_AUDIO)));
+
+        List<IceCandidate> candidates = Arrays.asList(CANDIDATE_AUDIO, CANDIDATE_VIDEO);
+        IceCandidate[] decoded = SignalingFrameCodec.decodeCandidates(
+                SignalingFrameCodec.encodeCandidates(candidates));
+        assertEquals(2, decoded.length);
+        assertCandidateEquals(CANDIDATE_AUDIO, decoded[0]);
+        assertCandidateEquals(CANDIDATE_VIDEO, decoded[1]);
+    }
+
+    @Test
+    public void sdp_roundTripKeepsLineEndings() {
+        SessionDescription offer = new SessionDescription(SessionDescription.Type.OFFER,
+                "v=0\r\no=- 4611731400430051336 2 IN IP4 127.0.0.1\r\ns=-\r\n");
+        SessionDescription decoded = SignalingFrameCodec.decodeSdp(
+                SessionDescription.Type.OFFER, SignalingFrameCodec.encodeSdp(offer));
+
+        assertEquals(SessionDescription.Type.OFFER, decoded.type);
+        assertEquals(offer.description, decoded.description);
+    }
+
+    @Test(expected = IOException.class)
+    public void decodeCandidate_truncatedPayloadFails() throws IOException {
+        byte[] payload = SignalingFrameCodec.encodeCandidate(CANDIDATE_AUDIO);
+        SignalingFrameCodec.decodeCandidate(Arrays.copyOf(payload, payload.length - 10));
+    }
+
+    @Test(expected = IOException.class)
+    public void readVarint_oversizedFrameFails() throws IOException {
+        byte[] header = {(byte) 0xff, (byte) 0xff, (byte) 0xff, 0x7f};
+        SignalingFrameCodec.readVarint(header, 0);
+    }
+}
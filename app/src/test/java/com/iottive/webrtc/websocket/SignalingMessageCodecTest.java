@@ -0,0 +1,192 @@
+package com.iottive.webrtc.websocket;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SignalingMessageCodecTest {
+    private static final int BENCHMARK_ITERATIONS = 20000;
+    private static final IceCandidate CANDIDATE_AUDIO = new IceCandidate("0", 0,
+            "candidate:842163049 1 udp 1677729535 203.0.113.7 46154 typ srflx raddr 10.0.0.2 "
+                    + "rport 46154 generation 0 ufrag sXt4 network-cost 999");
+    private static final IceCandidate CANDIDATE_VIDEO = new IceCandidate("1", 1,
+            "candidate:1 1 udp 2122260223 192.168.1.2 54321 typ host \"quoted\" \\ \u00e9\u0001");
+
+    private static String createSdp(int length) {
+        StringBuilder builder = new StringBuilder(length);
+        builder.append("v=0\r\no=- 4611731400430051336 2 IN IP4 127.0.0.1\r\ns=-\r\n");
+        while (builder.length() < length) {
+            builder.append("a=rtpmap:96 VP8/90000\r\na=rtcp-fb:96 goog-remb\r\n");
+        }
+        return builder.substring(0, length);
+    }
+
+    private static void assertCandidateEquals(IceCandidate expected, IceCandidate actual) {
+        assertEquals(expected.sdpMid, actual.sdpMid);
+        assertEquals(expected.sdpMLineIndex, actual.sdpMLineIndex);
+        assertEquals(expected.sdp, actual.sdp);
+    }
+
+    // The envelope the WebSocket server produces for a message sent with org.json.
+    private static String wrapWithOrgJson(String message) throws Exception {
+        return new JSONObject().put("msg", message).put("error", "").toString();
+    }
+
+    @Test
+    public void encodeSendCommand_isReadableByOrgJson() throws Exception {
+        SessionDescription offer =
+                new SessionDescription(SessionDescription.Type.OFFER, createSdp(2000));
+        JSONObject command = new JSONObject(
+                SignalingMessageCodec.encodeSendCommand(SignalingMessage.description(offer)));
+
+        assertEquals("send", command.getString("cmd"));
+        JSONObject message = new JSONObject(command.getString("msg"));
+        assertEquals("offer", message.getString("type"));
+        assertEquals(offer.description, message.getString("sdp"));
+    }
+
+    @Test
+    public void encodeCandidates_isReadableByOrgJson() throws Exception {
+        JSONObject command = new JSONObject(SignalingMessageCodec.encodeSendCommand(
+                SignalingMessage.candidates(Arrays.asList(CANDIDATE_AUDIO, CANDIDATE_VIDEO))));
+
+        JSONObject message = new JSONObject(command.getString("msg"));
+        assertEquals("candidates", message.getString("type"));
+        JSONArray candidates = message.getJSONArray("candidates");
+        assertEquals(2, candidates.length());
+        JSONObject candidate = candidates.getJSONObject(1);
+        assertEquals(CANDIDATE_VIDEO.sdpMid, candidate.getString("id"));
+        assertEquals(CANDIDATE_VIDEO.sdpMLineIndex, candidate.getInt("label"));
+        assertEquals(CANDIDATE_VIDEO.sdp, candidate.getString("candidate"));
+    }
+
+    @Test
+    public void decode_readsMessagesWrittenByOrgJson() throws Exception {
+        JSONArray candidates = new JSONArray();
+        for (IceCandidate candidate : new IceCandidate[] {CANDIDATE_AUDIO, CANDIDATE_VIDEO}) {
+            candidates.put(new JSONObject().put("label", candidate.sdpMLineIndex)
+                    .put("id", candidate.sdpMid).put("candidate", candidate.sdp));
+        }
+        String json = new JSONObject().put("type", "remove-candidates")
+                .put("unknown", new JSONArray().put(1).put(new JSONObject().put("a", true)))
+                .put("candidates", candidates).toString();
+
+        SignalingMessageCodec.Envelope envelope =
+                SignalingMessageCodec.decodeEnvelope(wrapWithOrgJson(json));
+        assertEquals("", envelope.error);
+        SignalingMessage message = SignalingMessageCodec.decode(envelope.payload);
+        assertEquals(SignalingMessage.Type.REMOVE_CANDIDATES, message.type);
+        assertEquals(2, message.candidates.size());
+        assertCandidateEquals(CANDIDATE_AUDIO, message.candidates.get(0));
+        assertCandidateEquals(CANDIDATE_VIDEO, message.candidates.get(1));
+    }
+
+    @Test
+    public void encodeAndDecode_roundTrip() throws Exception {
+        SessionDescription answer =
+                new SessionDescription(SessionDescription.Type.ANSWER, createSdp(3000));
+        SignalingMessage message = SignalingMessageCodec.decode(
+                SignalingMessageCodec.encode(SignalingMessage.description(answer)));
+        assertEquals(SignalingMessage.Type.ANSWER, message.type);
+        assertEquals(SessionDescription.Type.ANSWER, message.sdp.type);
+        assertEquals(answer.description, message.sdp.description);
+
+        message = SignalingMessageCodec.decode(SignalingMessageCodec.encode(
+                SignalingMessage.candidates(Arrays.asList(CANDIDATE_VIDEO))));
+        assertEquals(SignalingMessage.Type.CANDIDATE, message.type);
+        assertCandidateEquals(CANDIDATE_VIDEO, message.candidates.get(0));
+
+        message = SignalingMessageCodec.decode(
+                SignalingMessageCodec.encode(SignalingMessage.bye()));
+        assertEquals(SignalingMessage.Type.BYE, message.type);
+    }
+
+    @Test
+    public void decodeEnvelope_reportsServerError() throws Exception {
+        SignalingMessageCodec.Envelope envelope =
+                SignalingMessageCodec.decodeEnvelope("{\"msg\": \"\", \"error\": \"Bad client\"}");
+        assertEquals("", envelope.payload);
+        assertEquals("Bad client", envelope.error);
+    }
+
+    @Test
+    public void decode_unknownTypeReturnsNull() throws Exception {
+        assertNull(SignalingMessageCodec.decode("{\"type\":\"ping\",\"value\":-1.5e3}"));
+    }
+
+    @Test
+    public void decode_malformedMessagesFail() {
+        String[] malformed = {"", "{", "{\"type\":\"offer\"}", "{\"type\":\"offer\",\"sdp\":\"v=0",
+                "{\"type\":\"candidate\",\"id\":\"0\",\"candidate\":\"a\"}", "{} trailing",
+                "{null:1}"};
+        for (String json : malformed) {
+            try {
+                SignalingMessageCodec.decode(json);
+                fail("Expected failure for " + json);
+            } catch (SignalingMessageCodec.MalformedMessageException e) {
+                // Expected.
+            }
+        }
+    }
+
+    // Not a timing assertion, reports the cost of the org.json path this codec replaced for an
+    // SDP sized offer on both the sending and the receiving side.
+    @Test
+    public void benchmark_codecAgainstOrgJson() throws Exception {
+        Benchmarks.assumeEnabled();
+        SessionDescription offer =
+                new SessionDescription(SessionDescription.Type.OFFER, createSdp(6000));
+        String received = wrapWithOrgJson(
+                SignalingMessageCodec.encode(SignalingMessage.description(offer)));
+        long checksum = 0;
+
+        for (int round = 0; round < 2; round++) {
+            long startNs = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                String message = new JSONObject().put("sdp", offer.description)
+                        .put("type", "offer").toString();
+                checksum += new JSONObject().put("cmd", "send").put("msg", message)
+                        .toString().length();
+            }
+            long orgJsonEncodeNs = System.nanoTime() - startNs;
+
+            startNs = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                checksum += SignalingMessageCodec.encodeSendCommand(
+                        SignalingMessage.description(offer)).length();
+            }
+            long codecEncodeNs = System.nanoTime() - startNs;
+
+            startNs = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                JSONObject json = new JSONObject(new JSONObject(received).getString("msg"));
+                checksum += json.getString("sdp").length();
+            }
+            long orgJsonDecodeNs = System.nanoTime() - startNs;
+
+            startNs = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                SignalingMessage message = SignalingMessageCodec.decode(
+                        SignalingMessageCodec.decodeEnvelope(received).payload);
+                checksum += message.sdp.description.length();
+            }
+            long codecDecodeNs = System.nanoTime() - startNs;
+
+            // The first round only warms up the JIT.
+            if (round == 1) {
+                Benchmarks.report("SignalingMessageCodec", "org.json: encode "
+                        + (orgJsonEncodeNs / BENCHMARK_ITERATIONS / 1000.0) + " us, decode "
+                        + (orgJsonDecodeNs / BENCHMARK_ITERATIONS / 1000.0) + " us; codec: encode "
+                        + (codecEncodeNs / BENCHMARK_ITERATIONS / 1000.0) + " us, decode "
+                        + (codecDecodeNs / BENCHMARK_ITERATIONS / 1000.0) + " us");
+            }
+        }
+        assertTrue(checksum > 0);
+    }
+}
@@ -0,0 +1,47 @@
+package com.iottive.webrtc.websocket;
+
+import org.junit.Test;
+import org.webrtc.RtpParameters;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SimulcastLayersTest {
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void createEncodings_fullLayerFirst() {
+        SimulcastLayers layers = new SimulcastLayers(3, 2500000);
+        List<RtpParameters.Encoding> encodings = layers.createEncodings();
+
+        assertEquals(3, encodings.size());
+        assertEquals(SimulcastLayers.RID_FULL, encodings.get(0).rid);
+        assertEquals(1, encodings.get(0).scaleResolutionDownBy, DELTA);
+        assertEquals(1850000, (int) encodings.get(0).maxBitrateBps);
+        assertEquals(SimulcastLayers.RID_QUARTER, encodings.get(2).rid);
+        assertEquals(4, encodings.get(2).scaleResolutionDownBy, DELTA);
+        assertEquals(2500000, layers.getTotalMaxBitrateBps());
+        assertTrue(encodings.get(1).active);
+    }
+
+    @Test
+    public void totalLimit_isSharedInProportion() {
+        SimulcastLayers layers = new SimulcastLayers(2, 1500000);
+        assertEquals(500000, layers.getMaxBitrateBps(layers.indexOf(SimulcastLayers.RID_FULL),
+                750000));
+        assertEquals(250000, layers.getMaxBitrateBps(layers.indexOf(SimulcastLayers.RID_HALF),
+                750000));
+        // A limit above the configured total does not raise the layers.
+        assertEquals(500000, layers.getMaxBitrateBps(1, 5000000));
+        assertEquals(500000, layers.getMaxBitrateBps(1, null));
+        assertEquals(3, layers.getScaleResolutionDownBy(1, 1.5), DELTA);
+        assertEquals(-1, layers.indexOf(SimulcastLayers.RID_QUARTER));
+    }
+
+    @Test
+    public void lowTotal_keepsMinimumFullLayer() {
+        SimulcastLayers layers = new SimulcastLayers(3, 500000);
+        assertEquals(300000, layers.getMaxBitrateBps(0, null));
+    }
+}
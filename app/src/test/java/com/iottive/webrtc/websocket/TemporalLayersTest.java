@@ -0,0 +1,34 @@
+package com.iottive.webrtc.websocket;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TemporalLayersTest {
+    @Test
+    public void droppingLayers_halvesFrameRateAndFollowsBitrateShares() {
+        TemporalLayers layers = new TemporalLayers(3);
+        assertEquals(30, layers.getMaxFramerate(30));
+        assertEquals(1000000, layers.getMaxBitrateBps(1000000));
+
+        assertTrue(layers.setActiveLayers(2));
+        assertEquals(15, layers.getMaxFramerate(30));
+        assertEquals(600000, layers.getMaxBitrateBps(1000000));
+
+        assertTrue(layers.setActiveLayers(0));
+        assertEquals(1, layers.getActiveLayers());
+        assertEquals(7, layers.getMaxFramerate(30));
+        assertEquals(400000, layers.getMaxBitrateBps(1000000));
+        assertFalse(layers.setActiveLayers(1));
+    }
+
+    @Test
+    public void activeLayers_areClampedToLayerCount() {
+        TemporalLayers layers = new TemporalLayers(2);
+        assertFalse(layers.setActiveLayers(5));
+        assertEquals(2, layers.getActiveLayers());
+        layers.setActiveLayers(1);
+        assertEquals(12, layers.getMaxFramerate(24));
+        assertEquals(600000, layers.getMaxBitrateBps(1000000));
+    }
+}
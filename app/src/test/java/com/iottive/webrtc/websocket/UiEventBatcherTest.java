@@ -0,0 +1,58 @@
+package com.iottive.webrtc.websocket;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UiEventBatcherTest {
+    private final List<Runnable> frames = new ArrayList<>();
+    private final UiEventBatcher batcher = new UiEventBatcher(frames::add);
+    private final List<String> events = new ArrayList<>();
+
+    private void runFrame() {
+        Runnable frame = frames.remove(0);
+        frame.run();
+    }
+
+    @Test
+    public void burstOfEvents_isOneFrame() {
+        for (int i = 0; i < 50; i++) {
+            final int event = i;
+            batcher.post(() -> events.add("e" + event));
+        }
+        assertEquals(1, frames.size());
+        assertTrue(events.isEmpty());
+
+        runFrame();
+        assertEquals(50, events.size());
+        assertEquals("e0", events.get(0));
+        assertEquals("e49", events.get(49));
+    }
+
+    @Test
+    public void eventsPostedWhileFlushing_runInNextFrame() {
+        batcher.post(() -> {
+            events.add("first");
+            batcher.post(() -> events.add("second"));
+        });
+        runFrame();
+        assertEquals(1, events.size());
+        assertEquals(1, frames.size());
+        runFrame();
+        assertEquals(2, events.size());
+        assertEquals("second", events.get(1));
+    }
+
+    @Test
+    public void clear_dropsPendingAndLaterEvents() {
+        batcher.post(() -> events.add("dropped"));
+        batcher.clear();
+        batcher.post(() -> events.add("late"));
+        runFrame();
+        assertTrue(events.isEmpty());
+        assertTrue(frames.isEmpty());
+    }
+}
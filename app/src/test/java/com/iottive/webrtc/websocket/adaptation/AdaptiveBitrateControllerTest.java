@@ -0,0 +1,139 @@
+package com.iottive.webrtc.websocket.adaptation;
+
+import com.iottive.webrtc.websocket.stats.StatsPipeline;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveBitrateControllerTest {
+    private static final int MAX_BITRATE_BPS = 2500000;
+    private static final int MAX_FRAMERATE = 30;
+
+    private static class RecordingActuator implements AdaptiveBitrateController.EncodingActuator {
+        final List<int[]> applied = new ArrayList<>();
+        double lastScale;
+
+        @Override
+        public void applyEncodingLimits(int maxBitrateBps, int maxFramerate,
+                                        double scaleResolutionDownBy) {
+            applied.add(new int[] {maxBitrateBps, maxFramerate});
+            lastScale = scaleResolutionDownBy;
+        }
+    }
+
+    private static List<AdaptiveBitrateController.Sample> loadTrace(String name) throws IOException {
+        List<AdaptiveBitrateController.Sample> samples = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                AdaptiveBitrateControllerTest.class.getResourceAsStream(name), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    samples.add(AdaptiveBitrateController.Sample.fromTraceLine(line));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return samples;
+    }
+
+    private static AdaptiveBitrateController.Sample sample(
+            long timestampMs, double lossPercent, int cpuUsagePercent) {
+        return new AdaptiveBitrateController.Sample(timestampMs, 40, lossPercent, Double.NaN,
+                StatsPipeline.QUALITY_LIMITATION_NONE, cpuUsagePercent);
+    }
+
+    @Test
+    public void replayCongestionTrace() throws IOException {
+        List<AdaptiveBitrateController.Sample> trace = loadTrace("/adaptation/congestion_trace.csv");
+        RecordingActuator actuator = new RecordingActuator();
+        AdaptiveBitrateController controller =
+                new AdaptiveBitrateController(MAX_BITRATE_BPS, MAX_FRAMERATE, actuator, null);
+
+        int lowestBitrate = Integer.MAX_VALUE;
+        long lastCongestedMs = 0;
+        int bitrateAtCongestionEnd = 0;
+        int lowestFramerate = MAX_FRAMERATE;
+        double highestScale = 1;
+        for (AdaptiveBitrateController.Sample sample : trace) {
+            int before = controller.getTargetBitrateBps();
+            controller.onSample(sample);
+            int after = controller.getTargetBitrateBps();
+            lowestBitrate = Math.min(lowestBitrate, after);
+            lowestFramerate = Math.min(lowestFramerate, controller.getMaxFramerate());
+            highestScale = Math.max(highestScale, controller.getScaleResolutionDownBy());
+            if (sample.lossPercent > AdaptiveBitrateController.HEAVY_LOSS_PERCENT) {
+                lastCongestedMs = sample.timestampMs;
+                bitrateAtCongestionEnd = after;
+            } else if (after > before) {
+                // No probing until the hold off after the last decrease has passed.
+                assertTrue(sample.timestampMs - lastCongestedMs
+                        >= AdaptiveBitrateController.INCREASE_HOLD_OFF_MS);
+            }
+        }
+
+        // Congestion pushed the target below the available bitrate and halved the resolution.
+        assertTrue(lowestBitrate < 600000 * 0.9);
+        assertTrue(lowestBitrate >= AdaptiveBitrateController.MIN_BITRATE_BPS);
+        assertTrue(bitrateAtCongestionEnd < 600000);
+        assertEquals(2.0, highestScale, 0);
+        // The CPU overuse stretch stepped the frame rate down and it recovered afterwards.
+        assertTrue(lowestFramerate < MAX_FRAMERATE);
+        assertEquals(MAX_FRAMERATE, controller.getMaxFramerate());
+        // The clean stretches let the target climb back and the resolution follow it.
+        assertTrue(controller.getTargetBitrateBps() > 2 * bitrateAtCongestionEnd);
+        assertTrue(actuator.lastScale < highestScale);
+        int[] last = actuator.applied.get(actuator.applied.size() - 1);
+        assertEquals(MAX_FRAMERATE, last[1]);
+    }
+
+    @Test
+    public void moderateLoss_holdsTarget() {
+        RecordingActuator actuator = new RecordingActuator();
+        AdaptiveBitrateController controller =
+                new AdaptiveBitrateController(MAX_BITRATE_BPS, MAX_FRAMERATE, actuator, null);
+        controller.onSample(sample(0, 12, 40));
+        controller.onSample(sample(1000, 12, 40));
+        int reduced = controller.getTargetBitrateBps();
+        assertTrue(reduced < MAX_BITRATE_BPS);
+
+        for (int i = 0; i < 30; i++) {
+            controller.onSample(sample(2000 + i * 1000, 5, 40));
+        }
+        assertEquals(reduced, controller.getTargetBitrateBps());
+        // Only the initial limits and the single decrease were applied.
+        assertEquals(2, actuator.applied.size());
+    }
+
+    @Test
+    public void singleBadSample_doesNotDecrease() {
+        AdaptiveBitrateController controller = new AdaptiveBitrateController(
+                MAX_BITRATE_BPS, MAX_FRAMERATE, new RecordingActuator(), null);
+        controller.onSample(sample(0, 12, 40));
+        controller.onSample(sample(1000, 0, 40));
+        controller.onSample(sample(2000, 12, 40));
+        assertEquals(MAX_BITRATE_BPS, controller.getTargetBitrateBps());
+    }
+
+    @Test
+    public void traceLine_roundTrip() {
+        AdaptiveBitrateController.Sample sample = new AdaptiveBitrateController.Sample(
+                1234, 56.7, 1.25, 800000, StatsPipeline.QUALITY_LIMITATION_CPU, 91);
+        AdaptiveBitrateController.Sample parsed =
+                AdaptiveBitrateController.Sample.fromTraceLine(sample.toTraceLine());
+        assertEquals(1234, parsed.timestampMs);
+        assertEquals(56.7, parsed.rttMs, 1e-9);
+        assertEquals(1.25, parsed.lossPercent, 1e-9);
+        assertEquals(800000, parsed.availableBitrateBps, 1e-9);
+        assertEquals(StatsPipeline.QUALITY_LIMITATION_CPU, parsed.qualityLimitation);
+        assertEquals(91, parsed.cpuUsagePercent);
+    }
+}
@@ -0,0 +1,85 @@
+package com.iottive.webrtc.websocket.adaptation;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CaptureFormatLadderTest {
+    private final List<int[]> changes = new ArrayList<>();
+    private long timestampMs;
+
+    private CaptureFormatLadder createLadder(int width, int height, int framerate) {
+        return new CaptureFormatLadder(width, height, framerate,
+                (w, h, fps) -> changes.add(new int[] {w, h, fps}), null, null);
+    }
+
+    private void feed(CaptureFormatLadder ladder, int count, double captureFrameRate,
+                      double encodedFrameRate, int cpuUsagePercent, int thermalStatus) {
+        for (int i = 0; i < count; i++) {
+            timestampMs += 1000;
+            ladder.onSample(new CaptureFormatLadder.Sample(timestampMs, captureFrameRate,
+                    encodedFrameRate, cpuUsagePercent, thermalStatus));
+        }
+    }
+
+    @Test
+    public void encoderBacklog_stepsDownAndRecovers() {
+        CaptureFormatLadder ladder = createLadder(1280, 720, 30);
+        feed(ladder, 2, 30, 18, 50, CaptureFormatLadder.THERMAL_STATUS_NONE);
+        assertEquals(0, ladder.getLevel());
+        feed(ladder, 1, 30, 18, 50, CaptureFormatLadder.THERMAL_STATUS_NONE);
+        assertEquals(1, ladder.getLevel());
+        assertArrayEquals(new int[] {960, 540, 30}, changes.get(0));
+
+        feed(ladder, 3, 30, 20, 50, CaptureFormatLadder.THERMAL_STATUS_NONE);
+        assertArrayEquals(new int[] {640, 360, 24}, ladder.getFormat());
+        feed(ladder, 3, 24, 12, 50, CaptureFormatLadder.THERMAL_STATUS_NONE);
+        feed(ladder, 30, 15, 8, 50, CaptureFormatLadder.THERMAL_STATUS_NONE);
+        // The bottom rung is kept however far behind the encoder is.
+        assertArrayEquals(new int[] {424, 240, 15}, ladder.getFormat());
+        assertEquals(3, changes.size());
+
+        feed(ladder, CaptureFormatLadder.UNDERUSE_SAMPLES - 1, 15, 15, 40,
+                CaptureFormatLadder.THERMAL_STATUS_NONE);
+        assertEquals(3, ladder.getLevel());
+        feed(ladder, 3 * CaptureFormatLadder.UNDERUSE_SAMPLES + 1, 30, 30, 40,
+                CaptureFormatLadder.THERMAL_STATUS_NONE);
+        assertEquals(0, ladder.getLevel());
+        assertArrayEquals(new int[] {1280, 720, 30}, changes.get(changes.size() - 1));
+    }
+
+    @Test
+    public void thermalStatus_setsFloor() {
+        CaptureFormatLadder ladder = createLadder(1280, 720, 30);
+        feed(ladder, 1, 30, 30, 40, CaptureFormatLadder.THERMAL_STATUS_SEVERE);
+        assertEquals(2, ladder.getLevel());
+        // Quiet samples do not climb above the thermal floor.
+        feed(ladder, 2 * CaptureFormatLadder.UNDERUSE_SAMPLES, 24, 24, 40,
+                CaptureFormatLadder.THERMAL_STATUS_MODERATE);
+        assertEquals(1, ladder.getLevel());
+        feed(ladder, 1, 30, 30, 40, CaptureFormatLadder.THERMAL_STATUS_CRITICAL);
+        assertEquals(3, ladder.getLevel());
+    }
+
+    @Test
+    public void cpuOveruse_stepsDownWithoutFrameRates() {
+        CaptureFormatLadder ladder = createLadder(1280, 720, 30);
+        feed(ladder, CaptureFormatLadder.OVERUSE_SAMPLES, Double.NaN, Double.NaN, 95,
+                CaptureFormatLadder.THERMAL_STATUS_NONE);
+        assertEquals(1, ladder.getLevel());
+        // Moderate load neither steps down nor recovers.
+        feed(ladder, 40, Double.NaN, Double.NaN, 80, CaptureFormatLadder.THERMAL_STATUS_NONE);
+        assertEquals(1, ladder.getLevel());
+    }
+
+    @Test
+    public void smallCaptureFormat_skipsLargerRungs() {
+        CaptureFormatLadder ladder = createLadder(640, 480, 20);
+        feed(ladder, CaptureFormatLadder.OVERUSE_SAMPLES, 20, 10, 50,
+                CaptureFormatLadder.THERMAL_STATUS_NONE);
+        assertArrayEquals(new int[] {640, 360, 20}, changes.get(0));
+    }
+}
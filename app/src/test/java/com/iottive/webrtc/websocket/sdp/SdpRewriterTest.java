@@ -0,0 +1,233 @@
+package com.iottive.webrtc.websocket.sdp;
+
+import com.iottive.webrtc.websocket.Benchmarks;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class SdpRewriterTest {
+    private static final int BENCHMARK_ITERATIONS = 2000;
+    private static final String SESSION = "v=0\r\n"
+            + "o=- 4611731400430051336 2 IN IP4 127.0.0.1\r\n"
+            + "s=-\r\n"
+            + "t=0 0\r\n"
+            + "a=group:BUNDLE 0 1\r\n"
+            + "a=msid-semantic: WMS ARDAMS\r\n";
+    private static final String AUDIO = "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 9 0\r\n"
+            + "c=IN IP4 0.0.0.0\r\n"
+            + "a=mid:0\r\n"
+            + "a=rtpmap:111 opus/48000/2\r\n"
+            + "a=rtcp-fb:111 transport-cc\r\n"
+            + "a=fmtp:111 minptime=10;useinbandfec=1\r\n"
+            + "a=rtpmap:103 ISAC/16000\r\n"
+            + "a=rtpmap:9 G722/8000\r\n"
+            + "a=rtpmap:0 PCMU/8000\r\n";
+    private static final String VIDEO = "m=video 9 UDP/TLS/RTP/SAVPF 96 97 98 99 102\r\n"
+            + "c=IN IP4 0.0.0.0\r\n"
+            + "a=mid:1\r\n"
+            + "a=rtpmap:96 VP8/90000\r\n"
+            + "a=rtcp-fb:96 nack\r\n"
+            + "a=rtpmap:97 rtx/90000\r\n"
+            + "a=fmtp:97 apt=96\r\n"
+            + "a=rtpmap:98 VP9/90000\r\n"
+            + "a=fmtp:98 profile-id=0\r\n"
+            + "a=rtpmap:99 rtx/90000\r\n"
+            + "a=fmtp:99 apt=98\r\n"
+            + "a=rtpmap:102 H264/90000\r\n";
+
+    static String createOffer(int videoSections) {
+        StringBuilder builder = new StringBuilder(SESSION).append(AUDIO);
+        for (int i = 0; i < videoSections; i++) {
+            builder.append(VIDEO.replace("a=mid:1", "a=mid:" + (i + 1)));
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void rewrite_withoutEdits_returnsSameInstance() {
+        String sdp = createOffer(1);
+        assertSame(sdp, new SdpRewriter(sdp).rewrite());
+    }
+
+    @Test
+    public void preferCodec_movesPayloadTypesToFront() {
+        String sdp = new SdpRewriter(createOffer(1))
+                .preferCodec("ISAC", true)
+                .preferCodec("VP9", false)
+                .rewrite();
+        assertTrue(sdp.contains("m=audio 9 UDP/TLS/RTP/SAVPF 103 111 9 0\r\n"));
+        assertTrue(sdp.contains("m=video 9 UDP/TLS/RTP/SAVPF 98 96 97 99 102\r\n"));
+        assertTrue(sdp.endsWith("a=rtpmap:102 H264/90000\r\n"));
+    }
+
+    @Test
+    public void preferCodec_rewritesEveryMatchingSection() {
+        String sdp = new SdpRewriter(createOffer(20)).preferCodec("H264", false).rewrite();
+        int count = 0;
+        for (int index = sdp.indexOf("SAVPF 102 96 97 98 99\r\n"); index >= 0;
+             index = sdp.indexOf("SAVPF 102 96 97 98 99\r\n", index + 1)) {
+            count++;
+        }
+        assertEquals(20, count);
+    }
+
+    @Test
+    public void setStartBitrate_appendsToExistingFmtp() {
+        String sdp = new SdpRewriter(createOffer(1)).setStartBitrate("opus", false, 32).rewrite();
+        assertTrue(sdp.contains("a=fmtp:111 minptime=10;useinbandfec=1; maxaveragebitrate=32000\r\n"));
+    }
+
+    @Test
+    public void setStartBitrate_insertsFmtpAfterRtpmap() {
+        String sdp = new SdpRewriter(createOffer(1)).setStartBitrate("H264", true, 800).rewrite();
+        assertTrue(sdp.contains(
+                "a=rtpmap:102 H264/90000\r\na=fmtp:102 x-google-start-bitrate=800\r\n"));
+    }
+
+    @Test
+    public void rewrite_unknownCodec_keepsDescription() {
+        String offer = createOffer(2);
+        assertSame(offer, new SdpRewriter(offer).preferCodec("AV1", false).rewrite());
+    }
+
+    // The split, match and join munging PeerConnectionClient did before SdpRewriter, kept as the
+    // baseline of the benchmark below.
+    private static class StringMunging {
+        static String preferCodec(String sdp, String codec, boolean isAudio) {
+            String[] lines = sdp.split("\r\n");
+            String mediaDescription = isAudio ? "m=audio " : "m=video ";
+            int mLineIndex = -1;
+            for (int i = 0; i < lines.length; i++) {
+                if (lines[i].startsWith(mediaDescription)) {
+                    mLineIndex = i;
+                    break;
+                }
+            }
+            if (mLineIndex == -1) {
+                return sdp;
+            }
+            List<String> codecPayloadTypes = new ArrayList<>();
+            Pattern codecPattern = Pattern.compile("^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$");
+            for (String line : lines) {
+                Matcher codecMatcher = codecPattern.matcher(line);
+                if (codecMatcher.matches()) {
+                    codecPayloadTypes.add(codecMatcher.group(1));
+                }
+            }
+            if (codecPayloadTypes.isEmpty()) {
+                return sdp;
+            }
+            List<String> origLineParts = Arrays.asList(lines[mLineIndex].split(" "));
+            List<String> unpreferred =
+                    new ArrayList<>(origLineParts.subList(3, origLineParts.size()));
+            unpreferred.removeAll(codecPayloadTypes);
+            List<String> newLineParts = new ArrayList<>(origLineParts.subList(0, 3));
+            newLineParts.addAll(codecPayloadTypes);
+            newLineParts.addAll(unpreferred);
+            lines[mLineIndex] = join(newLineParts, " ");
+            return join(Arrays.asList(lines), "\r\n") + "\r\n";
+        }
+
+        static String setStartBitrate(
+                String codec, boolean isVideoCodec, String sdp, int bitrateKbps) {
+            String[] lines = sdp.split("\r\n");
+            int rtpmapLineIndex = -1;
+            String codecRtpMap = null;
+            Pattern codecPattern = Pattern.compile("^a=rtpmap:(\\d+) " + codec + "(/\\d+)+[\r]?$");
+            for (int i = 0; i < lines.length; i++) {
+                Matcher codecMatcher = codecPattern.matcher(lines[i]);
+                if (codecMatcher.matches()) {
+                    codecRtpMap = codecMatcher.group(1);
+                    rtpmapLineIndex = i;
+                    break;
+                }
+            }
+            if (codecRtpMap == null) {
+                return sdp;
+            }
+            String param = isVideoCodec ? "x-google-start-bitrate=" + bitrateKbps
+                    : "maxaveragebitrate=" + (bitrateKbps * 1000);
+            boolean sdpFormatUpdated = false;
+            codecPattern = Pattern.compile("^a=fmtp:" + codecRtpMap + " \\w+=\\d+.*[\r]?$");
+            for (int i = 0; i < lines.length; i++) {
+                if (codecPattern.matcher(lines[i]).matches()) {
+                    lines[i] += "; " + param;
+                    sdpFormatUpdated = true;
+                    break;
+                }
+            }
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < lines.length; i++) {
+                builder.append(lines[i]).append("\r\n");
+                if (!sdpFormatUpdated && i == rtpmapLineIndex) {
+                    builder.append("a=fmtp:").append(codecRtpMap).append(' ').append(param)
+                            .append("\r\n");
+                }
+            }
+            return builder.toString();
+        }
+
+        private static String join(List<String> parts, String delimiter) {
+            StringBuilder builder = new StringBuilder(parts.get(0));
+            for (int i = 1; i < parts.size(); i++) {
+                builder.append(delimiter).append(parts.get(i));
+            }
+            return builder.toString();
+        }
+    }
+
+    // Not a timing assertion, reports the cost of the munging a local offer went through, audio
+    // and video codec preference plus the opus bitrate, for offers with 1 to 21 m-sections.
+    @Test
+    public void benchmark_rewriterAgainstStringMunging() throws Exception {
+        Benchmarks.assumeEnabled();
+        long checksum = 0;
+        for (int videoSections : new int[] {0, 1, 4, 10, 20}) {
+            String offer = createOffer(videoSections);
+            if (videoSections == 1) {
+                // Both rewrite the only video section the same way.
+                assertEquals(StringMunging.setStartBitrate("opus", false,
+                        StringMunging.preferCodec(
+                                StringMunging.preferCodec(offer, "ISAC", true), "VP8", false), 32),
+                        new SdpRewriter(offer).preferCodec("ISAC", true).preferCodec("VP8", false)
+                                .setStartBitrate("opus", false, 32).rewrite());
+            }
+            // The first round only warms up the JIT.
+            for (int round = 0; round < 2; round++) {
+                long startNs = System.nanoTime();
+                for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                    String sdp = StringMunging.preferCodec(offer, "ISAC", true);
+                    sdp = StringMunging.preferCodec(sdp, "VP8", false);
+                    sdp = StringMunging.setStartBitrate("opus", false, sdp, 32);
+                    checksum += sdp.length();
+                }
+                long stringNs = System.nanoTime() - startNs;
+
+                startNs = System.nanoTime();
+                for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                    checksum += new SdpRewriter(offer)
+                            .preferCodec("ISAC", true)
+                            .preferCodec("VP8", false)
+                            .setStartBitrate("opus", false, 32)
+                            .rewrite()
+                            .length();
+                }
+                long rewriterNs = System.nanoTime() - startNs;
+
+                if (round == 1) {
+                    Benchmarks.report("SdpRewriter", (videoSections + 1) + " m-sections: string "
+                            + (stringNs / BENCHMARK_ITERATIONS / 1000.0) + " us, rewriter "
+                            + (rewriterNs / BENCHMARK_ITERATIONS / 1000.0) + " us");
+                }
+            }
+        }
+        assertTrue(checksum > 0);
+    }
+}
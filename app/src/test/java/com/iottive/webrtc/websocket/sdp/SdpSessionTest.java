@@ -0,0 +1,60 @@
+package com.iottive.webrtc.websocket.sdp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SdpSessionTest {
+    @Test
+    public void parse_splitsMediaSections() {
+        SdpSession session = SdpSession.parse(SdpRewriterTest.createOffer(3));
+        assertEquals(4, session.getMediaSections().size());
+        assertTrue(session.getMediaSections().get(0).isAudio());
+        assertEquals("3", session.getMediaSections().get(3).getMid());
+    }
+
+    @Test
+    public void mediaSection_exposesCodecMaps() {
+        SdpMediaSection video = SdpSession.parse(SdpRewriterTest.createOffer(1)).findMediaSection("1");
+        assertNotNull(video);
+        assertEquals(Arrays.asList("96", "97", "98", "99", "102"), video.getPayloadTypes());
+        assertEquals("VP9/90000", video.getRtpmaps().get("98"));
+        assertEquals("apt=96", video.getFmtps().get("97"));
+        assertEquals(Arrays.asList("nack"), video.getRtcpFeedback().get("96"));
+        assertEquals(Arrays.asList("97", "99"), video.findPayloadTypes("rtx"));
+    }
+
+    @Test
+    public void toString_onlyRebuildsEditedSections() {
+        String offer = SdpRewriterTest.createOffer(2);
+        SdpSession session = SdpSession.parse(offer);
+        assertSame(offer, session.toString());
+
+        SdpMediaSection lastVideo = session.getMediaSections().get(2);
+        lastVideo.setFmtp("102", "packetization-mode=1");
+        assertFalse(session.getMediaSections().get(1).isModified());
+        String expected = offer.substring(0, offer.lastIndexOf("a=rtpmap:102"))
+                + "a=rtpmap:102 H264/90000\r\na=fmtp:102 packetization-mode=1\r\n";
+        assertEquals(expected, session.toString());
+    }
+
+    @Test
+    public void startBitrate_leavesOtherSectionsUnparsed() {
+        String application = "m=application 9 UDP/DTLS/SCTP webrtc-datachannel\r\n"
+                + "c=IN IP4 0.0.0.0\r\na=mid:3\r\na=sctp-port:5000\r\n";
+        String offer = SdpRewriterTest.createOffer(2) + application;
+        SdpSession session = SdpSession.parse(offer);
+        new SdpRewriter(offer).setStartBitrate("opus", false, 32).apply(session);
+
+        assertTrue(session.getMediaSections().get(0).isModified());
+        for (int i = 1; i < 4; i++) {
+            assertFalse(session.getMediaSections().get(i).isParsed());
+        }
+        String rewritten = session.toString();
+        String untouched = offer.substring(offer.indexOf("m=video"));
+        assertTrue(rewritten.endsWith(untouched));
+        assertTrue(rewritten.contains("maxaveragebitrate=32000"));
+    }
+}
@@ -0,0 +1,137 @@
+package com.iottive.webrtc.websocket.stats;
+
+import org.junit.Test;
+import org.webrtc.RTCStats;
+import org.webrtc.RTCStatsReport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class StatsPipelineTest {
+    private static final double DELTA = 1e-6;
+
+    private static RTCStats stats(long timestampUs, String type, String id, Object... members) {
+        Map<String, Object> memberMap = new HashMap<>();
+        for (int i = 0; i < members.length; i += 2) {
+            memberMap.put((String) members[i], members[i + 1]);
+        }
+        return new RTCStats(timestampUs, type, id, memberMap);
+    }
+
+    private static RTCStatsReport report(long timestampUs, RTCStats... stats) {
+        Map<String, RTCStats> statsMap = new HashMap<>();
+        for (RTCStats entry : stats) {
+            statsMap.put(entry.getId(), entry);
+        }
+        return new RTCStatsReport(timestampUs, statsMap);
+    }
+
+    private static RTCStatsReport callReport(long timestampUs, long bytesSent, long framesEncoded,
+                                             double totalEncodeTime, long packetsReceived,
+                                             long packetsLost, double rttSeconds) {
+        return report(timestampUs,
+                stats(timestampUs, "outbound-rtp", "OUT_V", "kind", "video",
+                        "bytesSent", bytesSent, "framesEncoded", framesEncoded,
+                        "totalEncodeTime", totalEncodeTime),
+                stats(timestampUs, "inbound-rtp", "IN_A", "kind", "audio",
+                        "bytesReceived", packetsReceived * 100, "packetsReceived", packetsReceived,
+                        "packetsLost", (int) packetsLost, "jitter", 0.012),
+                stats(timestampUs, "candidate-pair", "PAIR", "nominated", true,
+                        "state", "succeeded", "currentRoundTripTime", rttSeconds));
+    }
+
+    @Test
+    public void successiveReports_produceIntervalRates() {
+        StatsPipeline pipeline = new StatsPipeline();
+        pipeline.onStatsDelivered(callReport(1000000, 0, 0, 0, 0, 0, 0.05));
+        // Counters need a previous report, instantaneous values don't.
+        assertEquals(0, pipeline.getHistory(StatsMetric.OUTBOUND_VIDEO_BITRATE_BPS).size());
+        assertEquals(50, pipeline.getHistory(StatsMetric.ROUND_TRIP_TIME_MS).getLatest(), DELTA);
+        assertEquals(12, pipeline.getHistory(StatsMetric.INBOUND_AUDIO_JITTER_MS).getLatest(),
+                DELTA);
+
+        pipeline.onStatsDelivered(callReport(3000000, 250000, 60, 0.3, 90, 10, 0.08));
+
+        assertEquals(1000000,
+                pipeline.getHistory(StatsMetric.OUTBOUND_VIDEO_BITRATE_BPS).getLatest(), DELTA);
+        assertEquals(30, pipeline.getHistory(StatsMetric.OUTBOUND_FRAME_RATE).getLatest(), DELTA);
+        assertEquals(5, pipeline.getHistory(StatsMetric.ENCODE_TIME_MS).getLatest(), DELTA);
+        assertEquals(10,
+                pipeline.getHistory(StatsMetric.INBOUND_AUDIO_PACKET_LOSS_PERCENT).getLatest(),
+                DELTA);
+        assertEquals(36000,
+                pipeline.getHistory(StatsMetric.INBOUND_AUDIO_BITRATE_BPS).getLatest(), DELTA);
+        assertEquals(80, pipeline.getHistory(StatsMetric.ROUND_TRIP_TIME_MS).getLatest(), DELTA);
+        assertEquals(3000, pipeline.getHistory(StatsMetric.ROUND_TRIP_TIME_MS).getTimestampMs(1));
+        assertEquals(0, pipeline.getHistory(StatsMetric.INBOUND_VIDEO_BITRATE_BPS).size());
+    }
+
+    @Test
+    public void simulcastLayers_bitrateIsSummedAndFrameRateIsTopLayer() {
+        StatsPipeline pipeline = new StatsPipeline();
+        pipeline.onStatsDelivered(report(0,
+                stats(0, "outbound-rtp", "L0", "kind", "video", "bytesSent", 0L,
+                        "framesEncoded", 0L),
+                stats(0, "outbound-rtp", "L1", "kind", "video", "bytesSent", 0L,
+                        "framesEncoded", 0L)));
+        pipeline.onStatsDelivered(report(1000000,
+                stats(1000000, "outbound-rtp", "L0", "kind", "video", "bytesSent", 10000L,
+                        "framesEncoded", 15L),
+                stats(1000000, "outbound-rtp", "L1", "kind", "video", "bytesSent", 40000L,
+                        "framesEncoded", 30L)));
+
+        assertEquals(400000,
+                pipeline.getHistory(StatsMetric.OUTBOUND_VIDEO_BITRATE_BPS).getLatest(), DELTA);
+        assertEquals(30, pipeline.getHistory(StatsMetric.OUTBOUND_FRAME_RATE).getLatest(), DELTA);
+    }
+
+    @Test
+    public void counterReset_isSkipped() {
+        StatsPipeline pipeline = new StatsPipeline();
+        pipeline.onStatsDelivered(callReport(1000000, 500000, 100, 1, 100, 0, 0.05));
+        pipeline.onStatsDelivered(callReport(2000000, 1000, 10, 0.1, 10, 0, 0.05));
+
+        assertEquals(0, pipeline.getHistory(StatsMetric.OUTBOUND_VIDEO_BITRATE_BPS).size());
+    }
+
+    @Test
+    public void subscribers_receiveOnlyTheirMetrics() {
+        StatsPipeline pipeline = new StatsPipeline();
+        final List<StatsMetric> received = new ArrayList<>();
+        StatsPipeline.MetricListener listener = new StatsPipeline.MetricListener() {
+            @Override
+            public void onMetric(StatsMetric metric, long timestampMs, double value) {
+                received.add(metric);
+            }
+        };
+        pipeline.subscribe(StatsMetric.ROUND_TRIP_TIME_MS, listener);
+        pipeline.onStatsDelivered(callReport(1000000, 0, 0, 0, 0, 0, 0.05));
+        pipeline.onStatsDelivered(callReport(2000000, 1000, 30, 0.1, 50, 0, 0.05));
+        assertEquals(2, received.size());
+        assertEquals(StatsMetric.ROUND_TRIP_TIME_MS, received.get(0));
+
+        pipeline.unsubscribe(listener);
+        pipeline.onStatsDelivered(callReport(3000000, 2000, 60, 0.2, 100, 0, 0.05));
+        assertEquals(2, received.size());
+    }
+
+    @Test
+    public void ringBuffer_keepsNewestSamples() {
+        MetricRingBuffer buffer = new MetricRingBuffer(3);
+        assertTrue(Double.isNaN(buffer.getLatest()));
+        for (int i = 1; i <= 5; i++) {
+            buffer.add(i * 1000, i);
+        }
+
+        assertEquals(3, buffer.size());
+        assertEquals(3, buffer.getValue(0), DELTA);
+        assertEquals(3000, buffer.getTimestampMs(0));
+        assertEquals(5, buffer.getLatest(), DELTA);
+        assertEquals(4.5, buffer.getAverage(2), DELTA);
+        assertEquals(4, buffer.getAverage(10), DELTA);
+    }
+}
@@ -0,0 +1,133 @@
+package com.iottive.webrtc.websocket.video;
+
+import org.junit.Test;
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoSink;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncVideoSinkTest {
+    // Blocks on the first frame until opened, records the timestamps it handled.
+    private static class GatedSink implements VideoSink {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<Long> timestamps = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onFrame(VideoFrame frame) {
+            entered.countDown();
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            timestamps.add(frame.getTimestampNs());
+        }
+    }
+
+    private static void waitForDelivered(AsyncVideoSink sink, long frames) throws Exception {
+        long deadlineMs = System.currentTimeMillis() + 5000;
+        while (sink.getDeliveredFrames() < frames && System.currentTimeMillis() < deadlineMs) {
+            Thread.sleep(5);
+        }
+        assertEquals(frames, sink.getDeliveredFrames());
+    }
+
+    private List<Long> runStalledSink(AsyncVideoSink.DropPolicy policy,
+                                      VideoFrameRouterTest.CountingBuffer buffer) throws Exception {
+        GatedSink slow = new GatedSink();
+        AsyncVideoSink sink = new AsyncVideoSink(slow, "test", 2, policy);
+        sink.onFrame(new VideoFrame(buffer, 0, 0));
+        assertTrue(slow.entered.await(5, TimeUnit.SECONDS));
+        // The sink is stuck on frame 0, the delivering thread is not.
+        for (long i = 1; i <= 5; i++) {
+            sink.onFrame(new VideoFrame(buffer, 0, i));
+        }
+        assertEquals(2, sink.getQueueDepth());
+        assertEquals(3, sink.getDroppedFrames());
+
+        slow.gate.countDown();
+        waitForDelivered(sink, 3);
+        assertEquals(2, sink.getMaxQueueDepth());
+        sink.release();
+        return slow.timestamps;
+    }
+
+    @Test
+    public void dropOldest_keepsLatestFrames() throws Exception {
+        VideoFrameRouterTest.CountingBuffer buffer = new VideoFrameRouterTest.CountingBuffer();
+        List<Long> timestamps = runStalledSink(AsyncVideoSink.DropPolicy.DROP_OLDEST, buffer);
+        assertEquals(Arrays.asList(0L, 4L, 5L), timestamps);
+        assertEquals(1, buffer.refCount.get());
+    }
+
+    @Test
+    public void dropNewest_keepsQueuedFrames() throws Exception {
+        VideoFrameRouterTest.CountingBuffer buffer = new VideoFrameRouterTest.CountingBuffer();
+        List<Long> timestamps = runStalledSink(AsyncVideoSink.DropPolicy.DROP_NEWEST, buffer);
+        assertEquals(Arrays.asList(0L, 1L, 2L), timestamps);
+        assertEquals(1, buffer.refCount.get());
+    }
+
+    @Test
+    public void release_returnsQueuedFrames() throws Exception {
+        GatedSink slow = new GatedSink();
+        AsyncVideoSink sink =
+                new AsyncVideoSink(slow, "test", 4, AsyncVideoSink.DropPolicy.DROP_OLDEST);
+        VideoFrameRouterTest.CountingBuffer buffer = new VideoFrameRouterTest.CountingBuffer();
+        sink.onFrame(new VideoFrame(buffer, 0, 0));
+        assertTrue(slow.entered.await(5, TimeUnit.SECONDS));
+        sink.onFrame(new VideoFrame(buffer, 0, 1));
+        sink.onFrame(new VideoFrame(buffer, 0, 2));
+
+        sink.release();
+        sink.onFrame(new VideoFrame(buffer, 0, 3));
+        assertEquals(0, sink.getQueueDepth());
+        slow.gate.countDown();
+        waitForDelivered(sink, 1);
+        assertEquals(1, buffer.refCount.get());
+    }
+
+    @Test
+    public void framesInFlight_holdBackUntilDerivedBuffersAreReleased() throws Exception {
+        // Keeps a scaled copy of each frame like VideoFileRenderer, released later.
+        final List<VideoFrame.Buffer> held = new CopyOnWriteArrayList<>();
+        VideoSink deferred =
+                frame -> held.add(frame.getBuffer().cropAndScale(0, 0, 640, 360, 320, 180));
+        AsyncVideoSink sink =
+                new AsyncVideoSink(deferred, "test", 2, 1, AsyncVideoSink.DropPolicy.DROP_OLDEST);
+        VideoFrameRouterTest.CountingBuffer buffer = new VideoFrameRouterTest.CountingBuffer() {
+            @Override
+            public VideoFrame.Buffer cropAndScale(int cropX, int cropY, int cropWidth,
+                                                  int cropHeight, int scaleWidth, int scaleHeight) {
+                retain();
+                return this;
+            }
+        };
+        sink.onFrame(new VideoFrame(buffer, 0, 0));
+        waitForDelivered(sink, 1);
+        for (long i = 1; i <= 3; i++) {
+            sink.onFrame(new VideoFrame(buffer, 0, i));
+        }
+        assertEquals(1, sink.getFramesInFlight());
+        assertEquals(2, sink.getQueueDepth());
+        assertEquals(1, sink.getDroppedFrames());
+        assertEquals(1, sink.getDeliveredFrames());
+
+        held.get(0).release();
+        waitForDelivered(sink, 2);
+        held.get(1).release();
+        waitForDelivered(sink, 3);
+        held.get(2).release();
+        assertEquals(0, sink.getFramesInFlight());
+        assertEquals(0, sink.getQueueDepth());
+        sink.release();
+        assertEquals(1, buffer.refCount.get());
+    }
+}
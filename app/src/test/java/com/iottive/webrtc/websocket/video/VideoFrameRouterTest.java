@@ -0,0 +1,157 @@
+package com.iottive.webrtc.websocket.video;
+
+import org.junit.Test;
+import org.webrtc.VideoFrame;
+import org.webrtc.VideoSink;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class VideoFrameRouterTest {
+    // Buffer that only tracks its reference count.
+    static class CountingBuffer implements VideoFrame.Buffer {
+        final AtomicInteger refCount = new AtomicInteger(1);
+        final AtomicInteger maxRefCount = new AtomicInteger(1);
+
+        @Override
+        public int getWidth() {
+            return 640;
+        }
+
+        @Override
+        public int getHeight() {
+            return 360;
+        }
+
+        @Override
+        public VideoFrame.I420Buffer toI420() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public VideoFrame.Buffer cropAndScale(int cropX, int cropY, int cropWidth, int cropHeight,
+                                              int scaleWidth, int scaleHeight) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void retain() {
+            int count = refCount.incrementAndGet();
+            maxRefCount.accumulateAndGet(count, Math::max);
+        }
+
+        @Override
+        public void release() {
+            if (refCount.decrementAndGet() < 0) {
+                throw new IllegalStateException("Released too often");
+            }
+        }
+    }
+
+    static class RecordingSink implements VideoSink {
+        final List<VideoFrame> frames = new ArrayList<>();
+
+        @Override
+        public void onFrame(VideoFrame frame) {
+            frames.add(frame);
+        }
+    }
+
+    @Test
+    public void frames_reachTargetAndSinksWithoutCopies() {
+        VideoFrameRouter router = new VideoFrameRouter();
+        RecordingSink target = new RecordingSink();
+        RecordingSink recorder = new RecordingSink();
+        router.setTarget(target);
+        router.addSink(recorder);
+
+        CountingBuffer buffer = new CountingBuffer();
+        VideoFrame frame = new VideoFrame(buffer, 0, 1);
+        router.onFrame(frame);
+
+        assertSame(frame, target.frames.get(0));
+        assertSame(frame, recorder.frames.get(0));
+        // Retained for each sink while it runs, all references returned afterwards.
+        assertEquals(2, buffer.maxRefCount.get());
+        assertEquals(1, buffer.refCount.get());
+        assertEquals(1, router.getTargetRoute().getDeliveredFrames());
+        assertEquals(1, router.getRoute(recorder).getDeliveredFrames());
+    }
+
+    @Test
+    public void droppedFrames_areCountedPerSink() {
+        VideoFrameRouter router = new VideoFrameRouter();
+        RecordingSink healthy = new RecordingSink();
+        VideoSink failing = frame -> {
+            throw new IllegalStateException("Renderer released");
+        };
+        router.addSink(failing);
+        router.addSink(healthy);
+        VideoFrameRouter.Route paused = router.addSink(new RecordingSink());
+        paused.setEnabled(false);
+
+        CountingBuffer buffer = new CountingBuffer();
+        for (int i = 0; i < 3; i++) {
+            router.onFrame(new VideoFrame(buffer, 0, i));
+        }
+
+        assertEquals(3, router.getTargetlessFrames());
+        assertEquals(3, router.getRoute(failing).getDroppedFrames());
+        assertEquals(3, router.getRoute(healthy).getDeliveredFrames());
+        assertEquals(3, paused.getDroppedFrames());
+        assertEquals(1, buffer.refCount.get());
+    }
+
+    @Test
+    public void sink_canRemoveItselfDuringDelivery() {
+        final VideoFrameRouter router = new VideoFrameRouter();
+        final AtomicInteger calls = new AtomicInteger();
+        router.addSink(new VideoSink() {
+            @Override
+            public void onFrame(VideoFrame frame) {
+                calls.incrementAndGet();
+                router.removeSink(this);
+            }
+        });
+        CountingBuffer buffer = new CountingBuffer();
+        router.onFrame(new VideoFrame(buffer, 0, 0));
+        router.onFrame(new VideoFrame(buffer, 0, 1));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void targetSwaps_doNotBlockDelivery() throws Exception {
+        final VideoFrameRouter router = new VideoFrameRouter();
+        final RecordingSink first = new RecordingSink();
+        final RecordingSink second = new RecordingSink();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch started = new CountDownLatch(1);
+        Thread swapper = new Thread(() -> {
+            started.countDown();
+            boolean swapped = false;
+            while (running.get()) {
+                router.setTarget(swapped ? first : second);
+                swapped = !swapped;
+            }
+        });
+        swapper.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        CountingBuffer buffer = new CountingBuffer();
+        for (int i = 0; i < 10000; i++) {
+            router.onFrame(new VideoFrame(buffer, 0, i));
+        }
+        running.set(false);
+        swapper.join();
+
+        assertEquals(10000, first.frames.size() + second.frames.size()
+                + router.getTargetlessFrames());
+        assertEquals(1, buffer.refCount.get());
+    }
+}